@@ -0,0 +1,80 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import cc.mallet.pipe.*;
+import cc.mallet.pipe.iterator.FileIterator;
+import cc.mallet.types.*;
+
+/**
+ * <code>Alphabet.lookupIndex</code> on the tokens of the bundled
+ *  <code>sample-data/web</code> documents, either looking up words that
+ *  are already present or building a new alphabet from scratch, as
+ *  happens when importing data.
+ */
+
+public class AlphabetBenchmark extends Benchmark {
+
+	boolean growing;
+
+	String[] tokens;
+	Alphabet alphabet;
+
+	public AlphabetBenchmark (boolean growing) {
+		this.growing = growing;
+		parameters.put("mode", growing ? "grow" : "lookup");
+	}
+
+	public String getName () { return "Alphabet.lookupIndex"; }
+	public String getOperation () { return "token"; }
+
+	public void setUp (File sampleData) {
+		InstanceList instances =
+			new InstanceList(new SerialPipes(new Pipe[] {
+						new Input2CharSequence(),
+						new CharSequence2TokenSequence(),
+						new TokenSequenceLowercase() }));
+		instances.addThruPipe(new FileIterator(new File[] { new File(sampleData, "web") },
+											   FileIterator.STARTING_DIRECTORIES, true));
+
+		ArrayList<String> tokenList = new ArrayList<String>();
+		for (Instance instance : instances) {
+			TokenSequence tokenSequence = (TokenSequence) instance.getData();
+			for (int i = 0; i < tokenSequence.size(); i++) {
+				tokenList.add(tokenSequence.get(i).getText());
+			}
+		}
+
+		if (tokenList.size() == 0) {
+			throw new IllegalStateException("No tokens found in " + new File(sampleData, "web"));
+		}
+		tokens = tokenList.toArray(new String[tokenList.size()]);
+
+		alphabet = new Alphabet();
+		for (int i = 0; i < tokens.length; i++) {
+			alphabet.lookupIndex(tokens[i]);
+		}
+	}
+
+	public int getOperationsPerRun () {
+		return tokens.length;
+	}
+
+	public double run () {
+		Alphabet target = growing ? new Alphabet() : alphabet;
+		long sum = 0;
+		for (int i = 0; i < tokens.length; i++) {
+			sum += target.lookupIndex(tokens[i], growing);
+		}
+		return sum;
+	}
+
+}
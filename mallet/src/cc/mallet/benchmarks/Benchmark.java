@@ -0,0 +1,46 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.benchmarks;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A micro-benchmark of one kernel. {@link BenchmarkRunner} calls
+ *  <code>setUp</code> once, then calls <code>run</code> repeatedly and
+ *  reports the average time per operation.
+ */
+
+public abstract class Benchmark {
+
+	protected Map<String,String> parameters = new LinkedHashMap<String,String>();
+
+	/** The name under which results are reported, such as "SumLattice". */
+	public abstract String getName ();
+
+	/** Settings that distinguish variants of the same benchmark */
+	public Map<String,String> getParameters () { return parameters; }
+
+	/** Build the data and models used by <code>run</code>.
+	 *  @param sampleData the directory of the bundled sample data */
+	public abstract void setUp (File sampleData) throws Exception;
+
+	/**
+	 *  Perform <code>getOperationsPerRun()</code> operations. The return
+	 *   value should depend on the work done, so that the JIT cannot
+	 *   remove it as dead code.
+	 */
+	public abstract double run ();
+
+	public int getOperationsPerRun () { return 1; }
+
+	/** A description of one operation, such as "dot product" */
+	public abstract String getOperation ();
+
+}
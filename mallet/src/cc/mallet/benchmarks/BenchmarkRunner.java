@@ -0,0 +1,240 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.benchmarks;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import cc.mallet.fst.SumLatticeCRF;
+import cc.mallet.util.CommandOption;
+
+/**
+ * Runs the {@link Benchmark}s and writes their average time per operation
+ *  as JSON, so that results can be tracked across releases.
+ * <p>
+ * Each benchmark is set up once, then run for a number of timed warm-up
+ *  iterations (to let the JIT compile the kernel) followed by measured
+ *  iterations. An iteration calls <code>run()</code> until at least
+ *  <code>--iteration-time</code> milliseconds have passed. The score is
+ *  the mean over measured iterations of nanoseconds per operation.
+ * <p>
+ * The output has one object per benchmark, with the same field names
+ *  as JMH's JSON results (<code>benchmark</code>, <code>mode</code>,
+ *  <code>params</code>, <code>primaryMetric.score</code>,
+ *  <code>scoreError</code>, <code>scoreUnit</code>, <code>rawData</code>),
+ *  where <code>scoreError</code> is the half-width of a 99.9% confidence
+ *  interval.
+ */
+
+public class BenchmarkRunner {
+
+	static CommandOption.String benchmarkPattern = new CommandOption.String
+		(BenchmarkRunner.class, "benchmarks", "REGEX", true, ".*",
+		 "Run only benchmarks whose name matches this regular expression.", null);
+
+	static CommandOption.Integer warmupIterations = new CommandOption.Integer
+		(BenchmarkRunner.class, "warmup-iterations", "INTEGER", true, 5,
+		 "The number of unmeasured iterations before measuring.", null);
+
+	static CommandOption.Integer measuredIterations = new CommandOption.Integer
+		(BenchmarkRunner.class, "iterations", "INTEGER", true, 10,
+		 "The number of measured iterations.", null);
+
+	static CommandOption.Integer iterationMillis = new CommandOption.Integer
+		(BenchmarkRunner.class, "iteration-time", "INTEGER", true, 1000,
+		 "The minimum length of each iteration, in milliseconds.", null);
+
+	static CommandOption.String sampleDataDirectory = new CommandOption.String
+		(BenchmarkRunner.class, "sample-data", "DIRECTORY", true, "sample-data",
+		 "The directory of the bundled sample data.", null);
+
+	static CommandOption.String outputFile = new CommandOption.String
+		(BenchmarkRunner.class, "output", "FILENAME", true, null,
+		 "The file in which to write results as JSON.  By default, results are only printed.", null);
+
+	// Results of run() are accumulated here so that they can't be optimized away
+	static volatile double sink = 0.0;
+
+	/** All benchmarks, in the order they are run */
+	public static ArrayList<Benchmark> getBenchmarks () {
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new SparseVectorBenchmark(false));
+		benchmarks.add(new SparseVectorBenchmark(true));
+		benchmarks.add(new AlphabetBenchmark(false));
+		benchmarks.add(new AlphabetBenchmark(true));
+		benchmarks.add(new LatticeBenchmark(false));
+		benchmarks.add(new LatticeBenchmark(new SumLatticeCRF.Factory()));
+		benchmarks.add(new LatticeBenchmark(true));
+		// First- and zero-order weights, as used for named-entity tagging
+		benchmarks.add(new LatticeBenchmark(false).setOrders(new int[] { 0, 1 }));
+		benchmarks.add(new LatticeBenchmark(true).setOrders(new int[] { 0, 1 }));
+		benchmarks.add(new TopicSamplingBenchmark(100, false));
+		benchmarks.add(new TopicSamplingBenchmark(1000, false));
+		benchmarks.add(new TopicSamplingBenchmark(1000, true));
+		String[] methods = { RandomsBenchmark.UNIFORM, RandomsBenchmark.DISCRETE,
+							 RandomsBenchmark.GAMMA, RandomsBenchmark.GAUSSIAN };
+		for (int i = 0; i < methods.length; i++) {
+			benchmarks.add(new RandomsBenchmark(false, methods[i]));
+			benchmarks.add(new RandomsBenchmark(true, methods[i]));
+		}
+		return benchmarks;
+	}
+
+	/** Return the nanoseconds per operation of one iteration */
+	protected static double measure (Benchmark benchmark, long millis) {
+		long operations = 0;
+		double result = 0.0;
+
+		long startTime = System.nanoTime();
+		long endTime = startTime + millis * 1000000L;
+		long now;
+		do {
+			result += benchmark.run();
+			operations += benchmark.getOperationsPerRun();
+			now = System.nanoTime();
+		} while (now < endTime);
+
+		sink += result;
+		return (double) (now - startTime) / operations;
+	}
+
+	public static double mean (double[] values) {
+		double sum = 0.0;
+		for (int i = 0; i < values.length; i++) {
+			sum += values[i];
+		}
+		return sum / values.length;
+	}
+
+	/** Half-width of a 99.9% confidence interval for the mean, using
+	 *   the normal approximation to Student's t for large samples. */
+	public static double confidenceError (double[] values) {
+		if (values.length < 2) { return Double.NaN; }
+		double mean = mean(values);
+		double sumSquares = 0.0;
+		for (int i = 0; i < values.length; i++) {
+			sumSquares += (values[i] - mean) * (values[i] - mean);
+		}
+		double standardError = Math.sqrt(sumSquares / (values.length - 1) / values.length);
+		return studentT999(values.length - 1) * standardError;
+	}
+
+	// Two-sided 99.9% critical values of Student's t for 1..30 degrees of freedom
+	private static final double[] T_999 = {
+		636.62, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+		4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850,
+		3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646 };
+
+	private static double studentT999 (int degreesOfFreedom) {
+		return degreesOfFreedom <= T_999.length ? T_999[degreesOfFreedom - 1] : 3.291;
+	}
+
+	private static String quote (String s) {
+		StringBuilder out = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') { out.append('\\'); }
+			out.append(c);
+		}
+		out.append('"');
+		return out.toString();
+	}
+
+	private static String number (double value) {
+		return Double.isNaN(value) || Double.isInfinite(value) ? "\"NaN\"" : Double.toString(value);
+	}
+
+	protected static void writeResult (PrintWriter out, Benchmark benchmark, double[] scores) {
+		out.println("  {");
+		out.println("    \"benchmark\" : " + quote(benchmark.getName()) + ",");
+		out.println("    \"mode\" : \"avgt\",");
+		out.println("    \"operation\" : " + quote(benchmark.getOperation()) + ",");
+		out.println("    \"warmupIterations\" : " + warmupIterations.value + ",");
+		out.println("    \"measurementIterations\" : " + scores.length + ",");
+		out.println("    \"measurementTime\" : \"" + iterationMillis.value + " ms\",");
+
+		out.print("    \"params\" : {");
+		boolean first = true;
+		for (Map.Entry<String,String> entry : benchmark.getParameters().entrySet()) {
+			out.print((first ? " " : ", ") + quote(entry.getKey()) + " : " + quote(entry.getValue()));
+			first = false;
+		}
+		out.println(" },");
+
+		out.println("    \"primaryMetric\" : {");
+		out.println("      \"score\" : " + number(mean(scores)) + ",");
+		out.println("      \"scoreError\" : " + number(confidenceError(scores)) + ",");
+		out.println("      \"scoreUnit\" : \"ns/op\",");
+		out.print("      \"rawData\" : [ [");
+		for (int i = 0; i < scores.length; i++) {
+			out.print((i == 0 ? " " : ", ") + number(scores[i]));
+		}
+		out.println(" ] ]");
+		out.println("    }");
+		out.print("  }");
+	}
+
+	public static void main (String[] args) throws Exception {
+		CommandOption.setSummary (BenchmarkRunner.class,
+								  "Run micro-benchmarks of performance-critical code and report the time per operation");
+		CommandOption.process (BenchmarkRunner.class, args);
+
+		Pattern pattern = Pattern.compile(benchmarkPattern.value);
+		File sampleData = new File(sampleDataDirectory.value);
+
+		PrintWriter out = null;
+		if (outputFile.value != null) {
+			out = new PrintWriter(new FileWriter(outputFile.value));
+			out.println("[");
+		}
+
+		System.out.println("# " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version") +
+						   ", " + Runtime.getRuntime().availableProcessors() + " processors, " +
+						   new SimpleDateFormat("yyyy-MM-dd HH:mm").format(new Date()));
+
+		int numWritten = 0;
+		for (Benchmark benchmark : getBenchmarks()) {
+			String name = benchmark.getName();
+			if (! pattern.matcher(name).find()) { continue; }
+
+			benchmark.setUp(sampleData);
+
+			for (int iteration = 0; iteration < warmupIterations.value; iteration++) {
+				measure(benchmark, iterationMillis.value);
+			}
+
+			double[] scores = new double[measuredIterations.value];
+			for (int iteration = 0; iteration < scores.length; iteration++) {
+				scores[iteration] = measure(benchmark, iterationMillis.value);
+			}
+
+			System.out.println(String.format("%-28s %-28s %12.2f +- %8.2f ns/%s",
+											 benchmark.getName(), benchmark.getParameters(),
+											 mean(scores), confidenceError(scores),
+											 benchmark.getOperation()));
+
+			if (out != null) {
+				if (numWritten > 0) { out.println(","); }
+				writeResult(out, benchmark, scores);
+				numWritten++;
+				out.flush();
+			}
+		}
+
+		if (out != null) {
+			out.println();
+			out.println("]");
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,137 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.benchmarks;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.regex.Pattern;
+
+import cc.mallet.fst.*;
+import cc.mallet.pipe.Pipe;
+import cc.mallet.pipe.iterator.LineGroupIterator;
+import cc.mallet.types.*;
+import cc.mallet.util.SplittableRandoms;
+
+/**
+ * Forward-backward (<code>SumLatticeDefault</code>) or Viterbi
+ *  (<code>MaxLatticeDefault</code>) over synthetic tagging sentences with
+ *  a fully-connected CRF, briefly trained so that the weights are not
+ *  all zero. With {@link #setOrders} the CRF instead has the given
+ *  Markov orders, as built by <code>addOrderNStates</code>. Each word carries its identity and a suffix-like feature,
+ *  and its label depends on the word and, with some noise, on the
+ *  previous label.
+ */
+
+public class LatticeBenchmark extends Benchmark {
+
+	public static final int NUM_SENTENCES = 300;
+	public static final int SENTENCE_LENGTH = 25;
+	public static final int NUM_WORDS = 2000;
+	public static final int NUM_LABELS = 8;
+
+	boolean viterbi;
+	SumLatticeFactory sumLatticeFactory;
+	int[] orders = null;
+
+	CRF crf;
+	Sequence[] inputs;
+
+	/** Viterbi if <code>viterbi</code> is true, otherwise forward-backward with SumLatticeDefault */
+	public LatticeBenchmark (boolean viterbi) {
+		this(viterbi, viterbi ? null : new SumLatticeDefault.Factory());
+	}
+
+	/** Forward-backward with lattices from the given factory */
+	public LatticeBenchmark (SumLatticeFactory sumLatticeFactory) {
+		this(false, sumLatticeFactory);
+	}
+
+	protected LatticeBenchmark (boolean viterbi, SumLatticeFactory sumLatticeFactory) {
+		this.viterbi = viterbi;
+		this.sumLatticeFactory = sumLatticeFactory;
+		parameters.put("states", Integer.toString(NUM_LABELS));
+		parameters.put("length", Integer.toString(SENTENCE_LENGTH));
+	}
+
+	/** Build the CRF with <code>addOrderNStates</code> and these orders,
+	 *   such as {0, 1}, rather than with fully-connected states. */
+	public LatticeBenchmark setOrders (int[] orders) {
+		this.orders = orders;
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < orders.length; i++) {
+			value.append((i == 0 ? "" : ",") + orders[i]);
+		}
+		parameters.put("orders", value.toString());
+		return this;
+	}
+
+	public String getName () {
+		if (viterbi) { return "MaxLatticeDefault"; }
+		// The factories are nested classes of their lattices
+		return sumLatticeFactory.getClass().getEnclosingClass().getSimpleName();
+	}
+	public String getOperation () { return "sequence"; }
+
+	/** Sentences in the SimpleTagger format: one token per line, features then label. */
+	protected static String generateSentences (SplittableRandoms random) {
+		StringBuilder text = new StringBuilder();
+		for (int sentence = 0; sentence < NUM_SENTENCES; sentence++) {
+			int previousLabel = 0;
+			for (int position = 0; position < SENTENCE_LENGTH; position++) {
+				int word = (int) (NUM_WORDS * Math.pow(random.nextUniform(), 2.0));
+				int label = random.nextUniform() < 0.8 ? word % NUM_LABELS : (previousLabel + 1) % NUM_LABELS;
+				text.append("w" + word + " s" + (word % 50) + " L" + label + "\n");
+				previousLabel = label;
+			}
+			text.append("\n");
+		}
+		return text.toString();
+	}
+
+	public void setUp (File sampleData) {
+		Pipe pipe = new SimpleTagger.SimpleTaggerSentence2FeatureVectorSequence();
+		InstanceList training = new InstanceList(pipe);
+		training.addThruPipe(new LineGroupIterator(new StringReader(generateSentences(new SplittableRandoms(1))),
+												   Pattern.compile("^\\s*$"), true));
+
+		crf = new CRF(pipe, null);
+		if (orders == null) {
+			crf.addFullyConnectedStatesForLabels();
+		}
+		else {
+			crf.addOrderNStates(training, orders, null, null, null, null, true);
+		}
+		crf.setWeightsDimensionAsIn(training, false);
+
+		CRFTrainerByLabelLikelihood trainer = new CRFTrainerByLabelLikelihood(crf);
+		trainer.train(training, 5);
+
+		inputs = new Sequence[training.size()];
+		for (int i = 0; i < inputs.length; i++) {
+			inputs[i] = (Sequence) training.get(i).getData();
+		}
+	}
+
+	public int getOperationsPerRun () {
+		return inputs.length;
+	}
+
+	public double run () {
+		double sum = 0.0;
+		for (int i = 0; i < inputs.length; i++) {
+			if (viterbi) {
+				sum += new MaxLatticeDefault(crf, inputs[i]).bestWeight();
+			}
+			else {
+				sum += sumLatticeFactory.newSumLattice(crf, inputs[i]).getTotalWeight();
+			}
+		}
+		return sum;
+	}
+
+}
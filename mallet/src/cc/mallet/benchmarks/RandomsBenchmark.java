@@ -0,0 +1,73 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.benchmarks;
+
+import java.io.File;
+import java.util.Arrays;
+
+import cc.mallet.util.Randoms;
+import cc.mallet.util.SplittableRandoms;
+
+/**
+ * The common sampling calls of <code>Randoms</code>, either the
+ *  synchronized original or the unsynchronized {@link SplittableRandoms}.
+ */
+
+public class RandomsBenchmark extends Benchmark {
+
+	public static final int CALLS_PER_RUN = 100000;
+
+	public static final String UNIFORM = "nextUniform";
+	public static final String DISCRETE = "nextDiscrete";
+	public static final String GAMMA = "nextGamma";
+	public static final String GAUSSIAN = "nextGaussian";
+
+	boolean splittable;
+	String method;
+
+	Randoms random;
+	double[] multinomial;
+
+	public RandomsBenchmark (boolean splittable, String method) {
+		this.splittable = splittable;
+		this.method = method;
+		parameters.put("generator", splittable ? "SplittableRandoms" : "Randoms");
+		parameters.put("method", method);
+	}
+
+	public String getName () { return "Randoms"; }
+	public String getOperation () { return "call"; }
+
+	public void setUp (File sampleData) {
+		random = splittable ? new SplittableRandoms(1) : new Randoms(1);
+		multinomial = new double[20];
+		Arrays.fill(multinomial, 1.0 / multinomial.length);
+	}
+
+	public int getOperationsPerRun () {
+		return CALLS_PER_RUN;
+	}
+
+	public double run () {
+		double sum = 0.0;
+		if (method.equals(UNIFORM)) {
+			for (int i = 0; i < CALLS_PER_RUN; i++) { sum += random.nextUniform(); }
+		}
+		else if (method.equals(DISCRETE)) {
+			for (int i = 0; i < CALLS_PER_RUN; i++) { sum += random.nextDiscrete(multinomial); }
+		}
+		else if (method.equals(GAMMA)) {
+			for (int i = 0; i < CALLS_PER_RUN; i++) { sum += random.nextGamma(2.5); }
+		}
+		else {
+			for (int i = 0; i < CALLS_PER_RUN; i++) { sum += random.nextGaussian(); }
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,83 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.benchmarks;
+
+import java.io.File;
+
+import cc.mallet.pipe.*;
+import cc.mallet.pipe.iterator.RandomTokenSequenceIterator;
+import cc.mallet.types.*;
+import cc.mallet.util.SplittableRandoms;
+
+/**
+ * <code>SparseVector.dotProduct</code> between pairs of random bag-of-words
+ *  feature vectors, or between a feature vector and a dense weight vector
+ *  as in MaxEnt and CRF scoring.
+ */
+
+public class SparseVectorBenchmark extends Benchmark {
+
+	public static final int VOCABULARY_SIZE = 20000;
+	public static final int NUM_CLASSES = 10;
+
+	boolean dense;
+
+	FeatureVector[] vectors;
+	double[] weights;
+	DenseVector denseWeights;
+
+	public SparseVectorBenchmark (boolean dense) {
+		this.dense = dense;
+		parameters.put("other", dense ? "dense" : "sparse");
+	}
+
+	public String getName () { return "SparseVector.dotProduct"; }
+	public String getOperation () { return "dot product"; }
+
+	public void setUp (File sampleData) {
+		SplittableRandoms random = new SplittableRandoms(1);
+
+		Alphabet vocabulary = new Alphabet();
+		InstanceList instances =
+			new InstanceList(new SerialPipes(new Pipe[] {
+						new TokenSequence2FeatureSequence(vocabulary),
+						new FeatureSequence2FeatureVector() }));
+		instances.addThruPipe(new RandomTokenSequenceIterator(random, VOCABULARY_SIZE, NUM_CLASSES));
+
+		vectors = new FeatureVector[instances.size()];
+		for (int i = 0; i < vectors.length; i++) {
+			vectors[i] = (FeatureVector) instances.get(i).getData();
+		}
+
+		weights = new double[VOCABULARY_SIZE];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = random.nextGaussian();
+		}
+		denseWeights = new DenseVector(weights, false);
+	}
+
+	public int getOperationsPerRun () {
+		return vectors.length;
+	}
+
+	public double run () {
+		double sum = 0.0;
+		if (dense) {
+			for (int i = 0; i < vectors.length; i++) {
+				sum += vectors[i].dotProduct(denseWeights);
+			}
+		}
+		else {
+			for (int i = 0; i < vectors.length; i++) {
+				sum += vectors[i].dotProduct(vectors[(i + 1) % vectors.length]);
+			}
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,119 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.benchmarks;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.logging.Level;
+
+import cc.mallet.pipe.*;
+import cc.mallet.pipe.iterator.RandomTokenSequenceIterator;
+import cc.mallet.topics.*;
+import cc.mallet.types.*;
+import cc.mallet.util.MalletLogger;
+import cc.mallet.util.SplittableRandoms;
+
+/**
+ * One Gibbs sampling sweep of a single-threaded <code>WorkerRunnable</code>
+ *  (SparseLDA) or <code>AliasWorkerRunnable</code> over a synthetic corpus
+ *  from <code>RandomTokenSequenceIterator</code>. Results are reported per
+ *  token, so they can be compared across corpus sizes.
+ */
+
+public class TopicSamplingBenchmark extends Benchmark {
+
+	public static final int VOCABULARY_SIZE = 10000;
+	public static final int NUM_CLASSES = 20;
+	public static final int DOCUMENT_LENGTH = 200;
+	public static final int DOCUMENTS_PER_CLASS = 50;
+
+	boolean alias;
+	int numTopics;
+
+	WorkerRunnable runnable;
+	ParallelTopicModel model;
+	int numTokens;
+
+	public TopicSamplingBenchmark (int numTopics, boolean alias) {
+		this.numTopics = numTopics;
+		this.alias = alias;
+		parameters.put("sampler", alias ? "alias" : "sparse");
+		parameters.put("topics", Integer.toString(numTopics));
+	}
+
+	public String getName () { return "WorkerRunnable.run"; }
+	public String getOperation () { return "token"; }
+
+	public void setUp (File sampleData) {
+		SplittableRandoms random = new SplittableRandoms(1);
+
+		InstanceList instances =
+			new InstanceList(new TokenSequence2FeatureSequence(new Alphabet()));
+		instances.addThruPipe(new RandomTokenSequenceIterator(random,
+															   new Dirichlet(dictionary(), 2.0),
+															   30, 0, DOCUMENT_LENGTH,
+															   DOCUMENTS_PER_CLASS, classNames()));
+
+		Level level = MalletLogger.getLogger(ParallelTopicModel.class.getName()).getLevel();
+		MalletLogger.getLogger(ParallelTopicModel.class.getName()).setLevel(Level.WARNING);
+
+		model = new ParallelTopicModel(numTopics, 50.0, ParallelTopicModel.DEFAULT_BETA);
+		model.setRandomSeed(1);
+		model.addInstances(instances);
+
+		MalletLogger.getLogger(ParallelTopicModel.class.getName()).setLevel(level);
+
+		double[] alpha = new double[numTopics];
+		Arrays.fill(alpha, 50.0 / numTopics);
+
+		if (alias) {
+			runnable = new AliasWorkerRunnable(numTopics, alpha, 50.0, ParallelTopicModel.DEFAULT_BETA,
+											   random.split(), model.getData(),
+											   model.getTypeTopicCounts(), model.getTokensPerTopic(),
+											   0, model.getData().size());
+		}
+		else {
+			runnable = new WorkerRunnable(numTopics, alpha, 50.0, ParallelTopicModel.DEFAULT_BETA,
+										  random.split(), model.getData(),
+										  model.getTypeTopicCounts(), model.getTokensPerTopic(),
+										  0, model.getData().size());
+		}
+		runnable.makeOnlyThread();
+
+		numTokens = 0;
+		for (TopicAssignment document : model.getData()) {
+			numTokens += document.topicSequence.getLength();
+		}
+	}
+
+	private static Alphabet dictionary () {
+		Alphabet dictionary = new Alphabet();
+		for (int i = 0; i < VOCABULARY_SIZE; i++) {
+			dictionary.lookupIndex("word" + i);
+		}
+		return dictionary;
+	}
+
+	private static String[] classNames () {
+		String[] names = new String[NUM_CLASSES];
+		for (int i = 0; i < NUM_CLASSES; i++) {
+			names[i] = "class" + i;
+		}
+		return names;
+	}
+
+	public int getOperationsPerRun () {
+		return numTokens;
+	}
+
+	public double run () {
+		runnable.run();
+		return model.getTokensPerTopic()[0];
+	}
+
+}
@@ -7,11 +7,15 @@
 
 package cc.mallet.classify;
 
+import java.util.ArrayList;
 import java.util.Random;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.logging.*;
 
 import cc.mallet.types.*;
+import cc.mallet.util.DaemonThreadPool;
 import cc.mallet.util.MalletLogger;
 import cc.mallet.util.Maths;
 
@@ -24,6 +28,10 @@ import cc.mallet.util.Maths;
  * In Journal of Machine Learning: Proceedings of the 13th International Conference, 1996
  * http://www.cs.princeton.edu/~schapire/papers/FreundSc96b.ps.Z
  *
+ * <p>Rounds depend on each other and run in sequence, but within a round the
+ * weak learner's pseudo-loss terms are computed by <code>numThreads</code>
+ * threads and then summed in instance order.
+ *
  * @author Gary Huang <a href="mailto:ghuang@cs.umass.edu">ghuang@cs.umass.edu</a>
  */
 public class AdaBoostM2Trainer extends ClassifierTrainer<AdaBoostM2>
@@ -33,6 +41,9 @@ public class AdaBoostM2Trainer extends ClassifierTrainer<AdaBoostM2>
 
 	ClassifierTrainer weakLearner;
 	int numRounds;
+	// threads for evaluating weak learners
+	DaemonThreadPool threadPool = new DaemonThreadPool ("AdaBoostM2Trainer", 1);
+	Integer randomSeed = null;
 	
 	AdaBoostM2 classifier;
 	public AdaBoostM2 getClassifier () { return classifier; }
@@ -52,6 +63,27 @@ public class AdaBoostM2Trainer extends ClassifierTrainer<AdaBoostM2>
 		this (weakLearner, 100);
 	}
 
+	public int getNumThreads () { return threadPool.getNumThreads(); }
+
+	/** Sets the number of threads used to evaluate each round's weak learner.
+	 * Call {@link #shutdown()} when finished training. */
+	public AdaBoostM2Trainer setNumThreads (int numThreads) {
+		threadPool.setNumThreads (numThreads);
+		return this;
+	}
+
+	/** Stops the threads used to evaluate weak learners.  They are started again if
+	 * another model is trained with several threads. */
+	public void shutdown () {
+		threadPool.shutdown();
+	}
+
+	/** Seeds the weighted resampling, making training reproducible. */
+	public AdaBoostM2Trainer setRandomSeed (int randomSeed) {
+		this.randomSeed = randomSeed;
+		return this;
+	}
+
 	/**
 	 * Boosting method that resamples instances using their weights
 	 */    
@@ -86,10 +118,11 @@ public class AdaBoostM2Trainer extends ClassifierTrainer<AdaBoostM2>
 				}
 			}
 		}
-		java.util.Random random = new java.util.Random();
+		java.util.Random random = randomSeed == null ? new java.util.Random() : new java.util.Random(randomSeed);
 		Classifier[] weakLearners = new Classifier[numRounds];
 		double[] classifierWeights = new double[numRounds];
 		double[] exponents = new double[weights.length];
+		double[] losses = new double[weights.length];
 		int[] instIndices = new int[weights.length];
 		for (int i = 0; i < instIndices.length; i++)
 			instIndices[i] = i;
@@ -111,14 +144,9 @@ public class AdaBoostM2Trainer extends ClassifierTrainer<AdaBoostM2>
 				}
 				weakLearners[round] = weakLearner.train(roundTrainingInsts);
 				// Calculate the pseudo-loss of weak learner
-				for (int i = 0; i < trainingInsts.size(); i++) {
-					Instance inst = trainingInsts.get(i);
-					Classification c = weakLearners[round].classify(inst);
-					double htCorrect = c.valueOfCorrectLabel();
-					double htWrong = c.getLabeling().value(classIndices[i]);
-					epsilon += weights[i] * (1 - htCorrect + htWrong);
-					exponents[i] = 1 + htCorrect - htWrong;
-				}
+				evaluate (weakLearners[round], trainingInsts, classIndices, losses, exponents);
+				for (int i = 0; i < losses.length; i++)
+					epsilon += weights[i] * losses[i];
 				epsilon *= 0.5;
 				resamplingIterations++;
 			}
@@ -160,6 +188,51 @@ public class AdaBoostM2Trainer extends ClassifierTrainer<AdaBoostM2>
 		return classifier;
 	}
 
+	// Fills in each instance's unweighted pseudo-loss term and weight-update
+	// exponent for the given weak learner
+	private void evaluate (Classifier weakLearner, InstanceList trainingInsts, int[] classIndices,
+												 double[] losses, double[] exponents)
+	{
+		int threads = Math.min (getNumThreads(), trainingInsts.size());
+		if (threads <= 1) {
+			new EvaluationTask (0, 1, weakLearner, trainingInsts, classIndices, losses, exponents).call();
+			return;
+		}
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(threads);
+		for (int thread = 0; thread < threads; thread++)
+			tasks.add (new EvaluationTask (thread, threads, weakLearner, trainingInsts, classIndices, losses, exponents));
+		threadPool.invokeAll (tasks);
+	}
+
+	private static class EvaluationTask implements Callable<Object> {
+		int thread, numTasks;
+		Classifier weakLearner;
+		InstanceList trainingInsts;
+		int[] classIndices;
+		double[] losses, exponents;
+
+		EvaluationTask (int thread, int numTasks, Classifier weakLearner, InstanceList trainingInsts,
+										int[] classIndices, double[] losses, double[] exponents) {
+			this.thread = thread;
+			this.numTasks = numTasks;
+			this.weakLearner = weakLearner;
+			this.trainingInsts = trainingInsts;
+			this.classIndices = classIndices;
+			this.losses = losses;
+			this.exponents = exponents;
+		}
+
+		public Object call () {
+			for (int i = thread; i < trainingInsts.size(); i += numTasks) {
+				Classification c = weakLearner.classify(trainingInsts.get(i));
+				double htCorrect = c.valueOfCorrectLabel();
+				double htWrong = c.getLabeling().value(classIndices[i]);
+				losses[i] = 1 - htCorrect + htWrong;
+				exponents[i] = 1 + htCorrect - htWrong;
+			}
+			return null;
+		}
+	}
 
 	// returns an array of ints of the same size as data,
 	// where the the samples are randomly chosen from data
@@ -11,10 +11,22 @@
 
 package cc.mallet.classify;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
 import cc.mallet.types.*;
+import cc.mallet.util.DaemonThreadPool;
+import cc.mallet.util.Randoms;
 /**
 	 Bagging Trainer.
 
+	 The bags are independent of each other, so with {@link #setNumThreads}
+	 their base classifiers are trained concurrently.  Each bag is drawn
+	 with its own {@link Randoms}, seeded from a master generator, so the
+	 trained ensemble depends only on the random seed and not on the number
+	 of threads or the order in which bags finish.
+
    @author Andrew McCallum <a href="mailto:mccallum@cs.umass.edu">mccallum@cs.umass.edu</a>
  */
 
@@ -22,9 +34,33 @@ public class BaggingTrainer extends ClassifierTrainer<BaggingClassifier>
 {
 	ClassifierTrainer.Factory underlyingTrainer;
 	int numBags;
+	// threads for training bags
+	DaemonThreadPool threadPool = new DaemonThreadPool ("BaggingTrainer", 1);
+	Integer randomSeed = null;
 	BaggingClassifier classifier;
 	public BaggingClassifier getClassifier () { return classifier; }
 
+	public int getNumThreads () { return threadPool.getNumThreads(); }
+
+	/** Sets the number of bags trained at once.  Underlying trainers must not share mutable state.
+	 * Call {@link #shutdown()} when finished training. */
+	public BaggingTrainer setNumThreads (int numThreads) {
+		threadPool.setNumThreads (numThreads);
+		return this;
+	}
+
+	/** Stops the threads used to train bags.  They are started again if
+	 * another model is trained with several threads. */
+	public void shutdown () {
+		threadPool.shutdown();
+	}
+
+	/** Seeds the bag sampling, making training reproducible. */
+	public BaggingTrainer setRandomSeed (int randomSeed) {
+		this.randomSeed = randomSeed;
+		return this;
+	}
+
 	public BaggingTrainer (ClassifierTrainer.Factory underlyingTrainerFactory, int numBags)
 	{
 		this.underlyingTrainer = underlyingTrainerFactory;
@@ -39,13 +75,47 @@ public class BaggingTrainer extends ClassifierTrainer<BaggingClassifier>
 	public BaggingClassifier train (InstanceList trainingList)
 	{
 		Classifier[] classifiers = new Classifier[numBags];
-		java.util.Random r = new java.util.Random ();
-		for (int round = 0; round < numBags; round++) {
-			InstanceList bag = trainingList.sampleWithReplacement (r, trainingList.size());
-			classifiers[round] = underlyingTrainer.newClassifierTrainer().train (bag);
+		java.util.Random r = randomSeed == null ? new java.util.Random () : new java.util.Random (randomSeed);
+		// Seeds and trainers are handed out in bag order, before any training starts
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numBags);
+		for (int round = 0; round < numBags; round++)
+			tasks.add (new BagTask (round, r.nextInt(), underlyingTrainer.newClassifierTrainer(),
+															trainingList, classifiers));
+		int threads = Math.min (getNumThreads(), numBags);
+		if (threads <= 1) {
+			for (Callable<Object> task : tasks) {
+				try {
+					task.call();
+				} catch (Exception e) {
+					throw new IllegalStateException (e);
+				}
+			}
+		} else {
+			threadPool.invokeAll (tasks);
 		}
 		this.classifier = new BaggingClassifier (trainingList.getPipe(), classifiers);
 		return classifier;
 	}
 
+	private static class BagTask implements Callable<Object> {
+		int round, seed;
+		ClassifierTrainer trainer;
+		InstanceList trainingList;
+		Classifier[] classifiers;
+
+		BagTask (int round, int seed, ClassifierTrainer trainer, InstanceList trainingList, Classifier[] classifiers) {
+			this.round = round;
+			this.seed = seed;
+			this.trainer = trainer;
+			this.trainingList = trainingList;
+			this.classifiers = classifiers;
+		}
+
+		public Object call () {
+			InstanceList bag = trainingList.sampleWithReplacement (new Randoms (seed), trainingList.size());
+			classifiers[round] = trainer.train (bag);
+			return null;
+		}
+	}
+
 }
@@ -15,6 +15,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Logger;
 
 import cc.mallet.classify.Boostable;
@@ -113,6 +114,12 @@ public class C45 extends Classifier implements Boostable, Serializable
 		// mininum number of instances allowed in this node
 		int m_minNumInsts;
 		Node m_parent, m_leftChild, m_rightChild;
+		// pre-binned feature values, if split points are only looked for between bins
+		transient GainRatio.FeatureBins m_bins;
+		// number of threads among which the features are divided when finding split points
+		transient int m_numThreads = 1;
+		// runs those threads; null for one thread
+		transient ExecutorService m_executor;
 		
 		public Node(InstanceList ilist, Node parent, int minNumInsts)
 		{
@@ -120,19 +127,28 @@ public class C45 extends Classifier implements Boostable, Serializable
 		}
 		
 		public Node(InstanceList ilist, Node parent, int minNumInsts, int[] instIndices)
+		{
+			this(ilist, parent, minNumInsts, instIndices, null, 1, null);
+		}
+		
+		public Node(InstanceList ilist, Node parent, int minNumInsts, int[] instIndices,
+				GainRatio.FeatureBins bins, int numThreads, ExecutorService executor)
 		{
 			if (instIndices == null) {
 				instIndices = new int[ilist.size()];
 				for (int ii = 0; ii < instIndices.length; ii++)
 					instIndices[ii] = ii;
 			}
-			m_gainRatio = GainRatio.createGainRatio(ilist, instIndices, minNumInsts);
+			m_gainRatio = GainRatio.createGainRatio(ilist, instIndices, minNumInsts, bins, numThreads, executor);
 			m_ilist = ilist;
 			m_instIndices = instIndices;
 			m_dataDict = m_ilist.getDataAlphabet();
 			m_minNumInsts = minNumInsts;
 			m_parent = parent;
 			m_leftChild = m_rightChild = null;
+			m_bins = bins;
+			m_numThreads = numThreads;
+			m_executor = executor;
 		}
 		
 		/** The root has depth zero. */
@@ -206,8 +222,8 @@ public class C45 extends Classifier implements Boostable, Serializable
 				else
 					rightIndices[ri++] = m_instIndices[i];
 			}
-			m_leftChild = new Node(m_ilist, this, m_minNumInsts, leftIndices);
-			m_rightChild = new Node(m_ilist, this, m_minNumInsts, rightIndices);
+			m_leftChild = new Node(m_ilist, this, m_minNumInsts, leftIndices, m_bins, m_numThreads, m_executor);
+			m_rightChild = new Node(m_ilist, this, m_minNumInsts, rightIndices, m_bins, m_numThreads, m_executor);
 		}
 		
 		public double computeCostAndPrune()
@@ -255,6 +271,8 @@ public class C45 extends Classifier implements Boostable, Serializable
 			if (m_rightChild != null)
 				m_rightChild.stopGrowth();	  
 			m_ilist = null;
+			m_bins = null;
+			m_executor = null;
 		}
 		
 		public String getName()
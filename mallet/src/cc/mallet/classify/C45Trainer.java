@@ -16,7 +16,9 @@ import cc.mallet.classify.Boostable;
 import cc.mallet.classify.Classifier;
 import cc.mallet.classify.ClassifierTrainer;
 import cc.mallet.types.FeatureSelection;
+import cc.mallet.types.GainRatio;
 import cc.mallet.types.InstanceList;
+import cc.mallet.util.DaemonThreadPool;
 import cc.mallet.util.MalletLogger;
 import cc.mallet.util.Maths;
 
@@ -43,6 +45,9 @@ public class C45Trainer extends ClassifierTrainer<C45> implements Boostable
 	int m_maxDepth = 4;
 	int m_minNumInsts = 2;  // minimum number of instances in each node
 	boolean m_doPruning = true;
+	int m_numBins = 0;  // if positive, only look for splits between this many bins of each feature's values
+	// threads among which features are divided when finding splits
+	DaemonThreadPool m_threadPool = new DaemonThreadPool("C45Trainer", 1);
 	C45 classifier;
 	public C45 getClassifier () { return classifier; }
 
@@ -113,6 +118,42 @@ public class C45Trainer extends ClassifierTrainer<C45> implements Boostable
 		return m_minNumInsts;
 	}
 	
+	/**
+	 * Quantizes each feature's values into at most <code>numBins</code> bins 
+	 * before training, and only considers splitting between bins, from a histogram
+	 * of each node's instances.  Zero (the default) considers every split point.
+	 */
+	public void setNumBins(int numBins)
+	{
+		m_numBins = numBins;
+	}
+	
+	public int getNumBins()
+	{
+		return m_numBins;
+	}
+	
+	/**
+	 * Divides the features among this many threads when finding split points.
+	 * Call {@link #shutdown()} when finished training.
+	 */
+	public void setNumThreads(int numThreads)
+	{
+		m_threadPool.setNumThreads(numThreads);
+	}
+	
+	public int getNumThreads()
+	{
+		return m_threadPool.getNumThreads();
+	}
+
+	/** Stops the threads used to find splits.  They are started again if another
+	 * tree is trained with several threads. */
+	public void shutdown ()
+	{
+		m_threadPool.shutdown();
+	}
+	
 	protected void splitTree(C45.Node node, int depth)
 	{
 		// Stop growing the tree when any of the following is true:
@@ -146,7 +187,12 @@ public class C45Trainer extends ClassifierTrainer<C45> implements Boostable
 		if (selectedFeatures != null)
 			// xxx Attend to FeatureSelection!!!
 			throw new UnsupportedOperationException ("FeatureSelection not yet implemented.");
-		C45.Node root = new C45.Node(trainingList, null, m_minNumInsts);
+		GainRatio.FeatureBins bins = null;
+		if (m_numBins > 0)
+			bins = new GainRatio.FeatureBins(trainingList, m_numBins);
+		int numThreads = getNumThreads();
+		C45.Node root = new C45.Node(trainingList, null, m_minNumInsts, null, bins, numThreads,
+				numThreads > 1 ? m_threadPool.getExecutor() : null);
 		splitTree(root, 0);
 		C45 tree = new C45 (trainingList.getPipe(), root);
 		logger.info("C45 learned: (size=" + tree.getSize() + ")\n");
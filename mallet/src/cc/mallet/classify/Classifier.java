@@ -16,6 +16,7 @@ package cc.mallet.classify;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.logging.*;
 import java.io.PrintWriter;
 import java.io.Serializable;
@@ -30,6 +31,7 @@ import cc.mallet.types.Label;
 import cc.mallet.types.LabelAlphabet;
 import cc.mallet.types.Labeling;
 import cc.mallet.types.FeatureSelection;
+import cc.mallet.util.DaemonThreadPool;
 
 /**
  * Abstract parent of all Classifiers.
@@ -54,6 +56,10 @@ import cc.mallet.types.FeatureSelection;
  * are the same Alphabet objects used during training.
  * <p>
  * Alphabets are allowed to between training and classification.
+ * <p>
+ * A batch of instances can be classified by several threads, see
+ * {@link #setNumThreads}; a classifier whose {@link #classify(Instance)}
+ * keeps no state between calls needs nothing more to support this.
  * @see ClassifierTrainer
  * @see Instance
  * @see InstanceList
@@ -64,8 +70,15 @@ public abstract class Classifier implements AlphabetCarrying, Serializable
 {
 	private static Logger logger = Logger.getLogger(Classifier.class.getName());
 
+	// Keeps old serialized classifiers readable; the value is that of the
+	// class before it had the threads below
+	private static final long serialVersionUID = -2830250344154865976L;
+
 	protected Pipe instancePipe;
 
+	// Threads for classifying batches.  Not serialized.
+	private transient DaemonThreadPool threadPool;
+
 	/** For serialization only. */
 	protected Classifier()
 	{
@@ -112,24 +125,94 @@ public abstract class Classifier implements AlphabetCarrying, Serializable
 	
 
 	// TODO Make argument List<Instance>
+	private synchronized DaemonThreadPool getThreadPool ()
+	{
+		if (threadPool == null)
+			threadPool = new DaemonThreadPool (getClass().getSimpleName(), 1);
+		return threadPool;
+	}
+
+	public int getNumThreads () { return getThreadPool().getNumThreads(); }
+
+	/** Sets the number of threads used by <code>classify(InstanceList)</code> and
+	 * <code>classify(Instance[])</code>.  Call {@link #shutdown()} when finished classifying. */
+	public Classifier setNumThreads (int numThreads)
+	{
+		getThreadPool().setNumThreads (numThreads);
+		return this;
+	}
+
+	/** Stops the threads used to classify batches.  They are started again if
+	 * another batch is classified with several threads. */
+	public void shutdown ()
+	{
+		getThreadPool().shutdown();
+	}
+
 	public ArrayList<Classification> classify (InstanceList instances)
 	{
-		ArrayList<Classification> ret = new ArrayList<Classification> (instances.size());
-		for (Instance inst : instances)
-			ret.add (classify (inst));
+		Classification[] classifications = classify (instances.toArray (new Instance[instances.size()]));
+		ArrayList<Classification> ret = new ArrayList<Classification> (classifications.length);
+		for (int i = 0; i < classifications.length; i++)
+			ret.add (classifications[i]);
 		return ret;
 	}
 
+	/**
+	 * Classifies a batch of instances.  Thread <i>t</i> classifies every
+	 * <code>numThreads</code>-th instance starting with the <i>t</i>-th,
+	 * passing them all the same buffer from {@link #newScores()}.
+	 */
 	public Classification[] classify (Instance[] instances)
 	{
 		Classification[] ret = new Classification[instances.length];
-		for (int i = 0; i < instances.length; i++)
-			ret[i] = classify (instances[i]);
+		int threads = Math.min (getNumThreads(), instances.length);
+		if (threads <= 1) {
+			new ClassifyingTask (0, 1, instances, ret).call();
+			return ret;
+		}
+
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(threads);
+		for (int thread = 0; thread < threads; thread++)
+			tasks.add (new ClassifyingTask (thread, threads, instances, ret));
+		getThreadPool().invokeAll (tasks);
 		return ret;
 	}
 
+	private class ClassifyingTask implements Callable<Object> {
+		int thread, numTasks;
+		Instance[] instances;
+		Classification[] classifications;
+
+		ClassifyingTask (int thread, int numTasks, Instance[] instances, Classification[] classifications) {
+			this.thread = thread;
+			this.numTasks = numTasks;
+			this.instances = instances;
+			this.classifications = classifications;
+		}
+
+		public Object call () {
+			double[] scores = newScores();
+			for (int i = thread; i < instances.length; i += numTasks)
+				classifications[i] = classify (instances[i], scores);
+			return null;
+		}
+	}
+
 	public abstract Classification classify (Instance instance);
 
+	/**
+	 * Classifies an instance, using <code>scores</code>, if not null, as
+	 * scratch space.  By default the buffer is ignored.
+	 */
+	protected Classification classify (Instance instance, double[] scores)
+	{
+		return classify (instance);
+	}
+
+	/** A scratch buffer for {@link #classify(Instance,double[])}, or null if it needs none. */
+	protected double[] newScores () { return null; }
+
 	/** Pipe the object through this classifier's pipe, then classify the resulting instance. */
 	public Classification classify (Object obj)
 	{
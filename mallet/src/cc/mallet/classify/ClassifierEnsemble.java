@@ -18,6 +18,8 @@ import cc.mallet.types.MatrixOps;
  * score for each class, and re-normalize the resulting per-class scores.
  * In other words, the scores of the ensemble classifiers are treated as
  * input features in a Maximum Entropy classifier. 
+ * Each member's labeling is added straight into the score buffer, which
+ * each thread reuses when a batch of instances is classified.
  * @author <a href="mailto:mccallum@cs.umass.edu">Andrew McCallum</a>
  */
 public class ClassifierEnsemble extends Classifier
@@ -25,6 +27,9 @@ public class ClassifierEnsemble extends Classifier
   Classifier[] ensemble;
   double[] weights;
 
+  // Keeps old serialized ensembles readable
+  private static final long serialVersionUID = -1049189168747345476L;
+
   public ClassifierEnsemble (Classifier[] classifiers, double[] weights)
   {
     this.ensemble = new Classifier[classifiers.length];
@@ -39,18 +44,25 @@ public class ClassifierEnsemble extends Classifier
 
   public Classification classify (Instance instance)
   {
-    int numLabels = ensemble[0].getLabelAlphabet().size();
-    double[] scores = new double[numLabels];
+    return classify (instance, newScores());
+  }
+
+  protected Classification classify (Instance instance, double[] scores)
+  {
+    java.util.Arrays.fill (scores, 0.0);
     // Run each classifier on the instance, summing each one's per-class score, with a weight
-    for (int i = 0; i < ensemble.length; i++) {
-      Classification c = ensemble[i].classify(instance);
-      c.getLabelVector().addTo(scores, weights[i]);
-    }
-    // Exponentiate and normalize scores
+    for (int i = 0; i < ensemble.length; i++)
+      ensemble[i].classify(instance).getLabeling().addTo(scores, weights[i]);
+    // Exponentiate and normalize scores; LabelVector copies them out of the buffer
     expNormalize (scores);
     return new Classification (instance, this, new LabelVector (ensemble[0].getLabelAlphabet(), scores));
   }
 
+  protected double[] newScores ()
+  {
+    return new double[ensemble[0].getLabelAlphabet().size()];
+  }
+
   private static void expNormalize (double[] a)
   {
     double max = MatrixOps.max (a);
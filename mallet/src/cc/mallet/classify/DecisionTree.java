@@ -12,6 +12,7 @@
 package cc.mallet.classify;
 
 import java.io.Serializable;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Logger;
 
 import cc.mallet.pipe.Pipe;
@@ -103,13 +104,57 @@ public class DecisionTree extends Classifier implements Serializable //implement
 		Labeling labeling;									// the class label distribution in the node (unsplit)
 		Node parent, child0, child1;
 		String name;
+		// Per-label feature presence counts of the instances in this node, kept until the
+		// node is split so that the larger child's counts can be found by subtraction.
+		// The split hands them on to the larger child and drops them, so only unsplit
+		// nodes hold counts: when the tree is grown depth first, one node plus one
+		// waiting sibling per level, each [numClasses][numFeatures] doubles.
+		transient double[][] targetFeatureCount;
+		transient double[] featureCountSum;
+		transient double[] targetCount;
+		transient double targetCountSum;
+		transient boolean integralCounts;		// subtraction is only exact for whole-number counts
+		transient int numThreads;
+		transient ExecutorService executor;
 
 		// xxx Also calculate some sort of inverted entropy for feature induction,
 		// in order to find the one class needs a new feature with a negative weight.
 
+		/** Makes a node that keeps no counts, so that splitting it counts both
+		 * children's instances afresh. */
 		public Node (InstanceList ilist, Node parent, FeatureSelection fs)
 		{
-			InfoGain ig = new InfoGain (ilist);
+			this (ilist, parent, fs, 1, null);
+			this.targetFeatureCount = null;
+			this.featureCountSum = null;
+			this.targetCount = null;
+		}
+
+		/** Makes a node that keeps the label and feature counts of its instances, so
+		 * that splitting it counts only the smaller child's instances.  Features are
+		 * counted, and their info gains computed, on <code>numThreads</code> threads run
+		 * on <code>executor</code>, which may be null for one thread. */
+		public Node (InstanceList ilist, Node parent, FeatureSelection fs, int numThreads, ExecutorService executor)
+		{
+			this (ilist, parent, fs, null, null, null, 0, numThreads, executor);
+		}
+
+		protected Node (InstanceList ilist, Node parent, FeatureSelection fs,
+		                double[][] targetFeatureCount, double[] featureCountSum,
+		                double[] targetCount, double targetCountSum, int numThreads, ExecutorService executor)
+		{
+			if (targetFeatureCount == null) {
+				int numClasses = ilist.getTargetAlphabet().size();
+				int numFeatures = ilist.getDataAlphabet().size();
+				targetFeatureCount = new double[numClasses][numFeatures];
+				featureCountSum = new double[numFeatures];
+				targetCount = new double[numClasses];
+				targetCountSum = InfoGain.addCounts (ilist, targetFeatureCount, featureCountSum, targetCount, numThreads, executor);
+				this.integralCounts = parent == null ? hasIntegralCounts (ilist) : parent.integralCounts;
+			} else
+				this.integralCounts = parent.integralCounts;
+			InfoGain ig = new InfoGain (ilist, targetFeatureCount, featureCountSum, targetCount, targetCountSum,
+			                             numThreads, executor);
 			this.featureIndex = ig.getMaxValuedIndexIn (fs);
 			this.infoGain = ig.value(featureIndex);
 			this.ilist = ilist;
@@ -118,6 +163,12 @@ public class DecisionTree extends Classifier implements Serializable //implement
 			this.labeling = ig.getBaseLabelDistribution();
 			this.labelEntropy = ig.getBaseEntropy();
 			this.child0 = this.child1 = null;
+			this.targetFeatureCount = targetFeatureCount;
+			this.featureCountSum = featureCountSum;
+			this.targetCount = targetCount;
+			this.targetCountSum = targetCountSum;
+			this.numThreads = numThreads;
+			this.executor = executor;
 		}
 
 		/** The root has depth zero. */
@@ -167,8 +218,62 @@ public class DecisionTree extends Classifier implements Serializable //implement
 				}
 			}
 			logger.info("child0="+ilist0.size()+" child1="+ilist1.size());
-			child0 = new Node (ilist0, this, fs);
-			child1 = new Node (ilist1, this, fs);
+			if (targetFeatureCount == null) {
+				child0 = new Node (ilist0, this, fs);
+				child1 = new Node (ilist1, this, fs);
+				return;
+			}
+			if (!integralCounts) {
+				targetFeatureCount = null;
+				featureCountSum = null;
+				targetCount = null;
+				child0 = new Node (ilist0, this, fs, numThreads, executor);
+				child1 = new Node (ilist1, this, fs, numThreads, executor);
+				return;
+			}
+			// Count the smaller child; the larger child's counts are what remains of ours.
+			boolean child0Smaller = ilist0.size() <= ilist1.size();
+			InstanceList smaller = child0Smaller ? ilist0 : ilist1;
+			InstanceList larger = child0Smaller ? ilist1 : ilist0;
+			int numClasses = targetCount.length;
+			int numFeatures = featureCountSum.length;
+			double[][] smallerTargetFeatureCount = new double[numClasses][numFeatures];
+			double[] smallerFeatureCountSum = new double[numFeatures];
+			double[] smallerTargetCount = new double[numClasses];
+			double smallerTargetCountSum = InfoGain.addCounts (smaller, smallerTargetFeatureCount,
+			                                                   smallerFeatureCountSum, smallerTargetCount, numThreads, executor);
+			for (int li = 0; li < numClasses; li++) {
+				for (int fi = 0; fi < numFeatures; fi++)
+					targetFeatureCount[li][fi] -= smallerTargetFeatureCount[li][fi];
+				targetCount[li] -= smallerTargetCount[li];
+			}
+			for (int fi = 0; fi < numFeatures; fi++)
+				featureCountSum[fi] -= smallerFeatureCountSum[fi];
+			Node smallerChild = new Node (smaller, this, fs, smallerTargetFeatureCount, smallerFeatureCountSum,
+			                              smallerTargetCount, smallerTargetCountSum, numThreads, executor);
+			Node largerChild = new Node (larger, this, fs, targetFeatureCount, featureCountSum,
+			                             targetCount, targetCountSum - smallerTargetCountSum, numThreads, executor);
+			targetFeatureCount = null;
+			featureCountSum = null;
+			targetCount = null;
+			child0 = child0Smaller ? smallerChild : largerChild;
+			child1 = child0Smaller ? largerChild : smallerChild;
+		}
+
+		// True if every instance weight and label weight is a whole number, as in the
+		// resampled lists that AdaBoostTrainer and BaggingTrainer give their trainers.
+		private static boolean hasIntegralCounts (InstanceList ilist)
+		{
+			for (int i = 0; i < ilist.size(); i++) {
+				double instanceWeight = ilist.getInstanceWeight(i);
+				Labeling labeling = ilist.get(i).getLabeling();
+				for (int ll = 0; ll < labeling.numLocations(); ll++) {
+					double count = labeling.valueAtLocation(ll) * instanceWeight;
+					if (count != Math.rint(count))
+						return false;
+				}
+			}
+			return true;
 		}
 
 		// Saves memory by allowing ilist to be garbage collected
@@ -179,6 +284,10 @@ public class DecisionTree extends Classifier implements Serializable //implement
 				child1.stopGrowth();
 			}
 			ilist = null;
+			targetFeatureCount = null;
+			featureCountSum = null;
+			targetCount = null;
+			executor = null;
 		}
 
 		public void induceFeatures (AugmentableFeatureVector afv, 
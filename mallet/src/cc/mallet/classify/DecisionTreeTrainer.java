@@ -23,6 +23,7 @@ import cc.mallet.types.InstanceList;
 import cc.mallet.types.LabelVector;
 import cc.mallet.types.Labeling;
 import cc.mallet.types.Multinomial;
+import cc.mallet.util.DaemonThreadPool;
 import cc.mallet.util.MalletLogger;
 /**
 	 A decision tree learner, roughly ID3, but only to a fixed given depth in all branches.
@@ -46,6 +47,8 @@ public class DecisionTreeTrainer extends ClassifierTrainer<DecisionTree> impleme
 	
 	int maxDepth = DEFAULT_MAX_DEPTH;
 	double minInfoGainSplit = 0.001;
+	// threads for splitting
+	DaemonThreadPool threadPool = new DaemonThreadPool ("DecisionTreeTrainer", 1);
 	boolean finished = false;
 	DecisionTree classifier = null;
 	
@@ -54,13 +57,30 @@ public class DecisionTreeTrainer extends ClassifierTrainer<DecisionTree> impleme
 	
 	public DecisionTreeTrainer setMaxDepth (int maxDepth) { this.maxDepth = maxDepth; return this; }
 	public DecisionTreeTrainer setMinInfoGainSplit (double m) { this.minInfoGainSplit = m; return this; }
+	/** Sets the number of threads among which features are divided when counting
+	 * them and computing their info gains at each node.  Call {@link #shutdown()}
+	 * when finished training. */
+	public DecisionTreeTrainer setNumThreads (int numThreads) {
+		threadPool.setNumThreads (numThreads);
+		return this;
+	}
+	public int getNumThreads () { return threadPool.getNumThreads(); }
+
+	/** Stops the threads used to find splits.  They are started again if another
+	 * tree is trained with several threads. */
+	public void shutdown ()
+	{
+		threadPool.shutdown();
+	}
 	
 	public boolean isFinishedTraining() { return finished; } 
 	public DecisionTree getClassifier() { return classifier; }
 	
 	public DecisionTree train (InstanceList trainingList) {
 		FeatureSelection selectedFeatures = trainingList.getFeatureSelection();
-		DecisionTree.Node root = new DecisionTree.Node (trainingList, null, selectedFeatures);
+		int numThreads = getNumThreads();
+		DecisionTree.Node root = new DecisionTree.Node (trainingList, null, selectedFeatures, numThreads,
+		                                                   numThreads > 1 ? threadPool.getExecutor() : null);
 		splitTree (root, selectedFeatures, 0);
 		root.stopGrowth();
 		finished = true;
@@ -73,8 +93,11 @@ public class DecisionTreeTrainer extends ClassifierTrainer<DecisionTree> impleme
 
 	protected void splitTree (DecisionTree.Node node, FeatureSelection selectedFeatures, int depth)
 	{
-		if (depth == maxDepth || node.getSplitInfoGain() < minInfoGainSplit)
+		if (depth == maxDepth || node.getSplitInfoGain() < minInfoGainSplit) {
+			// a leaf no longer needs its instances or counts
+			node.stopGrowth();
 			return;
+		}
 		logger.info("Splitting feature \""+node.getSplitFeature()
 												+"\" infogain="+node.getSplitInfoGain());
 		node.split(selectedFeatures);
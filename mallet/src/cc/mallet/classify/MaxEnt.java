@@ -31,6 +31,13 @@ import cc.mallet.types.RankedFeatureVector;
 
 /**
  * Maximum Entropy (AKA Multivariate Logistic Regression) classifier.
+ * <p>
+ * The parameters are stored label-major, so scoring an instance walks its
+ * feature vector once per label.  After training, {@link #setFeatureMajor}
+ * builds a transposed copy in which the weights of each feature for all
+ * labels are contiguous, and the scores for every label are then
+ * accumulated in a single pass over the feature vector.  When a batch of
+ * instances is classified, each thread reuses one score buffer.
  @author Andrew McCallum <a href="mailto:mccallum@cs.umass.edu">mccallum@cs.umass.edu</a>
  */
 
@@ -42,6 +49,11 @@ public class MaxEnt extends Classifier implements Serializable
 	protected FeatureSelection featureSelection;
 	protected FeatureSelection[] perClassFeatureSelection;
 
+	// Transposed copy of "parameters", indexed by <featureIndex,labelIndex>,
+	// and the array it was built from.  Not serialized.
+	protected transient double[] featureMajorParameters;
+	protected transient double[] featureMajorSource;
+
 	// The default feature is always the feature with highest index
 	public MaxEnt (Pipe dataPipe,
 			double[] parameters,
@@ -98,6 +110,37 @@ public class MaxEnt extends Classifier implements Serializable
 	public void setParameter (int classIndex, int featureIndex, double value)
 	{
 		parameters[classIndex*(getAlphabet().size()+1) + featureIndex] = value;
+		if (featureMajorParameters != null && featureMajorSource == parameters)
+			featureMajorParameters[featureIndex*getLabelAlphabet().size() + classIndex] = value;
+	}
+
+	/**
+	 * Turns the feature-major copy of the parameters on or off.  The copy is a
+	 * snapshot: it follows {@link #setParameter}, and is ignored once
+	 * {@link #setParameters} installs a new array, but if the parameter array
+	 * is modified in place (for example by further training) this method must
+	 * be called again to rebuild it.
+	 */
+	public MaxEnt setFeatureMajor (boolean featureMajor)
+	{
+		if (! featureMajor) {
+			featureMajorParameters = null;
+			featureMajorSource = null;
+			return this;
+		}
+		int numFeatures = defaultFeatureIndex + 1;
+		int numLabels = getLabelAlphabet().size();
+		double[] transposed = new double[numFeatures * numLabels];
+		for (int li = 0; li < numLabels; li++)
+			for (int fi = 0; fi < numFeatures; fi++)
+				transposed[fi*numLabels + li] = parameters[li*numFeatures + fi];
+		featureMajorParameters = transposed;
+		featureMajorSource = parameters;
+		return this;
+	}
+
+	public boolean isFeatureMajor () {
+		return featureMajorParameters != null && featureMajorSource == parameters;
 	}
 
 	public FeatureSelection getFeatureSelection() {
@@ -144,6 +187,28 @@ public class MaxEnt extends Classifier implements Serializable
 		assert (fv.getAlphabet ()
 				== this.instancePipe.getDataAlphabet ());
 
+		if (perClassFeatureSelection == null && isFeatureMajor()) {
+			// One pass over the features, adding each one's weights for all labels.
+			// The sums are formed in the same order as by rowDotProduct below.
+			double[] weights = featureMajorParameters;
+			for (int li = 0; li < numLabels; li++)
+				scores[li] = 0;
+			int size = fv.numLocations();
+			for (int fl = 0; fl < size; fl++) {
+				int fi = fv.indexAtLocation (fl);
+				if (fi > defaultFeatureIndex || (featureSelection != null && ! featureSelection.contains (fi)))
+					continue;
+				double value = fv.valueAtLocation (fl);
+				int offset = fi * numLabels;
+				for (int li = 0; li < numLabels; li++)
+					scores[li] += weights[offset + li] * value;
+			}
+			int defaultOffset = defaultFeatureIndex * numLabels;
+			for (int li = 0; li < numLabels; li++)
+				scores[li] = weights[defaultOffset + li] + scores[li];
+			return;
+		}
+
 		// Include the feature weights according to each label
 		for (int li = 0; li < numLabels; li++) {
 			scores[li] = parameters[li*numFeatures + defaultFeatureIndex]
@@ -195,7 +260,16 @@ public class MaxEnt extends Classifier implements Serializable
 	public Classification classify (Instance instance)
 	{
 		int numClasses = getLabelAlphabet().size();
-		double[] scores = new double[numClasses];
+		return classify (instance, new double[numClasses]);
+	}
+
+	/**
+	 * Classifies an instance using <code>scores</code>, of length equal to the
+	 * number of labels, as scratch space.  The returned Classification does not
+	 * refer to <code>scores</code>, so the buffer can be reused.
+	 */
+	protected Classification classify (Instance instance, double[] scores)
+	{
 		//getClassificationScores (instance, scores);
 		getClassificationScoresWithTemperature (instance, DEFAULT_TEMPERATURE, scores);
 		// Create and return a Classification object
@@ -204,6 +278,11 @@ public class MaxEnt extends Classifier implements Serializable
 						scores));
 	}
 
+	protected double[] newScores ()
+	{
+		return new double[getLabelAlphabet().size()];
+	}
+
 	public void print () {
 		print(System.out);
 	}
@@ -41,6 +41,7 @@ public class MaxEntGETrainer extends ClassifierTrainer<MaxEnt> implements Classi
   private int numIterations = Integer.MAX_VALUE;
   private double temperature = 1;
   private double gaussianPriorVariance = 1;
+  private int numThreads = 1;
   private String constraintsFile;
   private HashMap<Integer,double[]> constraints;
   private InstanceList trainingList = null;
@@ -71,6 +72,14 @@ public class MaxEntGETrainer extends ClassifierTrainer<MaxEnt> implements Classi
     this.gaussianPriorVariance = variance;
   }
   
+  /**
+   * Sets the number of threads that each pass over the training
+   * instances is split across.
+   */
+  public void setNumThreads(int numThreads) {
+    this.numThreads = numThreads;
+  }
+
   public MaxEnt getClassifier () {
     return classifier;
   }
@@ -114,6 +123,7 @@ public class MaxEntGETrainer extends ClassifierTrainer<MaxEnt> implements Classi
     ge = new MaxEntOptimizableByGE(trainingList,constraints,classifier);
     ge.setTemperature(temperature);
     ge.setGaussianPriorVariance(gaussianPriorVariance);
+    ge.setNumThreads(numThreads);
     opt = new LimitedMemoryBFGS(ge);
     
     logger.fine ("trainingList.size() = "+trainingList.size());
@@ -143,6 +153,7 @@ public class MaxEntGETrainer extends ClassifierTrainer<MaxEnt> implements Classi
         logger.info ("Catching exception; saying converged.");
       }
     }
+    ge.shutdown();
     progressLogger.info("\n"); //  progress messages are on one line; move on.
     
     classifier = ge.getClassifier();
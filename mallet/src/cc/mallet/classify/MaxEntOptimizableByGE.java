@@ -1,8 +1,11 @@
 package cc.mallet.classify;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
 import cc.mallet.optimize.Optimizable;
@@ -10,6 +13,7 @@ import cc.mallet.types.FeatureVector;
 import cc.mallet.types.Instance;
 import cc.mallet.types.InstanceList;
 import cc.mallet.types.MatrixOps;
+import cc.mallet.util.DaemonThreadPool;
 import cc.mallet.util.MalletProgressMessageLogger;
 import cc.mallet.util.Maths;
 
@@ -26,6 +30,12 @@ import cc.mallet.util.Maths;
  */
 
 /**
+ * The GE objective is not a sum over instances: the model expectations of all
+ * instances are normalized before the gradient of any instance can be computed.
+ * With {@link #setNumThreads}, each of the two passes over the instances is
+ * instead split across threads, each filling its own expectation or gradient
+ * buffer, and the buffers are summed between and after the passes.
+ * 
  * @author gdruck
  *
  */
@@ -46,6 +56,7 @@ public class MaxEntOptimizableByGE implements Optimizable.ByGradientValue {
   private MaxEnt classifier;
   private HashMap<Integer,double[]> constraints;
   private HashMap<Integer,Integer> mapping;
+  private DaemonThreadPool threadPool = new DaemonThreadPool("MaxEntOptimizableByGE", 1);
   
   /**
    * @param trainingList List with unlabeled training instances.
@@ -112,6 +123,24 @@ public class MaxEntOptimizableByGE implements Optimizable.ByGradientValue {
     return classifier;
   }
   
+  /**
+   * Splits each pass over the training instances across threads.
+   * Call {@link #shutdown()} when training is finished.
+   * 
+   * @param numThreads Number of threads.
+   */
+  public void setNumThreads(int numThreads) {
+    threadPool.setNumThreads(numThreads);
+  }
+  
+  /**
+   * Stops the threads used by the passes over the training instances;
+   * they are started again if needed.
+   */
+  public void shutdown() {
+    threadPool.shutdown();
+  }
+  
   public double getValue() {   
     if (!cacheStale) {
       return cachedValue;
@@ -127,6 +156,7 @@ public class MaxEntOptimizableByGE implements Optimizable.ByGradientValue {
     int numFeatures = trainingList.getDataAlphabet().size() + 1;
     int numLabels = trainingList.getTargetAlphabet().size();
     double scalingFactor = objWeight;      
+    final int numThreads = threadPool.getNumThreads();
     
     if (mapping == null) {
       // mapping maps between feature indices to 
@@ -141,7 +171,99 @@ public class MaxEntOptimizableByGE implements Optimizable.ByGradientValue {
     double[][] scores = new double[trainingList.size()][numLabels];
     
     // pass 1: calculate model distribution
-    for (int ii = 0; ii < trainingList.size(); ii++) {
+    if (numThreads == 1) {
+      addModelExpectations(0, trainingList.size(), scores, modelExpectations, featureCounts);
+    }
+    else {
+      final double[][][] threadExpectations = new double[numThreads][numRefDist][numLabels];
+      final double[][] threadCounts = new double[numThreads][numRefDist];
+      List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numThreads);
+      for (int thread = 0; thread < numThreads; thread++) {
+        final int t = thread;
+        final double[][] allScores = scores;
+        tasks.add(new Callable<Object>() {
+          public Object call() {
+            addModelExpectations(getStart(t, numThreads), getStart(t+1, numThreads), allScores, threadExpectations[t], threadCounts[t]);
+            return null;
+          }
+        });
+      }
+      threadPool.invokeAll(tasks);
+      for (int thread = 0; thread < numThreads; thread++) {
+        for (int ci = 0; ci < numRefDist; ci++) {
+          featureCounts[ci] += threadCounts[thread][ci];
+          for (int l = 0; l < numLabels; l++) {
+            modelExpectations[ci][l] += threadExpectations[thread][ci][l];
+          }
+        }
+      }
+    }
+    
+    double value = 0;
+    for (int featureIndex : constraints.keySet()) {
+      int cIndex = mapping.get(featureIndex);
+      if (featureCounts[cIndex] > 0) {
+        for (int label = 0; label < numLabels; label++) {
+          double cProb = constraints.get(featureIndex)[label];
+          // normalize by count
+          modelExpectations[cIndex][label] /= featureCounts[cIndex];
+          ratio[cIndex][label] =  cProb / modelExpectations[cIndex][label];
+          // add to the cross entropy term
+          value += scalingFactor * cProb * Math.log(modelExpectations[cIndex][label]);
+          // add to the entropy term
+          if (cProb > 0) {
+            value -= scalingFactor * cProb * Math.log(cProb);
+          }
+        }
+        assert(Maths.almostEquals(MatrixOps.sum(modelExpectations[cIndex]),1));
+      }
+    }
+
+    // pass 2: determine per example gradient
+    if (numThreads == 1) {
+      addGradient(0, trainingList.size(), scores, ratio, featureCounts, cachedGradient);
+    }
+    else {
+      final double[][] threadGradients = new double[numThreads][cachedGradient.length];
+      List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numThreads);
+      for (int thread = 0; thread < numThreads; thread++) {
+        final int t = thread;
+        final double[][] allScores = scores;
+        final double[][] allRatios = ratio;
+        final double[] allCounts = featureCounts;
+        tasks.add(new Callable<Object>() {
+          public Object call() {
+            addGradient(getStart(t, numThreads), getStart(t+1, numThreads), allScores, allRatios, allCounts, threadGradients[t]);
+            return null;
+          }
+        });
+      }
+      threadPool.invokeAll(tasks);
+      for (int thread = 0; thread < numThreads; thread++) {
+        MatrixOps.plusEquals(cachedGradient, threadGradients[thread]);
+      }
+    }
+
+    cachedValue = value;
+    cacheStale = false;
+    
+    double reg = getRegularization();
+    progressLogger.info ("Value (GE=" + value + " Gaussian prior= " + reg + ") = " + cachedValue);
+    
+    return value;
+  }
+
+  // The first instance of a thread's share of the training list
+  private int getStart(int thread, int numThreads) {
+    return (int) ((long) trainingList.size() * thread / numThreads);
+  }
+  
+  // Pass 1 over instances start to end-1: fills in their scores, and adds
+  // to the model expectations and feature counts of the constraints
+  private void addModelExpectations(int start, int end, double[][] scores,
+      double[][] modelExpectations, double[] featureCounts) {
+    int numLabels = trainingList.getTargetAlphabet().size();
+    for (int ii = start; ii < end; ii++) {
       Instance instance = trainingList.get(ii);
       double instanceWeight = trainingList.getInstanceWeight(instance);
       
@@ -180,29 +302,15 @@ public class MaxEntOptimizableByGE implements Optimizable.ByGradientValue {
         }        
       }
     }
-    
-    double value = 0;
-    for (int featureIndex : constraints.keySet()) {
-      int cIndex = mapping.get(featureIndex);
-      if (featureCounts[cIndex] > 0) {
-        for (int label = 0; label < numLabels; label++) {
-          double cProb = constraints.get(featureIndex)[label];
-          // normalize by count
-          modelExpectations[cIndex][label] /= featureCounts[cIndex];
-          ratio[cIndex][label] =  cProb / modelExpectations[cIndex][label];
-          // add to the cross entropy term
-          value += scalingFactor * cProb * Math.log(modelExpectations[cIndex][label]);
-          // add to the entropy term
-          if (cProb > 0) {
-            value -= scalingFactor * cProb * Math.log(cProb);
-          }
-        }
-        assert(Maths.almostEquals(MatrixOps.sum(modelExpectations[cIndex]),1));
-      }
-    }
-
-    // pass 2: determine per example gradient
-    for (int ii = 0; ii < trainingList.size(); ii++) {
+  }
+  
+  // Pass 2 over instances start to end-1: adds their gradient to gradient
+  private void addGradient(int start, int end, double[][] scores, double[][] ratio,
+      double[] featureCounts, double[] gradient) {
+    int numFeatures = trainingList.getDataAlphabet().size() + 1;
+    int numLabels = trainingList.getTargetAlphabet().size();
+    double scalingFactor = objWeight;
+    for (int ii = start; ii < end; ii++) {
       Instance instance = trainingList.get(ii);
       
       // skip if labeled
@@ -252,20 +360,12 @@ public class MaxEntOptimizableByGE implements Optimizable.ByGradientValue {
             assert (!Double.isInfinite(scores[ii][label]));
             double weight = scalingFactor * instanceWeight * temperature * (val / featureCounts[cIndex]) * scores[ii][label] * (ratio[cIndex][label] - instanceExpectation);
 
-            MatrixOps.rowPlusEquals(cachedGradient, numFeatures, label, fv, weight);
-            cachedGradient[numFeatures * label + defaultFeatureIndex] += weight;
+            MatrixOps.rowPlusEquals(gradient, numFeatures, label, fv, weight);
+            gradient[numFeatures * label + defaultFeatureIndex] += weight;
           }  
         }
       }
     }
-
-    cachedValue = value;
-    cacheStale = false;
-    
-    double reg = getRegularization();
-    progressLogger.info ("Value (GE=" + value + " Gaussian prior= " + reg + ") = " + cachedValue);
-    
-    return value;
   }
 
   private double getRegularization() {
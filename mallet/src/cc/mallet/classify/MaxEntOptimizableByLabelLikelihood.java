@@ -2,9 +2,11 @@ package cc.mallet.classify;
 
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.logging.Logger;
 
+import cc.mallet.optimize.CacheStaleIndicator;
 import cc.mallet.optimize.LimitedMemoryBFGS;
 import cc.mallet.optimize.Optimizable;
 import cc.mallet.types.Alphabet;
@@ -19,7 +21,18 @@ import cc.mallet.util.MalletLogger;
 import cc.mallet.util.MalletProgressMessageLogger;
 import cc.mallet.util.Maths;
 
-public class MaxEntOptimizableByLabelLikelihood implements Optimizable.ByGradientValue {
+/**
+ * The log probability of the training labels under a MaxEnt model, with a prior.
+ * <p>
+ * Besides computing the value and gradient in one pass, the instances can be
+ * divided into batches (see {@link #setNumBatches}), so that a
+ * <tt>ThreadedOptimizable</tt> can compute them in several threads.  Each batch
+ * accumulates expectations into its own buffer, and the constraints and prior
+ * are added once when the gradients are combined.  Instances with infinite
+ * value are skipped in batches, rather than ending the computation.
+ */
+public class MaxEntOptimizableByLabelLikelihood implements Optimizable.ByGradientValue,
+		Optimizable.ByIncrementalBatchGradient {
 
 	private static Logger logger =
 		MalletLogger.getLogger(MaxEntOptimizableByLabelLikelihood.class.getName());
@@ -54,6 +67,13 @@ public class MaxEntOptimizableByLabelLikelihood implements Optimizable.ByGradien
 	int numGetValueCalls = 0;
 	int numGetValueGradientCalls = 0;
 
+	// For batches: the "-expectation" of each batch (allocated by the thread
+	// filling it), the value of each batch, and a count of parameter changes
+	int numBatches = 1;
+	double[][] batchExpectations = new double[1][];
+	double[] batchValues = new double[1];
+	int parametersChangeStamp = 0;
+
 	public MaxEntOptimizableByLabelLikelihood() {
 	}
 
@@ -90,6 +110,8 @@ public class MaxEntOptimizableByLabelLikelihood implements Optimizable.ByGradien
 			this.featureSelection = theClassifier.featureSelection;
 			this.perLabelFeatureSelection = theClassifier.perClassFeatureSelection;
 			this.defaultFeatureIndex = theClassifier.defaultFeatureIndex;
+			// The parameters will change in place, so a transposed copy would go stale
+			theClassifier.setFeatureMajor (false);
 			assert (initialClassifier.getInstancePipe() == trainingSet.getPipe());
 		}
 		else if (this.theClassifier == null) {
@@ -138,6 +160,7 @@ public class MaxEntOptimizableByLabelLikelihood implements Optimizable.ByGradien
 	public void setParameter (int index, double v) {
 		cachedValueStale = true;
 		cachedGradientStale = true;
+		parametersChangeStamp++;
 		parameters[index] = v;
 	}
 
@@ -155,6 +178,7 @@ public class MaxEntOptimizableByLabelLikelihood implements Optimizable.ByGradien
 		assert (buff != null);
 		cachedValueStale = true;
 		cachedGradientStale = true;
+		parametersChangeStamp++;
 		if (buff.length != parameters.length)
 			parameters = new double[buff.length];
 		System.arraycopy (buff, 0, parameters, 0, buff.length);
@@ -214,20 +238,7 @@ public class MaxEntOptimizableByLabelLikelihood implements Optimizable.ByGradien
 			//logger.info ("-Expectations:"); cachedGradient.print();
 
 			// Incorporate prior on parameters
-			double prior = 0;
-			if (usingHyperbolicPrior) {
-				for (int li = 0; li < numLabels; li++)
-					for (int fi = 0; fi < numFeatures; fi++)
-						prior += (hyperbolicPriorSlope / hyperbolicPriorSharpness
-								* Math.log (Maths.cosh (hyperbolicPriorSharpness * parameters[li *numFeatures + fi])));
-			}
-			else if (usingGaussianPrior) {
-				for (int li = 0; li < numLabels; li++)
-					for (int fi = 0; fi < numFeatures; fi++) {
-						double param = parameters[li*numFeatures + fi];
-						prior += param * param / (2 * gaussianPriorVariance);
-					}
-			}
+			double prior = getPriorCost ();
 
 			double oValue = cachedValue;
 			cachedValue += prior;
@@ -238,6 +249,26 @@ public class MaxEntOptimizableByLabelLikelihood implements Optimizable.ByGradien
 		return cachedValue;
 	}
 
+	// The negative log of the prior on the parameters
+	protected double getPriorCost ()
+	{
+		double prior = 0;
+		if (usingHyperbolicPrior) {
+			for (int li = 0; li < numLabels; li++)
+				for (int fi = 0; fi < numFeatures; fi++)
+					prior += (hyperbolicPriorSlope / hyperbolicPriorSharpness
+							* Math.log (Maths.cosh (hyperbolicPriorSharpness * parameters[li *numFeatures + fi])));
+		}
+		else if (usingGaussianPrior) {
+			for (int li = 0; li < numLabels; li++)
+				for (int fi = 0; fi < numFeatures; fi++) {
+					double param = parameters[li*numFeatures + fi];
+					prior += param * param / (2 * gaussianPriorVariance);
+				}
+		}
+		return prior;
+	}
+
 	public void getValueGradient (double [] buffer) {
 
 		// Gradient is (constraint - expectation - parameters/gaussianPriorVariance)
@@ -246,39 +277,180 @@ public class MaxEntOptimizableByLabelLikelihood implements Optimizable.ByGradien
 			if (cachedValueStale)
 				// This will fill in the cachedGradient with the "-expectation"
 				getValue ();
-			MatrixOps.plusEquals (cachedGradient, constraints);
-			// Incorporate prior on parameters
-			if (usingHyperbolicPrior) {
-				throw new UnsupportedOperationException ("Hyperbolic prior not yet implemented.");
-			}
-			else if (usingGaussianPrior) {
-				MatrixOps.plusEquals (cachedGradient, parameters,
-									  -1.0 / gaussianPriorVariance);
-			}
+			addConstraintsAndPrior (cachedGradient);
+			cachedGradientStale = false;
+		}
+		assert (buffer != null && buffer.length == parameters.length);
+		System.arraycopy (cachedGradient, 0, buffer, 0, cachedGradient.length);
+		//System.out.println ("MaxEntTrainer gradient infinity norm = "+MatrixOps.infinityNorm(cachedGradient));
+	}
+
+	/**
+	 * Turns the "-expectation" in <code>gradient</code> into the gradient of the
+	 * value: (constraint - expectation - parameters/gaussianPriorVariance).
+	 */
+	protected void addConstraintsAndPrior (double[] gradient)
+	{
+		addConstraintsAndPrior (gradient, 0, gradient.length);
+	}
 
+	/**
+	 * As <tt>addConstraintsAndPrior(double[])</tt>, for elements <tt>start</tt>
+	 * to <tt>end-1</tt> of <code>gradient</code> only.
+	 */
+	protected void addConstraintsAndPrior (double[] gradient, int start, int end)
+	{
+		if (usingHyperbolicPrior)
+			throw new UnsupportedOperationException ("Hyperbolic prior not yet implemented.");
+		for (int i = start; i < end; i++) {
+			double g = plusEquals (gradient[i], constraints[i], 1.0);
+			// Incorporate prior on parameters
+			if (usingGaussianPrior)
+				g = plusEquals (g, parameters[i], -1.0 / gaussianPriorVariance);
 			// A parameter may be set to -infinity by an external user.
 			// We set gradient to 0 because the parameter's value can
 			// never change anyway and it will mess up future calculations
 			// on the matrix, such as norm().
-			MatrixOps.substitute (cachedGradient, Double.NEGATIVE_INFINITY, 0.0);
+			if (g == Double.NEGATIVE_INFINITY)
+				g = 0.0;
 			// Set to zero all the gradient dimensions that are not among the selected features
-			if (perLabelFeatureSelection == null) {
-				for (int labelIndex = 0; labelIndex < numLabels; labelIndex++)
-					MatrixOps.rowSetAll (cachedGradient, numFeatures,
-							labelIndex, 0.0, featureSelection, false);
-			} else {
-				for (int labelIndex = 0; labelIndex < numLabels; labelIndex++)
-					MatrixOps.rowSetAll (cachedGradient, numFeatures,
-							labelIndex, 0.0,
-							perLabelFeatureSelection[labelIndex], false);
+			FeatureSelection selection = perLabelFeatureSelection == null
+				? featureSelection : perLabelFeatureSelection[i / numFeatures];
+			if (selection != null && !selection.contains (i % numFeatures))
+				g = 0.0;
+			gradient[i] = g;
+		}
+	}
+
+	// An element of MatrixOps.plusEquals(m1, m2, factor): opposite infinities give zero
+	private static double plusEquals (double m1i, double m2i, double factor)
+	{
+		if (Double.isInfinite(m1i) && Double.isInfinite(m2i) && (m1i*m2i < 0))
+			return 0.0;
+		return m1i + m2i * factor;
+	}
+
+	/**
+	 * Divides the instances into this many batches, usually one per thread of a
+	 * <tt>ThreadedOptimizable</tt>.
+	 */
+	public MaxEntOptimizableByLabelLikelihood setNumBatches (int numBatches) {
+		this.numBatches = Math.max (numBatches, 1);
+		batchExpectations = new double[this.numBatches][];
+		batchValues = new double[this.numBatches];
+		return this;
+	}
+
+	public int getNumBatches () { return numBatches; }
+
+	/**
+	 * Returns a CacheStaleIndicator that reports the value and gradient stale
+	 * whenever the parameters have been set since they were last computed.
+	 */
+	public CacheStaleIndicator getCacheStaleIndicator () {
+		return new CacheStaleIndicator () {
+			int valueStamp = -1;
+			int gradientStamp = -1;
+			public boolean isValueStale () {
+				if (valueStamp == parametersChangeStamp)
+					return false;
+				valueStamp = parametersChangeStamp;
+				return true;
+			}
+			public boolean isGradientStale () {
+				if (gradientStamp == parametersChangeStamp)
+					return false;
+				gradientStamp = parametersChangeStamp;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Zeroes the expectations of a batch, and returns minus the prior if it is
+	 * the last batch.
+	 */
+	public double resetBatch (int batchIndex) {
+		if (batchExpectations[batchIndex] == null)
+			batchExpectations[batchIndex] = new double[parameters.length];
+		else
+			Arrays.fill (batchExpectations[batchIndex], 0.0);
+		batchValues[batchIndex] = (batchIndex == numBatches-1) ? -getPriorCost () : 0.0;
+		return batchValues[batchIndex];
+	}
+
+	/**
+	 * Adds the log probability of the labels of instances <tt>start</tt> to
+	 * <tt>end-1</tt> in <tt>instanceIndices</tt> (or in the training list, if it
+	 * is null) to a batch's value, and their "-expectation" to its expectations.
+	 */
+	public double addToBatch (int batchIndex, int[] instanceIndices, int start, int end) {
+		double[] expectations = batchExpectations[batchIndex];
+		double[] scores = new double[trainingList.getTargetAlphabet().size()];
+		double value = 0.0;
+		for (int i = start; i < end; i++) {
+			Instance instance = trainingList.get (instanceIndices == null ? i : instanceIndices[i]);
+			double instanceWeight = trainingList.getInstanceWeight(instance);
+			Labeling labeling = instance.getLabeling ();
+			if (labeling == null)
+				continue;
+			this.theClassifier.getClassificationScores (instance, scores);
+			FeatureVector fv = (FeatureVector) instance.getData ();
+			int li = labeling.getBestIndex();
+			double instanceValue = - (instanceWeight * Math.log (scores[li]));
+			if (Double.isInfinite(instanceValue)) {
+				logger.warning ("Instance "+instance.getSource() + " has infinite value; skipping value and gradient");
+				continue;
+			}
+			value += instanceValue;
+			for (int si = 0; si < scores.length; si++) {
+				if (scores[si] == 0) continue;
+				assert (!Double.isInfinite(scores[si]));
+				MatrixOps.rowPlusEquals (expectations, numFeatures,
+						si, fv, -instanceWeight * scores[si]);
+				expectations[numFeatures*si + defaultFeatureIndex] += (-instanceWeight * scores[si]);
 			}
-			cachedGradientStale = false;
 		}
-		assert (buffer != null && buffer.length == parameters.length);
-		System.arraycopy (cachedGradient, 0, buffer, 0, cachedGradient.length);
-		//System.out.println ("MaxEntTrainer gradient infinity norm = "+MatrixOps.infinityNorm(cachedGradient));
+		batchValues[batchIndex] -= value;
+		return -value;
 	}
-	
+
+	public double getBatchValue (int batchIndex, int[] batchAssignments) {
+		double value = resetBatch (batchIndex);
+		return value + addToBatch (batchIndex, null, batchAssignments[0], batchAssignments[1]);
+	}
+
+	/** Sets buffer to the "-expectation" of a batch; see <tt>combineGradients</tt>. */
+	public void getBatchValueGradient (double[] buffer, int batchIndex, int[] batchAssignments) {
+		System.arraycopy (batchExpectations[batchIndex], 0, buffer, 0, buffer.length);
+	}
+
+	public void combineGradients (Collection<double[]> batchGradients, double[] buffer) {
+		assert (buffer.length == parameters.length);
+		Arrays.fill (buffer, 0.0);
+		for (double[] gradient : batchGradients)
+			MatrixOps.plusEquals (buffer, gradient);
+		addConstraintsAndPrior (buffer);
+	}
+
+	public void finishBatch (int batchIndex) {
+	}
+
+	public void getCombinedValueGradient (double[] buffer, int start, int end) {
+		assert (buffer.length == parameters.length);
+		if (start == 0)
+			numGetValueGradientCalls++;
+		Arrays.fill (buffer, start, end, 0.0);
+		for (int batch = 0; batch < numBatches; batch++) {
+			double[] expectations = batchExpectations[batch];
+			if (expectations == null)
+				continue;
+			for (int i = start; i < end; i++)
+				buffer[i] = plusEquals (buffer[i], expectations[i], 1.0);
+		}
+		addConstraintsAndPrior (buffer, start, end);
+	}
+
 	// XXX Should these really be public?  Why?
 	/** Counts how many times this trainer has computed the gradient of the 
 	 * log probability of training labels. */
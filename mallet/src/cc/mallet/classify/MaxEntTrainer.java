@@ -19,6 +19,7 @@ import cc.mallet.optimize.Optimizable;
 import cc.mallet.optimize.OptimizationException;
 import cc.mallet.optimize.Optimizer;
 import cc.mallet.optimize.OrthantWiseLimitedMemoryBFGS;
+import cc.mallet.optimize.ThreadedOptimizable;
 import cc.mallet.optimize.tests.*;
 import cc.mallet.pipe.Pipe;
 import cc.mallet.types.Alphabet;
@@ -77,6 +78,11 @@ public class MaxEntTrainer extends ClassifierTrainer<MaxEnt>
 	MaxEntOptimizableByLabelLikelihood optimizable = null;
 	Optimizer optimizer = null;
 
+	// With more than one thread, the optimizer works on a ThreadedOptimizable
+	// that computes the value and gradient of "optimizable" in batches
+	int numThreads = 1;
+	ThreadedOptimizable threadedOptimizable = null;
+
 	// 
 	// CONSTRUCTORS
 	//
@@ -152,6 +158,9 @@ public class MaxEntTrainer extends ClassifierTrainer<MaxEnt>
 					optimizable.useNoPrior();
 				}
 
+				if (numThreads > 1)
+					optimizable.setNumBatches (numThreads);
+				releaseThreads();
 				optimizer = null;
 			}
 		}
@@ -159,6 +168,41 @@ public class MaxEntTrainer extends ClassifierTrainer<MaxEnt>
 		return optimizable;
 	}
 
+	/**
+	 * Computes the value and gradient in this many threads, each over its own
+	 * batch of the training instances.
+	 * @return This trainer
+	 */
+	public MaxEntTrainer setNumThreads (int numThreads) {
+		if (this.numThreads != Math.max (numThreads, 1)) {
+			this.numThreads = Math.max (numThreads, 1);
+			// Rebuild the optimizable with the new number of batches
+			optimizable = null;
+			this.trainingSet = null;
+			releaseThreads();
+			optimizer = null;
+		}
+		return this;
+	}
+
+	public int getNumThreads () {
+		return numThreads;
+	}
+
+	// Stops the threads between calls to train; the threaded optimizable and
+	// the optimizer working on it are kept, and start new threads when needed
+	private void shutdownThreads () {
+		if (threadedOptimizable != null)
+			threadedOptimizable.shutdown();
+	}
+
+	// Stops the threads and drops the threaded optimizable, once the
+	// optimizable it wraps is replaced
+	private void releaseThreads () {
+		shutdownThreads();
+		threadedOptimizable = null;
+	}
+
 	//
 	//  OPTIMIZER OBJECT: maximizes value function
 	//
@@ -192,7 +236,14 @@ public class MaxEntTrainer extends ClassifierTrainer<MaxEnt>
 			// If l1Weight is 0, this devolves to 
 			//  standard L-BFGS, but the implementation
 			//  may be faster.
-			optimizer = new LimitedMemoryBFGS(optimizable); 
+			if (numThreads > 1) {
+				if (threadedOptimizable == null)
+					threadedOptimizable = new ThreadedOptimizable (optimizable, trainingSet,
+							optimizable.getNumParameters(), optimizable.getCacheStaleIndicator());
+				optimizer = new LimitedMemoryBFGS(threadedOptimizable);
+			}
+			else
+				optimizer = new LimitedMemoryBFGS(optimizable); 
 			//OrthantWiseLimitedMemoryBFGS(optimizable, l1Weight);
 		}
 		return optimizer;
@@ -284,6 +335,7 @@ public class MaxEntTrainer extends ClassifierTrainer<MaxEnt>
 			}
 		}
 		//TestMaximizable.testValueAndGradientCurrentParameters (mt);
+		shutdownThreads();
 		progressLogger.info("\n"); //  progress messages are on one line; move on.
 		//logger.info("MaxEnt ngetValueCalls:"+getValueCalls()+"\nMaxEnt ngetValueGradientCalls:"+getValueGradientCalls());
 		return optimizable.getClassifier();
@@ -488,6 +540,9 @@ public class MaxEntTrainer extends ClassifierTrainer<MaxEnt>
 		if (numIterations < Integer.MAX_VALUE) {
 			builder.append(",numIterations=" + numIterations);
 		}
+		if (numThreads > 1) {
+			builder.append(",numThreads=" + numThreads);
+		}
 		if (l1Weight != 0.0) {
 			builder.append(",l1Weight=" + l1Weight);
 		}
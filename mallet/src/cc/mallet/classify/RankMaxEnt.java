@@ -171,6 +171,12 @@ public class RankMaxEnt extends MaxEnt
 																									scores));
 	}
 	
+	/** The number of scores depends on the instance, so <code>scores</code> is not used. */
+	protected Classification classify (Instance instance, double[] scores)
+	{
+		return classify (instance);
+	}
+
 	/** Constructs a LabelVector which is a distribution over indices of
 	 * the "positive" Instance. */
 	private LabelVector createLabelVector (LabelAlphabet labelAlphabet, double[] scores) {
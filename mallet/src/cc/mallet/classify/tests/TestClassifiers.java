@@ -114,6 +114,116 @@ public class TestClassifiers extends TestCase
 	  }
 
  
+	public void testThreadedTreeTrainers ()
+	{
+		Alphabet fd = dictOfSize (20);
+		String[] classNames = new String[] {"class0", "class1", "class2"};
+		InstanceList ilist = new InstanceList (new Randoms(1), fd, classNames, 200);
+
+		// Both of these find the children's counts by subtraction
+		DecisionTree dt1 = new DecisionTreeTrainer (4).train (ilist);
+		DecisionTreeTrainer dtTrainer = new DecisionTreeTrainer (4).setNumThreads (3);
+		DecisionTree dt3 = dtTrainer.train (ilist);
+		dtTrainer.shutdown();
+		DecisionTree recounted = new RecountingDecisionTreeTrainer (4).train (ilist);
+		assertSameTree (recounted.getRoot(), dt1.getRoot());
+		assertSameTree (recounted.getRoot(), dt3.getRoot());
+
+		C45Trainer c45Trainer = new C45Trainer (4);
+		Classifier c45 = c45Trainer.train (ilist);
+		c45Trainer = new C45Trainer (4);
+		c45Trainer.setNumThreads (3);
+		Classifier c45Threaded = c45Trainer.train (ilist);
+		c45Trainer.shutdown();
+		// Features of these counts have few distinct values, so 64 bins keep every split point
+		c45Trainer = new C45Trainer (4);
+		c45Trainer.setNumBins (64);
+		c45Trainer.setNumThreads (3);
+		Classifier c45Binned = c45Trainer.train (ilist);
+		c45Trainer.shutdown();
+
+		for (int i = 0; i < ilist.size(); i++) {
+			Instance inst = ilist.get(i);
+			Labeling expected = recounted.classify(inst).getLabeling();
+			for (int li = 0; li < classNames.length; li++) {
+				assertEquals (expected.value(li), dt1.classify(inst).getLabeling().value(li), 0.0);
+				assertEquals (expected.value(li), dt3.classify(inst).getLabeling().value(li), 0.0);
+			}
+			int c45Label = c45.classify(inst).getLabeling().getBestIndex();
+			assertEquals (c45Label, c45Threaded.classify(inst).getLabeling().getBestIndex());
+			assertEquals (c45Label, c45Binned.classify(inst).getLabeling().getBestIndex());
+		}
+		assertEquals (((C45) c45).getSize(), ((C45) c45Threaded).getSize());
+		assertEquals (((C45) c45).getSize(), ((C45) c45Binned).getSize());
+	}
+
+	private static void assertSameTree (DecisionTree.Node expected, DecisionTree.Node actual)
+	{
+		assertEquals (expected.getName(), actual.getName());
+		assertEquals (expected.isLeaf(), actual.isLeaf());
+		if (expected.isLeaf())
+			return;
+		assertEquals (expected.getSplitInfoGain(), actual.getSplitInfoGain(), 0.0);
+		assertSameTree (expected.getFeatureAbsentChild(), actual.getFeatureAbsentChild());
+		assertSameTree (expected.getFeaturePresentChild(), actual.getFeaturePresentChild());
+	}
+
+	// Grows trees as DecisionTreeTrainer did before nodes kept their counts,
+	// recounting the instances of every node
+	private static class RecountingDecisionTreeTrainer extends DecisionTreeTrainer
+	{
+		public RecountingDecisionTreeTrainer (int maxDepth)
+		{
+			super (maxDepth);
+		}
+
+		public DecisionTree train (InstanceList trainingList)
+		{
+			FeatureSelection selectedFeatures = trainingList.getFeatureSelection();
+			DecisionTree.Node root = new DecisionTree.Node (trainingList, null, selectedFeatures);
+			splitTree (root, selectedFeatures, 0);
+			root.stopGrowth();
+			return new DecisionTree (trainingList.getPipe(), root);
+		}
+	}
+
+	public void testThreadedEnsembles ()
+	{
+		Alphabet fd = dictOfSize (20);
+		String[] classNames = new String[] {"class0", "class1", "class2"};
+		InstanceList ilist = new InstanceList (new Randoms(1), fd, classNames, 200);
+
+		Classifier bagged1 = new BaggingTrainer (new NaiveBayesTrainer.Factory(), 5).setRandomSeed (2).train (ilist);
+		BaggingTrainer baggingTrainer = new BaggingTrainer (new NaiveBayesTrainer.Factory(), 5).setRandomSeed (2)
+			.setNumThreads (3);
+		Classifier bagged3 = baggingTrainer.train (ilist);
+		baggingTrainer.shutdown();
+		Classifier boosted1 = new AdaBoostM2Trainer (new DecisionTreeTrainer (2), 5).setRandomSeed (2).train (ilist);
+		AdaBoostM2Trainer boostingTrainer = new AdaBoostM2Trainer (new DecisionTreeTrainer (2), 5).setRandomSeed (2)
+			.setNumThreads (3);
+		Classifier boosted3 = boostingTrainer.train (ilist);
+		boostingTrainer.shutdown();
+		ClassifierEnsemble ensemble = new ClassifierEnsemble (new Classifier[] {bagged1, boosted1}, new double[] {1.0, 0.5});
+		Classification[] batch = ensemble.setNumThreads (3).classify (ilist.toArray (new Instance[ilist.size()]));
+		// The same threads classify the next batch
+		Classification[] batch2 = ensemble.classify (ilist.toArray (new Instance[ilist.size()]));
+		ensemble.shutdown();
+
+		for (int i = 0; i < ilist.size(); i++) {
+			Instance inst = ilist.get(i);
+			Labeling l1 = bagged1.classify(inst).getLabeling();
+			Labeling l3 = bagged3.classify(inst).getLabeling();
+			Labeling e1 = ensemble.classify(inst).getLabeling();
+			for (int li = 0; li < classNames.length; li++) {
+				assertEquals (l1.value(li), l3.value(li), 0.0);
+				assertEquals (e1.value(li), batch[i].getLabeling().value(li), 0.0);
+				assertEquals (e1.value(li), batch2[i].getLabeling().value(li), 0.0);
+			}
+			assertEquals (boosted1.classify(inst).getLabeling().getBestIndex(),
+			              boosted3.classify(inst).getLabeling().getBestIndex());
+		}
+	}
+
   private void expandDict (Alphabet fd, int size)
   {
     fd.startGrowth ();
@@ -67,11 +67,164 @@ public class TestMaxEntTrainer extends TestCase
 		Alphabet fd = dictOfSize (6);
 		String[] classNames = new String[] {"class0", "class1"};
 		InstanceList ilist = new InstanceList (new Randoms(1), fd, classNames, 20);
-		MaxEnt me = (MaxEnt)trainer.train(ilist);
+		MaxEnt me = trainer.train(ilist);
 		Optimizable.ByGradientValue maxable = trainer.getOptimizable (ilist, me);
 		TestOptimizable.testValueAndGradientCurrentParameters (maxable);
 	}
 
+	public void testFeatureMajorScoring ()
+	{
+		MaxEntTrainer trainer = new MaxEntTrainer();
+		Alphabet fd = dictOfSize (20);
+		String[] classNames = new String[] {"class0", "class1", "class2", "class3"};
+		InstanceList ilist = new InstanceList (new Randoms(1), fd, classNames, 40);
+		MaxEnt me = trainer.train(ilist);
+
+		Classification[] expected = new Classification[ilist.size()];
+		for (int i = 0; i < ilist.size(); i++)
+			expected[i] = me.classify (ilist.get(i));
+
+		me.setFeatureMajor (true);
+		assertTrue (me.isFeatureMajor());
+		me.setNumThreads (3);
+		java.util.ArrayList<Classification> batch = me.classify (ilist);
+		assertEquals (ilist.size(), batch.size());
+		for (int i = 0; i < ilist.size(); i++) {
+			Classification c = me.classify (ilist.get(i));
+			for (int li = 0; li < classNames.length; li++) {
+				double p = expected[i].getLabeling().value (li);
+				assertEquals (p, c.getLabeling().value (li), 1e-12);
+				assertEquals (p, batch.get(i).getLabeling().value (li), 1e-12);
+			}
+		}
+
+		// setParameter keeps the transposed copy in step
+		me.setParameter (2, 5, 3.0);
+		double[] scores = new double[classNames.length];
+		me.getUnnormalizedClassificationScores (ilist.get(0), scores);
+		me.setFeatureMajor (false);
+		double[] labelMajorScores = new double[classNames.length];
+		me.getUnnormalizedClassificationScores (ilist.get(0), labelMajorScores);
+		for (int li = 0; li < classNames.length; li++)
+			assertEquals (labelMajorScores[li], scores[li], 1e-12);
+	}
+
+	public void testThreadedValueAndGradient ()
+	{
+		Alphabet fd = dictOfSize (10);
+		String[] classNames = new String[] {"class0", "class1", "class2"};
+		InstanceList ilist = new InstanceList (new Randoms(1), fd, classNames, 50);
+		MaxEnt me = new MaxEntTrainer().train(ilist);
+
+		MaxEntOptimizableByLabelLikelihood sequential = new MaxEntOptimizableByLabelLikelihood (ilist, null);
+		MaxEntOptimizableByLabelLikelihood batched = new MaxEntOptimizableByLabelLikelihood (ilist, null).setNumBatches (3);
+		sequential.setParameters (me.getParameters());
+		batched.setParameters (me.getParameters());
+		cc.mallet.optimize.ThreadedOptimizable threaded = new cc.mallet.optimize.ThreadedOptimizable (batched, ilist,
+				batched.getNumParameters(), batched.getCacheStaleIndicator());
+		assertEquals (sequential.getValue(), threaded.getValue(), 1e-8);
+		double[] expected = new double[sequential.getNumParameters()];
+		double[] actual = new double[sequential.getNumParameters()];
+		sequential.getValueGradient (expected);
+		threaded.getValueGradient (actual);
+		for (int i = 0; i < expected.length; i++)
+			assertEquals (expected[i], actual[i], 1e-8);
+
+		// A change of parameters makes the cached value stale
+		expected[0] += 1.0;
+		sequential.setParameters (expected);
+		threaded.setParameters (expected);
+		assertEquals (sequential.getValue(), threaded.getValue(), 1e-8);
+		threaded.shutdown();
+
+		// After a shutdown the threads are started again when needed
+		sequential.setParameters (me.getParameters());
+		threaded.setParameters (me.getParameters());
+		assertEquals (sequential.getValue(), threaded.getValue(), 1e-8);
+		threaded.shutdown();
+
+		// A threaded trainer keeps its optimizer, and so the L-BFGS history, across calls to train
+		MaxEntTrainer trainer3 = new MaxEntTrainer().setNumThreads (3);
+		trainer3.train (ilist, 2);
+		cc.mallet.optimize.Optimizer optimizer = trainer3.getOptimizer();
+		trainer3.train (ilist, 2);
+		assertSame (optimizer, trainer3.getOptimizer());
+
+		// Training with several threads reaches the same classifier
+		MaxEnt me3 = new MaxEntTrainer().setNumThreads (3).train(ilist);
+		for (int i = 0; i < ilist.size(); i++)
+			for (int li = 0; li < classNames.length; li++)
+				assertEquals (me.classify (ilist.get(i)).getLabeling().value (li),
+						me3.classify (ilist.get(i)).getLabeling().value (li), 1e-3);
+	}
+
+	public void testThreadedLabelDistributionValueAndGradient ()
+	{
+		Alphabet fd = dictOfSize (10);
+		String[] classNames = new String[] {"class0", "class1", "class2"};
+		InstanceList ilist = new InstanceList (new Randoms(1), fd, classNames, 50);
+		MaxEnt me = new MaxEntTrainer().train(ilist);
+
+		MaxEntOptimizableByLabelDistribution sequential = new MaxEntOptimizableByLabelDistribution (ilist, null);
+		MaxEntOptimizableByLabelDistribution batched = new MaxEntOptimizableByLabelDistribution (ilist, null).setNumBatches (3);
+		sequential.setParameters (me.getParameters());
+		batched.setParameters (me.getParameters());
+		cc.mallet.optimize.ThreadedOptimizable threaded = new cc.mallet.optimize.ThreadedOptimizable (batched, ilist,
+				batched.getNumParameters(), batched.getCacheStaleIndicator());
+		assertEquals (sequential.getValue(), threaded.getValue(), 1e-8);
+		double[] expected = new double[sequential.getNumParameters()];
+		double[] actual = new double[sequential.getNumParameters()];
+		sequential.getValueGradient (expected);
+		threaded.getValueGradient (actual);
+		for (int i = 0; i < expected.length; i++)
+			assertEquals (expected[i], actual[i], 1e-8);
+		threaded.shutdown();
+	}
+
+	public void testThreadedGEValueAndGradient ()
+	{
+		Alphabet fd = dictOfSize (10);
+		String[] classNames = new String[] {"class0", "class1", "class2"};
+		InstanceList labeled = new InstanceList (new Randoms(1), fd, classNames, 60);
+		// GE trains on unlabeled instances
+		InstanceList ilist = new InstanceList (labeled.getPipe());
+		for (Instance inst : labeled) {
+			Instance copy = new Instance (inst.getData(), inst.getTarget(), inst.getName(), inst.getSource());
+			ilist.add (copy);
+			copy.unLock();
+			copy.setTarget (null);
+		}
+		java.util.HashMap<Integer,double[]> constraints = new java.util.HashMap<Integer,double[]>();
+		constraints.put (0, new double[] {0.7, 0.2, 0.1});
+		constraints.put (3, new double[] {0.1, 0.8, 0.1});
+		constraints.put (7, new double[] {0.3, 0.3, 0.4});
+
+		MaxEntOptimizableByGE sequential = new MaxEntOptimizableByGE (ilist, constraints, null);
+		MaxEntOptimizableByGE threaded = new MaxEntOptimizableByGE (ilist, constraints, null);
+		threaded.setNumThreads (3);
+		double[] parameters = new double[sequential.getNumParameters()];
+		java.util.Random r = new java.util.Random (2);
+		for (int i = 0; i < parameters.length; i++)
+			parameters[i] = r.nextGaussian();
+		sequential.setParameters (parameters);
+		threaded.setParameters (parameters);
+		assertEquals (sequential.getValue(), threaded.getValue(), 1e-8);
+		double[] expected = new double[sequential.getNumParameters()];
+		double[] actual = new double[sequential.getNumParameters()];
+		sequential.getValueGradient (expected);
+		threaded.getValueGradient (actual);
+		for (int i = 0; i < expected.length; i++)
+			assertEquals (expected[i], actual[i], 1e-8);
+
+		// After a shutdown the threads are started again when needed
+		threaded.shutdown();
+		parameters[0] += 1.0;
+		sequential.setParameters (parameters);
+		threaded.setParameters (parameters);
+		assertEquals (sequential.getValue(), threaded.getValue(), 1e-8);
+		threaded.shutdown();
+	}
+
 	public static Test suite ()
 	{
 		return new TestSuite (TestMaxEntTrainer.class);
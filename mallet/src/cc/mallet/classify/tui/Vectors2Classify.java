@@ -17,6 +17,11 @@ import java.io.*;
 import java.util.*;
 import java.util.Random;
 import java.util.logging.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.lang.reflect.*;
 
 import cc.mallet.classify.*;
@@ -33,6 +38,7 @@ public abstract class Vectors2Classify
 	private static Logger logger = MalletLogger.getLogger(Vectors2Classify.class.getName());
 	private static Logger progressLogger = MalletProgressMessageLogger.getLogger(Vectors2Classify.class.getName() + "-pl");
 	private static ArrayList<ClassifierTrainer> classifierTrainers = new ArrayList<ClassifierTrainer>();
+	private static ArrayList<String> classifierTrainerArgs = new ArrayList<String>();
     private static boolean[][] ReportOptions = new boolean[3][4];
     private static String[][] ReportOptionArgs = new String[3][4];  //arg in dataset:reportOption=arg
 	// Essentially an enum mapping string names to enums to ints.
@@ -125,9 +131,11 @@ public abstract class Vectors2Classify
 		 "If no '(' appears, then \"new \" will be prepended and \"Trainer()\" will be appended."+
 		 "You may use this option mutiple times to compare multiple classifiers.", null)
 		{
+			java.lang.String lastArg;
 			public void parseArg (java.lang.String arg) {
 				// parse something like Maxent,gaussianPriorVariance=10,numIterations=20
 				//System.out.println("Arg = " + arg);
+				lastArg = arg;
 
                 // first, split the argument at commas.
 				java.lang.String fields[] = arg.split(",");
@@ -211,6 +219,7 @@ public abstract class Vectors2Classify
 				assert (this.value instanceof ClassifierTrainer);
 				//System.out.println("v2c PostParsing " + this.value);
 				classifierTrainers.add ((ClassifierTrainer)this.value);
+				classifierTrainerArgs.add (lastArg);
 			}
 		};
 
@@ -262,7 +271,14 @@ public abstract class Vectors2Classify
 
 	static CommandOption.Integer numTrialsOption = new CommandOption.Integer
 		(Vectors2Classify.class, "num-trials", "INTEGER", true, 1,
-		 "The number of random train/test splits to perform", null);
+		 "The number of random train/test splits to perform.  Each trial after the first "
+		 +"trains a newly constructed trainer rather than reusing the previous one, so results "
+		 +"can differ from runs that reused a trainer across trials, even with one thread.", null);
+
+	static CommandOption.Integer numThreadsOption = new CommandOption.Integer
+		(Vectors2Classify.class, "num-threads", "INTEGER", true, 1,
+		 "The number of trials and trainers to run at the same time.  "
+		 +"Reports are still printed in trial order.", null);
 
 	static CommandOption.Object classifierEvaluatorOption = new CommandOption.Object
 		(Vectors2Classify.class, "classifier-evaluator", "CONSTRUCTOR", true, null,
@@ -408,157 +424,86 @@ public abstract class Vectors2Classify
 		//			System.out.println();
 		//		}
 
-		for (int trialIndex = 0; trialIndex < numTrials; trialIndex++) {
-			System.out.println("\n-------------------- Trial " + trialIndex + "  --------------------\n");
-			InstanceList[] ilists;
-			BitSet unlabeledIndices = null;
-			if (!separateIlists){
-				ilists = ilist.split (r, new double[] {t, 1-t-v, v});
-			} else {
-				ilists = new InstanceList[3];
-				ilists[0] = trainingFileIlist;
-				ilists[1] = testFileIlist;
-				ilists[2] = validationFileIlist;
-			}
-			if (unlabeledProportionOption.value > 0)
-				unlabeledIndices = new cc.mallet.util.Randoms(r.nextInt())
-					.nextBitSet(ilists[0].size(),
-								unlabeledProportionOption.value);
-
-
-			//InfoGain ig = new InfoGain (ilists[0]);
-			//int igl = Math.min (10, ig.numLocations());
-			//for (int i = 0; i < igl; i++)
-			//System.out.println ("InfoGain["+ig.getObjectAtRank(i)+"]="+ig.getValueAtRank(i));
-			//ig.print();
-
-			//FeatureSelection selectedFeatures = new FeatureSelection (ig, 8000);
-			//ilists[0].setFeatureSelection (selectedFeatures);
-			//OddsRatioFeatureInducer orfi = new OddsRatioFeatureInducer (ilists[0]);
-			//orfi.induceFeatures (ilists[0], false, true);
-
-
-			//System.out.println ("Training with "+ilists[0].size()+" instances");
-			long time[] = new long[trainers.length];
-			for (int c = 0; c < trainers.length; c++){
-				time[c] = System.currentTimeMillis();
-				System.out.println ("Trial " + trialIndex + " Training " + trainers[c].toString() + " with "+ilists[0].size()+" instances");
-				if (unlabeledProportionOption.value > 0)
-					ilists[0].hideSomeLabels(unlabeledIndices);
-				trainers[c].setValidationInstances(ilists[2]);
-				Classifier classifier = trainers[c].train (ilists[0]);
-				if (unlabeledProportionOption.value > 0)
-					ilists[0].unhideAllLabels();
-
-				System.out.println ("Trial " + trialIndex + " Training " + trainers[c].toString() + " finished");
-				time[c] = System.currentTimeMillis() - time[c];
-				Trial trainTrial = new Trial (classifier, ilists[0]);
-				//assert (ilists[1].size() > 0);
-				Trial testTrial = new Trial (classifier, ilists[1]);
-				Trial validationTrial = new Trial(classifier, ilists[2]);
-
-				// gdruck - only perform evaluation if requested in report options
-				if (ReportOptions[ReportOption.train][ReportOption.confusion] && ilists[0].size()>0) 
-					trainConfusionMatrix[c][trialIndex] = new ConfusionMatrix (trainTrial).toString();
-				if (ReportOptions[ReportOption.test][ReportOption.confusion] && ilists[1].size()>0) 
-					testConfusionMatrix[c][trialIndex] = new ConfusionMatrix (testTrial).toString();
-				if (ReportOptions[ReportOption.validation][ReportOption.confusion] && ilists[2].size()>0) 
-					validationConfusionMatrix[c][trialIndex] = new ConfusionMatrix (validationTrial).toString();
-
-				// gdruck - only perform evaluation if requested in report options
-				if (ReportOptions[ReportOption.train][ReportOption.accuracy]) 
-					trainAccuracy[c][trialIndex] = trainTrial.getAccuracy();
-				if (ReportOptions[ReportOption.test][ReportOption.accuracy]) 
-					testAccuracy[c][trialIndex] = testTrial.getAccuracy();
-				if (ReportOptions[ReportOption.validation][ReportOption.accuracy]) 
-					validationAccuracy[c][trialIndex] = validationTrial.getAccuracy();
-
-				if (outputFile.wasInvoked()) {
-					String filename = outputFile.value;
-					if (trainers.length > 1) filename = filename+trainers[c].toString();
-					if (numTrials > 1) filename = filename+".trial"+trialIndex;
-					try {
-						ObjectOutputStream oos = new ObjectOutputStream
-							(new FileOutputStream (filename));
-						oos.writeObject (classifier);
-						oos.close();
-					} catch (Exception e) {
-						e.printStackTrace();
-						throw new IllegalArgumentException ("Couldn't write classifier to filename "+
-															filename);
-					}
-				}
-				
-				// New Reporting
-
-                // raw output
-				if (ReportOptions[ReportOption.train][ReportOption.raw]){
-					System.out.println("Trial " + trialIndex + " Trainer " + trainers[c].toString());
-					System.out.println(" Raw Training Data");
-					printTrialClassification(trainTrial);
-				}
-
-				if (ReportOptions[ReportOption.test][ReportOption.raw]){
-					System.out.println("Trial " + trialIndex + " Trainer " + trainers[c].toString());
-					System.out.println(" Raw Testing Data");
-					printTrialClassification(testTrial);
-				}
-
-				if (ReportOptions[ReportOption.validation][ReportOption.raw]){
-					System.out.println("Trial " + trialIndex + " Trainer " + trainers[c].toString());
-					System.out.println(" Raw Validation Data");
-					printTrialClassification(validationTrial);
-				}
-
-
-				//train
-				if (ReportOptions[ReportOption.train][ReportOption.confusion]){
-					System.out.println("Trial " + trialIndex + " Trainer " + trainers[c].toString() +  " Training Data Confusion Matrix");
-					if (ilists[0].size()>0) System.out.println (trainConfusionMatrix[c][trialIndex]);
-				}
-
-				if (ReportOptions[ReportOption.train][ReportOption.accuracy]){
-					System.out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " training data accuracy= "+ trainAccuracy[c][trialIndex]);
-				}
-
-				if (ReportOptions[ReportOption.train][ReportOption.f1]){
-					String label = ReportOptionArgs[ReportOption.train][ReportOption.f1];
-					System.out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " training data F1(" + label + ") = "+ trainTrial.getF1(label));
-				}
-
-				//validation
-				if (ReportOptions[ReportOption.validation][ReportOption.confusion]){
-					System.out.println("Trial " + trialIndex + " Trainer " + trainers[c].toString() +  " Validation Data Confusion Matrix");
-					if (ilists[2].size()>0) System.out.println (validationConfusionMatrix[c][trialIndex]);
-				}
-
-				if (ReportOptions[ReportOption.validation][ReportOption.accuracy]){
-					System.out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " validation data accuracy= "+ validationAccuracy[c][trialIndex]);
-				}
-
-				if (ReportOptions[ReportOption.validation][ReportOption.f1]){
-					String label = ReportOptionArgs[ReportOption.validation][ReportOption.f1];
-					System.out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " validation data F1(" + label + ") = "+ validationTrial.getF1(label));
-				}
-
-				//test
-				if (ReportOptions[ReportOption.test][ReportOption.confusion]){
-					System.out.println("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " Test Data Confusion Matrix");
-					if (ilists[1].size()>0) System.out.println (testConfusionMatrix[c][trialIndex]);
-				}
-
-				if (ReportOptions[ReportOption.test][ReportOption.accuracy]){
-					System.out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " test data accuracy= "+ testAccuracy[c][trialIndex]);
-				}
+		int numThreads = numThreadsOption.value;
+		if (numThreads > 1 && unlabeledProportionOption.value > 0) {
+			// hiding labels modifies the training instances, which all trials share
+			logger.warning ("Ignoring --num-threads, since --unlabeled-portion is set");
+			numThreads = 1;
+		}
 
-				if (ReportOptions[ReportOption.test][ReportOption.f1]){
-					String label = ReportOptionArgs[ReportOption.test][ReportOption.f1];
-					System.out.println ("Trial " + trialIndex + " Trainer " + trainers[c].toString() + " test data F1(" + label + ") = "+ testTrial.getF1(label));
+		// Splits are drawn from r one trial at a time, in trial order, so that
+		// results do not depend on the number of threads.  With one thread each
+		// split is drawn just before its trial; with several, up to numThreads
+		// trials are drawn and training ahead of the one being reported, so
+		// only that many splits are held at once.
+		ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool (numThreads) : null;
+		int trialsAhead = numThreads > 1 ? numThreads : 1;
+		LinkedList<TrainerTrial[]> pendingTrials = new LinkedList<TrainerTrial[]>();
+		LinkedList<Future<Object>> pendingFutures = new LinkedList<Future<Object>>();
+		int nextTrial = 0;
+		try {
+			for (int trialIndex = 0; trialIndex < numTrials; trialIndex++) {
+				while (nextTrial < numTrials && nextTrial < trialIndex + trialsAhead) {
+					InstanceList[] ilists;
+					BitSet unlabeledIndices = null;
+					if (!separateIlists){
+						ilists = ilist.split (r, new double[] {t, 1-t-v, v});
+					} else {
+						ilists = new InstanceList[3];
+						ilists[0] = trainingFileIlist;
+						ilists[1] = testFileIlist;
+						ilists[2] = validationFileIlist;
+					}
+					if (unlabeledProportionOption.value > 0)
+						unlabeledIndices = new cc.mallet.util.Randoms(r.nextInt())
+							.nextBitSet(ilists[0].size(),
+										unlabeledProportionOption.value);
+
+					TrainerTrial[] trainerTrials = new TrainerTrial[trainers.length];
+					for (int c = 0; c < trainers.length; c++) {
+						// Trainers keep state between calls to train() (MaxEntTrainer starts from
+						// its last classifier, for example), so each trial gets its own copy.
+						// This keeps trials independent of each other and of the thread count.
+						ClassifierTrainer<?> trainer = nextTrial == 0 ? trainers[c] : newTrainer (c);
+						trainerTrials[c] = new TrainerTrial (nextTrial, trainer, ilists, unlabeledIndices,
+						                                     trainers.length, numTrials);
+						if (executor != null)
+							pendingFutures.add (executor.submit (trainerTrials[c]));
+					}
+					pendingTrials.add (trainerTrials);
+					nextTrial++;
 				}
 
-
-			}  // end for each trainer
-		}  // end for each trial
+				TrainerTrial[] trainerTrials = pendingTrials.removeFirst();
+				System.out.println("\n-------------------- Trial " + trialIndex + "  --------------------\n");
+				for (int c = 0; c < trainers.length; c++){
+					TrainerTrial trainerTrial = trainerTrials[c];
+					if (executor != null) {
+						try {
+							pendingFutures.removeFirst().get();
+						} catch (ExecutionException ee) {
+							throw new IllegalStateException ("Trial failed", ee.getCause());
+						}
+						System.out.print (trainerTrial.report);
+					}
+					else
+						trainerTrial.run (System.out);
+
+					trainAccuracy[c][trialIndex] = trainerTrial.trainAccuracy;
+					testAccuracy[c][trialIndex] = trainerTrial.testAccuracy;
+					validationAccuracy[c][trialIndex] = trainerTrial.validationAccuracy;
+					trainConfusionMatrix[c][trialIndex] = trainerTrial.trainConfusionMatrix;
+					testConfusionMatrix[c][trialIndex] = trainerTrial.testConfusionMatrix;
+					validationConfusionMatrix[c][trialIndex] = trainerTrial.validationConfusionMatrix;
+				}  // end for each trainer
+			}  // end for each trial
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException (ie);
+		} finally {
+			if (executor != null)
+				executor.shutdownNow();
+		}
 
         // New reporting
 		//"[train|test|validation]:[accuracy|f1|confusion|raw]"
@@ -582,16 +527,181 @@ public abstract class Vectors2Classify
 		}   // end for each trainer
 	}
 
-	private static void printTrialClassification(Trial trial)
+	/** Trains one trainer on one trial's split and evaluates it, reporting
+	 * to the given stream.  When run as a task the report is kept in
+	 * <code>report</code>, so that reports can be printed in trial order. */
+	private static class TrainerTrial implements Callable<Object>
+	{
+		int trialIndex;
+		ClassifierTrainer<?> trainer;
+		InstanceList[] ilists;
+		BitSet unlabeledIndices;
+		int numTrainers;
+		int numTrials;
+
+		double trainAccuracy, testAccuracy, validationAccuracy;
+		String trainConfusionMatrix, testConfusionMatrix, validationConfusionMatrix;
+		String report;
+
+		public TrainerTrial (int trialIndex, ClassifierTrainer<?> trainer, InstanceList[] ilists,
+		                     BitSet unlabeledIndices, int numTrainers, int numTrials)
+		{
+			this.trialIndex = trialIndex;
+			this.trainer = trainer;
+			this.ilists = ilists;
+			this.unlabeledIndices = unlabeledIndices;
+			this.numTrainers = numTrainers;
+			this.numTrials = numTrials;
+		}
+
+		public Object call ()
+		{
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			PrintStream out = new PrintStream (buffer);
+			run (out);
+			out.flush();
+			report = buffer.toString();
+			return null;
+		}
+
+		public void run (PrintStream out)
+		{
+			long time = System.currentTimeMillis();
+			out.println ("Trial " + trialIndex + " Training " + trainer.toString() + " with "+ilists[0].size()+" instances");
+			if (unlabeledProportionOption.value > 0)
+				ilists[0].hideSomeLabels(unlabeledIndices);
+			trainer.setValidationInstances(ilists[2]);
+			Classifier classifier = trainer.train (ilists[0]);
+			if (unlabeledProportionOption.value > 0)
+				ilists[0].unhideAllLabels();
+
+			out.println ("Trial " + trialIndex + " Training " + trainer.toString() + " finished");
+			time = System.currentTimeMillis() - time;
+			Trial trainTrial = new Trial (classifier, ilists[0]);
+			//assert (ilists[1].size() > 0);
+			Trial testTrial = new Trial (classifier, ilists[1]);
+			Trial validationTrial = new Trial(classifier, ilists[2]);
+
+			// gdruck - only perform evaluation if requested in report options
+			if (ReportOptions[ReportOption.train][ReportOption.confusion] && ilists[0].size()>0) 
+				trainConfusionMatrix = new ConfusionMatrix (trainTrial).toString();
+			if (ReportOptions[ReportOption.test][ReportOption.confusion] && ilists[1].size()>0) 
+				testConfusionMatrix = new ConfusionMatrix (testTrial).toString();
+			if (ReportOptions[ReportOption.validation][ReportOption.confusion] && ilists[2].size()>0) 
+				validationConfusionMatrix = new ConfusionMatrix (validationTrial).toString();
+
+			// gdruck - only perform evaluation if requested in report options
+			if (ReportOptions[ReportOption.train][ReportOption.accuracy]) 
+				trainAccuracy = trainTrial.getAccuracy();
+			if (ReportOptions[ReportOption.test][ReportOption.accuracy]) 
+				testAccuracy = testTrial.getAccuracy();
+			if (ReportOptions[ReportOption.validation][ReportOption.accuracy]) 
+				validationAccuracy = validationTrial.getAccuracy();
+
+			if (outputFile.wasInvoked()) {
+				String filename = outputFile.value;
+				if (numTrainers > 1) filename = filename+trainer.toString();
+				if (numTrials > 1) filename = filename+".trial"+trialIndex;
+				try {
+					ObjectOutputStream oos = new ObjectOutputStream
+						(new FileOutputStream (filename));
+					oos.writeObject (classifier);
+					oos.close();
+				} catch (Exception e) {
+					e.printStackTrace();
+					throw new IllegalArgumentException ("Couldn't write classifier to filename "+
+														filename);
+				}
+			}
+			
+			// New Reporting
+
+                // raw output
+			if (ReportOptions[ReportOption.train][ReportOption.raw]){
+				out.println("Trial " + trialIndex + " Trainer " + trainer.toString());
+				out.println(" Raw Training Data");
+				printTrialClassification(trainTrial, out);
+			}
+
+			if (ReportOptions[ReportOption.test][ReportOption.raw]){
+				out.println("Trial " + trialIndex + " Trainer " + trainer.toString());
+				out.println(" Raw Testing Data");
+				printTrialClassification(testTrial, out);
+			}
+
+			if (ReportOptions[ReportOption.validation][ReportOption.raw]){
+				out.println("Trial " + trialIndex + " Trainer " + trainer.toString());
+				out.println(" Raw Validation Data");
+				printTrialClassification(validationTrial, out);
+			}
+
+
+			//train
+			if (ReportOptions[ReportOption.train][ReportOption.confusion]){
+				out.println("Trial " + trialIndex + " Trainer " + trainer.toString() +  " Training Data Confusion Matrix");
+				if (ilists[0].size()>0) out.println (trainConfusionMatrix);
+			}
+
+			if (ReportOptions[ReportOption.train][ReportOption.accuracy]){
+				out.println ("Trial " + trialIndex + " Trainer " + trainer.toString() + " training data accuracy= "+ trainAccuracy);
+			}
+
+			if (ReportOptions[ReportOption.train][ReportOption.f1]){
+				String label = ReportOptionArgs[ReportOption.train][ReportOption.f1];
+				out.println ("Trial " + trialIndex + " Trainer " + trainer.toString() + " training data F1(" + label + ") = "+ trainTrial.getF1(label));
+			}
+
+			//validation
+			if (ReportOptions[ReportOption.validation][ReportOption.confusion]){
+				out.println("Trial " + trialIndex + " Trainer " + trainer.toString() +  " Validation Data Confusion Matrix");
+				if (ilists[2].size()>0) out.println (validationConfusionMatrix);
+			}
+
+			if (ReportOptions[ReportOption.validation][ReportOption.accuracy]){
+				out.println ("Trial " + trialIndex + " Trainer " + trainer.toString() + " validation data accuracy= "+ validationAccuracy);
+			}
+
+			if (ReportOptions[ReportOption.validation][ReportOption.f1]){
+				String label = ReportOptionArgs[ReportOption.validation][ReportOption.f1];
+				out.println ("Trial " + trialIndex + " Trainer " + trainer.toString() + " validation data F1(" + label + ") = "+ validationTrial.getF1(label));
+			}
+
+			//test
+			if (ReportOptions[ReportOption.test][ReportOption.confusion]){
+				out.println("Trial " + trialIndex + " Trainer " + trainer.toString() + " Test Data Confusion Matrix");
+				if (ilists[1].size()>0) out.println (testConfusionMatrix);
+			}
+
+			if (ReportOptions[ReportOption.test][ReportOption.accuracy]){
+				out.println ("Trial " + trialIndex + " Trainer " + trainer.toString() + " test data accuracy= "+ testAccuracy);
+			}
+
+			if (ReportOptions[ReportOption.test][ReportOption.f1]){
+				String label = ReportOptionArgs[ReportOption.test][ReportOption.f1];
+				out.println ("Trial " + trialIndex + " Trainer " + trainer.toString() + " test data F1(" + label + ") = "+ testTrial.getF1(label));
+			}
+		}
+	}
+
+	/** Returns a newly constructed copy of the <code>c</code>th trainer given on the command line. */
+	private static ClassifierTrainer<?> newTrainer (int c)
+	{
+		if (classifierTrainerArgs.isEmpty())
+			return new NaiveBayesTrainer();
+		trainerConstructor.parseArg (classifierTrainerArgs.get(c));
+		return (ClassifierTrainer<?>) trainerConstructor.value;
+	}
+
+	private static void printTrialClassification(Trial trial, PrintStream out)
 	{
 		for (Classification c : trial) {
 			Instance instance = c.getInstance();
-			System.out.print(instance.getName() + " " + instance.getTarget() + " ");
+			out.print(instance.getName() + " " + instance.getTarget() + " ");
 			Labeling labeling = c.getLabeling();
 			for (int j = 0; j < labeling.numLocations(); j++){
-				System.out.print(labeling.getLabelAtRank(j).toString() + ":" + labeling.getValueAtRank(j) + " ");
+				out.print(labeling.getLabelAtRank(j).toString() + ":" + labeling.getValueAtRank(j) + " ");
 			}
-			System.out.println();
+			out.println();
 		}
 	}
 
@@ -127,6 +127,9 @@ public class CRF extends Transducer implements Serializable
 	
 	protected int cachedNumParametersStamp = -1; // A copy of weightsStructureChangeStamp the last time numParameters was calculated
 	protected int numParameters;
+
+	// Each thread's dot products of the weights with the input at the position it is currently working on
+	protected transient ThreadLocal<WeightDotProducts> weightDotProducts = new ThreadLocal<WeightDotProducts>();
 	
 	
 	/** A simple, transparent container to hold the parameters or sufficient statistics for the CRF. */
@@ -346,6 +349,59 @@ public class CRF extends Transducer implements Serializable
 			}
 		}
 		
+		/** Add the gradient of the Gaussian prior on these parameters to <code>buffer</code>,
+		 * which is laid out as in <code>getParameters</code>. */
+		public void plusEqualsGaussianPriorGradient (double[] buffer, double variance) {
+			assert (buffer.length == getNumFactors());
+			plusEqualsGaussianPriorGradient (buffer, variance, 0, buffer.length);
+		}
+
+		/** Add the gradient of the Gaussian prior to elements <code>start</code> to
+		 * <code>end-1</code> of <code>buffer</code> only. */
+		public void plusEqualsGaussianPriorGradient (double[] buffer, double variance, int start, int end) {
+			for (int pi = start; pi < Math.min (end, 2 * initialWeights.length); pi++) {
+				double w = pi % 2 == 0 ? initialWeights[pi/2] : finalWeights[pi/2];
+				if (!Double.isInfinite(w)) buffer[pi] -= w / variance;
+			}
+			int offset = 2 * initialWeights.length;
+			for (int i = 0; i < weights.length && offset < end; i++) {
+				int nl = weights[i].numLocations();
+				if (!weightsFrozen[i] && offset + 1 + nl > start) {
+					if (offset >= start) buffer[offset] -= defaultWeights[i] / variance;
+					for (int j = Math.max (start - offset - 1, 0); j < nl && offset + 1 + j < end; j++)
+						buffer[offset + 1 + j] -= weights[i].valueAtLocation(j) / variance;
+				}
+				offset += 1 + nl;
+			}
+		}
+
+		/** Add the gradient of the hyperbolic prior on these parameters to <code>buffer</code>,
+		 * which is laid out as in <code>getParameters</code>. */
+		public void plusEqualsHyperbolicPriorGradient (double[] buffer, double slope, double sharpness) {
+			assert (buffer.length == getNumFactors());
+			plusEqualsHyperbolicPriorGradient (buffer, slope, sharpness, 0, buffer.length);
+		}
+
+		/** Add the gradient of the hyperbolic prior to elements <code>start</code> to
+		 * <code>end-1</code> of <code>buffer</code> only. */
+		public void plusEqualsHyperbolicPriorGradient (double[] buffer, double slope, double sharpness, int start, int end) {
+			double ss = slope * sharpness;
+			for (int pi = start; pi < Math.min (end, 2 * initialWeights.length); pi++) {
+				double w = pi % 2 == 0 ? initialWeights[pi/2] : finalWeights[pi/2];
+				if (!Double.isInfinite(w)) buffer[pi] += ss * Maths.tanh (-w);
+			}
+			int offset = 2 * initialWeights.length;
+			for (int i = 0; i < weights.length && offset < end; i++) {
+				int nl = weights[i].numLocations();
+				if (!weightsFrozen[i] && offset + 1 + nl > start) {
+					if (offset >= start) buffer[offset] += ss * Maths.tanh (-defaultWeights[i]);
+					for (int j = Math.max (start - offset - 1, 0); j < nl && offset + 1 + j < end; j++)
+						buffer[offset + 1 + j] += ss * Maths.tanh (-weights[i].valueAtLocation(j));
+				}
+				offset += 1 + nl;
+			}
+		}
+
 		/** Instances of this inner class can be passed to various inference methods, which can then 
 		 * gather/increment sufficient statistics counts into the containing Factor instance. */
 		public class Incrementor implements Transducer.Incrementor {
@@ -434,6 +490,24 @@ public class CRF extends Transducer implements Serializable
 			}
 		}
 
+		/** Set elements <code>start</code> to <code>end-1</code> of <code>buffer</code> to those
+		 * of <code>getParameters</code>, leaving the others alone. */
+		public void getParameters (double[] buffer, int start, int end)
+		{
+			for (int pi = start; pi < Math.min (end, 2 * initialWeights.length); pi++)
+				buffer[pi] = pi % 2 == 0 ? initialWeights[pi/2] : finalWeights[pi/2];
+			int offset = 2 * initialWeights.length;
+			for (int i = 0; i < weights.length && offset < end; i++) {
+				int nl = weights[i].numLocations();
+				if (offset + 1 + nl > start) {
+					if (offset >= start) buffer[offset] = defaultWeights[i];
+					for (int j = Math.max (start - offset - 1, 0); j < nl && offset + 1 + j < end; j++)
+						buffer[offset + 1 + j] = weights[i].valueAtLocation(j);
+				}
+				offset += 1 + nl;
+			}
+		}
+
 		public double getParameter (int index) {
 			int numStateParms = 2 * initialWeights.length;
 			if (index < numStateParms) {
@@ -517,6 +591,286 @@ public class CRF extends Transducer implements Serializable
 			finalWeights = (double[]) in.readObject ();
 		}
 	}
+
+	/**
+	 * Sufficient statistics, such as expectations, for the parameters of a Factors,
+	 * stored only for the parameters that have been incremented since the last
+	 * <code>clear()</code>.  Parameters are identified by their index in
+	 * <code>Factors.getParameters</code>.
+	 * <p>
+	 * A batch of sentences touches only a small part of a large model, so this
+	 * takes much less memory than a Factors, and is cleared and added into a
+	 * gradient in time proportional to the parameters touched rather than to the
+	 * size of the model.  When a batch touches a large part of the model instead,
+	 * hashing costs more than it saves, and the weights of features can be kept
+	 * densely, indexed by parameter index.
+	 */
+	public static class SparseFactors {
+		Factors structure;
+		int[] weightsOffsets;	// indexed by weights index, the parameter index of its default weight
+		// The few per-state and per-weights-group parameters are kept densely
+		double[] initialWeights, finalWeights, defaultWeights;
+		// and the weights of features sparsely, in an open-addressing hash table keyed
+		// by parameter index, with the slots in use listed so they can be visited and
+		// cleared without scanning the table
+		int[] keys;
+		double[] values;
+		int[] slotsUsed;
+		int size;
+		// the parameter index and slot of the first numSorted slots in use, packed
+		// as (index << 32 | slot) and sorted by finish()
+		long[] sortedSlots;
+		int numSorted;
+		// or densely, by parameter index, if not null
+		double[] denseValues;
+
+		/** Construct empty statistics for parameters with the structure of <code>structure</code>,
+		 * which is not copied, and whose weightsFrozen are obeyed. */
+		public SparseFactors (Factors structure) {
+			this (structure, false);
+		}
+
+		/** Construct empty statistics as above, keeping the weights of features in
+		 * a dense array the size of the model if <code>dense</code> is true. */
+		public SparseFactors (Factors structure, boolean dense) {
+			this.structure = structure;
+			weightsOffsets = new int[structure.weights.length];
+			int pi = 2 * structure.initialWeights.length;
+			for (int i = 0; i < weightsOffsets.length; i++) {
+				weightsOffsets[i] = pi;
+				pi += 1 + structure.weights[i].numLocations();
+			}
+			initialWeights = new double[structure.initialWeights.length];
+			finalWeights = new double[structure.finalWeights.length];
+			defaultWeights = new double[structure.defaultWeights.length];
+			if (dense)
+				denseValues = new double[pi];
+			else
+				allocate (1024);
+		}
+
+		/** Return true if the weights of features are kept densely. */
+		public boolean isDense () {
+			return denseValues != null;
+		}
+
+		private void allocate (int capacity) {
+			keys = new int[capacity];
+			Arrays.fill (keys, -1);
+			values = new double[capacity];
+			slotsUsed = new int[capacity / 2];
+			size = 0;
+		}
+
+		public void clear () {
+			Arrays.fill (initialWeights, 0);
+			Arrays.fill (finalWeights, 0);
+			Arrays.fill (defaultWeights, 0);
+			if (denseValues != null) {
+				Arrays.fill (denseValues, 0);
+				return;
+			}
+			for (int i = 0; i < size; i++) {
+				keys[slotsUsed[i]] = -1;
+				values[slotsUsed[i]] = 0;
+			}
+			size = 0;
+			numSorted = 0;
+		}
+
+		/** Return the number of feature weights incremented since the last clear(),
+		 * or the number of all of them if they are kept densely. */
+		public int size () {
+			return denseValues != null ? denseValues.length : size;
+		}
+
+		private void incrementWeight (int index, double count) {
+			if (denseValues != null) {
+				denseValues[index] += count;
+				return;
+			}
+			int mask = keys.length - 1;
+			int slot = (index * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(keys.length)) & mask;
+			while (keys[slot] != index) {
+				if (keys[slot] == -1) {
+					if (size == slotsUsed.length) {
+						grow ();
+						incrementWeight (index, count);
+						return;
+					}
+					keys[slot] = index;
+					slotsUsed[size++] = slot;
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+			values[slot] += count;
+		}
+
+		// Double the table, keeping it at most half full
+		private void grow () {
+			int[] oldKeys = keys;
+			double[] oldValues = values;
+			int[] oldSlots = slotsUsed;
+			int oldSize = size;
+			allocate (keys.length * 2);
+			for (int i = 0; i < oldSize; i++)
+				incrementWeight (oldKeys[oldSlots[i]], oldValues[oldSlots[i]]);
+		}
+
+		public void incrementInitialState (Transducer.State s, double count) {
+			initialWeights[s.getIndex()] += count;
+		}
+
+		public void incrementFinalState (Transducer.State s, double count) {
+			finalWeights[s.getIndex()] += count;
+		}
+
+		/** Increment the default weight and the weights of the input features of each
+		 * weights group of a transition, as in <code>Factors.Incrementor</code>. */
+		public void incrementTransition (Transducer.TransitionIterator ti, double count) {
+			int index = ti.getIndex();
+			CRF.State source = (CRF.State)ti.getSourceState();
+			FeatureVector input = (FeatureVector)ti.getInput();
+			int[] weightsIndices = source.weightsIndices[index];
+			for (int wi = 0; wi < weightsIndices.length; wi++) {
+				int weightsIndex = weightsIndices[wi];
+				// For frozen weights, don't even gather their sufficient statistics; this is how we ensure that the gradient for these will be zero
+				if (structure.weightsFrozen[weightsIndex]) continue;
+				defaultWeights[weightsIndex] += count;
+				SparseVector weights = structure.weights[weightsIndex];
+				int offset = weightsOffsets[weightsIndex] + 1;
+				int numLocations = weights.numLocations();
+				for (int fl = 0; fl < input.numLocations(); fl++) {
+					// Features that have no weight in this group are ignored, as in plusEqualsSparse
+					int location = weights.location (input.indexAtLocation(fl));
+					if (location >= 0 && location < numLocations) {
+						double increment = count * input.valueAtLocation(fl);
+						incrementWeight (offset + location, increment);
+					}
+				}
+			}
+		}
+
+		/** Add <code>factor</code> times these statistics to <code>buffer</code>, which is
+		 * laid out as in <code>Factors.getParameters</code>. */
+		public void addTo (double[] buffer, double factor) {
+			if (denseValues != null) {
+				addTo (buffer, factor, 0, buffer.length);
+				return;
+			}
+			for (int i = 0; i < initialWeights.length; i++) {
+				buffer[2*i] += factor * initialWeights[i];
+				buffer[2*i+1] += factor * finalWeights[i];
+			}
+			for (int i = 0; i < defaultWeights.length; i++)
+				buffer[weightsOffsets[i]] += factor * defaultWeights[i];
+			for (int i = 0; i < size; i++)
+				buffer[keys[slotsUsed[i]]] += factor * values[slotsUsed[i]];
+		}
+
+		/** Sort the feature weights incremented so far by parameter index, so that
+		 * <code>addTo</code> can add a range of them.  Call again after further
+		 * increments. */
+		public void finish () {
+			if (denseValues != null)
+				return;
+			if (sortedSlots == null || sortedSlots.length < size)
+				sortedSlots = new long[slotsUsed.length];
+			for (int i = 0; i < size; i++)
+				sortedSlots[i] = (long) keys[slotsUsed[i]] << 32 | slotsUsed[i];
+			Arrays.sort (sortedSlots, 0, size);
+			numSorted = size;
+		}
+
+		/** Add <code>factor</code> times these statistics to elements <code>start</code> to
+		 * <code>end-1</code> of <code>buffer</code> only, as in <code>addTo (buffer, factor)</code>.
+		 * Unless they are kept densely, <code>finish()</code> must have been called since the
+		 * feature weights were last incremented.  Threads may call this at once for
+		 * disjoint ranges. */
+		public void addTo (double[] buffer, double factor, int start, int end) {
+			for (int pi = start; pi < Math.min (end, 2 * initialWeights.length); pi++)
+				buffer[pi] += factor * (pi % 2 == 0 ? initialWeights[pi/2] : finalWeights[pi/2]);
+			for (int i = 0; i < defaultWeights.length; i++)
+				if (weightsOffsets[i] >= start && weightsOffsets[i] < end)
+					buffer[weightsOffsets[i]] += factor * defaultWeights[i];
+			if (denseValues != null) {
+				// the entries of state and default weights are zero
+				for (int pi = start; pi < end; pi++)
+					buffer[pi] += factor * denseValues[pi];
+				return;
+			}
+			assert (numSorted == size) : "finish() not called after the last increment";
+			// binary search for the first index at or after start
+			long first = (long) start << 32;
+			int lo = 0, hi = numSorted;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (sortedSlots[mid] < first)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			for (int i = lo; i < numSorted && (int) (sortedSlots[i] >>> 32) < end; i++) {
+				int slot = (int) sortedSlots[i];
+				buffer[keys[slot]] += factor * values[slot];
+			}
+		}
+
+		/** Add <code>factor</code> times the statistics of <code>other</code>, which must
+		 * have the same structure, to these. */
+		public void plusEquals (SparseFactors other, double factor) {
+			assert (other.weightsOffsets.length == weightsOffsets.length);
+			for (int i = 0; i < initialWeights.length; i++) {
+				initialWeights[i] += factor * other.initialWeights[i];
+				finalWeights[i] += factor * other.finalWeights[i];
+			}
+			for (int i = 0; i < defaultWeights.length; i++)
+				defaultWeights[i] += factor * other.defaultWeights[i];
+			if (other.denseValues != null) {
+				for (int i = 0; i < other.denseValues.length; i++)
+					if (other.denseValues[i] != 0)
+						incrementWeight (i, factor * other.denseValues[i]);
+				return;
+			}
+			for (int i = 0; i < other.size; i++)
+				incrementWeight (other.keys[other.slotsUsed[i]], factor * other.values[other.slotsUsed[i]]);
+		}
+
+		public void assertNotNaNOrInfinite () {
+			assert (!MatrixOps.isNaNOrInfinite(initialWeights));
+			assert (!MatrixOps.isNaNOrInfinite(finalWeights));
+			assert (!MatrixOps.isNaNOrInfinite(defaultWeights));
+			if (denseValues != null) {
+				assert (!MatrixOps.isNaNOrInfinite(denseValues));
+				return;
+			}
+			for (int i = 0; i < size; i++)
+				assert (!Double.isNaN(values[slotsUsed[i]]) && !Double.isInfinite(values[slotsUsed[i]]));
+		}
+
+		/** Instances of this inner class can be passed to inference methods, which
+		 * then increment the statistics of the containing SparseFactors, weighted by
+		 * the weight of the instance. */
+		public class Incrementor implements Transducer.Incrementor {
+			double instanceWeight;
+			public Incrementor () {
+				this (1.0);
+			}
+			public Incrementor (double instanceWeight) {
+				this.instanceWeight = instanceWeight;
+			}
+			public void incrementFinalState(Transducer.State s, double count) {
+				SparseFactors.this.incrementFinalState (s, count * instanceWeight);
+			}
+			public void incrementInitialState(Transducer.State s, double count) {
+				SparseFactors.this.incrementInitialState (s, count * instanceWeight);
+			}
+			public void incrementTransition(Transducer.TransitionIterator ti, double count) {
+				SparseFactors.this.incrementTransition (ti, count * instanceWeight);
+			}
+		}
+	}
 	
 	public CRF (Pipe inputPipe, Pipe outputPipe)
 	{
@@ -1664,6 +2018,56 @@ public class CRF extends Transducer implements Serializable
 		weightsStructureChangeStamp = in.readInt ();
 		cachedNumParametersStamp = in.readInt ();
 		numParameters = in.readInt ();
+		weightDotProducts = new ThreadLocal<WeightDotProducts>();
+	}
+
+	/** Return the dot products of all weights with <code>fv</code>, for use by
+	 * TransitionIterators.  With fully-connected states every weight vector is
+	 * used by many transitions at the same input position, so the products are
+	 * computed at most once per position and reused until the input, or the
+	 * weights (as reported by weightsValueChanged()), change.  Each thread has
+	 * its own cache. */
+	public WeightDotProducts getWeightDotProducts (FeatureVector fv) {
+		WeightDotProducts cache = weightDotProducts.get();
+		if (cache == null) {
+			cache = new WeightDotProducts();
+			weightDotProducts.set(cache);
+		}
+		cache.setInput(fv, parameters, weightsValueChangeStamp);
+		return cache;
+	}
+
+	/** The dot products of each weights vector with one input FeatureVector,
+	 * plus the corresponding default weight, computed lazily. */
+	public static class WeightDotProducts {
+		FeatureVector input;
+		Factors parameters;
+		int stamp;
+		double[] values = new double[0];
+
+		protected void setInput (FeatureVector fv, Factors parameters, int stamp) {
+			if (fv == input && parameters == this.parameters && stamp == this.stamp
+					&& values.length == parameters.weights.length)
+				return;
+			this.input = fv;
+			this.parameters = parameters;
+			this.stamp = stamp;
+			if (values.length != parameters.weights.length)
+				values = new double[parameters.weights.length];
+			Arrays.fill (values, Double.NaN);
+		}
+
+		/** Return <code>weights[weightsIndex].dotProduct(input) + defaultWeights[weightsIndex]</code>. */
+		public final double get (int weightsIndex) {
+			double value = values[weightsIndex];
+			if (Double.isNaN(value)) {
+				value = parameters.weights[weightsIndex].dotProduct (input)
+					// include with implicit weight 1.0 the default feature
+					+ parameters.defaultWeights[weightsIndex];
+				values[weightsIndex] = value;
+			}
+			return value;
+		}
 	}
 
 	
@@ -1843,19 +2247,18 @@ public class CRF extends Transducer implements Serializable
 			this.crf = crf;
 			this.input = fv;
 			this.weights = new double[source.destinations.length];
+			WeightDotProducts dotProducts = crf.getWeightDotProducts (fv);
 			int nwi, swi;
 			for (int transIndex = 0; transIndex < source.destinations.length; transIndex++) {
 				// xxx Or do we want output.equals(...) here?
 						if (output == null || output.equals(source.labels[transIndex])) {
 							// Here is the dot product of the feature weights with the lambda weights
-							// for one transition
+							// for one transition, shared with other transitions at this position
 							weights[transIndex] = 0;
 							nwi = source.weightsIndices[transIndex].length;
 							for (int wi = 0; wi < nwi; wi++) {
 								swi = source.weightsIndices[transIndex][wi];
-								weights[transIndex] += (crf.parameters.weights[swi].dotProduct (fv)
-										// include with implicit weight 1.0 the default feature
-										+ crf.parameters.defaultWeights[swi]);
+								weights[transIndex] += dotProducts.get (swi);
 							}
 							assert (!Double.isNaN(weights[transIndex]));
 							assert (weights[transIndex] != Double.POSITIVE_INFINITY);
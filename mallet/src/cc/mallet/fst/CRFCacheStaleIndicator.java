@@ -1,5 +1,6 @@
 package cc.mallet.fst;
 
+import cc.mallet.optimize.CacheStaleIndicator;
 
 /**
  * Indicates when the value/gradient becomes stale based on updates to CRF's
@@ -15,10 +15,12 @@ import java.util.logging.Logger;
 import cc.mallet.optimize.Optimizable;
 
 import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.FeatureVector;
 import cc.mallet.types.FeatureVectorSequence;
 import cc.mallet.types.Instance;
 import cc.mallet.types.InstanceList;
 import cc.mallet.types.MatrixOps;
+import cc.mallet.types.SparseVector;
 
 import cc.mallet.util.MalletLogger;
 
@@ -32,33 +34,49 @@ import cc.mallet.util.MalletLogger;
  *
  * *Note*: Expectations corresponding to each batch of data can be computed in
  * parallel. During gradient computation, the prior and the constraints are
- * incorporated into the expectations of the last batch (see
+ * incorporated into the gradient of the last batch (see
  * <tt>getBatchValue, getBatchValueGradient</tt>).
  *
  * *Note*: This implementation ignores instances with infinite weights (see
  * <tt>getExpectationValue</tt>).
  *
+ * Batches can also be filled a chunk of instances at a time, with
+ * <tt>resetBatch</tt> and <tt>addToBatch</tt>, so that <tt>ThreadedOptimizable</tt>
+ * can hand out chunks to threads as they become free.
+ *
+ * Expectations are kept as <tt>CRF.SparseFactors</tt>, holding only the
+ * parameters each batch touches, and <tt>getCombinedValueGradient</tt> adds
+ * them straight into the one dense gradient, a range of parameters at a time,
+ * so that threads can combine the batches in parallel.  If a batch is expected
+ * to touch a large part of the model (see <tt>DENSE_EXPECTATIONS_FRACTION</tt>),
+ * the expectations are kept densely instead, which is then faster than hashing.
+ *
  * @author Gaurav Chandalia
  */
-public class CRFOptimizableByBatchLabelLikelihood implements Optimizable.ByCombiningBatchGradient, Serializable {
+public class CRFOptimizableByBatchLabelLikelihood implements Optimizable.ByIncrementalBatchGradient, Serializable {
 	private static Logger logger = MalletLogger.getLogger(CRFOptimizableByBatchLabelLikelihood.class.getName());
 
 	static final double DEFAULT_GAUSSIAN_PRIOR_VARIANCE = 1.0;
 	static final double DEFAULT_HYPERBOLIC_PRIOR_SLOPE = 0.2;
 	static final double DEFAULT_HYPERBOLIC_PRIOR_SHARPNESS = 10.0;
 
+	/** Expectations are kept densely if a batch is expected to touch at least
+	 * this fraction of the parameters. */
+	public static final double DENSE_EXPECTATIONS_FRACTION = 0.25;
+
 	protected CRF crf;
 	protected InstanceList trainingSet;
 
 	// number of batches of training set
 	protected int numBatches;
 
-	// batch specific expectations
-	protected List<CRF.Factors> expectations;
+	// batch specific expectations, kept only for the parameters each batch touches
+	protected List<CRF.SparseFactors> expectations;
 	// constraints over whole training set
 	protected CRF.Factors constraints;
 
-	// value and gradient for each batch, to avoid sharing
+	// value and gradient for each batch, to avoid sharing; gradients are
+	// allocated only if getBatchValueGradient is called
 	protected double[] cachedValue;
 	protected List<double[]> cachedGradient;
 
@@ -75,11 +93,15 @@ public class CRFOptimizableByBatchLabelLikelihood implements Optimizable.ByCombi
 
 		cachedValue = new double[this.numBatches];
 		cachedGradient = new ArrayList<double[]>(this.numBatches);
-		expectations = new ArrayList<CRF.Factors>(this.numBatches);
+		expectations = new ArrayList<CRF.SparseFactors>(this.numBatches);
 		int numFactors = crf.parameters.getNumFactors();
+		int numTouched = estimateBatchParameters(ilist, (ilist.size() + numBatches - 1) / numBatches);
+		boolean dense = numTouched >= DENSE_EXPECTATIONS_FRACTION * numFactors;
+		logger.info("A batch touches about " + numTouched + " of " + numFactors + " parameters; keeping " +
+				(dense ? "dense" : "sparse") + " expectations");
 		for (int i = 0; i < this.numBatches; ++i) {
-			cachedGradient.add(new double[numFactors]);
-			expectations.add(new CRF.Factors(crf.parameters));
+			cachedGradient.add(null);
+			expectations.add(new CRF.SparseFactors(crf.parameters, dense));
 		}
 		constraints = new CRF.Factors(crf.parameters);
 
@@ -103,19 +125,60 @@ public class CRFOptimizableByBatchLabelLikelihood implements Optimizable.ByCombi
 			Transducer.Incrementor incrementor =
 				instanceWeight == 1.0 ? constraints.new Incrementor()
 			: constraints.new WeightedIncrementor(instanceWeight);
-				new SumLatticeDefault (this.crf, input, output, incrementor); 
+				this.crf.getSumLatticeFactory().newSumLattice (this.crf, input, output, incrementor); 
 		}
 		constraints.assertNotNaNOrInfinite();
 	}
 
+	/**
+	 * Returns the number of feature weights of the CRF whose features occur in
+	 * the first <tt>batchSize</tt> instances, which is about how many parameters
+	 * the expectations of a batch of that size touch.
+	 */
+	protected int estimateBatchParameters(InstanceList ilist, int batchSize) {
+		boolean[] present = new boolean[crf.getInputAlphabet().size()];
+		for (int i = 0; i < Math.min(batchSize, ilist.size()); i++) {
+			FeatureVectorSequence input = (FeatureVectorSequence) ilist.get(i).getData();
+			for (int t = 0; t < input.size(); t++) {
+				FeatureVector fv = input.get(t);
+				for (int fl = 0; fl < fv.numLocations(); fl++)
+					present[fv.indexAtLocation(fl)] = true;
+			}
+		}
+		int numTouched = 0;
+		for (int i = 0; i < crf.parameters.weights.length; i++) {
+			if (crf.parameters.weightsFrozen[i]) continue;
+			SparseVector weights = crf.parameters.weights[i];
+			for (int j = 0; j < weights.numLocations(); j++) {
+				int fi = weights.indexAtLocation(j);
+				if (fi < present.length && present[fi])
+					numTouched++;
+			}
+		}
+		return numTouched;
+	}
+
 	/**
 	 * Computes log probability of a batch of training data, fill in corresponding
 	 * expectations as well
 	 */
 	protected double getExpectationValue(int batchIndex, int[] batchAssignments) {
 		// Reset expectations to zero before we fill them again
-		CRF.Factors batchExpectations = expectations.get(batchIndex);
-		batchExpectations.zero();
+		CRF.SparseFactors batchExpectations = expectations.get(batchIndex);
+		batchExpectations.clear();
+
+		double value = addExpectationValue(batchIndex, null, batchAssignments[0], batchAssignments[1]);
+		batchExpectations.assertNotNaNOrInfinite();
+		return value;
+	}
+
+	/**
+	 * Computes log probability of instances <tt>start</tt> to <tt>end-1</tt> in
+	 * <tt>instanceIndices</tt> (or in the training set, if it is null), adding
+	 * to the expectations of a batch.
+	 */
+	protected double addExpectationValue(int batchIndex, int[] instanceIndices, int start, int end) {
+		CRF.SparseFactors batchExpectations = expectations.get(batchIndex);
 
 		// count the number of instances that have infinite weight
 		int numInfLabeledWeight = 0;
@@ -124,20 +187,19 @@ public class CRFOptimizableByBatchLabelLikelihood implements Optimizable.ByCombi
 
 		double value = 0;
 		double unlabeledWeight, labeledWeight, weight;
-		for (int ii = batchAssignments[0]; ii < batchAssignments[1]; ii++) {
-			Instance instance = trainingSet.get(ii);
+		for (int i = start; i < end; i++) {
+			Instance instance = trainingSet.get(instanceIndices == null ? i : instanceIndices[i]);
 			double instanceWeight = trainingSet.getInstanceWeight(instance);
 			FeatureVectorSequence input = (FeatureVectorSequence) instance.getData();
 			FeatureSequence output = (FeatureSequence) instance.getTarget();
 
-			labeledWeight = new SumLatticeDefault (this.crf, input, output, null).getTotalWeight();
+			labeledWeight = this.crf.getSumLatticeFactory().newSumLattice (this.crf, input, output, (Transducer.Incrementor)null).getTotalWeight();
 			if (Double.isInfinite (labeledWeight)) {
 				++numInfLabeledWeight;
 			}
 
-			Transducer.Incrementor incrementor = instanceWeight == 1.0 ? batchExpectations.new Incrementor()
-				: batchExpectations.new WeightedIncrementor (instanceWeight);
-			unlabeledWeight = new SumLatticeDefault (this.crf, input, null, incrementor).getTotalWeight();
+			Transducer.Incrementor incrementor = batchExpectations.new Incrementor (instanceWeight);
+			unlabeledWeight = this.crf.getSumLatticeFactory().newSumLattice (this.crf, input, null, incrementor).getTotalWeight();
 			if (Double.isInfinite (unlabeledWeight)) {
 				++numInfUnlabeledWeight;
 			}
@@ -151,7 +213,6 @@ public class CRFOptimizableByBatchLabelLikelihood implements Optimizable.ByCombi
 				value += weight * instanceWeight;
 			}
 		}
-		batchExpectations.assertNotNaNOrInfinite();
 
 		if (numInfLabeledWeight > 0 || numInfUnlabeledWeight > 0 || numInfWeight > 0) {
 			logger.warning("Batch: " + batchIndex + ", Number of instances with:\n" +
@@ -176,12 +237,8 @@ public class CRFOptimizableByBatchLabelLikelihood implements Optimizable.ByCombi
 		// Get the value of all the true labels for current batch, also filling in expectations
 		double value = getExpectationValue(batchIndex, batchAssignments);
 
-		if (batchIndex == numBatches-1) {
-			if (usingHyperbolicPrior) // Hyperbolic prior
-				value += crf.parameters.hyberbolicPrior(hyperbolicPriorSlope, hyperbolicPriorSharpness);
-			else // Gaussian prior
-				value += crf.parameters.gaussianPrior(gaussianPriorVariance);
-		}
+		if (batchIndex == numBatches-1)
+			value += getPriorValue();
 		assert(!(Double.isNaN(value) || Double.isInfinite(value)))
 			: "Label likelihood is NaN/Infinite, batchIndex: " + batchIndex + "batchAssignments: " + Arrays.toString(batchAssignments);
 		// update cache
@@ -190,35 +247,105 @@ public class CRFOptimizableByBatchLabelLikelihood implements Optimizable.ByCombi
 		return value;
 	}
 
+	protected double getPriorValue() {
+		if (usingHyperbolicPrior) // Hyperbolic prior
+			return crf.parameters.hyberbolicPrior(hyperbolicPriorSlope, hyperbolicPriorSharpness);
+		else // Gaussian prior
+			return crf.parameters.gaussianPrior(gaussianPriorVariance);
+	}
+
+	/**
+	 * Zeroes the expectations of a batch, and returns the prior if it is the last batch.
+	 */
+	public double resetBatch(int batchIndex) {
+		assert(batchIndex < this.numBatches) : "Incorrect batch index: " + batchIndex + ", range(0, " +
+		this.numBatches + ")";
+		expectations.get(batchIndex).clear();
+		cachedValue[batchIndex] = batchIndex == numBatches-1 ? getPriorValue() : 0;
+		return cachedValue[batchIndex];
+	}
+
+	/**
+	 * Adds the log probability of some training instances to a batch's value, and
+	 * their expectations to its expectations.
+	 */
+	public double addToBatch(int batchIndex, int[] instanceIndices, int start, int end) {
+		double value = addExpectationValue(batchIndex, instanceIndices, start, end);
+		cachedValue[batchIndex] += value;
+		return value;
+	}
+
 	public void getBatchValueGradient(double[] buffer, int batchIndex, int[] batchAssignments) {
 		assert(batchIndex < this.numBatches) : "Incorrect batch index: " + batchIndex + ", range(0, " +
 		this.numBatches + ")";
 		assert(batchAssignments.length == 2 && batchAssignments[0] <= batchAssignments[1])
 			: "Invalid batch assignments: " + Arrays.toString(batchAssignments);
 
-		CRF.Factors batchExpectations = expectations.get(batchIndex);
-
+		double[] gradient = cachedGradient.get(batchIndex);
+		if (gradient == null) {
+			gradient = new double[crf.parameters.getNumFactors()];
+			cachedGradient.set(batchIndex, gradient);
+		}
 		if (batchIndex == numBatches-1) {
 			// crf parameters' check has to be done only once, infinite values are allowed
 			crf.parameters.assertNotNaN();
 
-			// factor the constraints and the prior into the expectations of last batch
+			// factor the constraints and the prior into the gradient of last batch
 			// Gradient = (constraints - expectations + prior) = -(expectations - constraints - prior)
 			// The minus sign is factored in combineGradients method after all gradients are computed
-			batchExpectations.plusEquals(constraints, -1.0);
-			if (usingHyperbolicPrior)
-				batchExpectations.plusEqualsHyperbolicPriorGradient(crf.parameters, -hyperbolicPriorSlope, hyperbolicPriorSharpness);
-			else
-				batchExpectations.plusEqualsGaussianPriorGradient(crf.parameters, -gaussianPriorVariance);
-			batchExpectations.assertNotNaNOrInfinite();
+			getConstraintsAndPriorGradient(gradient, 0, gradient.length);
+			MatrixOps.timesEquals(gradient, -1.0);
 		}
+		else
+			Arrays.fill(gradient, 0);
+		expectations.get(batchIndex).addTo(gradient, 1.0);
+		assert(!MatrixOps.isNaNOrInfinite(gradient));
 
-		double[] gradient = cachedGradient.get(batchIndex);
 		// set the cached gradient
-		batchExpectations.getParameters(gradient);
 		System.arraycopy(gradient, 0, buffer, 0, gradient.length);
 	}
 
+	/**
+	 * Sets elements <tt>start</tt> to <tt>end-1</tt> of buffer to the
+	 * constraints plus the gradient of the prior.
+	 */
+	protected void getConstraintsAndPriorGradient(double[] buffer, int start, int end) {
+		constraints.getParameters(buffer, start, end);
+		if (usingHyperbolicPrior)
+			crf.parameters.plusEqualsHyperbolicPriorGradient(buffer, hyperbolicPriorSlope, hyperbolicPriorSharpness, start, end);
+		else
+			crf.parameters.plusEqualsGaussianPriorGradient(buffer, gaussianPriorVariance, start, end);
+	}
+
+	/**
+	 * Sorts the expectations of a filled batch, so that they can be added a
+	 * range at a time.
+	 */
+	public void finishBatch(int batchIndex) {
+		CRF.SparseFactors batchExpectations = expectations.get(batchIndex);
+		batchExpectations.assertNotNaNOrInfinite();
+		batchExpectations.finish();
+	}
+
+	/**
+	 * Sets elements <tt>start</tt> to <tt>end-1</tt> of buffer to the gradient
+	 * of the total value, subtracting the expectations of every batch, in batch
+	 * order, from the constraints and prior, without a dense gradient per batch.
+	 */
+	public void getCombinedValueGradient(double[] buffer, int start, int end) {
+		assert(buffer.length == crf.parameters.getNumFactors())
+			: "Incorrect buffer length: " + buffer.length + ", expected: " + crf.parameters.getNumFactors();
+		if (start == 0)
+			// crf parameters' check has to be done only once, infinite values are allowed
+			crf.parameters.assertNotNaN();
+
+		getConstraintsAndPriorGradient(buffer, start, end);
+		for (CRF.SparseFactors batchExpectations : expectations)
+			batchExpectations.addTo(buffer, -1.0, start, end);
+		if (start == 0)
+			logPruningSummary ();
+	}
+
 	/**
 	 * Adds gradients from all batches. <p>
 	 * <b>Note:</b> assumes buffer is already initialized.
@@ -233,6 +360,18 @@ public class CRFOptimizableByBatchLabelLikelihood implements Optimizable.ByCombi
 		}
 		// -(...) from getBatchValueGradient
 		MatrixOps.timesEquals(buffer, -1.0);
+		logPruningSummary ();
+	}
+
+	// If the unconstrained lattices are pruned, report how much was pruned since the last report
+	private void logPruningSummary ()
+	{
+		SumLatticeFactory factory = crf.getSumLatticeFactory();
+		if (factory instanceof SumLatticeCRF.Factory) {
+			String summary = ((SumLatticeCRF.Factory) factory).getPruningSummary (true);
+			if (summary != null)
+				logger.info (summary);
+		}
 	}
 
 	public int getNumBatches() { return numBatches; }
@@ -79,7 +79,7 @@ public class CRFOptimizableByLabelLikelihood implements Optimizable.ByGradientVa
 			double instanceWeight = ilist.getInstanceWeight(instance);
 			//System.out.println ("Constraint-gathering on instance "+i+" of "+ilist.size());
 			Transducer.Incrementor incrementor = instanceWeight == 1.0 ? constraints.new Incrementor() : constraints.new WeightedIncrementor(instanceWeight);
-			new SumLatticeDefault (this.crf, input, output, incrementor); 
+			this.crf.getSumLatticeFactory().newSumLattice (this.crf, input, output, incrementor); 
 		}
 //		System.out.println ("testing Value and Gradient");
 //		TestOptimizable.testValueAndGradientCurrentParameters (this);
@@ -137,7 +137,7 @@ public class CRFOptimizableByLabelLikelihood implements Optimizable.ByGradientVa
 			double instanceWeight = trainingSet.getInstanceWeight(instance);
 			FeatureVectorSequence input = (FeatureVectorSequence) instance.getData();
 			FeatureSequence output = (FeatureSequence) instance.getTarget();
-			labeledWeight = new SumLatticeDefault (this.crf, input, output, (Transducer.Incrementor)null).getTotalWeight();
+			labeledWeight = this.crf.getSumLatticeFactory().newSumLattice (this.crf, input, output, (Transducer.Incrementor)null).getTotalWeight();
 			String instanceName = instance.getName() == null ? "instance#"+ii : instance.getName().toString();
 			//System.out.println ("labeledWeight = "+labeledWeight);
 			if (Double.isInfinite (labeledWeight)) {
@@ -146,7 +146,7 @@ public class CRFOptimizableByLabelLikelihood implements Optimizable.ByGradientVa
 			}
 			
 			Transducer.Incrementor incrementor = instanceWeight == 1.0 ? expectations.new Incrementor() : expectations.new WeightedIncrementor (instanceWeight);
-			unlabeledWeight = new SumLatticeDefault (this.crf, input, null, incrementor).getTotalWeight();
+			unlabeledWeight = this.crf.getSumLatticeFactory().newSumLattice (this.crf, input, null, incrementor).getTotalWeight();
 			//System.out.println ("unlabeledWeight = "+unlabeledWeight);
 			if (Double.isInfinite (unlabeledWeight)) {
 				++numInfUnlabeledWeight;
@@ -201,12 +201,24 @@ public class CRFOptimizableByLabelLikelihood implements Optimizable.ByGradientVa
 			assert(!(Double.isNaN(cachedValue) || Double.isInfinite(cachedValue))) : "Label likelihood is NaN/Infinite";
 			
 			logger.info ("getValue() (loglikelihood, optimizable by label likelihood) = "+cachedValue);
+			logPruningSummary ();
 			long endingTime = System.currentTimeMillis();
 			logger.fine ("Inference milliseconds = "+(endingTime - startingTime));
 		}
 		return cachedValue;
 	}
 
+	// If the unconstrained lattices are pruned, report how much was pruned since the last report
+	private void logPruningSummary ()
+	{
+		SumLatticeFactory factory = crf.getSumLatticeFactory();
+		if (factory instanceof SumLatticeCRF.Factory) {
+			String summary = ((SumLatticeCRF.Factory) factory).getPruningSummary (true);
+			if (summary != null)
+				logger.info (summary);
+		}
+	}
+
 	// gsc: changing method from assertNotNaN to assertNotNaNOrInfinite
 	private void assertNotNaNOrInfinite ()
 	{
@@ -71,6 +71,7 @@ public class CRFTrainerByStochasticGradient extends ByInstanceIncrements {
 		while (currLearningRate < 1) {
 			currLearningRate *= 2;
 			crf.parameters.zero();
+			crf.weightsValueChanged();
 			double beforeLikelihood = computeLikelihood(trainingSample);
 			double likelihoodChange = trainSample(trainingSample,
 					numIterations, currLearningRate)
@@ -86,6 +87,7 @@ public class CRFTrainerByStochasticGradient extends ByInstanceIncrements {
 
 		// reset the parameters
 		crf.parameters.zero();
+		crf.weightsValueChanged();
 		// conservative estimate for learning rate
 		bestLearningRate /= 2;
 		System.out.println("Setting learning rate to " + bestLearningRate);
@@ -229,6 +231,7 @@ public class CRFTrainerByStochasticGradient extends ByInstanceIncrements {
 		// Change the parameters a little by this difference, obeying
 		// weightsFrozen
 		crf.parameters.plusEquals(constraints, rate, true);
+		crf.weightsValueChanged();
 
 		return singleLoglik;
 	}
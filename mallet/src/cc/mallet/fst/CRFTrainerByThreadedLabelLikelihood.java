@@ -5,6 +5,7 @@ import java.util.logging.Logger;
 
 import cc.mallet.optimize.LimitedMemoryBFGS;
 import cc.mallet.optimize.Optimizer;
+import cc.mallet.optimize.ThreadedOptimizable;
 import cc.mallet.types.InstanceList;
 import cc.mallet.util.MalletLogger;
 
@@ -0,0 +1,444 @@
+package cc.mallet.fst;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.types.Sequence;
+import cc.mallet.types.SparseVector;
+import cc.mallet.util.MalletLogger;
+
+import cc.mallet.fst.TransducerTrainer.ByInstanceIncrements;
+
+/**
+ * Trains a CRF by mini-batch stochastic gradient ascent on the label likelihood,
+ * computing the gradient of each mini-batch on several threads.
+ * <p>
+ * Each thread gathers the constraints minus expectations of its share of the
+ * batch in a <code>CRF.SparseFactors</code>, and the parameters are then updated
+ * by either AdaGrad (the default), which gives each parameter a learning rate
+ * that shrinks with the sum of its squared gradients, or plain stochastic
+ * gradient with a learning rate that decays with the number of updates.
+ * <p>
+ * The Gaussian prior is spread evenly over the batches of an iteration, but it
+ * is applied lazily: a parameter that was not in a batch's gradient is not
+ * touched, and the shrinkage of the steps it missed is applied in closed form
+ * the next time it is, so that an update costs time in the number of features
+ * that occur in the batch rather than in the number of parameters.  The
+ * running sums for averaging are kept up to date the same way.
+ * <p>
+ * With averaging on (the default), the CRF holds the average of the parameters
+ * over all updates so far when the evaluators are run and when
+ * <code>train</code> returns; the trainer keeps the current parameters and
+ * puts them back before training further.  The label likelihood logged after
+ * each iteration is that of the current parameters as they were being updated.
+ */
+public class CRFTrainerByThreadedStochasticGradient extends ByInstanceIncrements {
+	private static Logger logger = MalletLogger.getLogger(CRFTrainerByThreadedStochasticGradient.class.getName());
+
+	static final double DEFAULT_GAUSSIAN_PRIOR_VARIANCE = 1.0;
+	static final double DEFAULT_LEARNING_RATE = 0.1;
+	static final int DEFAULT_BATCH_SIZE = 32;
+
+	protected CRF crf;
+	protected int numThreads;
+	protected int batchSize = DEFAULT_BATCH_SIZE;
+	protected double learningRate;
+	protected double gaussianPriorVariance = DEFAULT_GAUSSIAN_PRIOR_VARIANCE;
+	protected boolean useAdaGrad = true;
+	protected boolean useAveraging = true;
+	protected boolean useSparseWeights = true;
+	protected boolean useNoWeights = false;
+	protected Random random = new Random(1);
+
+	protected int iterationCount = 0;
+	protected boolean converged = false;
+
+	private int cachedWeightsStructureStamp = -1;
+	private int allocatedStructureStamp = -1;
+	private transient ExecutorService executor;
+	// The gradient of a batch, gathered separately by each thread and summed into the first
+	private CRF.SparseFactors[] gradients;
+	private int[] weightsOffsets;
+
+	// The prior's share of each update, 1/(variance * number of batches per iteration)
+	private double lambda = 0;
+	// The learning rate of plain stochastic gradient, fixed during an iteration
+	private double currentRate;
+	// The number of updates so far, and the update at which each parameter was last brought up to date
+	private int step;
+	private int[] lastStep;
+	// With AdaGrad, the sum of the squared gradients of each parameter
+	private double[] gradientSquares;
+	// With averaging, the sum of each parameter's values after every update so far
+	private double[] parameterSums;
+	// The current parameters while the CRF holds their averages
+	private double[] rawParameters;
+	private boolean averagesInCRF = false;
+
+	public CRFTrainerByThreadedStochasticGradient (CRF crf, int numThreads) {
+		this (crf, numThreads, DEFAULT_LEARNING_RATE);
+	}
+
+	public CRFTrainerByThreadedStochasticGradient (CRF crf, int numThreads, double learningRate) {
+		assert (numThreads > 0);
+		this.crf = crf;
+		this.numThreads = numThreads;
+		this.learningRate = learningRate;
+	}
+
+	public Transducer getTransducer () { return crf; }
+	public CRF getCRF () { return crf; }
+	public int getIteration () { return iterationCount; }
+	public boolean isFinishedTraining () { return converged; }
+
+	public void setGaussianPriorVariance (double p) { gaussianPriorVariance = p; }
+	public double getGaussianPriorVariance () { return gaussianPriorVariance; }
+	public void setBatchSize (int size) { assert (size > 0); batchSize = size; }
+	public int getBatchSize () { return batchSize; }
+	public void setUseSparseWeights (boolean b) { useSparseWeights = b; }
+	public boolean getUseSparseWeights () { return useSparseWeights; }
+	public void setRandom (Random r) { random = r; }
+
+	/** Sets the initial learning rate of plain stochastic gradient, or the scale of
+	 * the per-parameter learning rates of AdaGrad. */
+	public void setLearningRate (double r) { learningRate = r; }
+	public double getLearningRate () { return learningRate; }
+
+	/** Sets whether to update by AdaGrad (the default) or by plain stochastic gradient.
+	 * Changing this starts the trainer's statistics afresh. */
+	public void setUseAdaGrad (boolean b) { swapOutAverages(); useAdaGrad = b; lastStep = null; }
+	public boolean getUseAdaGrad () { return useAdaGrad; }
+
+	/** Sets whether to leave the CRF with the average of the parameters over all updates
+	 * (the default) rather than the parameters of the last update.  Changing this starts
+	 * the trainer's statistics afresh. */
+	public void setUseAveraging (boolean b) { swapOutAverages(); useAveraging = b; lastStep = null; }
+	public boolean getUseAveraging () { return useAveraging; }
+
+	/**
+	 * Use this method to specify whether or not factors
+	 * are added to the CRF by this trainer.  If you have
+	 * already setup the factors in your CRF, you may
+	 * not want the trainer to add additional factors.
+	 *
+	 * @param flag If true, this trainer adds no factors to the CRF.
+	 */
+	public void setAddNoFactors (boolean flag) { useNoWeights = flag; }
+
+	public void shutdown () {
+		if (executor == null)
+			return;
+		executor.shutdown();
+		try {
+			executor.awaitTermination(30, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		assert(executor.shutdownNow().size() == 0) : "All tasks didn't finish";
+		executor = null;
+	}
+
+	protected void setWeightsDimension (InstanceList trainingSet) {
+		if (cachedWeightsStructureStamp != crf.weightsStructureChangeStamp) {
+			if (!useNoWeights) {
+				if (useSparseWeights)
+					crf.setWeightsDimensionAsIn (trainingSet, false);
+				else
+					crf.setWeightsDimensionDensely ();
+			}
+			lastStep = null;
+			cachedWeightsStructureStamp = crf.weightsStructureChangeStamp;
+		}
+	}
+
+	private void allocateState () {
+		if (lastStep != null && allocatedStructureStamp == crf.weightsStructureChangeStamp)
+			return;
+		allocatedStructureStamp = crf.weightsStructureChangeStamp;
+		averagesInCRF = false;
+		gradients = new CRF.SparseFactors[numThreads];
+		for (int i = 0; i < numThreads; i++)
+			gradients[i] = new CRF.SparseFactors (crf.parameters);
+		weightsOffsets = gradients[0].weightsOffsets;
+		int numParameters = crf.parameters.getNumFactors();
+		step = 0;
+		currentRate = learningRate;
+		lastStep = new int[numParameters];
+		gradientSquares = useAdaGrad ? new double[numParameters] : null;
+		parameterSums = useAveraging ? new double[numParameters] : null;
+		rawParameters = null;
+	}
+
+	public boolean train (InstanceList trainingSet, int numIterations) {
+		if (numIterations <= 0)
+			return false;
+		assert (trainingSet.size() > 0);
+		setWeightsDimension (trainingSet);
+		allocateState ();
+		swapOutAverages ();
+
+		int numBatches = (trainingSet.size() + batchSize - 1) / batchSize;
+		lambda = 1.0 / (gaussianPriorVariance * numBatches);
+
+		ArrayList<Integer> trainingIndices = new ArrayList<Integer>();
+		for (int i = 0; i < trainingSet.size(); i++)
+			trainingIndices.add(i);
+		Instance[] batch = new Instance[batchSize];
+		double[] batchWeights = new double[batchSize];
+
+		converged = false;
+		double oldLoglik = Double.NEGATIVE_INFINITY;
+		logger.info ("CRF about to train with "+numIterations+" iterations of "+numBatches+" batches on "+numThreads+" threads");
+		for (int iteration = 0; iteration < numIterations; iteration++) {
+			long startTime = System.currentTimeMillis();
+			iterationCount++;
+			swapOutAverages ();
+			Collections.shuffle(trainingIndices, random);
+			currentRate = learningRate / (1 + learningRate * lambda * step);
+
+			double loglik = 0.0;
+			for (int start = 0; start < trainingSet.size(); start += batchSize) {
+				int size = Math.min(batchSize, trainingSet.size() - start);
+				for (int i = 0; i < size; i++) {
+					int index = trainingIndices.get(start + i);
+					batch[i] = trainingSet.get(index);
+					batchWeights[i] = trainingSet.getInstanceWeight(index);
+				}
+				loglik += trainBatch (batch, batchWeights, size);
+			}
+			// Bring every parameter up to date, since the learning rate changes with the iteration
+			catchUpAll ();
+			logger.info ("CRF iteration "+iterationCount+" loglikelihood="+loglik+
+					" ("+(System.currentTimeMillis() - startTime)+"ms)");
+
+			if (Math.abs(loglik - oldLoglik) < 1e-3)
+				converged = true;
+			oldLoglik = loglik;
+
+			swapInAverages ();
+			runEvaluators();
+			if (converged)
+				break;
+		}
+		return converged;
+	}
+
+	public boolean trainIncremental (InstanceList trainingSet) {
+		this.train(trainingSet, 1);
+		return false;
+	}
+
+	/** Update the parameters by the gradient of this single Instance, with the prior
+	 * weighted as in the last call to <code>train</code>, if any. */
+	public boolean trainIncremental (Instance trainingInstance) {
+		allocateState ();
+		swapOutAverages ();
+		trainBatch (new Instance[] {trainingInstance}, new double[] {1.0}, 1);
+		return false;
+	}
+
+	/**
+	 * Update the parameters by the gradient of the first <code>size</code> Instances
+	 * of <code>batch</code>, and return their weighted label likelihood under the
+	 * parameters before the update.
+	 */
+	protected double trainBatch (final Instance[] batch, final double[] instanceWeights, final int size) {
+		final int numTasks = Math.min(numThreads, size);
+		double loglik = 0.0;
+		if (numTasks == 1) {
+			loglik = accumulateGradient (batch, instanceWeights, 0, size, 1, gradients[0]);
+		}
+		else {
+			if (executor == null)
+				executor = Executors.newFixedThreadPool(numThreads);
+			ArrayList<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+			for (int t = 0; t < numTasks; t++) {
+				final int first = t;
+				tasks.add (new Callable<Double>() {
+					public Double call () {
+						return accumulateGradient (batch, instanceWeights, first, size, numTasks, gradients[first]);
+					}
+				});
+			}
+			// If a task fails, the parameters are left as they were
+			try {
+				List<Future<Double>> results = executor.invokeAll(tasks);
+				for (Future<Double> f : results)
+					loglik += f.get();
+			} catch (ExecutionException ee) {
+				throw new IllegalStateException (ee.getCause());
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException (ie);
+			}
+			for (int t = 1; t < numTasks; t++)
+				gradients[0].plusEquals (gradients[t], 1.0);
+		}
+		applyGradient (gradients[0]);
+		return loglik;
+	}
+
+	// Gather constraints minus expectations of every stride'th instance of the batch from first
+	private double accumulateGradient (Instance[] batch, double[] instanceWeights, int first, int size, int stride,
+			CRF.SparseFactors gradient) {
+		gradient.clear();
+		SumLatticeFactory factory = crf.getSumLatticeFactory();
+		double loglik = 0.0;
+		for (int i = first; i < size; i += stride) {
+			Sequence input = (Sequence) batch[i].getData();
+			Sequence output = (Sequence) batch[i].getTarget();
+			double labeledWeight = factory.newSumLattice (crf, input, output,
+					gradient.new Incrementor (instanceWeights[i])).getTotalWeight();
+			// A lattice of impossible weight increments nothing, so leave out its expectations too
+			if (Double.isInfinite (labeledWeight)) {
+				logger.warning ("Instance "+batch[i].getName()+" has infinite labeled weight; skipping");
+				continue;
+			}
+			double unlabeledWeight = factory.newSumLattice (crf, input, null,
+					gradient.new Incrementor (-instanceWeights[i])).getTotalWeight();
+			loglik += (labeledWeight - unlabeledWeight) * instanceWeights[i];
+		}
+		return loglik;
+	}
+
+	// The learning rate of the parameter at this index, as of its last update
+	private double getRate (int index) {
+		if (!useAdaGrad)
+			return currentRate;
+		return gradientSquares[index] == 0 ? 0 : learningRate / Math.sqrt(gradientSquares[index]);
+	}
+
+	/** Apply to the parameter at this index, of value <code>weight</code>, the shrinkage of the
+	 * prior for the updates since it was last brought up to date, in which its gradient was zero,
+	 * adding its values after each of them to its sum, and return its new value. */
+	private double catchUp (int index, double weight, int toStep) {
+		int numSteps = toStep - lastStep[index];
+		lastStep[index] = toStep;
+		if (numSteps <= 0 || weight == 0)
+			return weight;
+		double shrink = Math.max (0, 1 - getRate(index) * lambda);
+		double shrinkSteps = Math.pow (shrink, numSteps);
+		if (parameterSums != null)
+			parameterSums[index] += shrink == 1 ? numSteps * weight : weight * shrink * (1 - shrinkSteps) / (1 - shrink);
+		return weight * shrinkSteps;
+	}
+
+	/** Bring the parameter at this index, of value <code>weight</code>, up to date and update it
+	 * by <code>gradient</code> and the prior; return its new value. */
+	private double update (int index, double weight, double gradient) {
+		// Leave alone parameters that are impossible, such as the initial weights of non-start states
+		if (Double.isInfinite (weight))
+			return weight;
+		weight = catchUp (index, weight, step - 1);
+		if (useAdaGrad)
+			gradientSquares[index] += gradient * gradient;
+		double rate = getRate (index);
+		weight = weight * Math.max (0, 1 - rate * lambda) + rate * gradient;
+		if (parameterSums != null)
+			parameterSums[index] += weight;
+		lastStep[index] = step;
+		return weight;
+	}
+
+	// Update the parameters in the gradient, and the few per-state and per-weights-group ones
+	private void applyGradient (CRF.SparseFactors gradient) {
+		step++;
+		CRF.Factors parameters = crf.parameters;
+		for (int i = 0; i < parameters.initialWeights.length; i++) {
+			parameters.initialWeights[i] = update (2*i, parameters.initialWeights[i], gradient.initialWeights[i]);
+			parameters.finalWeights[i] = update (2*i+1, parameters.finalWeights[i], gradient.finalWeights[i]);
+		}
+		for (int i = 0; i < parameters.defaultWeights.length; i++) {
+			if (parameters.weightsFrozen[i]) continue;
+			parameters.defaultWeights[i] = update (weightsOffsets[i], parameters.defaultWeights[i], gradient.defaultWeights[i]);
+		}
+		for (int i = 0; i < gradient.size; i++) {
+			int slot = gradient.slotsUsed[i];
+			int index = gradient.keys[slot];
+			int weightsIndex = getWeightsIndex (index);
+			SparseVector weights = parameters.weights[weightsIndex];
+			int location = index - weightsOffsets[weightsIndex] - 1;
+			weights.setValueAtLocation (location, update (index, weights.valueAtLocation(location), gradient.values[slot]));
+		}
+		crf.weightsValueChanged();
+	}
+
+	// The weights group of a feature weight's parameter index
+	private int getWeightsIndex (int index) {
+		int lo = 0, hi = weightsOffsets.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (weightsOffsets[mid] <= index)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+
+	private void catchUpAll () {
+		CRF.Factors parameters = crf.parameters;
+		for (int i = 0; i < parameters.weights.length; i++) {
+			if (parameters.weightsFrozen[i]) continue;
+			SparseVector weights = parameters.weights[i];
+			int offset = weightsOffsets[i] + 1;
+			for (int j = 0; j < weights.numLocations(); j++) {
+				double weight = weights.valueAtLocation(j);
+				if (!Double.isInfinite (weight))
+					weights.setValueAtLocation (j, catchUp (offset + j, weight, step));
+			}
+		}
+		crf.weightsValueChanged();
+	}
+
+	// The average of the parameter at this index, or its value if it never changed
+	private double getAverage (int index, double weight) {
+		if (Double.isInfinite (weight) || lastStep[index] == 0)
+			return weight;
+		return parameterSums[index] / step;
+	}
+
+	// Replace the parameters of the CRF with their averages, keeping the current ones aside
+	private void swapInAverages () {
+		if (parameterSums == null || averagesInCRF || step == 0)
+			return;
+		catchUpAll ();
+		CRF.Factors parameters = crf.parameters;
+		if (rawParameters == null)
+			rawParameters = new double[parameters.getNumFactors()];
+		parameters.getParameters (rawParameters);
+		for (int i = 0; i < parameters.initialWeights.length; i++) {
+			parameters.initialWeights[i] = getAverage (2*i, parameters.initialWeights[i]);
+			parameters.finalWeights[i] = getAverage (2*i+1, parameters.finalWeights[i]);
+		}
+		for (int i = 0; i < parameters.weights.length; i++) {
+			if (parameters.weightsFrozen[i]) continue;
+			parameters.defaultWeights[i] = getAverage (weightsOffsets[i], parameters.defaultWeights[i]);
+			SparseVector weights = parameters.weights[i];
+			int offset = weightsOffsets[i] + 1;
+			for (int j = 0; j < weights.numLocations(); j++)
+				weights.setValueAtLocation (j, getAverage (offset + j, weights.valueAtLocation(j)));
+		}
+		averagesInCRF = true;
+		crf.weightsValueChanged();
+	}
+
+	private void swapOutAverages () {
+		if (!averagesInCRF)
+			return;
+		crf.parameters.setParameters (rawParameters);
+		averagesInCRF = false;
+		crf.weightsValueChanged();
+	}
+}
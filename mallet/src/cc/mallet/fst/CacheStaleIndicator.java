@@ -4,11 +4,12 @@ package cc.mallet.fst;
 /**
  * Indicates when the value/gradient during training becomes stale. <p>
  *
- * See <tt>ThreadedOptimizable</tt>.
+ * Kept so that existing code compiles; the interface now lives in
+ * <tt>cc.mallet.optimize</tt>, where it is also used by classifiers.
  *
  * @author Gaurav Chandalia
+ * @deprecated Use {@link cc.mallet.optimize.CacheStaleIndicator}.
  */
-public interface CacheStaleIndicator {
-	public boolean isValueStale();
-	public boolean isGradientStale();
+@Deprecated
+public interface CacheStaleIndicator extends cc.mallet.optimize.CacheStaleIndicator {
 }
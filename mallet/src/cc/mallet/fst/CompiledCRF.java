@@ -0,0 +1,473 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.fst;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.ArraySequence;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.FeatureVectorSequence;
+import cc.mallet.types.Sequence;
+import cc.mallet.types.SparseVector;
+
+/**
+ * An immutable, flat copy of a trained CRF for Viterbi decoding, made by
+ *  {@link #CompiledCRF(CRF)}.
+ * <p>
+ * States, transitions and the weights groups of each transition are kept
+ *  in integer tables rather than in <code>State</code> objects, and the
+ *  feature weights are stored feature-major: the non-zero weights of a
+ *  feature in all weights groups are contiguous, so the dot products of
+ *  an input position with every weights group are computed by reading one
+ *  short run per feature of the input.  Only non-zero weights are stored,
+ *  so the tables are no larger than the CRF's sparse weights.
+ * <p>
+ * A compiled CRF can be written with {@link #write(File)} and memory-mapped
+ *  with {@link #read(File)}, in which case the feature weights stay off the
+ *  Java heap and are shared through the operating system's file cache.
+ *  The file is big-endian and laid out as:
+ * <pre>
+ *  int magic, int version, int numStates, int numTransitions,
+ *  int numTransitionWeights, int numWeights, int numFeatures, int numLabels,
+ *  int numEntries, long alphabetOffset,
+ *  double[numStates] initial weights, double[numStates] final weights,
+ *  int[numStates + 1] start of each state's transitions,
+ *  int[numTransitions] destination state, int[numTransitions] label,
+ *  int[numTransitions + 1] start of each transition's weights indices,
+ *  int[numTransitionWeights] weights indices,
+ *  double[numWeights] default weights,
+ *  int[numFeatures + 1] start of each feature's entries,
+ *  int[numEntries] weights index, double[numEntries] weight,
+ *  for each label an int length and UTF-8 bytes,
+ *  int numEntries, then for each input alphabet entry an int length and UTF-8 bytes
+ * </pre>
+ * Decoding finds the same best path as the Viterbi pass of
+ *  <code>MaxLatticeDefault</code> with no output constraint, and is safe
+ *  to call from several threads at once.
+ */
+
+public class CompiledCRF {
+
+	public static final int MAGIC = 0x43524631; // "CRF1"
+	public static final int CURRENT_VERSION = 0;
+
+	private static final int HEADER_BYTES = 44;
+
+	protected int numStates;
+	protected int numWeights;
+	protected int numFeatures;
+
+	// Per state
+	protected double[] initialWeights;
+	protected double[] finalWeights;
+	protected int[] transitionStart;
+	// Per transition
+	protected int[] transitionSource;
+	protected int[] transitionDestination;
+	protected int[] transitionLabel;
+	protected int[] transitionWeightsStart;
+	protected int[] transitionWeightsIndices;
+	// Per weights group
+	protected double[] defaultWeights;
+	protected String[] labels;
+
+	// Feature-major weights, either wrapping arrays or in a mapped file
+	protected IntBuffer featureStart;
+	protected IntBuffer entryWeightsIndices;
+	protected DoubleBuffer entryWeights;
+
+	protected MappedByteBuffer buffer = null;
+	protected long alphabetOffset;
+	private Alphabet inputAlphabet;
+
+	/** Compile the states and current weights of <code>crf</code>. */
+	public CompiledCRF (CRF crf) {
+		numStates = crf.numStates();
+		CRF.Factors parameters = crf.getParameters();
+		numWeights = parameters.weights.length;
+		inputAlphabet = crf.getInputAlphabet();
+		numFeatures = inputAlphabet.size();
+
+		initialWeights = new double[numStates];
+		finalWeights = new double[numStates];
+		transitionStart = new int[numStates + 1];
+		ArrayList<String> labelList = new ArrayList<String>();
+		Alphabet labelIndices = new Alphabet();
+		int numTransitions = 0, numTransitionWeights = 0;
+		for (int s = 0; s < numStates; s++) {
+			CRF.State state = (CRF.State) crf.getState(s);
+			initialWeights[s] = state.getInitialWeight();
+			finalWeights[s] = state.getFinalWeight();
+			transitionStart[s] = numTransitions;
+			numTransitions += state.destinationNames.length;
+			for (int t = 0; t < state.weightsIndices.length; t++)
+				numTransitionWeights += state.weightsIndices[t].length;
+		}
+		transitionStart[numStates] = numTransitions;
+
+		transitionDestination = new int[numTransitions];
+		transitionLabel = new int[numTransitions];
+		transitionWeightsStart = new int[numTransitions + 1];
+		transitionWeightsIndices = new int[numTransitionWeights];
+		int ti = 0, twi = 0;
+		for (int s = 0; s < numStates; s++) {
+			CRF.State state = (CRF.State) crf.getState(s);
+			for (int t = 0; t < state.destinationNames.length; t++, ti++) {
+				transitionDestination[ti] = state.getDestinationState(t).getIndex();
+				int label = labelIndices.lookupIndex(state.labels[t]);
+				if (label == labelList.size())
+					labelList.add(state.labels[t]);
+				transitionLabel[ti] = label;
+				transitionWeightsStart[ti] = twi;
+				for (int wi = 0; wi < state.weightsIndices[t].length; wi++)
+					transitionWeightsIndices[twi++] = state.weightsIndices[t][wi];
+			}
+		}
+		transitionWeightsStart[numTransitions] = twi;
+		labels = labelList.toArray(new String[labelList.size()]);
+		defaultWeights = parameters.defaultWeights.clone();
+
+		// Count the non-zero weights of each feature, then fill them in feature-major order
+		int[] starts = new int[numFeatures + 1];
+		for (int wi = 0; wi < numWeights; wi++) {
+			SparseVector weights = parameters.weights[wi];
+			for (int loc = 0; loc < weights.numLocations(); loc++) {
+				int fi = weights.indexAtLocation(loc);
+				if (fi < numFeatures && weights.valueAtLocation(loc) != 0)
+					starts[fi + 1]++;
+			}
+		}
+		for (int fi = 0; fi < numFeatures; fi++)
+			starts[fi + 1] += starts[fi];
+		int numEntries = starts[numFeatures];
+		int[] indices = new int[numEntries];
+		double[] values = new double[numEntries];
+		int[] next = starts.clone();
+		for (int wi = 0; wi < numWeights; wi++) {
+			SparseVector weights = parameters.weights[wi];
+			for (int loc = 0; loc < weights.numLocations(); loc++) {
+				int fi = weights.indexAtLocation(loc);
+				double value = weights.valueAtLocation(loc);
+				if (fi < numFeatures && value != 0) {
+					indices[next[fi]] = wi;
+					values[next[fi]++] = value;
+				}
+			}
+		}
+		featureStart = IntBuffer.wrap(starts);
+		entryWeightsIndices = IntBuffer.wrap(indices);
+		entryWeights = DoubleBuffer.wrap(values);
+		setTransitionSources();
+	}
+
+	/** Map a compiled CRF written by {@link #write(File)}. */
+	public static CompiledCRF read (File file) throws IOException {
+		return new CompiledCRF(file);
+	}
+
+	protected CompiledCRF (File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too large to map (" + channel.size() + " bytes)");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			// The mapping remains valid after the file is closed
+			raf.close();
+		}
+
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException(file + " is not a compiled CRF file");
+		}
+		int version = buffer.getInt(4);
+		if (version > CURRENT_VERSION) {
+			throw new IOException(file + " has unsupported version " + version);
+		}
+
+		ByteBuffer in = buffer.duplicate();
+		in.position(8);
+		numStates = in.getInt();
+		int numTransitions = in.getInt();
+		int numTransitionWeights = in.getInt();
+		numWeights = in.getInt();
+		numFeatures = in.getInt();
+		int numLabels = in.getInt();
+		int numEntries = in.getInt();
+		alphabetOffset = in.getLong();
+
+		// The state, transition and weights group tables are small, so copy them onto the heap.
+		initialWeights = new double[numStates];
+		finalWeights = new double[numStates];
+		transitionStart = new int[numStates + 1];
+		transitionDestination = new int[numTransitions];
+		transitionLabel = new int[numTransitions];
+		transitionWeightsStart = new int[numTransitions + 1];
+		transitionWeightsIndices = new int[numTransitionWeights];
+		defaultWeights = new double[numWeights];
+		in.asDoubleBuffer().get(initialWeights);
+		in.position(in.position() + 8 * numStates);
+		in.asDoubleBuffer().get(finalWeights);
+		in.position(in.position() + 8 * numStates);
+		readInts(in, transitionStart);
+		readInts(in, transitionDestination);
+		readInts(in, transitionLabel);
+		readInts(in, transitionWeightsStart);
+		readInts(in, transitionWeightsIndices);
+		in.asDoubleBuffer().get(defaultWeights);
+		in.position(in.position() + 8 * numWeights);
+
+		featureStart = in.slice().asIntBuffer();
+		in.position(in.position() + 4 * (numFeatures + 1));
+		entryWeightsIndices = in.slice().asIntBuffer();
+		in.position(in.position() + 4 * numEntries);
+		entryWeights = in.slice().asDoubleBuffer();
+		in.position(in.position() + 8 * numEntries);
+
+		labels = new String[numLabels];
+		for (int i = 0; i < numLabels; i++)
+			labels[i] = readString(in);
+		setTransitionSources();
+	}
+
+	private static void readInts (ByteBuffer in, int[] destination) {
+		in.asIntBuffer().get(destination);
+		in.position(in.position() + 4 * destination.length);
+	}
+
+	private static String readString (ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void writeString (DataOutputStream out, Object entry) throws IOException {
+		if (! (entry instanceof String)) {
+			throw new IllegalArgumentException("Only strings can be written to a compiled CRF, found " +
+											   entry.getClass().getName());
+		}
+		byte[] bytes = ((String) entry).getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private void setTransitionSources () {
+		transitionSource = new int[transitionDestination.length];
+		for (int s = 0; s < numStates; s++)
+			for (int ti = transitionStart[s]; ti < transitionStart[s + 1]; ti++)
+				transitionSource[ti] = s;
+	}
+
+	public int getNumStates () { return numStates; }
+	public int getNumTransitions () { return transitionDestination.length; }
+	public int getNumWeights () { return numWeights; }
+	public int getNumFeatures () { return numFeatures; }
+	/** Return the number of non-zero feature weights. */
+	public int getNumEntries () { return featureStart.get(numFeatures); }
+	/** Return true if the feature weights are in a memory-mapped file. */
+	public boolean isMapped () { return buffer != null; }
+
+	/** Return the input alphabet. For a mapped CRF it is read from the end of the
+	 *   file on first use, since a server that receives feature vectors never needs it. */
+	public synchronized Alphabet getInputAlphabet () {
+		if (inputAlphabet == null) {
+			ByteBuffer in = buffer.duplicate();
+			in.position((int) alphabetOffset);
+			int size = in.getInt();
+			inputAlphabet = new Alphabet(size, String.class);
+			for (int i = 0; i < size; i++)
+				inputAlphabet.lookupIndex(readString(in));
+		}
+		return inputAlphabet;
+	}
+
+	/** Write this CRF in the format read by {@link #read(File)}. The entries
+	 *   of the input alphabet and the labels must be strings. */
+	public void write (File file) throws IOException {
+		int numTransitions = transitionDestination.length;
+		int numEntries = getNumEntries();
+		Alphabet alphabet = getInputAlphabet();
+		ByteArrayOutputStream labelBytes = new ByteArrayOutputStream();
+		DataOutputStream labelOut = new DataOutputStream(labelBytes);
+		for (int i = 0; i < labels.length; i++)
+			writeString(labelOut, labels[i]);
+		labelOut.close();
+		long alphabetOffset = HEADER_BYTES + 16L * numStates + 4L * (numStates + 1) +
+			8L * numTransitions + 4L * (numTransitions + 1) + 4L * transitionWeightsIndices.length +
+			8L * numWeights + 4L * (numFeatures + 1) + 12L * numEntries + labelBytes.size();
+
+		DataOutputStream out =
+			new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(CURRENT_VERSION);
+			out.writeInt(numStates);
+			out.writeInt(numTransitions);
+			out.writeInt(transitionWeightsIndices.length);
+			out.writeInt(numWeights);
+			out.writeInt(numFeatures);
+			out.writeInt(labels.length);
+			out.writeInt(numEntries);
+			out.writeLong(alphabetOffset);
+
+			for (int s = 0; s < numStates; s++)
+				out.writeDouble(initialWeights[s]);
+			for (int s = 0; s < numStates; s++)
+				out.writeDouble(finalWeights[s]);
+			for (int s = 0; s <= numStates; s++)
+				out.writeInt(transitionStart[s]);
+			for (int ti = 0; ti < numTransitions; ti++)
+				out.writeInt(transitionDestination[ti]);
+			for (int ti = 0; ti < numTransitions; ti++)
+				out.writeInt(transitionLabel[ti]);
+			for (int ti = 0; ti <= numTransitions; ti++)
+				out.writeInt(transitionWeightsStart[ti]);
+			for (int i = 0; i < transitionWeightsIndices.length; i++)
+				out.writeInt(transitionWeightsIndices[i]);
+			for (int wi = 0; wi < numWeights; wi++)
+				out.writeDouble(defaultWeights[wi]);
+			for (int fi = 0; fi <= numFeatures; fi++)
+				out.writeInt(featureStart.get(fi));
+			for (int i = 0; i < numEntries; i++)
+				out.writeInt(entryWeightsIndices.get(i));
+			for (int i = 0; i < numEntries; i++)
+				out.writeDouble(entryWeights.get(i));
+			labelBytes.writeTo(out);
+
+			out.writeInt(alphabet.size());
+			for (int i = 0; i < alphabet.size(); i++)
+				writeString(out, alphabet.lookupObject(i));
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Set <code>dotProducts[wi]</code> to the dot product of the input with weights group
+	 *   <code>wi</code>, plus its default weight. */
+	protected void getDotProducts (FeatureVector input, double[] dotProducts) {
+		System.arraycopy(defaultWeights, 0, dotProducts, 0, numWeights);
+		for (int loc = 0; loc < input.numLocations(); loc++) {
+			int fi = input.indexAtLocation(loc);
+			if (fi >= numFeatures)
+				continue;
+			double value = input.valueAtLocation(loc);
+			// These are absolute reads, so several threads can share the buffers
+			int end = featureStart.get(fi + 1);
+			for (int i = featureStart.get(fi); i < end; i++)
+				dotProducts[entryWeightsIndices.get(i)] += value * entryWeights.get(i);
+		}
+	}
+
+	/** Buffers for {@link #viterbi}, which one thread can reuse from one sequence to the next. */
+	protected static class Buffers {
+		double[] delta = new double[0];
+		double[] nextDelta = new double[0];
+		double[] dotProducts = new double[0];
+		int[] backPointers = new int[0];	// indexed by ip*numStates+s
+		int[] bestLabels = new int[0];		// indexed by ip
+
+		void ensureCapacity (int numStates, int numWeights, int length) {
+			if (delta.length < numStates) {
+				delta = new double[numStates];
+				nextDelta = new double[numStates];
+			}
+			if (dotProducts.length < numWeights)
+				dotProducts = new double[numWeights];
+			if (backPointers.length < length * numStates)
+				backPointers = new int[Math.max(length * numStates, backPointers.length * 2)];
+			if (bestLabels.length < length)
+				bestLabels = new int[Math.max(length, bestLabels.length * 2)];
+		}
+	}
+
+	/** Find the best path through the input, a sequence of <code>FeatureVector</code>s,
+	 *   fill <code>buffers.bestLabels</code> with the indices of its labels, and return its
+	 *   weight, or <code>Transducer.IMPOSSIBLE_WEIGHT</code> if there is no path, in which
+	 *   case the labels are not set. */
+	protected double viterbi (Sequence input, Buffers buffers) {
+		int length = input.size();
+		buffers.ensureCapacity(numStates, numWeights, length);
+		double[] delta = buffers.delta;
+		double[] nextDelta = buffers.nextDelta;
+		double[] dotProducts = buffers.dotProducts;
+		int[] backPointers = buffers.backPointers;
+		System.arraycopy(initialWeights, 0, delta, 0, numStates);
+
+		for (int ip = 0; ip < length; ip++) {
+			getDotProducts((FeatureVector) input.get(ip), dotProducts);
+			Arrays.fill(nextDelta, 0, numStates, Transducer.IMPOSSIBLE_WEIGHT);
+			int offset = ip * numStates;
+			for (int s = 0; s < numStates; s++) {
+				if (delta[s] == Transducer.IMPOSSIBLE_WEIGHT)
+					continue;
+				for (int ti = transitionStart[s]; ti < transitionStart[s + 1]; ti++) {
+					double weight = delta[s];
+					for (int twi = transitionWeightsStart[ti]; twi < transitionWeightsStart[ti + 1]; twi++)
+						weight += dotProducts[transitionWeightsIndices[twi]];
+					int destination = transitionDestination[ti];
+					if (weight > nextDelta[destination]) {
+						nextDelta[destination] = weight;
+						backPointers[offset + destination] = ti;
+					}
+				}
+			}
+			double[] swap = delta;
+			delta = nextDelta;
+			nextDelta = swap;
+		}
+
+		double bestWeight = Transducer.IMPOSSIBLE_WEIGHT;
+		int bestState = -1;
+		for (int s = 0; s < numStates; s++) {
+			double weight = delta[s] + finalWeights[s];
+			if (weight > bestWeight) {
+				bestWeight = weight;
+				bestState = s;
+			}
+		}
+		if (bestState < 0)
+			return Transducer.IMPOSSIBLE_WEIGHT;
+		for (int ip = length - 1; ip >= 0; ip--) {
+			int ti = backPointers[ip * numStates + bestState];
+			buffers.bestLabels[ip] = transitionLabel[ti];
+			bestState = transitionSource[ti];
+		}
+		return bestWeight;
+	}
+
+	/** Return the weight of the best path through the input. */
+	public double bestWeight (FeatureVectorSequence input) {
+		return viterbi(input, new Buffers());
+	}
+
+	/** Return the labels of the best path through the input, as
+	 *   <code>MaxLatticeDefault.bestOutputSequence()</code> would, or null if there is no path. */
+	public Sequence<Object> decode (FeatureVectorSequence input) {
+		Buffers buffers = new Buffers();
+		if (viterbi(input, buffers) == Transducer.IMPOSSIBLE_WEIGHT)
+			return null;
+		Object[] output = new Object[input.size()];
+		for (int ip = 0; ip < output.length; ip++)
+			output[ip] = labels[buffers.bestLabels[ip]];
+		return new ArraySequence<Object>(output, false);
+	}
+
+}
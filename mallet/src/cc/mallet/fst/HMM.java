@@ -669,12 +669,33 @@ public class HMM extends Transducer implements Serializable {
 		return true;
 	}
 
+	/**
+	 * Adds expected counts to a set of estimators, by default this HMM's own;
+	 * {@link Counts#newIncrementor} targets a separate copy of them.
+	 */
 	public class Incrementor implements Transducer.Incrementor {
+		Multinomial.Estimator initialCounts;
+		Multinomial.Estimator[] emissionCounts, transitionCounts;
+		double weight = 1.0;
+
+		public Incrementor() {
+			this(initialEstimator, emissionEstimator, transitionEstimator, 1.0);
+		}
+
+		protected Incrementor(Multinomial.Estimator initialCounts,
+				Multinomial.Estimator[] emissionCounts,
+				Multinomial.Estimator[] transitionCounts, double weight) {
+			this.initialCounts = initialCounts;
+			this.emissionCounts = emissionCounts;
+			this.transitionCounts = transitionCounts;
+			this.weight = weight;
+		}
+
 		public void incrementFinalState(Transducer.State s, double count) {
 		}
 
 		public void incrementInitialState(Transducer.State s, double count) {
-			initialEstimator.increment(s.getName(), count);
+			initialCounts.increment(s.getName(), weight * count);
 		}
 
 		public void incrementTransition(Transducer.TransitionIterator ti,
@@ -684,36 +705,57 @@ public class HMM extends Transducer implements Serializable {
 			State dest = (HMM.State) ((TransitionIterator) ti)
 					.getDestinationState();
 			int index = ti.getIndex();
-			emissionEstimator[index].increment(inputFtr, count);
-			transitionEstimator[src.getIndex()]
-					.increment(dest.getName(), count);
+			emissionCounts[index].increment(inputFtr, weight * count);
+			transitionCounts[src.getIndex()].increment(dest.getName(),
+					weight * count);
 		}
 	}
 
-	public class WeightedIncrementor implements Transducer.Incrementor {
-		double weight = 1.0;
-
+	public class WeightedIncrementor extends Incrementor {
 		public WeightedIncrementor(double wt) {
-			this.weight = wt;
+			super(initialEstimator, emissionEstimator, transitionEstimator, wt);
 		}
+	}
 
-		public void incrementFinalState(Transducer.State s, double count) {
+	/**
+	 * Empty copies of this HMM's estimators, in which the counts of a share of
+	 * the training sequences can be gathered on one thread while other threads
+	 * gather theirs. Add them to the HMM's own estimators with
+	 * {@link #addCounts} before calling {@link #estimate}.
+	 */
+	public class Counts {
+		Multinomial.Estimator initialCounts;
+		Multinomial.Estimator[] emissionCounts, transitionCounts;
+
+		public Counts() {
+			initialCounts = emptyCopy(initialEstimator);
+			emissionCounts = new Multinomial.Estimator[numStates()];
+			transitionCounts = new Multinomial.Estimator[numStates()];
+			for (int i = 0; i < numStates(); i++) {
+				emissionCounts[i] = emptyCopy(emissionEstimator[i]);
+				transitionCounts[i] = emptyCopy(transitionEstimator[i]);
+			}
 		}
 
-		public void incrementInitialState(Transducer.State s, double count) {
-			initialEstimator.increment(s.getName(), weight * count);
+		private Multinomial.Estimator emptyCopy(Multinomial.Estimator e) {
+			Multinomial.Estimator copy = (Multinomial.Estimator) e.clone();
+			copy.setAlphabet(e.getAlphabet());
+			return copy;
 		}
 
-		public void incrementTransition(Transducer.TransitionIterator ti,
-				double count) {
-			int inputFtr = (Integer) ti.getInput();
-			State src = (HMM.State) ((TransitionIterator) ti).getSourceState();
-			State dest = (HMM.State) ((TransitionIterator) ti)
-					.getDestinationState();
-			int index = ti.getIndex();
-			emissionEstimator[index].increment(inputFtr, weight * count);
-			transitionEstimator[src.getIndex()].increment(dest.getName(),
-					weight * count);
+		/** An {@link HMM.Incrementor} that adds to these counts. */
+		public Incrementor newIncrementor() {
+			return new Incrementor(initialCounts, emissionCounts,
+					transitionCounts, 1.0);
+		}
+	}
+
+	/** Add counts gathered separately to this HMM's estimators. */
+	public void addCounts(Counts counts) {
+		initialEstimator.increment(counts.initialCounts);
+		for (int i = 0; i < numStates(); i++) {
+			emissionEstimator[i].increment(counts.emissionCounts[i]);
+			transitionEstimator[i].increment(counts.transitionCounts[i]);
 		}
 	}
 
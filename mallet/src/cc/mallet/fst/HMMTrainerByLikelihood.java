@@ -1,5 +1,12 @@
 package cc.mallet.fst;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import cc.mallet.types.FeatureSequence;
@@ -15,11 +22,22 @@ public class HMMTrainerByLikelihood extends TransducerTrainer {
 	InstanceList trainingSet, unlabeledSet;
 	int iterationCount = 0;
 	boolean converged = false;
+	int numThreads = 1;
 
 	public HMMTrainerByLikelihood(HMM hmm) {
 		this.hmm = hmm;
 	}
 
+	/**
+	 * A trainer whose E-step shares the sequences out among
+	 * <tt>numThreads</tt> threads, each gathering counts in its own
+	 * {@link HMM.Counts}, which are added to the HMM's before the M-step.
+	 */
+	public HMMTrainerByLikelihood(HMM hmm, int numThreads) {
+		this.hmm = hmm;
+		this.numThreads = numThreads;
+	}
+
 	@Override
 	public Transducer getTransducer() {
 		return hmm;
@@ -48,49 +66,124 @@ public class HMMTrainerByLikelihood extends TransducerTrainer {
 		converged = false;
 		double threshold = 0.001;
 		double logLikelihood = Double.NEGATIVE_INFINITY, prevLogLikelihood;
-		for (int iter = 0; iter < numIterations; iter++) {
-			prevLogLikelihood = logLikelihood;
-			logLikelihood = 0;
-			for (Instance inst : trainingSet) {
-				FeatureSequence input = (FeatureSequence) inst.getData();
-				FeatureSequence output = (FeatureSequence) inst.getTarget();
-				double obsLikelihood = new SumLatticeDefault(hmm, input,
-						output, hmm.new Incrementor()).getTotalWeight();
-				logLikelihood += obsLikelihood;
-			}
-			logger.info("getValue() (observed log-likelihood) = "
-					+ logLikelihood);
-
-			if (unlabeledSet != null) {
-				int numEx = 0;
-				for (Instance inst : unlabeledSet) {
-					numEx++;
-					if (numEx % 100 == 0) {
-						System.err.print(numEx + ". ");
-						System.err.flush();
-					}
-					FeatureSequence input = (FeatureSequence) inst.getData();
-					double hiddenLikelihood = new SumLatticeDefault(hmm, input,
-							null, hmm.new Incrementor()).getTotalWeight();
-					logLikelihood += hiddenLikelihood;
+		ExecutorService executor = numThreads > 1 ? Executors
+				.newFixedThreadPool(numThreads) : null;
+		try {
+			for (int iter = 0; iter < numIterations; iter++) {
+				prevLogLikelihood = logLikelihood;
+				if (executor != null)
+					logLikelihood = addCountsInParallel(executor, trainingSet,
+							unlabeledSet);
+				else
+					logLikelihood = addCounts(trainingSet, unlabeledSet);
+				logger.info("getValue() (log-likelihood) = " + logLikelihood);
+
+				hmm.estimate();
+				iterationCount++;
+				logger.info("HMM finished one iteration of maximizer, i="
+						+ iter);
+
+				runEvaluators();
+
+				if (Math.abs(logLikelihood - prevLogLikelihood) < threshold) {
+					converged = true;
+					logger.info("HMM training has converged, i=" + iter);
+					break;
 				}
-				System.err.println();
 			}
-			logger.info("getValue() (log-likelihood) = " + logLikelihood);
-
-			hmm.estimate();
-			iterationCount++;
-			logger.info("HMM finished one iteration of maximizer, i=" + iter);
+		} finally {
+			if (executor != null)
+				executor.shutdown();
+		}
 
-			runEvaluators();
+		return converged;
+	}
 
-			if (Math.abs(logLikelihood - prevLogLikelihood) < threshold) {
-				converged = true;
-				logger.info("HMM training has converged, i=" + iter);
-				break;
+	// The E-step: add the expected counts of all sequences to the HMM's
+	// estimators and return the log-likelihood
+	private double addCounts(InstanceList trainingSet, InstanceList unlabeledSet) {
+		double logLikelihood = 0;
+		for (Instance inst : trainingSet) {
+			FeatureSequence input = (FeatureSequence) inst.getData();
+			FeatureSequence output = (FeatureSequence) inst.getTarget();
+			double obsLikelihood = new SumLatticeDefault(hmm, input, output,
+					hmm.new Incrementor()).getTotalWeight();
+			logLikelihood += obsLikelihood;
+		}
+		logger.info("getValue() (observed log-likelihood) = " + logLikelihood);
+
+		if (unlabeledSet != null) {
+			int numEx = 0;
+			for (Instance inst : unlabeledSet) {
+				numEx++;
+				if (numEx % 100 == 0) {
+					System.err.print(numEx + ". ");
+					System.err.flush();
+				}
+				FeatureSequence input = (FeatureSequence) inst.getData();
+				double hiddenLikelihood = new SumLatticeDefault(hmm, input,
+						null, hmm.new Incrementor()).getTotalWeight();
+				logLikelihood += hiddenLikelihood;
 			}
+			System.err.println();
 		}
+		return logLikelihood;
+	}
 
-		return converged;
+	// The E-step with every numThreads'th sequence counted by each thread into
+	// its own copy of the estimators, which are then added to the HMM's. If
+	// any thread fails, nothing is added.
+	private double addCountsInParallel(ExecutorService executor,
+			final InstanceList trainingSet, final InstanceList unlabeledSet) {
+		final HMM.Counts[] counts = new HMM.Counts[numThreads];
+		ArrayList<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>();
+		for (int t = 0; t < numThreads; t++) {
+			counts[t] = hmm.new Counts();
+			final int first = t;
+			tasks.add(new Callable<double[]>() {
+				// Returns the labeled and the unlabeled log-likelihood
+				public double[] call() {
+					Transducer.Incrementor incrementor = counts[first]
+							.newIncrementor();
+					double[] logLikelihood = new double[2];
+					for (int i = first; i < trainingSet.size(); i += numThreads) {
+						Instance inst = trainingSet.get(i);
+						FeatureSequence input = (FeatureSequence) inst.getData();
+						FeatureSequence output = (FeatureSequence) inst.getTarget();
+						logLikelihood[0] += new SumLatticeDefault(hmm, input,
+								output, incrementor).getTotalWeight();
+					}
+					if (unlabeledSet != null) {
+						for (int i = first; i < unlabeledSet.size(); i += numThreads) {
+							FeatureSequence input = (FeatureSequence) unlabeledSet
+									.get(i).getData();
+							logLikelihood[1] += new SumLatticeDefault(hmm, input,
+									null, incrementor).getTotalWeight();
+						}
+					}
+					return logLikelihood;
+				}
+			});
+		}
+
+		double observedLogLikelihood = 0, hiddenLogLikelihood = 0;
+		try {
+			List<Future<double[]>> results = executor.invokeAll(tasks);
+			for (Future<double[]> f : results) {
+				double[] logLikelihood = f.get();
+				observedLogLikelihood += logLikelihood[0];
+				hiddenLogLikelihood += logLikelihood[1];
+			}
+		} catch (ExecutionException ee) {
+			throw new IllegalStateException(ee.getCause());
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(ie);
+		}
+		logger.info("getValue() (observed log-likelihood) = "
+				+ observedLogLikelihood);
+		for (int t = 0; t < numThreads; t++)
+			hmm.addCounts(counts[t]);
+		return observedLogLikelihood + hiddenLogLikelihood;
 	}
 }
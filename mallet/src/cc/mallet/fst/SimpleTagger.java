@@ -246,7 +246,15 @@ public class SimpleTagger
   
   private static final CommandOption.Integer numThreads = new CommandOption.Integer(
       SimpleTagger.class, "threads", "INTEGER", true, 1,
-      "Number of threads to use for CRF training.", null);
+      "Number of threads to use for CRF training, and for labeling when --n-best is 1.", null);
+
+  private static final CommandOption.Integer pruneBeamOption = new CommandOption.Integer(
+      SimpleTagger.class, "prune-beam", "INTEGER", true, 0,
+      "During training, keep at most this many states per position in unconstrained lattices (0 for no limit)", null);
+
+  private static final CommandOption.Double pruneThresholdOption = new CommandOption.Double(
+      SimpleTagger.class, "prune-threshold", "DECIMAL", true, Double.POSITIVE_INFINITY,
+      "During training, prune states whose forward log weight is this much below the best at their position", null);
 
   private static final CommandOption.List commandOptions =
     new CommandOption.List (
@@ -271,7 +279,9 @@ public class SimpleTagger
           cacheSizeOption,
           includeInputOption,
           featureInductionOption,
-          numThreads
+          numThreads,
+          pruneBeamOption,
+          pruneThresholdOption
         });
 
   /**
@@ -312,6 +322,8 @@ public class SimpleTagger
         crf.getState(i).setInitialWeight (Transducer.IMPOSSIBLE_WEIGHT);
       crf.getState(startName).setInitialWeight(0.0);
     }
+    if (pruneBeamOption.value > 0 || pruneThresholdOption.value < Double.POSITIVE_INFINITY)
+      crf.setSumLatticeFactory(new SumLatticeCRF.Factory(pruneBeamOption.value, pruneThresholdOption.value));
     logger.info("Training on " + training.size() + " instances");
     if (testing != null)
       logger.info("Testing on " + testing.size() + " instances");
@@ -475,7 +487,11 @@ public class SimpleTagger
    *<dt><code>--include-input</code> <em>boolean</em></dt>
    *<dd>Whether to include input features when printing decoding output. Default is <code>false</code>.</dd>
    *<dt><code>--threads</code> <em>positive-integer</em></dt>
-   *<dd>Number of threads for CRF training. Default is 1.</dd>
+   *<dd>Number of threads for CRF training, and for labeling when <code>--n-best</code> is 1. Default is 1.</dd>
+   *<dt><code>--prune-beam</code> <em>integer</em></dt>
+   *<dd>During training, keep at most this many states per position in unconstrained lattices. Default is 0 (no limit).</dd>
+   *<dt><code>--prune-threshold</code> <em>decimal</em></dt>
+   *<dd>During training, prune states whose forward log weight is this much below the best at their position. Default is no threshold.</dd>
    *</dl>
    * Remaining arguments:
    *<ul>
@@ -655,6 +671,21 @@ public class SimpleTagger
       }
       if (eval != null)
         test(new NoopTransducerTrainer(crf), eval, testData);
+      else if (nBestOption.value == 1)
+      {
+        // Decode with the same Viterbi search for any number of threads,
+        // printing in input order
+        final boolean includeInput = includeInputOption.value();
+        ViterbiDecoder decoder = new ViterbiDecoder(crf, numThreads.value);
+        decoder.decode(testData.iterator(), new ViterbiDecoder.OutputHandler() {
+          public void handle(int index, Instance instance, Sequence output) {
+            printOutputs(index, (Sequence)instance.getData(),
+                new Sequence[] { output }, includeInput);
+          }
+        });
+        decoder.shutdown();
+        logger.info(decoder.getLatencySummary());
+      }
       else
       {
         boolean includeInput = includeInputOption.value();
@@ -662,30 +693,40 @@ public class SimpleTagger
         {
           Sequence input = (Sequence)testData.get(i).getData();
           Sequence[] outputs = apply(crf, input, nBestOption.value);
-          int k = outputs.length;
-          boolean error = false;
-          for (int a = 0; a < k; a++) {
-            if (outputs[a].size() != input.size()) {
-              logger.info("Failed to decode input sequence " + i + ", answer " + a);
-              error = true;
-            }
-          }
-          if (!error) {
-            for (int j = 0; j < input.size(); j++)
-            {
-               StringBuffer buf = new StringBuffer();
-              for (int a = 0; a < k; a++)
-                 buf.append(outputs[a].get(j).toString()).append(" ");
-              if (includeInput) {
-                FeatureVector fv = (FeatureVector)input.get(j);
-                buf.append(fv.toString(true));                
-              }
-              System.out.println(buf.toString());
-            }
-            System.out.println();
-          }
+          printOutputs(i, input, outputs, includeInput);
+        }
+      }
+    }
+  }
+
+  /**
+   * Print the answers for one input sequence, one token per line,
+   * followed by a blank line.
+   */
+  private static void printOutputs(int i, Sequence input, Sequence[] outputs,
+                                   boolean includeInput)
+  {
+    int k = outputs.length;
+    boolean error = false;
+    for (int a = 0; a < k; a++) {
+      if (outputs[a].size() != input.size()) {
+        logger.info("Failed to decode input sequence " + i + ", answer " + a);
+        error = true;
+      }
+    }
+    if (!error) {
+      for (int j = 0; j < input.size(); j++)
+      {
+         StringBuffer buf = new StringBuffer();
+        for (int a = 0; a < k; a++)
+           buf.append(outputs[a].get(j).toString()).append(" ");
+        if (includeInput) {
+          FeatureVector fv = (FeatureVector)input.get(j);
+          buf.append(fv.toString(true));                
         }
+        System.out.println(buf.toString());
       }
+      System.out.println();
     }
   }
 }
@@ -0,0 +1,672 @@
+package cc.mallet.fst;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.logging.Logger;
+
+import cc.mallet.fst.Transducer.State;
+import cc.mallet.types.FeatureVector;
+import cc.mallet.types.LabelAlphabet;
+import cc.mallet.types.LabelVector;
+import cc.mallet.types.MatrixOps;
+import cc.mallet.types.Sequence;
+import cc.mallet.util.MalletLogger;
+
+/**
+ * Forward-backward for a {@link CRF}, computing the same quantities as
+ * {@link SumLatticeDefault} without per-node or per-transition objects.
+ * <p>
+ * The CRF's states and transitions are compiled into flat arrays, and
+ * alphas and betas are stored in one array each, indexed by
+ * <code>ip * numStates + i</code>.  Transition weights are computed once
+ * per position in the forward pass and kept for the backward pass in a
+ * buffer that, like the compiled transitions, belongs to the thread and
+ * is reused for the next sequence.  Gammas are computed only if requested.
+ * <p>
+ * For models with many states, such as second-order CRFs, the unconstrained
+ * lattice can be pruned to a beam of states at each position, so that the
+ * cost of a pass scales with the number of states kept rather than with the
+ * square of the number of states.  Pruning makes the normalizer and the
+ * expectations approximate; see the constructor that takes a beam width and
+ * {@link Factory#Factory(int,double)}.
+ * <p>
+ * Only plain CRFs are supported, since subclasses such as MEMM compute
+ * their transition weights differently; {@link Factory} falls back to
+ * SumLatticeDefault for them.  To use this lattice in training, call
+ * <code>crf.setSumLatticeFactory(new SumLatticeCRF.Factory())</code>.
+ */
+public class SumLatticeCRF implements SumLattice
+{
+	private static Logger logger = MalletLogger.getLogger(SumLatticeCRF.class.getName());
+
+	// Compiled transitions and buffers for the sequence being processed by each thread
+	private static ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>();
+
+	// "ip" == "input position", "i" == "state index", "t" == "transition index"
+	CRF crf;
+	Sequence input, output;
+	int latticeLength;
+	int numStates;
+	double totalWeight;
+	double[] alphas;						 // indexed by ip*numStates+i
+	double[] betas;							 // indexed by ip*numStates+i
+	double[][] gammas;					 // indexed by ip,i; created on request
+	double[][][] xis;						 // indexed by ip,i,j; saved only if saveXis is true
+
+	LabelVector labelings[];		 // indexed by op, created only if "outputAlphabet" is non-null in constructor
+
+	boolean pruned;							 // whether states were pruned from the forward pass
+	int numActiveStates;				 // the number of states expanded in the forward pass
+	double prunedMass;					 // estimated fraction of forward weight pruned
+
+	public SumLatticeCRF (CRF crf, Sequence input)
+	{
+		this (crf, input, null, (Transducer.Incrementor)null, false, null);
+	}
+
+	public SumLatticeCRF (CRF crf, Sequence input, Sequence output, Transducer.Incrementor incrementor)
+	{
+		this (crf, input, output, incrementor, false, null);
+	}
+
+	// You may pass null for output, meaning that the lattice
+	// is not constrained to match the output.
+	// If outputAlphabet is non-null, this will create a LabelVector
+	// for each position in the output sequence indicating the
+	// probability distribution over possible outputs at that time
+	// index
+	public SumLatticeCRF (CRF crf, Sequence input, Sequence output, Transducer.Incrementor incrementor, boolean saveXis, LabelAlphabet outputAlphabet)
+	{
+		this (crf, input, output, incrementor, saveXis, outputAlphabet, 0, Double.POSITIVE_INFINITY, 1.0);
+	}
+
+	/**
+	 * A lattice that, if it is unconstrained (output is null), prunes states
+	 * from the forward pass.  At each input position only states whose alpha
+	 * is within <code>threshold</code> of the best alpha there are kept, and of
+	 * those at most the <code>beamWidth</code> best (more on ties); transitions
+	 * out of pruned states are never scored, and the backward pass visits only
+	 * the states that were kept.  A beamWidth of 0 and an infinite threshold
+	 * disable pruning.
+	 * <p>
+	 * The fraction of forward weight removed by pruning is estimated as the
+	 * forward pass goes; if it exceeds <code>maxPrunedMass</code> the forward
+	 * pass is re-run without pruning, so that the lattice is exact.
+	 */
+	public SumLatticeCRF (CRF crf, Sequence input, Sequence output, Transducer.Incrementor incrementor, boolean saveXis, LabelAlphabet outputAlphabet,
+			int beamWidth, double threshold, double maxPrunedMass)
+	{
+		assert (output == null || input.size() == output.size());
+		this.crf = crf;
+		this.input = input;
+		this.output = output;
+
+		Scratch s = scratch.get();
+		if (s == null) {
+			s = new Scratch();
+			scratch.set(s);
+		}
+		Transitions transitions = s.getTransitions(crf);
+		numStates = transitions.numStates;
+		int[] first = transitions.first;
+		int[] destination = transitions.destination;
+		int[] label = transitions.label;
+
+		latticeLength = input.size()+1;
+		alphas = new double[latticeLength * numStates];
+		betas = new double[latticeLength * numStates];
+		Arrays.fill (betas, Transducer.IMPOSSIBLE_WEIGHT);
+		if (saveXis) {
+			xis = new double[latticeLength][numStates][numStates];
+			for (int ip = 0; ip < latticeLength; ip++)
+				for (int i = 0; i < numStates; i++)
+					Arrays.fill (xis[ip][i], Transducer.IMPOSSIBLE_WEIGHT);
+		}
+
+		// Forward pass
+		pruned = output == null && (beamWidth > 0 || threshold < Double.POSITIVE_INFINITY);
+		forward (transitions, s, beamWidth, threshold);
+		if (pruned && prunedMass > maxPrunedMass) {
+			logger.fine ("Pruned mass "+prunedMass+" > "+maxPrunedMass+"; recomputing without pruning");
+			pruned = false;
+			forward (transitions, s, beamWidth, threshold);
+		}
+		int[] active = s.active;
+		int[] activeFirst = s.activeFirst;
+		int[] weightsStart = s.weightsStart;
+		double[] weights = s.transitionWeights;
+
+		// Calculate total weight of Lattice.  This is the normalizer
+		int lastOffset = (latticeLength-1) * numStates;
+		totalWeight = Transducer.IMPOSSIBLE_WEIGHT;
+		for (int i = 0; i < numStates; i++)
+			if (alphas[lastOffset + i] > Transducer.IMPOSSIBLE_WEIGHT)
+				totalWeight = Transducer.sumLogProb (totalWeight, alphas[lastOffset + i] + crf.parameters.finalWeights[i]);
+
+		// If the sequence has -infinite weight, just return, without calling any incrementX methods.
+		if (totalWeight == Transducer.IMPOSSIBLE_WEIGHT)
+			return;
+
+		// Backward pass
+		for (int i = 0; i < numStates; i++)
+			if (alphas[lastOffset + i] > Transducer.IMPOSSIBLE_WEIGHT) {
+				betas[lastOffset + i] = crf.parameters.finalWeights[i];
+				if (incrementor != null) {
+					double p = Math.exp (alphas[lastOffset + i] + betas[lastOffset + i] - totalWeight);
+					assert (p >= 0.0 && p <= 1.0+1e-6) : "p="+p;
+					incrementor.incrementFinalState (transitions.states[i], p);
+				}
+			}
+
+		double outputCounts[][] = null;
+		int[] outputIndices = null;
+		if (outputAlphabet != null) {
+			outputCounts = new double[latticeLength][outputAlphabet.size()];
+			outputIndices = new int[transitions.labels.length];
+			for (int l = 0; l < outputIndices.length; l++)
+				outputIndices[l] = outputAlphabet.lookupIndex (transitions.labels[l], false);
+		}
+		Transition transition = s.transition;
+
+		for (int ip = latticeLength-2; ip >= 0; ip--) {
+			int nodeOffset = ip * numStates;
+			// The weights of transitions out of the active states at ip, in the order they were scored
+			int w = weightsStart[ip];
+			if (incrementor != null)
+				transition.setInput (transitions, (FeatureVector) input.get(ip));
+			for (int a = activeFirst[ip]; a < activeFirst[ip+1]; a++) {
+				int i = active[a];
+				double alpha = alphas[nodeOffset + i];
+				double beta = Transducer.IMPOSSIBLE_WEIGHT;
+				for (int t = first[i]; t < first[i+1]; t++) {
+					double weight = weights[w++];
+					int j = destination[t];
+					if (weight == Transducer.IMPOSSIBLE_WEIGHT || alphas[nodeOffset + numStates + j] == Transducer.IMPOSSIBLE_WEIGHT)
+						continue;
+					double destinationBeta = betas[nodeOffset + numStates + j];
+					beta = Transducer.sumLogProb (beta, destinationBeta + weight);
+					assert (!Double.isNaN(beta));
+					double xi = alpha + weight + destinationBeta - totalWeight;
+					if (saveXis) xis[ip][i][j] = xi;
+					if (incrementor != null || outputAlphabet != null) {
+						double p = Math.exp(xi);
+						assert (p >= 0.0 && p <= 1.0+1e-6) : "p="+p+", xis["+ip+"]["+i+"]["+j+"]="+xi;
+						if (incrementor != null) {
+							transition.setTransition (t, weight);
+							incrementor.incrementTransition (transition, p);
+						}
+						if (outputAlphabet != null) {
+							assert (outputIndices[label[t]] >= 0);
+							// xxx This assumes that "ip" == "op"!
+							outputCounts[ip][outputIndices[label[t]]] += p;
+						}
+					}
+				}
+				betas[nodeOffset + i] = beta;
+			}
+		}
+		if (incrementor != null)
+			for (int i = 0; i < numStates; i++) {
+				double p = Math.exp (getGammaWeight (0, i));
+				assert (p >= 0.0 && p <= 1.0+1e-6) : "p="+p;
+				incrementor.incrementInitialState (transitions.states[i], p);
+			}
+		if (outputAlphabet != null) {
+			labelings = new LabelVector[latticeLength];
+			for (int ip = latticeLength-2; ip >= 0; ip--) {
+				assert (Math.abs(1.0-MatrixOps.sum (outputCounts[ip])) < 0.000001);
+				labelings[ip] = new LabelVector (outputAlphabet, outputCounts[ip]);
+			}
+		}
+	}
+
+	/* Fill in alphas, and in the scratch buffers the states that are active at
+	 * each position and the weights of the transitions out of them.  Prunes the
+	 * active states if "pruned" is set, and sets numActiveStates and prunedMass. */
+	private void forward (Transitions transitions, Scratch s, int beamWidth, double threshold)
+	{
+		int[] first = transitions.first;
+		int[] destination = transitions.destination;
+		int[] weightsFirst = transitions.weightsFirst;
+		int[] weightsIndices = transitions.weightsIndices;
+		int[] label = transitions.label;
+
+		Arrays.fill (alphas, Transducer.IMPOSSIBLE_WEIGHT);
+		s.ensureCapacity (latticeLength, numStates);
+		int[] active = s.active;
+		int[] activeFirst = s.activeFirst;
+		int[] weightsStart = s.weightsStart;
+		double[] sorted = s.sorted;
+
+		boolean atLeastOneInitialState = false;
+		for (int i = 0; i < numStates; i++) {
+			double initialWeight = crf.parameters.initialWeights[i];
+			if (initialWeight > Transducer.IMPOSSIBLE_WEIGHT) {
+				alphas[i] = initialWeight;
+				atLeastOneInitialState = true;
+			}
+		}
+		if (atLeastOneInitialState == false)
+			logger.warning ("There are no starting states!");
+
+		numActiveStates = 0;
+		double logKeptMass = 0;
+		int w = 0;
+		for (int ip = 0; ip < latticeLength-1; ip++) {
+			int nodeOffset = ip * numStates;
+
+			// Find the states to expand at this position
+			activeFirst[ip] = numActiveStates;
+			double cutoff = Transducer.IMPOSSIBLE_WEIGHT;
+			if (pruned) {
+				int numReachable = 0;
+				double maxAlpha = Transducer.IMPOSSIBLE_WEIGHT;
+				for (int i = 0; i < numStates; i++) {
+					double alpha = alphas[nodeOffset + i];
+					if (alpha == Transducer.IMPOSSIBLE_WEIGHT)
+						continue;
+					sorted[numReachable++] = alpha;
+					if (alpha > maxAlpha)
+						maxAlpha = alpha;
+				}
+				cutoff = maxAlpha - threshold;
+				if (beamWidth > 0 && numReachable > beamWidth) {
+					Arrays.sort (sorted, 0, numReachable);
+					cutoff = Math.max (cutoff, sorted[numReachable - beamWidth]);
+				}
+			}
+			double reachableMass = Transducer.IMPOSSIBLE_WEIGHT, keptMass = Transducer.IMPOSSIBLE_WEIGHT;
+			int numTransitionsOut = 0;
+			for (int i = 0; i < numStates; i++) {
+				double alpha = alphas[nodeOffset + i];
+				if (alpha == Transducer.IMPOSSIBLE_WEIGHT)
+					continue;
+				if (pruned) {
+					reachableMass = Transducer.sumLogProb (reachableMass, alpha);
+					if (alpha < cutoff) {
+						alphas[nodeOffset + i] = Transducer.IMPOSSIBLE_WEIGHT;
+						continue;
+					}
+					keptMass = Transducer.sumLogProb (keptMass, alpha);
+				}
+				active[numActiveStates++] = i;
+				numTransitionsOut += first[i+1] - first[i];
+			}
+			if (pruned && reachableMass > Transducer.IMPOSSIBLE_WEIGHT)
+				logKeptMass += keptMass - reachableMass;
+
+			// Score the transitions out of them
+			weightsStart[ip] = w;
+			double[] weights = s.getTransitionWeights (w + numTransitionsOut);
+			CRF.WeightDotProducts dotProducts = crf.getWeightDotProducts ((FeatureVector) input.get(ip));
+			int requiredLabel = output == null ? -1 : transitions.getLabelIndex (output.get(ip));
+			for (int a = activeFirst[ip]; a < numActiveStates; a++) {
+				int i = active[a];
+				double alpha = alphas[nodeOffset + i];
+				for (int t = first[i]; t < first[i+1]; t++) {
+					double weight = Transducer.IMPOSSIBLE_WEIGHT;
+					if (requiredLabel == -1 || label[t] == requiredLabel) {
+						weight = 0;
+						for (int wi = weightsFirst[t]; wi < weightsFirst[t+1]; wi++)
+							weight += dotProducts.get (weightsIndices[wi]);
+						assert (!Double.isNaN(weight));
+					}
+					weights[w++] = weight;
+					if (weight == Transducer.IMPOSSIBLE_WEIGHT)
+						continue;
+					int j = nodeOffset + numStates + destination[t];
+					alphas[j] = Transducer.sumLogProb (alphas[j], alpha + weight);
+				}
+			}
+		}
+		activeFirst[latticeLength-1] = numActiveStates;
+		prunedMass = 1.0 - Math.exp (logKeptMass);
+	}
+
+	public double[][][] getXis () {
+		return xis;
+	}
+
+	public double[][] getGammas () {
+		if (gammas == null) {
+			gammas = new double[latticeLength][numStates];
+			for (int ip = 0; ip < latticeLength; ip++)
+				for (int i = 0; i < numStates; i++)
+					gammas[ip][i] = getGammaWeight (ip, i);
+		}
+		return gammas;
+	}
+
+	public double getTotalWeight () {
+		assert (!Double.isNaN(totalWeight));
+		return totalWeight;
+	}
+
+	public double getGammaWeight (int inputPosition, State s) {
+		return getGammaWeight (inputPosition, s.getIndex());
+	}
+
+	public double getGammaWeight (int inputPosition, int stateIndex) {
+		int node = inputPosition * numStates + stateIndex;
+		if (totalWeight == Transducer.IMPOSSIBLE_WEIGHT || alphas[node] == Transducer.IMPOSSIBLE_WEIGHT)
+			return Transducer.IMPOSSIBLE_WEIGHT;
+		return alphas[node] + betas[node] - totalWeight;
+	}
+
+	public double getGammaProbability (int inputPosition, State s) {
+		return Math.exp (getGammaWeight (inputPosition, s.getIndex()));
+	}
+
+	public double getGammaProbability (int inputPosition, int stateIndex) {
+		return Math.exp (getGammaWeight (inputPosition, stateIndex));
+	}
+
+	public double getXiProbability (int ip, State s1, State s2) {
+		return Math.exp (getXiWeight (ip, s1, s2));
+	}
+
+	public double getXiWeight (int ip, State s1, State s2) {
+		if (xis == null)
+			throw new IllegalStateException ("xis were not saved.");
+		return xis[ip][s1.getIndex()][s2.getIndex()];
+	}
+
+	public int length () { return latticeLength; }
+
+	public double getAlpha (int ip, State s) {
+		return alphas[ip * numStates + s.getIndex()];
+	}
+
+	public double getBeta (int ip, State s) {
+		return betas[ip * numStates + s.getIndex()];
+	}
+
+	public LabelVector getLabelingAtPosition (int outputPosition) {
+		if (labelings != null)
+			return labelings[outputPosition];
+		return null;
+	}
+
+	public Transducer getTransducer () {
+		return crf;
+	}
+
+	/** Return true if states were pruned from this lattice. */
+	public boolean isPruned () {
+		return pruned;
+	}
+
+	/** Return the number of (input position, state) pairs expanded in the forward pass. */
+	public int getNumActiveStates () {
+		return numActiveStates;
+	}
+
+	/** Return the estimated fraction of the total weight lost to pruning. */
+	public double getPrunedMass () {
+		return pruned ? prunedMass : 0.0;
+	}
+
+
+	/** The transitions of a CRF, in arrays indexed by transition.  The transitions
+	 * out of state i are those from <code>first[i]</code> to <code>first[i+1]-1</code>,
+	 * in the same order as in <code>CRF.State.destinations</code>. */
+	protected static class Transitions
+	{
+		CRF crf;
+		int structureStamp;
+		int numStates, numTransitions;
+		CRF.State[] states;
+		int[] first;							// indexed by state
+		int[] source;							// indexed by t
+		int[] destination;				// indexed by t
+		int[] index;							// indexed by t, the index of t in its source state
+		int[] weightsFirst;				// indexed by t, into weightsIndices
+		int[] weightsIndices;
+		int[] label;							// indexed by t, into labels
+		String[] labels;
+		HashMap<Object,Integer> labelIndices;
+
+		protected Transitions (CRF crf)
+		{
+			this.crf = crf;
+			this.structureStamp = crf.weightsStructureChangeStamp;
+			numStates = crf.numStates();
+			states = new CRF.State[numStates];
+			first = new int[numStates+1];
+			numTransitions = 0;
+			int numWeightsIndices = 0;
+			for (int i = 0; i < numStates; i++) {
+				states[i] = (CRF.State) crf.getState(i);
+				first[i] = numTransitions;
+				numTransitions += states[i].destinations.length;
+				for (int d = 0; d < states[i].destinations.length; d++)
+					numWeightsIndices += states[i].weightsIndices[d].length;
+			}
+			first[numStates] = numTransitions;
+
+			source = new int[numTransitions];
+			destination = new int[numTransitions];
+			index = new int[numTransitions];
+			weightsFirst = new int[numTransitions+1];
+			weightsIndices = new int[numWeightsIndices];
+			label = new int[numTransitions];
+			labelIndices = new HashMap<Object,Integer>();
+			String[] labelList = new String[numTransitions];
+
+			int t = 0, wi = 0;
+			for (int i = 0; i < numStates; i++) {
+				for (int d = 0; d < states[i].destinations.length; d++) {
+					source[t] = i;
+					destination[t] = states[i].getDestinationState(d).getIndex();
+					index[t] = d;
+					weightsFirst[t] = wi;
+					for (int w = 0; w < states[i].weightsIndices[d].length; w++)
+						weightsIndices[wi++] = states[i].weightsIndices[d][w];
+					Integer labelIndex = labelIndices.get(states[i].labels[d]);
+					if (labelIndex == null) {
+						labelIndex = labelIndices.size();
+						labelIndices.put(states[i].labels[d], labelIndex);
+						labelList[labelIndex] = states[i].labels[d];
+					}
+					label[t] = labelIndex;
+					t++;
+				}
+			}
+			weightsFirst[numTransitions] = wi;
+			labels = new String[labelIndices.size()];
+			System.arraycopy (labelList, 0, labels, 0, labels.length);
+		}
+
+		/** Return the index of the given output label, or -2 if no transition has it. */
+		protected int getLabelIndex (Object output)
+		{
+			Integer labelIndex = labelIndices.get(output);
+			return labelIndex == null ? -2 : labelIndex;
+		}
+	}
+
+	// Buffers reused by the lattices built on one thread
+	private static class Scratch
+	{
+		Transitions transitions;
+		double[] transitionWeights = new double[0];
+		int[] active = new int[0];						// states expanded, position by position
+		int[] activeFirst = new int[0];				// indexed by ip, into active
+		int[] weightsStart = new int[0];			// indexed by ip, into transitionWeights
+		double[] sorted = new double[0];			// alphas at one position, for finding the beam cutoff
+		Transition transition = new Transition();
+
+		Transitions getTransitions (CRF crf)
+		{
+			if (transitions == null || transitions.crf != crf || transitions.structureStamp != crf.weightsStructureChangeStamp)
+				transitions = new Transitions (crf);
+			return transitions;
+		}
+
+		double[] getTransitionWeights (int size)
+		{
+			if (transitionWeights.length < size) {
+				double[] newWeights = new double[Math.max (size, transitionWeights.length * 2)];
+				System.arraycopy (transitionWeights, 0, newWeights, 0, transitionWeights.length);
+				transitionWeights = newWeights;
+			}
+			return transitionWeights;
+		}
+
+		void ensureCapacity (int latticeLength, int numStates)
+		{
+			if (active.length < latticeLength * numStates)
+				active = new int[latticeLength * numStates];
+			if (activeFirst.length < latticeLength) {
+				activeFirst = new int[latticeLength];
+				weightsStart = new int[latticeLength];
+			}
+			if (sorted.length < numStates)
+				sorted = new double[numStates];
+		}
+	}
+
+	/** The single transition passed to Incrementor.incrementTransition, which
+	 * is re-pointed at each transition in turn rather than iterating over them. */
+	protected static class Transition extends Transducer.TransitionIterator
+	{
+		private static final long serialVersionUID = 1;
+
+		Transitions transitions;
+		FeatureVector input;
+		int t;
+		double weight;
+
+		void setInput (Transitions transitions, FeatureVector input) {
+			this.transitions = transitions;
+			this.input = input;
+		}
+
+		void setTransition (int t, double weight) {
+			this.t = t;
+			this.weight = weight;
+		}
+
+		public boolean hasNext () { return false; }
+		public State nextState () { return getDestinationState (); }
+		public int getIndex () { return transitions.index[t]; }
+		public Object getInput () { return input; }
+		public Object getOutput () { return transitions.labels[transitions.label[t]]; }
+		public double getWeight () { return weight; }
+		public State getSourceState () { return transitions.states[transitions.source[t]]; }
+		public State getDestinationState () { return transitions.states[transitions.destination[t]]; }
+	}
+
+	/**
+	 * Creates SumLatticeCRFs for plain CRFs, and SumLatticeDefaults for other
+	 * transducers.  If constructed with a beam width or threshold, unconstrained
+	 * lattices are pruned, and the factory keeps statistics about how much was
+	 * pruned, which the CRF optimizables log after each pass over the data.
+	 */
+	public static class Factory extends SumLatticeFactory implements Serializable
+	{
+		int beamWidth = 0;
+		double threshold = Double.POSITIVE_INFINITY;
+		double maxPrunedMass = 0.01;
+
+		// Pruning statistics since they were last reported
+		transient int numLattices, numRecomputed;
+		transient long numActiveStates, numPositions;
+		transient double sumPrunedMass, maxObservedPrunedMass;
+
+		/** A factory for exact lattices. */
+		public Factory () {}
+
+		/**
+		 * A factory that prunes unconstrained lattices to at most
+		 * <code>beamWidth</code> states per position (0 for no limit) whose
+		 * forward weight is within <code>threshold</code> of the best, in log
+		 * space (Double.POSITIVE_INFINITY for no limit).
+		 */
+		public Factory (int beamWidth, double threshold)
+		{
+			if (beamWidth < 0 || !(threshold >= 0))
+				throw new IllegalArgumentException ("Beam width and threshold must be non-negative.");
+			this.beamWidth = beamWidth;
+			this.threshold = threshold;
+		}
+
+		public int getBeamWidth () { return beamWidth; }
+		public double getThreshold () { return threshold; }
+		public boolean isPruning () { return beamWidth > 0 || threshold < Double.POSITIVE_INFINITY; }
+
+		/** The estimated fraction of a lattice's weight that may be pruned before it is
+		 * recomputed without pruning.  The default is 0.01. */
+		public void setMaxPrunedMass (double maxPrunedMass) { this.maxPrunedMass = maxPrunedMass; }
+		public double getMaxPrunedMass () { return maxPrunedMass; }
+
+		public SumLattice newSumLattice (Transducer trans, Sequence input, Sequence output,
+				Transducer.Incrementor incrementor, boolean saveXis, LabelAlphabet outputAlphabet)
+		{
+			if (trans.getClass() != CRF.class)
+				return new SumLatticeDefault (trans, input, output, incrementor, saveXis, outputAlphabet);
+			if (output != null || !isPruning())
+				return new SumLatticeCRF ((CRF) trans, input, output, incrementor, saveXis, outputAlphabet);
+
+			SumLatticeCRF lattice = new SumLatticeCRF ((CRF) trans, input, output, incrementor, saveXis, outputAlphabet,
+					beamWidth, threshold, maxPrunedMass);
+			synchronized (this) {
+				numLattices++;
+				if (!lattice.isPruned())
+					numRecomputed++;
+				numActiveStates += lattice.getNumActiveStates();
+				numPositions += lattice.length() - 1;
+				sumPrunedMass += lattice.getPrunedMass();
+				maxObservedPrunedMass = Math.max (maxObservedPrunedMass, lattice.getPrunedMass());
+			}
+			return lattice;
+		}
+
+		/** Return a summary of pruning since the last call with <code>reset</code> true,
+		 * or null if no pruned lattices have been created since then. */
+		public synchronized String getPruningSummary (boolean reset)
+		{
+			if (numLattices == 0)
+				return null;
+			String summary = "Pruned lattices: " + numLattices +
+				", mean active states per position = " + String.format ("%.1f", (double) numActiveStates / Math.max (numPositions, 1)) +
+				", mean pruned mass = " + String.format ("%.2g", sumPrunedMass / numLattices) +
+				", max pruned mass = " + String.format ("%.2g", maxObservedPrunedMass) +
+				", recomputed exactly = " + numRecomputed;
+			if (reset) {
+				numLattices = numRecomputed = 0;
+				numActiveStates = numPositions = 0;
+				sumPrunedMass = maxObservedPrunedMass = 0;
+			}
+			return summary;
+		}
+
+		private static final long serialVersionUID = 1;
+		private static final int CURRENT_SERIAL_VERSION = 2;
+
+		private void writeObject(ObjectOutputStream out) throws IOException {
+			out.writeInt(CURRENT_SERIAL_VERSION);
+			out.writeInt(beamWidth);
+			out.writeDouble(threshold);
+			out.writeDouble(maxPrunedMass);
+		}
+		private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+			int version = in.readInt();
+			if (version >= 2) {
+				beamWidth = in.readInt();
+				threshold = in.readDouble();
+				maxPrunedMass = in.readDouble();
+			}
+			else {
+				beamWidth = 0;
+				threshold = Double.POSITIVE_INFINITY;
+				maxPrunedMass = 0.01;
+			}
+		}
+	}
+
+}
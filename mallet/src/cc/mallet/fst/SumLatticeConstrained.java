@@ -1,5 +1,6 @@
 package cc.mallet.fst;
 
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -81,6 +82,66 @@ public class SumLatticeConstrained extends SumLatticeDefault {
 		return constraints;
 	}
 
+	/**
+	 * Returns the total weight that <code>new SumLatticeConstrained (t, input, null,
+	 * requiredSegment, constrainedSequence)</code> would have, computed from the
+	 * alphas and betas of an unconstrained lattice over the same input.  Positions
+	 * before the segment and after the position following it carry no constraints,
+	 * so their alphas and betas are shared with the unconstrained lattice; only the
+	 * forward pass over the constrained span is redone.  The cost is therefore
+	 * proportional to the length of the segment rather than of the sequence, and
+	 * the unconstrained lattice can be reused for every segment in a sequence.
+	 */
+	public static double constrainedWeight (SumLatticeDefault lattice, Segment requiredSegment, Sequence constrainedSequence)
+	{
+		Transducer t = lattice.t;
+		Sequence input = lattice.input;
+		int[] constraints = makeConstraints (t, input, null, requiredSegment, constrainedSequence);
+		int numStates = t.numStates();
+		// Lattice position "ip" holds the state reached after emitting input ip-1,
+		// so the constrained positions run from start+1 to end+2.
+		int first = requiredSegment.getStart();
+		int last = Math.min (requiredSegment.getEnd() + 2, lattice.latticeLength - 1);
+
+		double[] alphas = new double[numStates];
+		double[] nextAlphas = new double[numStates];
+		for (int i = 0; i < numStates; i++) {
+			LatticeNode node = lattice.nodes[first][i];
+			alphas[i] = (node == null) ? Transducer.IMPOSSIBLE_WEIGHT : node.alpha;
+		}
+		for (int ip = first; ip < last; ip++) {
+			Arrays.fill (nextAlphas, Transducer.IMPOSSIBLE_WEIGHT);
+			int constraint = constraints[ip+1];
+			for (int i = 0; i < numStates; i++) {
+				if (alphas[i] == Transducer.IMPOSSIBLE_WEIGHT)
+					continue;
+				TransitionIterator iter = t.getState(i).transitionIterator (input, ip, null, ip);
+				while (iter.hasNext()) {
+					iter.next();
+					int j = iter.getDestinationState().getIndex();
+					if (constraint > 0 && constraint-1 != j)
+						continue;
+					if (constraint < 0 && -(constraint+1) == j)
+						continue;
+					nextAlphas[j] = Transducer.sumLogProb (nextAlphas[j], alphas[i] + iter.getWeight());
+				}
+			}
+			double[] tmp = alphas;
+			alphas = nextAlphas;
+			nextAlphas = tmp;
+		}
+
+		double weight = Transducer.IMPOSSIBLE_WEIGHT;
+		for (int i = 0; i < numStates; i++) {
+			if (alphas[i] == Transducer.IMPOSSIBLE_WEIGHT)
+				continue;
+			// Any state reachable under the constraints is reachable without them,
+			// so it has a node (and a beta) in the unconstrained lattice.
+			weight = Transducer.sumLogProb (weight, alphas[i] + lattice.nodes[last][i].beta);
+		}
+		return weight;
+	}
+
 	// culotta: constructor for constrained lattice
 	/** Create a lattice that constrains its transitions such that the
 	 * <position,label> pairs in "constraints" are adhered
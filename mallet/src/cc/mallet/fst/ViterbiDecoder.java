@@ -0,0 +1,419 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.fst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import cc.mallet.fst.Transducer.State;
+import cc.mallet.fst.Transducer.TransitionIterator;
+import cc.mallet.types.ArraySequence;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.types.Sequence;
+import cc.mallet.util.MalletLogger;
+
+/**
+ * Finds the single best output sequence of a {@link Transducer} for many
+ * inputs, for tagging rather than training.
+ * <p>
+ * Unlike {@link MaxLatticeDefault}, which keeps a grid of ViterbiNode
+ * objects to support n-best search, each thread keeps its Viterbi scores and
+ * back-pointers in flat arrays that are reused from one sequence to the
+ * next.  A {@link CRF} is decoded by the Viterbi pass of a
+ * {@link CompiledCRF} made from it, which is made again whenever the
+ * weights of the CRF change, so the only allocation per sequence is its
+ * output.  Other transducers, such as {@link HMM}, are decoded through
+ * their TransitionIterators.
+ * <p>
+ * Batches and streams of instances are decoded by a fixed pool of threads,
+ * and the time taken by each sequence is recorded so that latency
+ * percentiles can be reported.  Call {@link #shutdown()} when finished.
+ */
+public class ViterbiDecoder {
+
+	private static Logger logger = MalletLogger.getLogger(ViterbiDecoder.class.getName());
+
+	public static final int SEQUENCES_PER_THREAD_PER_BLOCK = 200;
+
+	Transducer transducer;
+	int numThreads;
+	ExecutorService executor;
+
+	// Buffers for the sequence being decoded by each thread
+	ThreadLocal<Worker> workers = new ThreadLocal<Worker>();
+	// All workers, so that their latencies can be combined
+	List<Worker> allWorkers = new ArrayList<Worker>();
+
+	// For a CRF, a compiled copy of it and the weights stamp it was made at.  The
+	// copy is written before the stamp, so a thread that reads the current stamp
+	// also sees a copy at least that recent.
+	volatile CompiledCRF compiledCRF;
+	volatile int compiledStamp;
+
+	public ViterbiDecoder (Transducer transducer) {
+		this (transducer, 1);
+	}
+
+	public ViterbiDecoder (Transducer transducer, int numThreads) {
+		this.transducer = transducer;
+		this.numThreads = Math.max (numThreads, 1);
+		if (this.numThreads > 1) {
+			executor = Executors.newFixedThreadPool (this.numThreads, new ThreadFactory() {
+					public Thread newThread (Runnable r) {
+						Thread thread = new Thread (r, "ViterbiDecoder");
+						thread.setDaemon (true);
+						return thread;
+					}
+				});
+		}
+	}
+
+	public Transducer getTransducer () { return transducer; }
+	public int getNumThreads () { return numThreads; }
+
+	/** Stop the decoding threads.  The decoder may still be used from the calling thread. */
+	public void shutdown () {
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+			numThreads = 1;
+		}
+	}
+
+	// The compiled copy of the CRF being decoded, compiling it again if its weights have
+	// changed.  Only a recompilation takes the lock.
+	private CompiledCRF getCompiledCRF () {
+		CRF crf = (CRF) transducer;
+		if (compiledStamp == crf.getWeightsValueChangeStamp()) {
+			CompiledCRF compiled = compiledCRF;
+			if (compiled != null)
+				return compiled;
+		}
+		synchronized (this) {
+			int stamp = crf.getWeightsValueChangeStamp();
+			if (compiledCRF == null || compiledStamp != stamp) {
+				compiledCRF = new CompiledCRF (crf);
+				compiledStamp = stamp;
+			}
+			return compiledCRF;
+		}
+	}
+
+	private Worker getWorker () {
+		Worker worker = workers.get();
+		if (worker == null) {
+			worker = new Worker();
+			workers.set (worker);
+			synchronized (allWorkers) {
+				allWorkers.add (worker);
+			}
+		}
+		return worker;
+	}
+
+	/** Return the highest-weight output sequence for <code>input</code>,
+	 *  decoded on the calling thread. */
+	public Sequence decode (Sequence input) {
+		return getWorker().decodeAndTime (input);
+	}
+
+	/** Return the highest-weight output sequence for the data of each instance, in order. */
+	public Sequence[] decode (InstanceList instances) {
+		final Sequence[] outputs = new Sequence[instances.size()];
+		decode (instances.iterator(), new OutputHandler() {
+				public void handle (int index, Instance instance, Sequence output) {
+					outputs[index] = output;
+				}
+			});
+		return outputs;
+	}
+
+	/** Receives decoded sequences, in input order. */
+	public interface OutputHandler {
+		public void handle (int index, Instance instance, Sequence output);
+	}
+
+	/**
+	 * Decode a stream of instances, passing each output sequence to the
+	 *  handler in input order.  Instances are read in blocks; within a block,
+	 *  thread <i>i</i> decodes every <code>numThreads</code>-th sequence
+	 *  starting from <i>i</i>.  Only one block is held in memory at once.
+	 */
+	public void decode (Iterator<Instance> instances, OutputHandler handler) {
+		long startTime = System.currentTimeMillis();
+		int index = 0;
+
+		if (executor == null) {
+			while (instances.hasNext()) {
+				Instance instance = instances.next();
+				handler.handle (index, instance, decode ((Sequence) instance.getData()));
+				index++;
+			}
+			logThroughput (index, startTime);
+			return;
+		}
+
+		int blockSize = numThreads * SEQUENCES_PER_THREAD_PER_BLOCK;
+		Instance[] block = new Instance[blockSize];
+		Sequence[] results = new Sequence[blockSize];
+
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numThreads);
+		for (int thread = 0; thread < numThreads; thread++) {
+			tasks.add (new DecodingTask (thread, block, results));
+		}
+
+		try {
+			while (instances.hasNext()) {
+
+				// Read the next block
+				int blockLength = 0;
+				while (blockLength < blockSize && instances.hasNext()) {
+					block[blockLength] = instances.next();
+					blockLength++;
+				}
+				for (int i = blockLength; i < blockSize; i++) {
+					block[i] = null;
+				}
+
+				List<Future<Object>> futures = executor.invokeAll (tasks);
+				for (Future<Object> f : futures) {
+					try {
+						f.get();
+					} catch (ExecutionException ee) {
+						throw new IllegalStateException (ee.getCause());
+					}
+				}
+
+				for (int i = 0; i < blockLength; i++) {
+					handler.handle (index, block[i], results[i]);
+					results[i] = null;
+					index++;
+				}
+			}
+		} catch (InterruptedException ie) {
+			// Stop rather than hand the remaining instances to the handler undecoded
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException (ie);
+		}
+
+		logThroughput (index, startTime);
+	}
+
+	private void logThroughput (int numSequences, long startTime) {
+		double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+		logger.info ("Decoded " + numSequences + " sequences in " + seconds + " seconds (" +
+								 Math.round (numSequences / Math.max (seconds, 0.001)) + " sequences/sec, " +
+								 numThreads + " threads)");
+	}
+
+	/** Decodes every <code>numThreads</code>-th sequence in a block */
+	private class DecodingTask implements Callable<Object> {
+		int thread;
+		Instance[] block;
+		Sequence[] results;
+
+		public DecodingTask (int thread, Instance[] block, Sequence[] results) {
+			this.thread = thread;
+			this.block = block;
+			this.results = results;
+		}
+
+		public Object call () {
+			Worker worker = getWorker();
+			for (int i = thread; i < block.length && block[i] != null; i += numThreads) {
+				results[i] = worker.decodeAndTime ((Sequence) block[i].getData());
+			}
+			return null;
+		}
+	}
+
+
+	// Latencies
+
+	// Latencies are counted in buckets whose bounds grow by 2% each, from 1 microsecond
+	private static final double BUCKET_BASE = Math.log (1.02);
+	private static final int NUM_BUCKETS = 1400;  // up to about 10^15 ns
+
+	private static int latencyBucket (long nanoseconds) {
+		if (nanoseconds < 1000) { return 0; }
+		return Math.min ((int) (Math.log (nanoseconds / 1000.0) / BUCKET_BASE) + 1, NUM_BUCKETS - 1);
+	}
+
+	private static double bucketUpperBound (int bucket) {
+		return 1000.0 * Math.exp (bucket * BUCKET_BASE);
+	}
+
+	private long[] getLatencyCounts () {
+		long[] counts = new long[NUM_BUCKETS];
+		synchronized (allWorkers) {
+			for (Worker worker : allWorkers) {
+				for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+					counts[bucket] += worker.latencyCounts[bucket];
+				}
+			}
+		}
+		return counts;
+	}
+
+	/** The number of sequences decoded since the decoder was created or its latencies reset */
+	public long getNumDecoded () {
+		long total = 0;
+		for (long count : getLatencyCounts()) { total += count; }
+		return total;
+	}
+
+	/** Return the time in milliseconds within which the given fraction
+	 *  (for example 0.99) of sequences were decoded, to within 2%. */
+	public double getLatencyPercentile (double fraction) {
+		long[] counts = getLatencyCounts();
+		long total = 0;
+		for (long count : counts) { total += count; }
+		if (total == 0) { return 0.0; }
+
+		long needed = (long) Math.ceil (fraction * total);
+		long seen = 0;
+		for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+			seen += counts[bucket];
+			if (seen >= Math.max (needed, 1)) {
+				return bucketUpperBound (bucket) / 1000000.0;
+			}
+		}
+		return bucketUpperBound (NUM_BUCKETS - 1) / 1000000.0;
+	}
+
+	/** A one-line summary of the 50th, 90th, 99th and 99.9th percentile latencies */
+	public String getLatencySummary () {
+		return String.format ("%d sequences, latency ms: p50 %.3f p90 %.3f p99 %.3f p99.9 %.3f",
+													getNumDecoded(), getLatencyPercentile (0.5), getLatencyPercentile (0.9),
+													getLatencyPercentile (0.99), getLatencyPercentile (0.999));
+	}
+
+	public void resetLatencies () {
+		synchronized (allWorkers) {
+			for (Worker worker : allWorkers) {
+				Arrays.fill (worker.latencyCounts, 0);
+			}
+		}
+	}
+
+
+	/** Viterbi buffers and latency counts for one thread */
+	private class Worker {
+		double[] deltas = new double[0];				// indexed by ip*numStates+i
+		int[] predecessors = new int[0];				// indexed by ip*numStates+i
+		Object[] outputs = new Object[0];				// indexed by ip*numStates+i
+		CompiledCRF.Buffers buffers = new CompiledCRF.Buffers();
+		long[] latencyCounts = new long[NUM_BUCKETS];
+
+		Sequence decodeAndTime (Sequence input) {
+			// Compiling the CRF is not counted in the latency of the sequence
+			CompiledCRF compiled = transducer.getClass() == CRF.class ? getCompiledCRF() : null;
+			long startTime = System.nanoTime();
+			Sequence output = compiled != null ? decodeCRF (compiled, input) : decode (input);
+			latencyCounts[latencyBucket (System.nanoTime() - startTime)]++;
+			return output;
+		}
+
+		Sequence decode (Sequence input) {
+			int numStates = transducer.numStates();
+			int latticeLength = input.size() + 1;
+			int size = latticeLength * numStates;
+			if (deltas.length < size) {
+				size = Math.max (size, deltas.length * 2);
+				deltas = new double[size];
+				predecessors = new int[size];
+				outputs = new Object[size];
+			}
+			Arrays.fill (deltas, 0, latticeLength * numStates, Transducer.IMPOSSIBLE_WEIGHT);
+
+			boolean anyInitialState = false;
+			for (int i = 0; i < numStates; i++) {
+				double initialWeight = transducer.getState(i).getInitialWeight();
+				if (initialWeight > Transducer.IMPOSSIBLE_WEIGHT) {
+					deltas[i] = initialWeight;
+					anyInitialState = true;
+				}
+			}
+			if (!anyInitialState) {
+				logger.warning ("Viterbi: No initial states!");
+			}
+
+			forward (input, numStates, latticeLength);
+
+			// Find the best final state and follow the back-pointers
+			int lastOffset = (latticeLength-1) * numStates;
+			int best = -1;
+			for (int i = 0; i < numStates; i++) {
+				if (deltas[lastOffset + i] > Transducer.IMPOSSIBLE_WEIGHT &&
+						(best == -1 || deltas[lastOffset + i] > deltas[lastOffset + best])) {
+					best = i;
+				}
+			}
+			if (best == -1) {
+				// No path through the lattice, so return an empty output
+				return new ArraySequence<Object> (new Object[0]);
+			}
+			Object[] path = new Object[latticeLength-1];
+			for (int ip = latticeLength-1; ip > 0; ip--) {
+				path[ip-1] = outputs[ip * numStates + best];
+				best = predecessors[ip * numStates + best];
+			}
+			return new ArraySequence<Object> (path);
+		}
+
+		// Any transducer, through its TransitionIterators
+		private void forward (Sequence input, int numStates, int latticeLength) {
+			for (int ip = 0; ip < latticeLength-1; ip++) {
+				int offset = ip * numStates;
+				for (int i = 0; i < numStates; i++) {
+					double delta = deltas[offset + i];
+					if (delta == Transducer.IMPOSSIBLE_WEIGHT)
+						continue;
+					TransitionIterator iter = transducer.getState(i).transitionIterator (input, ip, null, ip);
+					while (iter.hasNext()) {
+						iter.next();
+						State destination = iter.getDestinationState();
+						double weight = delta + iter.getWeight();
+						if (ip == latticeLength-2)
+							weight += destination.getFinalWeight();
+						int j = offset + numStates + destination.getIndex();
+						if (weight > deltas[j]) {
+							deltas[j] = weight;
+							predecessors[j] = i;
+							outputs[j] = iter.getOutput();
+						}
+					}
+				}
+			}
+		}
+
+		// A CRF, through the Viterbi pass of its compiled copy
+		private Sequence decodeCRF (CompiledCRF compiled, Sequence input) {
+			if (compiled.viterbi (input, buffers) == Transducer.IMPOSSIBLE_WEIGHT) {
+				// No path through the lattice, so return an empty output
+				return new ArraySequence<Object> (new Object[0]);
+			}
+			Object[] path = new Object[input.size()];
+			for (int ip = 0; ip < path.length; ip++) {
+				path[ip] = compiled.labels[buffers.bestLabels[ip]];
+			}
+			return new ArraySequence<Object> (path);
+		}
+	}
+
+}
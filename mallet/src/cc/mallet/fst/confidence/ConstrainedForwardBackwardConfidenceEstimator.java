@@ -11,20 +11,53 @@
 
 package cc.mallet.fst.confidence;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
 import cc.mallet.fst.*;
+import cc.mallet.pipe.iterator.SegmentIterator;
 import cc.mallet.types.*;
+import cc.mallet.util.MalletLogger;
 
 /**
  * Estimates the confidence of a {@link Segment} extracted by a {@link
  * Transducer} by performing a "constrained lattice"
  * calculation. Essentially, this sums all possible ways this segment
  * could have been extracted and normalizes.
+ * <p>
+ * The constrained weight is computed from the alphas and betas of the
+ * unconstrained lattice, so that only the span of the segment is
+ * recomputed (see {@link SumLatticeConstrained#constrainedWeight}).
+ * When ranking an {@link InstanceList}, one unconstrained lattice is
+ * built per instance and shared by all of its segments, and instances
+ * are spread over <code>numThreads</code> threads.
  */
 public class ConstrainedForwardBackwardConfidenceEstimator extends TransducerConfidenceEstimator
 {
+	private static Logger logger = MalletLogger.getLogger(ConstrainedForwardBackwardConfidenceEstimator.class.getName());
+
+	int numThreads;
+
 	public ConstrainedForwardBackwardConfidenceEstimator (Transducer model) {
+		this (model, 1);
+	}
+
+	public ConstrainedForwardBackwardConfidenceEstimator (Transducer model, int numThreads) {
 		super(model);
+		this.numThreads = Math.max (numThreads, 1);
 	}
+
+	public int getNumThreads () { return numThreads; }
+	public void setNumThreads (int numThreads) { this.numThreads = Math.max (numThreads, 1); }
 	
 	/**
 		 Calculates the confidence in the tagging of a {@link Segment}.
@@ -34,15 +67,108 @@ public class ConstrainedForwardBackwardConfidenceEstimator extends TransducerCon
 		Sequence predSequence = segment.getPredicted ();
 		Sequence input = segment.getInput ();
 		SumLatticeDefault lattice = (cachedLattice == null) ? new SumLatticeDefault (model, input) : cachedLattice;
-		// constrained lattice
-		SumLatticeDefault constrainedLattice = new SumLatticeConstrained (model, input, null, segment, predSequence);
+		// constrained lattice, sharing everything outside the segment with the unconstrained one
 		double latticeWeight = lattice.getTotalWeight ();
-		double constrainedLatticeWeight = constrainedLattice.getTotalWeight ();
+		double constrainedLatticeWeight = SumLatticeConstrained.constrainedWeight (lattice, segment, predSequence);
 		double confidence = Math.exp (latticeWeight - constrainedLatticeWeight);
 		//System.err.println ("confidence: " + confidence);
 		return confidence;
 	}
-	
+
+	/**
+		 Ranks all {@link Segment}s in this {@link InstanceList} by
+		 confidence estimate.  Each instance is decoded, and its segments
+		 scored against a single unconstrained lattice, by one of
+		 <code>numThreads</code> threads.
+	 */
+	public Segment[] rankSegmentsByConfidence (InstanceList ilist, Object[] startTags,
+																						 Object[] continueTags) {
+		if (this.segmentConfidences == null)
+			segmentConfidences = new java.util.Vector<Object> ();
+		// Each thread sets the entries of its own instances
+		List<List<Segment>> segmentsPerInstance =
+			new ArrayList<List<Segment>> (Collections.nCopies (ilist.size(), (List<Segment>) null));
+
+		if (numThreads == 1 || ilist.size() < 2) {
+			for (int i = 0; i < ilist.size(); i++)
+				segmentsPerInstance.set (i, rankSegmentsInInstance (ilist.get(i), startTags, continueTags));
+		}
+		else {
+			ExecutorService executor = Executors.newFixedThreadPool (numThreads);
+			try {
+				List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numThreads);
+				for (int thread = 0; thread < numThreads; thread++)
+					tasks.add (new RankingTask (thread, ilist, startTags, continueTags, segmentsPerInstance));
+				List<Future<Object>> futures = executor.invokeAll (tasks);
+				for (Future<Object> f : futures)
+					f.get();
+			} catch (ExecutionException ee) {
+				throw new IllegalStateException (ee.getCause());
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException (ie);
+			} finally {
+				executor.shutdown();
+				try {
+					executor.awaitTermination (30, TimeUnit.SECONDS);
+				} catch (InterruptedException ie) {
+					ie.printStackTrace();
+				}
+			}
+		}
+
+		ArrayList<Segment> segmentList = new ArrayList<Segment> ();
+		for (List<Segment> segments : segmentsPerInstance) {
+			for (Segment segment : segments) {
+				logger.fine ("confidence=" + segment.getConfidence() + " for segment\n"
+										 + segment.sequenceToString() + "\n");
+				segmentList.add (segment);
+			}
+		}
+		// Like the superclass, return a single null entry when there are no segments
+		Segment[] ret = segmentList.toArray (new Segment[1]);
+		Arrays.sort (ret);
+		return ret;
+	}
+
+	/** Decodes one instance and sets the confidence of each of its segments. */
+	private List<Segment> rankSegmentsInInstance (Instance instance, Object[] startTags, Object[] continueTags) {
+		List<Segment> segments = new ArrayList<Segment> ();
+		SegmentIterator iter = new SegmentIterator (this.model, instance, startTags, continueTags);
+		SumLatticeDefault lattice = null;
+		while (iter.hasNext ()) {
+			Segment segment = iter.nextSegment ();
+			if (lattice == null)
+				lattice = new SumLatticeDefault (model, segment.getInput ());
+			segment.setConfidence (estimateConfidenceFor (segment, lattice));
+			segments.add (segment);
+		}
+		return segments;
+	}
+
+	/** Ranks the segments of every <code>numThreads</code>-th instance */
+	private class RankingTask implements Callable<Object> {
+		int thread;
+		InstanceList ilist;
+		Object[] startTags, continueTags;
+		List<List<Segment>> segmentsPerInstance;
+
+		RankingTask (int thread, InstanceList ilist, Object[] startTags, Object[] continueTags,
+								 List<List<Segment>> segmentsPerInstance) {
+			this.thread = thread;
+			this.ilist = ilist;
+			this.startTags = startTags;
+			this.continueTags = continueTags;
+			this.segmentsPerInstance = segmentsPerInstance;
+		}
+
+		public Object call () {
+			for (int i = thread; i < ilist.size(); i += numThreads)
+				segmentsPerInstance.set (i, rankSegmentsInInstance (ilist.get(i), startTags, continueTags));
+			return null;
+		}
+	}
+
 	private static final long serialVersionUID = 1L;
 
 }
@@ -22,6 +22,7 @@ import java.io.Serializable;
 import java.io.StringReader;
 import java.io.StringWriter;
 
+import java.util.ArrayList;
 import java.util.Random;
 import java.util.regex.Pattern;
 
@@ -54,21 +55,33 @@ import cc.mallet.pipe.TokenSequenceMatchDataAndTarget;
 import cc.mallet.pipe.TokenSequenceParseFeatureString;
 import cc.mallet.pipe.iterator.ArrayIterator;
 import cc.mallet.pipe.iterator.LineGroupIterator;
+import cc.mallet.pipe.iterator.SegmentIterator;
 import cc.mallet.pipe.tsf.OffsetConjunctions;
 import cc.mallet.pipe.tsf.TokenText;
 
 import cc.mallet.fst.CRF;
+import cc.mallet.fst.CRFCacheStaleIndicator;
+import cc.mallet.fst.CRFOptimizableByBatchLabelLikelihood;
+import cc.mallet.fst.CRFOptimizableByLabelLikelihood;
 import cc.mallet.fst.CRFTrainerByLabelLikelihood;
 import cc.mallet.fst.CRFTrainerByStochasticGradient;
+import cc.mallet.fst.CRFTrainerByThreadedStochasticGradient;
+import cc.mallet.fst.CompiledCRF;
 import cc.mallet.fst.MaxLattice;
 import cc.mallet.fst.MaxLatticeDefault;
+import cc.mallet.fst.Segment;
 import cc.mallet.fst.SumLattice;
+import cc.mallet.fst.SumLatticeCRF;
+import cc.mallet.fst.SumLatticeConstrained;
 import cc.mallet.fst.SumLatticeDefault;
 import cc.mallet.fst.SumLatticeScaling;
 import cc.mallet.fst.TokenAccuracyEvaluator;
 import cc.mallet.fst.Transducer;
+import cc.mallet.fst.ViterbiDecoder;
+import cc.mallet.fst.confidence.ConstrainedForwardBackwardConfidenceEstimator;
 
 import cc.mallet.optimize.Optimizable;
+import cc.mallet.optimize.ThreadedOptimizable;
 import cc.mallet.optimize.tests.TestOptimizable;
 
 import cc.mallet.util.FileUtils;
@@ -1033,6 +1046,337 @@ public class TestCRF extends TestCase {
 		}
 	}
 
+	public void testSumLatticeCRF() {
+		Pipe p = makeSpacePredictionPipe();
+
+		InstanceList instances = new InstanceList(p);
+		instances.addThruPipe(new ArrayIterator(data));
+
+		CRF crf = new CRF(p, null);
+		crf.addOrderNStates(instances, new int[] { 0, 1 }, null, null, null, null, true);
+		CRFTrainerByLabelLikelihood crft = new CRFTrainerByLabelLikelihood(crf);
+		crft.train(instances, 10); // Let's get some parameters
+
+		CRF.Factors defaultExpectations = new CRF.Factors(crf.getParameters());
+		CRF.Factors expectations = new CRF.Factors(crf.getParameters());
+		for (Instance inst : instances) {
+			Sequence input = (Sequence) inst.getData();
+			Sequence output = (Sequence) inst.getTarget();
+
+			assertEquals(new SumLatticeDefault(crf, input, output).getTotalWeight(),
+					new SumLatticeCRF(crf, input, output, null).getTotalWeight(), 1e-8);
+
+			SumLattice defaultLattice = new SumLatticeDefault(crf, input, null,
+					defaultExpectations.new Incrementor(), true);
+			SumLattice lattice = new SumLatticeCRF(crf, input, null,
+					expectations.new Incrementor(), true, null);
+			assertEquals(defaultLattice.getTotalWeight(), lattice.getTotalWeight(), 1e-8);
+			double[][] g1 = defaultLattice.getGammas(), g2 = lattice.getGammas();
+			double[][][] x1 = defaultLattice.getXis(), x2 = lattice.getXis();
+			for (int ip = 0; ip < g1.length; ip++) {
+				for (int i = 0; i < g1[ip].length; i++) {
+					assertEquals(g1[ip][i], g2[ip][i], 1e-8);
+					for (int j = 0; j < g1[ip].length; j++)
+						assertEquals(x1[ip][i][j], x2[ip][i][j], 1e-8);
+				}
+			}
+		}
+
+		double[] b1 = new double[defaultExpectations.getNumFactors()];
+		double[] b2 = new double[expectations.getNumFactors()];
+		defaultExpectations.getParameters(b1);
+		expectations.getParameters(b2);
+		for (int i = 0; i < b1.length; i++)
+			assertEquals(b1[i], b2[i], 1e-8);
+	}
+
+	public void testPrunedSumLatticeCRF() {
+		Pipe p = makeSpacePredictionPipe();
+
+		InstanceList instances = new InstanceList(p);
+		instances.addThruPipe(new ArrayIterator(data));
+
+		CRF crf = new CRF(p, null);
+		crf.addOrderNStates(instances, new int[] { 0, 1 }, null, null, null, null, true);
+		CRFTrainerByLabelLikelihood crft = new CRFTrainerByLabelLikelihood(crf);
+		crft.train(instances, 10); // Let's get some parameters
+
+		for (Instance inst : instances) {
+			Sequence input = (Sequence) inst.getData();
+			double exact = new SumLatticeCRF(crf, input).getTotalWeight();
+
+			// A beam as wide as the lattice prunes nothing
+			SumLatticeCRF wide = new SumLatticeCRF(crf, input, null, null, false, null,
+					crf.numStates(), Double.POSITIVE_INFINITY, 1.0);
+			assertTrue(wide.isPruned());
+			assertEquals(exact, wide.getTotalWeight(), 1e-8);
+			assertEquals(0.0, wide.getPrunedMass(), 1e-8);
+
+			// A narrow beam loses some weight
+			SumLatticeCRF narrow = new SumLatticeCRF(crf, input, null, null, false, null,
+					1, Double.POSITIVE_INFINITY, 1.0);
+			assertTrue(narrow.isPruned());
+			assertTrue(narrow.getTotalWeight() <= exact + 1e-8);
+			assertTrue(narrow.getNumActiveStates() <= input.size());
+			for (int ip = 0; ip < input.size(); ip++) {
+				double sum = 0;
+				for (int i = 0; i < crf.numStates(); i++)
+					sum += narrow.getGammaProbability(ip, i);
+				assertEquals(1.0, sum, 1e-6);
+			}
+
+			// unless it prunes too much, and the lattice is recomputed without pruning
+			SumLatticeCRF monitored = new SumLatticeCRF(crf, input, null, null, false, null,
+					1, Double.POSITIVE_INFINITY, 0.0);
+			if (narrow.getPrunedMass() > 0.0) {
+				assertFalse(monitored.isPruned());
+				assertEquals(exact, monitored.getTotalWeight(), 1e-8);
+			}
+		}
+
+		// Training with pruned lattices still works, and reports what was pruned
+		SumLatticeCRF.Factory factory = new SumLatticeCRF.Factory(2, 20.0);
+		crf.setSumLatticeFactory(factory);
+		crft = new CRFTrainerByLabelLikelihood(crf);
+		crft.train(instances, 5);
+		assertNull(factory.getPruningSummary(false));
+		factory.newSumLattice(crf, (Sequence) instances.get(0).getData());
+		assertNotNull(factory.getPruningSummary(true));
+		assertNull(factory.getPruningSummary(false));
+	}
+
+	public void testThreadedOptimizable() {
+		Pipe p = makeSpacePredictionPipe();
+
+		InstanceList instances = new InstanceList(p);
+		instances.addThruPipe(new ArrayIterator(data));
+
+		CRF crf = new CRF(p, null);
+		crf.addFullyConnectedStatesForLabels();
+		CRFTrainerByLabelLikelihood crft = new CRFTrainerByLabelLikelihood(crf);
+		crft.train(instances, 5); // Let's get some parameters
+
+		CRFOptimizableByLabelLikelihood single = new CRFOptimizableByLabelLikelihood(crf, instances);
+		single.setGaussianPriorVariance(10.0);
+		CRFOptimizableByBatchLabelLikelihood batches = new CRFOptimizableByBatchLabelLikelihood(crf, instances, 3);
+		batches.setGaussianPriorVariance(10.0);
+		ThreadedOptimizable threaded = new ThreadedOptimizable(batches, instances,
+				crf.getParameters().getNumFactors(), new CRFCacheStaleIndicator(crf));
+
+		assertEquals(single.getValue(), threaded.getValue(), 1e-6);
+		double[] g1 = new double[single.getNumParameters()];
+		double[] g2 = new double[threaded.getNumParameters()];
+		single.getValueGradient(g1);
+		threaded.getValueGradient(g2);
+		for (int i = 0; i < g1.length; i++)
+			assertEquals(g1[i], g2[i], 1e-6);
+		threaded.shutdown();
+
+		// Fixed batches, each with its own gradient
+		int[][] assignments = new int[][] { {0, 5}, {5, 11}, {11, instances.size()} };
+		ArrayList<double[]> batchGradients = new ArrayList<double[]>();
+		double value = 0;
+		for (int b = 0; b < assignments.length; b++)
+			value += batches.getBatchValue(b, assignments[b]);
+		for (int b = 0; b < assignments.length; b++) {
+			double[] batchGradient = new double[g1.length];
+			batches.getBatchValueGradient(batchGradient, b, assignments[b]);
+			batchGradients.add(batchGradient);
+		}
+		batches.combineGradients(batchGradients, g2);
+		assertEquals(single.getValue(), value, 1e-6);
+		for (int i = 0; i < g1.length; i++)
+			assertEquals(g1[i], g2[i], 1e-6);
+	}
+
+	public void testThreadedStochasticGradient() {
+		Pipe p = makeSpacePredictionPipe();
+
+		InstanceList instances = new InstanceList(p);
+		instances.addThruPipe(new ArrayIterator(data));
+		InstanceList[] lists = instances.split(new Random(777), new double[] {
+				.5, .5 });
+
+		CRF[] crfs = new CRF[2];
+		for (int i = 0; i < crfs.length; i++) {
+			crfs[i] = new CRF(p.getDataAlphabet(), p.getTargetAlphabet());
+			crfs[i].addFullyConnectedStatesForLabels();
+			CRFTrainerByThreadedStochasticGradient crft = new CRFTrainerByThreadedStochasticGradient(crfs[i], i + 1, 1.0);
+			crft.setBatchSize(3);
+			crft.setGaussianPriorVariance(10.0);
+			crft.train(lists[0], 10);
+			crft.shutdown();
+		}
+
+		// Threads only split the work of a batch
+		double[] params1 = new double[crfs[0].getParameters().getNumFactors()];
+		double[] params2 = new double[params1.length];
+		crfs[0].getParameters().getParameters(params1);
+		crfs[1].getParameters().getParameters(params2);
+		for (int i = 0; i < params1.length; i++)
+			assertEquals(params1[i], params2[i], 1e-8);
+
+		TokenAccuracyEvaluator eval = new TokenAccuracyEvaluator(lists,
+				new String[] { "Train", "Test" });
+		eval.evaluateInstanceList(new CRFTrainerByLabelLikelihood(crfs[0]), lists[1], "Test");
+		assertTrue(eval.getAccuracy("Test") > 0.9);
+
+		// The lazily applied prior shrinks a parameter just as updating it at every step would
+		CRF crf = new CRF(p.getDataAlphabet(), p.getTargetAlphabet());
+		crf.addFullyConnectedStatesForLabels();
+		CRFTrainerByThreadedStochasticGradient crft = new CRFTrainerByThreadedStochasticGradient(crf, 1, 0.05);
+		crft.setUseAdaGrad(false);
+		crft.setUseAveraging(false);
+		crft.setBatchSize(1);
+		crft.setGaussianPriorVariance(0.5);
+		crft.train(lists[0], 1);
+		double[] before = new double[crf.getParameters().getNumFactors()];
+		crf.getParameters().getParameters(before);
+		Instance instance = lists[0].get(0);
+		crft.trainIncremental(instance);
+		crft.trainIncremental(instance);
+
+		// The same two steps applied densely, starting from the same parameters
+		CRF copy = new CRF(crf);
+		copy.getParameters().setParameters(before);
+		copy.weightsValueChanged();
+		CRF.Factors gradient = new CRF.Factors(copy.getParameters());
+		double lambda = 1.0 / (0.5 * lists[0].size());
+		double[] params = new double[before.length];
+		double[] g = new double[before.length];
+		for (int step = 0; step < 2; step++) {
+			gradient.zero();
+			new SumLatticeDefault(copy, (Sequence) instance.getData(), (Sequence) instance.getTarget(),
+					gradient.new Incrementor());
+			new SumLatticeDefault(copy, (Sequence) instance.getData(), null,
+					gradient.new WeightedIncrementor(-1));
+			copy.getParameters().getParameters(params);
+			gradient.getParameters(g);
+			for (int i = 0; i < params.length; i++)
+				if (!Double.isInfinite(params[i]))
+					params[i] = params[i] * (1 - 0.05 * lambda) + 0.05 * g[i];
+			copy.getParameters().setParameters(params);
+			copy.weightsValueChanged();
+		}
+		double[] actual = new double[before.length];
+		crf.getParameters().getParameters(actual);
+		// Parameters of features not in the instance are only brought up to date later
+		for (int i = 0; i < params.length; i++)
+			if (g[i] != 0)
+				assertEquals(params[i], actual[i], 1e-8);
+	}
+
+	public void testViterbiDecoder() {
+		Pipe p = makeSpacePredictionPipe();
+
+		InstanceList instances = new InstanceList(p);
+		instances.addThruPipe(new ArrayIterator(data));
+
+		CRF crf = new CRF(p, null);
+		crf.addFullyConnectedStatesForLabels();
+		CRFTrainerByLabelLikelihood crft = new CRFTrainerByLabelLikelihood(crf);
+		crft.train(instances, 10); // Let's get some parameters
+
+		ViterbiDecoder decoder = new ViterbiDecoder(crf, 2);
+		Sequence[] outputs = decoder.decode(instances);
+		decoder.shutdown();
+		assertEquals(instances.size(), decoder.getNumDecoded());
+
+		for (int i = 0; i < instances.size(); i++) {
+			Sequence input = (Sequence) instances.get(i).getData();
+			Sequence output = new MaxLatticeDefault(crf, input).bestOutputSequence();
+			assertEquals(input.size(), outputs[i].size());
+			// The decoded path is at least as good as the one found by A* search
+			assertTrue(new SumLatticeDefault(crf, input, outputs[i]).getTotalWeight() >=
+				new SumLatticeDefault(crf, input, output).getTotalWeight() - 1e-8);
+			// and is the same when decoded on this thread
+			Sequence single = decoder.decode(input);
+			for (int j = 0; j < single.size(); j++)
+				assertEquals(single.get(j), outputs[i].get(j));
+		}
+	}
+
+	public void testCompiledCRF() throws IOException {
+		Pipe p = makeSpacePredictionPipe();
+
+		InstanceList instances = new InstanceList(p);
+		instances.addThruPipe(new ArrayIterator(data));
+
+		CRF crf = new CRF(p, null);
+		crf.addFullyConnectedStatesForLabels();
+		CRFTrainerByLabelLikelihood crft = new CRFTrainerByLabelLikelihood(crf);
+		crft.train(instances, 10); // Let's get some parameters
+
+		CompiledCRF compiled = new CompiledCRF(crf);
+		File f = File.createTempFile("compiled", ".crf");
+		f.deleteOnExit();
+		compiled.write(f);
+		CompiledCRF mapped = CompiledCRF.read(f);
+		assertTrue(mapped.isMapped());
+		assertEquals(compiled.getNumEntries(), mapped.getNumEntries());
+		assertEquals(crf.getInputAlphabet().size(), mapped.getInputAlphabet().size());
+		assertEquals(crf.getInputAlphabet().lookupObject(7), mapped.getInputAlphabet().lookupObject(7));
+
+		for (int i = 0; i < instances.size(); i++) {
+			FeatureVectorSequence input = (FeatureVectorSequence) instances.get(i).getData();
+			MaxLatticeDefault lattice = new MaxLatticeDefault(crf, input);
+			Sequence expected = lattice.bestOutputSequence();
+			double bestWeight = Transducer.IMPOSSIBLE_WEIGHT;
+			for (int s = 0; s < crf.numStates(); s++)
+				bestWeight = Math.max(bestWeight, lattice.getDelta(input.size(), s));
+			for (CompiledCRF c : new CompiledCRF[] { compiled, mapped }) {
+				assertEquals(bestWeight, c.bestWeight(input), 1e-8);
+				Sequence output = c.decode(input);
+				assertEquals(expected.size(), output.size());
+				for (int j = 0; j < expected.size(); j++)
+					assertEquals(expected.get(j), output.get(j));
+			}
+		}
+	}
+
+	public void testConstrainedConfidence() {
+		Pipe p = makeSpacePredictionPipe();
+
+		InstanceList instances = new InstanceList(p);
+		instances.addThruPipe(new ArrayIterator(data));
+
+		CRF crf = new CRF(p, null);
+		crf.addFullyConnectedStatesForLabels();
+		CRFTrainerByLabelLikelihood crft = new CRFTrainerByLabelLikelihood(crf);
+		crft.train(instances, 5);
+
+		Object[] startTags = new Object[] { "start" };
+		Object[] continueTags = new Object[] { "notstart" };
+
+		// The span-only weight matches a fully constrained lattice
+		int numSegments = 0;
+		SegmentIterator iter = new SegmentIterator(crf, instances, startTags, continueTags);
+		while (iter.hasNext()) {
+			Segment segment = iter.nextSegment();
+			Sequence input = segment.getInput();
+			SumLatticeDefault lattice = new SumLatticeDefault(crf, input);
+			double expected = new SumLatticeConstrained(crf, input, null,
+					segment, segment.getPredicted()).getTotalWeight();
+			assertEquals(expected, SumLatticeConstrained.constrainedWeight(
+					lattice, segment, segment.getPredicted()), 1e-8);
+			numSegments++;
+		}
+		assertTrue(numSegments > 0);
+
+		// Ranking with several threads gives the same segments and confidences
+		Segment[] ranked1 = new ConstrainedForwardBackwardConfidenceEstimator(crf, 1)
+				.rankSegmentsByConfidence(instances, startTags, continueTags);
+		Segment[] ranked2 = new ConstrainedForwardBackwardConfidenceEstimator(crf, 3)
+				.rankSegmentsByConfidence(instances, startTags, continueTags);
+		assertEquals(numSegments, ranked1.length);
+		assertEquals(ranked1.length, ranked2.length);
+		for (int i = 0; i < ranked1.length; i++) {
+			assertEquals(ranked1[i].getConfidence(), ranked2[i].getConfidence(), 1e-12);
+			assertEquals(ranked1[i].getStart(), ranked2[i].getStart());
+			assertEquals(ranked1[i].getEnd(), ranked2[i].getEnd());
+		}
+	}
+
 	public static Test suite() {
 		return new TestSuite(TestCRF.class);
 	}
@@ -0,0 +1,122 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.fst.tests;
+
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import cc.mallet.fst.HMM;
+import cc.mallet.fst.HMMTrainerByLikelihood;
+import cc.mallet.fst.SumLatticeDefault;
+import cc.mallet.fst.Transducer;
+import cc.mallet.pipe.Pipe;
+import cc.mallet.pipe.SerialPipes;
+import cc.mallet.pipe.SimpleTaggerSentence2TokenSequence;
+import cc.mallet.pipe.TokenSequence2FeatureSequence;
+import cc.mallet.pipe.iterator.ArrayIterator;
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+
+/**
+ * Tests for HMM training.
+ */
+public class TestHMM extends TestCase {
+
+	public TestHMM (String name)
+	{
+		super (name);
+	}
+
+	// Sentences of "word label" lines in which each label prefers a few
+	// words and the label sequence follows a noisy cycle
+	private static String[] makeSentences (int numSentences, Random r)
+	{
+		String[] labels = { "A", "B", "C" };
+		String[] sentences = new String[numSentences];
+		for (int i = 0; i < numSentences; i++) {
+			StringBuffer sb = new StringBuffer ();
+			int label = r.nextInt (labels.length);
+			int length = 3 + r.nextInt (8);
+			for (int j = 0; j < length; j++) {
+				int word = r.nextDouble () < 0.8 ? label * 4 + r.nextInt (4) : r.nextInt (12);
+				sb.append ("w" + word + " " + labels[label] + "\n");
+				label = r.nextDouble () < 0.7 ? (label + 1) % labels.length : r.nextInt (labels.length);
+			}
+			sentences[i] = sb.toString ();
+		}
+		return sentences;
+	}
+
+	private static double totalWeight (HMM hmm, InstanceList instances, boolean labeled)
+	{
+		double total = 0;
+		for (Instance inst : instances)
+			total += new SumLatticeDefault (hmm, (FeatureSequence) inst.getData (),
+					labeled ? (FeatureSequence) inst.getTarget () : null).getTotalWeight ();
+		return total;
+	}
+
+	private static HMM train (InstanceList training, InstanceList unlabeled, int numThreads)
+	{
+		HMM hmm = new HMM (training.getPipe (), null);
+		hmm.addStatesForLabelsConnectedAsIn (training);
+		HMMTrainerByLikelihood trainer = new HMMTrainerByLikelihood (hmm, numThreads);
+		trainer.train (training, unlabeled, 5);
+		return hmm;
+	}
+
+	public void testThreadedTraining ()
+	{
+		Pipe p = new SerialPipes (new Pipe[] {
+				new SimpleTaggerSentence2TokenSequence (),
+				new TokenSequence2FeatureSequence (),
+		});
+		Random r = new Random (1);
+		InstanceList training = new InstanceList (p);
+		training.addThruPipe (new ArrayIterator (makeSentences (60, r)));
+		InstanceList unlabeled = new InstanceList (p);
+		unlabeled.addThruPipe (new ArrayIterator (makeSentences (30, r)));
+
+		HMM serial = train (training, unlabeled, 1);
+		HMM threaded = train (training, unlabeled, 3);
+
+		assertEquals (serial.numStates (), threaded.numStates ());
+		for (int i = 0; i < serial.numStates (); i++) {
+			Transducer.State s1 = serial.getState (i), s2 = threaded.getState (i);
+			assertEquals (s1.getName (), s2.getName ());
+			assertEquals (s1.getInitialWeight (), s2.getInitialWeight (), 1e-10);
+		}
+		// Each sequence's weight depends on the transition and emission
+		// probabilities of every state it can pass through
+		for (Instance inst : training) {
+			FeatureSequence input = (FeatureSequence) inst.getData ();
+			FeatureSequence output = (FeatureSequence) inst.getTarget ();
+			assertEquals (new SumLatticeDefault (serial, input, output).getTotalWeight (),
+					new SumLatticeDefault (threaded, input, output).getTotalWeight (), 1e-9);
+			assertEquals (new SumLatticeDefault (serial, input).getTotalWeight (),
+					new SumLatticeDefault (threaded, input).getTotalWeight (), 1e-9);
+		}
+		assertEquals (totalWeight (serial, training, true) + totalWeight (serial, unlabeled, false),
+				totalWeight (threaded, training, true) + totalWeight (threaded, unlabeled, false), 1e-7);
+	}
+
+	public static Test suite ()
+	{
+		return new TestSuite (TestHMM.class);
+	}
+
+	public static void main (String[] args)
+	{
+		junit.textui.TestRunner.run (suite ());
+	}
+
+}
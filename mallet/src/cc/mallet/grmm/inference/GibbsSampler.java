@@ -15,6 +15,7 @@ import java.util.Iterator;
 
 import cc.mallet.grmm.types.*;
 import cc.mallet.util.Randoms;
+import cc.mallet.util.SplittableRandoms;
 import cc.mallet.util.Timing;
 
 /**
@@ -29,7 +30,7 @@ public class GibbsSampler implements Sampler {
 
   private Factor[] allCpts;
 
-  private Randoms r = new Randoms (324231);
+  private Randoms r = new SplittableRandoms (324231);
 
   public GibbsSampler () {}
 
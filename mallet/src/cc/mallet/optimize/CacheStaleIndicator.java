@@ -0,0 +1,14 @@
+package cc.mallet.optimize;
+
+
+/**
+ * Indicates when the value/gradient during training becomes stale. <p>
+ *
+ * See <tt>ThreadedOptimizable</tt>.
+ *
+ * @author Gaurav Chandalia
+ */
+public interface CacheStaleIndicator {
+	public boolean isValueStale();
+	public boolean isGradientStale();
+}
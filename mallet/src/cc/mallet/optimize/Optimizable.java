@@ -74,4 +74,21 @@ public interface Optimizable
 		public int getNumBatches();
 	}
 
+	// for filling each batch from whichever chunks of instances its thread takes,
+	// rather than from a range fixed in advance
+	public interface ByIncrementalBatchGradient extends ByCombiningBatchGradient {
+		/** Clears what the batch has accumulated, and returns the part of the value
+		 * that belongs to no instance (such as the prior) attributed to this batch. */
+		public double resetBatch (int batchIndex);
+		/** Adds instances <tt>instanceIndices[start]</tt> to <tt>instanceIndices[end-1]</tt>
+		 * to the batch, returning their value. */
+		public double addToBatch (int batchIndex, int[] instanceIndices, int start, int end);
+		/** Called by the thread that filled a batch, once all its instances have been added. */
+		public void finishBatch (int batchIndex);
+		/** Sets elements <tt>start</tt> to <tt>end-1</tt> of buffer to those of the gradient
+		 * of the total value, once every batch has been finished.  Several threads may call
+		 * this at once for disjoint ranges, which together cover the buffer. */
+		public void getCombinedValueGradient (double[] buffer, int start, int end);
+	}
+
 }
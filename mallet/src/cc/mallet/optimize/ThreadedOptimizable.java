@@ -0,0 +1,458 @@
+package cc.mallet.optimize;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import cc.mallet.types.InstanceList;
+import cc.mallet.types.MatrixOps;
+import cc.mallet.types.Sequence;
+
+import cc.mallet.util.MalletLogger;
+
+
+/**
+ * An adaptor for optimizables based on batch values/gradients.
+ * <p>
+ * Computes values, gradients for each batch in multiple threads and combines
+ * them in the end.
+ * <p>
+ * If the optimizable is an <tt>Optimizable.ByIncrementalBatchGradient</tt>,
+ * batches are not fixed ranges of instances.  Instead the instances are sorted
+ * by decreasing sequence length and cut into many small chunks of about equal
+ * total length, which are dealt out to the batches in turn, so that every
+ * batch gets a like share of long and short sequences.  A batch of long
+ * sequences then no longer holds up the whole iteration, and since each
+ * batch always sums the same chunks in the same order, the value and
+ * gradient do not depend on how the threads are scheduled.  The chunks are
+ * dealt out statically rather than claimed by whichever thread is free:
+ * work-stealing would make the contents of each batch, and so the rounding
+ * of its sums, vary from run to run, unless every chunk kept a gradient of
+ * its own.  With many chunks per thread the static deal comes close to the
+ * same balance, which the utilization log line lets one check.  The gradient is
+ * then combined by the optimizable itself, without a dense gradient per batch,
+ * each thread setting one slice of the parameters, and the fraction of each
+ * iteration that every thread spent working is logged.
+ *
+ * @author Gaurav Chandalia
+ * @see cc.mallet.fst.CRFOptimizableByBatchLabelLikelihood
+ * @see cc.mallet.classify.MaxEntOptimizableByLabelLikelihood
+ */
+public class ThreadedOptimizable implements Optimizable.ByGradientValue {
+	private static Logger logger = MalletLogger.getLogger(ThreadedOptimizable.class.getName());
+
+	/** Data */
+	protected InstanceList trainingSet;
+
+	/** Number of factors in model's parameters */
+	protected int numFactors;
+
+	/** optimizable to be parallelized */
+	protected Optimizable.ByCombiningBatchGradient optimizable;
+
+	/** Value obtained from the optimizable for each batch */
+	protected double[] batchCachedValue;
+  /** Gradient obtained from the optimizable for each batch */
+	protected List<double[]> batchCachedGradient;
+
+	// determine when value/gradient become stale
+	protected CacheStaleIndicator cacheIndicator;
+
+	// tasks to be executed in individual threads, each task is instantiated only
+	// once but executed in every iteration
+	private transient Collection<Callable<Double>> valueTasks;
+	private transient Collection<Callable<Boolean>> gradientTasks;
+
+	// thread pool to compute value/gradient for one batch of data
+	private transient ThreadPoolExecutor executor;
+
+	/** The number of chunks per thread when batches are filled incrementally */
+	public static final int CHUNKS_PER_THREAD = 16;
+
+	// for incremental batches: instance indices, longest sequence first, cut into
+	// chunks from chunkStarts[c] to chunkStarts[c+1]-1; batch b takes chunks
+	// b, b+numBatches, ...
+	private int[] instanceOrder;
+	private int[] chunkStarts;
+
+	// for incremental batches: the nanoseconds each thread spent on chunks, and
+	// how many it took, in the last computation of the value
+	private long[] busyNanos;
+	private int[] numChunksTaken;
+
+	// for incremental batches: tasks that each combine one slice of the
+	// gradient into combinedGradient, the buffer of the current call
+	private transient Collection<Callable<Boolean>> combiningTasks;
+	private double[] combinedGradient;
+
+	// milliseconds
+	public static final int SLEEP_TIME = 100;
+
+	/**
+	 * Initializes the optimizable and starts new threads.
+	 *
+	 * @param optimizable Optimizable to be parallelized
+	 * @param numFactors Number of factors in model's parameters, used to
+	 *        initialize the gradient
+	 * @param cacheIndicator Determines when value/gradient become stale
+	 */
+	public ThreadedOptimizable(Optimizable.ByCombiningBatchGradient optimizable,
+			InstanceList trainingSet, int numFactors,
+			CacheStaleIndicator cacheIndicator) {
+		// set up
+		this.trainingSet = trainingSet;
+		this.optimizable = optimizable;
+		this.numFactors = numFactors;
+
+		int numBatches = optimizable.getNumBatches();
+		assert(numBatches > 0) : "Invalid number of batches: " + numBatches;
+		batchCachedValue = new double[numBatches];
+		batchCachedGradient = new ArrayList<double[]>(numBatches);
+		if (!(optimizable instanceof Optimizable.ByIncrementalBatchGradient)) {
+			for (int i = 0; i < numBatches; ++i) {
+				batchCachedGradient.add(new double[numFactors]);
+			}
+		}
+
+		this.cacheIndicator = cacheIndicator;
+
+		getExecutor();
+		this.createTasks();
+	}
+
+	// starts the threads, again if they were shut down
+	private synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			int numBatches = batchCachedValue.length;
+			logger.info("Creating " + numBatches + " threads for updating gradient...");
+			executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(numBatches);
+		}
+		return executor;
+	}
+
+	public Optimizable.ByCombiningBatchGradient getOptimizable() {
+		return optimizable;
+	}
+
+	/**
+	 * Shuts down the executor used to start and run threads to compute values
+	 * and gradients.
+	 * <p>
+	 * *Note*: For a clean exit of all the threads, it is recommended to call
+	 * this method after training finishes.  If the value or gradient is needed
+	 * again afterwards, new threads are started.
+	 */
+	public synchronized void shutdown() {
+		if (executor == null)
+			return;
+		// fix submitted by Mark Dredze (mdredze@cs.jhu.edu)
+		executor.shutdown();
+		try {
+			executor.awaitTermination(30, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		assert(executor.shutdownNow().size() == 0) : "All tasks didn't finish";
+		executor = null;
+	}
+
+	public double getValue () {
+		if (cacheIndicator.isValueStale()) {
+			// compute values again
+			long startTime = System.nanoTime();
+			try {
+				// run all threads and wait for them to finish
+				List<Future<Double>> results = getExecutor().invokeAll(valueTasks);
+
+				// compute final log probability
+				int batch = 0;
+				for (Future<Double> f : results)
+					batchCachedValue[batch++] = f.get();
+			} catch (ExecutionException ee) {
+				throw new IllegalStateException(ee.getCause());
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(ie);
+			}
+			long elapsedNanos = System.nanoTime() - startTime;
+			double cachedValue = MatrixOps.sum(batchCachedValue);
+			logger.info("getValue() (sum over " + batchCachedValue.length + " batches) =" + cachedValue);
+			if (busyNanos != null)
+				logger.info(getUtilizationSummary(elapsedNanos));
+			return cachedValue;
+		}
+		return MatrixOps.sum(batchCachedValue);
+	}
+
+	/**
+	 * Returns the gradient, re-computes if gradient is stale. <p>
+	 *
+	 * *Note*: Assumes that <tt>buffer</tt> is already initialized.
+	 */
+	public void getValueGradient (double[] buffer) {
+		if (optimizable instanceof Optimizable.ByIncrementalBatchGradient) {
+			// compute values again if required; the batches then hold all that is needed
+			if (cacheIndicator.isGradientStale())
+				this.getValue();
+			combinedGradient = buffer;
+			try {
+				// each thread sets its own slice of the buffer
+				for (Future<Boolean> f : getExecutor().invokeAll(combiningTasks)) {
+					try {
+						f.get();
+					} catch (ExecutionException ee) {
+						throw new IllegalStateException(ee.getCause());
+					}
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(ie);
+			} finally {
+				combinedGradient = null;
+			}
+			return;
+		}
+		if (cacheIndicator.isGradientStale()) {
+			// compute values again if required
+			this.getValue();
+
+			// compute gradients again
+			try {
+				// run all threads and wait for them to finish
+				for (Future<Boolean> f : getExecutor().invokeAll(gradientTasks))
+					f.get();
+			} catch (ExecutionException ee) {
+				throw new IllegalStateException(ee.getCause());
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(ie);
+			}
+		}
+		optimizable.combineGradients(batchCachedGradient, buffer);
+	}
+
+	/**
+	 * Returns the busy time of each thread, as a percentage of the time taken
+	 * to compute the value, and the number of chunks each took.
+	 */
+	protected String getUtilizationSummary(long elapsedNanos) {
+		StringBuilder summary = new StringBuilder("Thread utilization:");
+		double minUtilization = 100.0;
+		for (int batch = 0; batch < busyNanos.length; batch++) {
+			double utilization = 100.0 * busyNanos[batch] / Math.max(elapsedNanos, 1);
+			minUtilization = Math.min(minUtilization, utilization);
+			summary.append(String.format(" %.0f%% (%d chunks)", utilization, numChunksTaken[batch]));
+		}
+		summary.append(String.format(", min %.0f%%, %d ms", minUtilization, elapsedNanos / 1000000));
+		return summary.toString();
+	}
+
+	/**
+	 * Creates tasks to be executed in parallel, each task looks at a batch of
+	 * data.
+	 */
+	protected void createTasks() {
+		if (optimizable instanceof Optimizable.ByIncrementalBatchGradient) {
+			createIncrementalTasks();
+			return;
+		}
+		int numBatches = optimizable.getNumBatches();
+		valueTasks = new ArrayList<Callable<Double>>(numBatches);
+		gradientTasks = new ArrayList<Callable<Boolean>>(numBatches);
+		// number of instances per batch
+		int numBatchInstances = trainingSet.size() / numBatches;
+		// batch assignments
+		int start = -1, end = -1;
+		for (int i = 0; i < numBatches; ++i) {
+			// get the indices of batch
+			if (i == 0) {
+				start = 0;
+				end = start + numBatchInstances;
+			} else if (i == numBatches-1) {
+				start = end;
+				end = trainingSet.size();
+			} else {
+				start = end;
+				end = start + numBatchInstances;
+			}
+			valueTasks.add(new ValueHandler(i, new int[]{start, end}));
+			gradientTasks.add(new GradientHandler(i, new int[]{start, end}));
+		}
+	}
+
+	/**
+	 * Creates tasks that each fill a batch from every numBatches'th chunk of
+	 * instances, and tasks that each combine a slice of the gradient.
+	 */
+	protected void createIncrementalTasks() {
+		int numBatches = optimizable.getNumBatches();
+
+		// sort the instances by decreasing length, so that long sequences are
+		// taken first and short ones fill in at the end
+		final int[] lengths = new int[trainingSet.size()];
+		Integer[] order = new Integer[trainingSet.size()];
+		long totalLength = 0;
+		for (int i = 0; i < lengths.length; i++) {
+			Object data = trainingSet.get(i).getData();
+			lengths[i] = data instanceof Sequence ? Math.max(((Sequence) data).size(), 1) : 1;
+			totalLength += lengths[i];
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i, Integer j) {
+				return lengths[j] != lengths[i] ? lengths[j] - lengths[i] : i - j;
+			}
+		});
+		instanceOrder = new int[order.length];
+		for (int i = 0; i < order.length; i++)
+			instanceOrder[i] = order[i];
+
+		// cut them into chunks of about equal total length
+		double chunkLength = (double) totalLength / (numBatches * CHUNKS_PER_THREAD);
+		int[] starts = new int[instanceOrder.length + 1];
+		int numChunks = 0;
+		long length = 0;
+		for (int i = 0; i < instanceOrder.length; i++) {
+			if (i == 0 || length >= chunkLength * numChunks)
+				starts[numChunks++] = i;
+			length += lengths[instanceOrder[i]];
+		}
+		starts[numChunks] = instanceOrder.length;
+		chunkStarts = new int[numChunks + 1];
+		System.arraycopy(starts, 0, chunkStarts, 0, numChunks + 1);
+		busyNanos = new long[numBatches];
+		numChunksTaken = new int[numBatches];
+		logger.info("Dividing " + instanceOrder.length + " instances into " + numChunks + " chunks");
+
+		valueTasks = new ArrayList<Callable<Double>>(numBatches);
+		combiningTasks = new ArrayList<Callable<Boolean>>(numBatches);
+		for (int i = 0; i < numBatches; ++i) {
+			valueTasks.add(new ChunkValueHandler(i));
+			combiningTasks.add(new CombiningHandler(
+					(int) ((long) numFactors * i / numBatches),
+					(int) ((long) numFactors * (i+1) / numBatches)));
+		}
+	}
+
+	public int getNumParameters () { return optimizable.getNumParameters(); }
+
+	public void getParameters (double[] buffer) {
+		optimizable.getParameters(buffer);
+	}
+
+	public double getParameter (int index) {
+		return optimizable.getParameter(index);
+	}
+
+	public void setParameters (double [] buff) {
+		optimizable.setParameters(buff);
+	}
+
+	public void setParameter (int index, double value) {
+		optimizable.setParameter(index, value);
+	}
+
+	/**
+	 * Computes value in a separate thread for a batch of data.
+	 */
+	private class ValueHandler implements Callable<Double> {
+		private int batchIndex;
+		private int[] batchAssignments;
+
+		public ValueHandler(int batchIndex, int[] batchAssignments) {
+			this.batchIndex = batchIndex;
+			this.batchAssignments = batchAssignments;
+		}
+
+		/**
+		 * Returns the value for a batch.
+		 */
+		public Double call() {
+			return optimizable.getBatchValue(batchIndex, batchAssignments);
+		}
+	}
+
+	/**
+	 * Fills a batch in a separate thread from its chunks of data, in order.
+	 */
+	private class ChunkValueHandler implements Callable<Double> {
+		private int batchIndex;
+
+		public ChunkValueHandler(int batchIndex) {
+			this.batchIndex = batchIndex;
+		}
+
+		/**
+		 * Returns the value for the batch.
+		 */
+		public Double call() {
+			Optimizable.ByIncrementalBatchGradient incremental =
+				(Optimizable.ByIncrementalBatchGradient) optimizable;
+			long startTime = System.nanoTime();
+			double value = incremental.resetBatch(batchIndex);
+			int numTaken = 0;
+			int numBatches = busyNanos.length;
+			for (int chunk = batchIndex; chunk < chunkStarts.length - 1; chunk += numBatches) {
+				value += incremental.addToBatch(batchIndex, instanceOrder,
+						chunkStarts[chunk], chunkStarts[chunk+1]);
+				numTaken++;
+			}
+			incremental.finishBatch(batchIndex);
+			busyNanos[batchIndex] = System.nanoTime() - startTime;
+			numChunksTaken[batchIndex] = numTaken;
+			return value;
+		}
+	}
+
+	/**
+	 * Combines a slice of the gradient in a separate thread.
+	 */
+	private class CombiningHandler implements Callable<Boolean> {
+		private int start, end;
+
+		public CombiningHandler(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * Sets the slice of the combined gradient, always returns true.
+		 */
+		public Boolean call() {
+			((Optimizable.ByIncrementalBatchGradient) optimizable).getCombinedValueGradient(
+					combinedGradient, start, end);
+			return true;
+		}
+	}
+
+	/**
+	 * Computes gradient in a separate thread for a batch of data.
+	 */
+	private class GradientHandler implements Callable<Boolean> {
+		private int batchIndex;
+		private int[] batchAssignments;
+
+		public GradientHandler(int batchIndex, int[] batchAssignments) {
+			this.batchIndex = batchIndex;
+			this.batchAssignments = batchAssignments;
+		}
+
+		/**
+		 * Computes the gradient for a batch, always returns true.
+		 */
+		public Boolean call() {
+			optimizable.getBatchValueGradient(batchCachedGradient.get(batchIndex),
+					batchIndex, batchAssignments);
+			return true;
+		}
+	}
+}
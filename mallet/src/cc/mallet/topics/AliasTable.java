@@ -0,0 +1,182 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.	For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.util.Arrays;
+
+import cc.mallet.util.Randoms;
+
+/**
+ * A Walker alias table for drawing from a fixed discrete distribution
+ *  in constant time. Building the table takes time linear in the
+ *  number of outcomes.
+ * <p>
+ * Outcomes are either the indices 0..size-1, or, for sparse
+ *  distributions, an explicit array of outcome ids.
+ */
+
+public class AliasTable {
+
+	protected int size = 0;
+	protected int[] outcomes; // null if outcome i is simply i
+	protected double[] weights; // unnormalized weight of each outcome
+	protected double sum;
+
+	protected double[] probabilities;
+	protected int[] aliases;
+
+	public AliasTable (int capacity) {
+		allocate(capacity);
+	}
+
+	private void allocate (int capacity) {
+		weights = new double[capacity];
+		probabilities = new double[capacity];
+		aliases = new int[capacity];
+	}
+
+	/**
+	 *  Build a table over the outcomes 0..size-1.
+	 *  The weights array is copied.
+	 */
+	public void build (double[] sourceWeights, int size) {
+		build(null, sourceWeights, size);
+	}
+
+	/**
+	 *  Build a table in which position i has outcome <code>sourceOutcomes[i]</code>
+	 *   and unnormalized weight <code>sourceWeights[i]</code>. Both arrays are copied.
+	 */
+	public void build (int[] sourceOutcomes, double[] sourceWeights, int size) {
+		if (size > weights.length) {
+			allocate(size);
+		}
+
+		this.size = size;
+		System.arraycopy(sourceWeights, 0, weights, 0, size);
+
+		if (sourceOutcomes == null) {
+			outcomes = null;
+		}
+		else {
+			if (outcomes == null || outcomes.length < size) {
+				outcomes = new int[weights.length];
+			}
+			System.arraycopy(sourceOutcomes, 0, outcomes, 0, size);
+		}
+
+		sum = 0.0;
+		for (int i = 0; i < size; i++) {
+			sum += weights[i];
+		}
+		if (size == 0) { return; }
+
+		// Vose's method: scale so that the average bucket is 1.0,
+		//  then pair each under-full bucket with an over-full one.
+		// Under-full buckets are stacked from the front of the 
+		//  work list, over-full buckets from the back.
+
+		int[] work = new int[size];
+		int numSmall = 0;
+		int firstLarge = size;
+		for (int i = 0; i < size; i++) {
+			probabilities[i] = weights[i] * size / sum;
+			if (probabilities[i] < 1.0) {
+				work[numSmall++] = i;
+			}
+			else {
+				work[--firstLarge] = i;
+			}
+		}
+
+		while (numSmall > 0 && firstLarge < size) {
+			int less = work[--numSmall];
+			int more = work[firstLarge++];
+
+			aliases[less] = more;
+			probabilities[more] = (probabilities[more] + probabilities[less]) - 1.0;
+
+			if (probabilities[more] < 1.0) {
+				work[numSmall++] = more;
+			}
+			else {
+				work[--firstLarge] = more;
+			}
+		}
+
+		// Anything left over is full, up to rounding error
+		while (firstLarge < size) {
+			probabilities[work[firstLarge++]] = 1.0;
+		}
+		while (numSmall > 0) {
+			probabilities[work[--numSmall]] = 1.0;
+		}
+	}
+
+	public int size () { return size; }
+
+	/** The total unnormalized weight of all outcomes */
+	public double getSum () { return sum; }
+
+	/**
+	 *  Return the unnormalized weight of an outcome, or 0.0 if it is not
+	 *   in the table. For sparse tables this is a linear scan; callers
+	 *   that look up many outcomes should use {@link #fillWeights} instead.
+	 */
+	public double getWeight (int outcome) {
+		if (outcomes == null) {
+			return outcome < size ? weights[outcome] : 0.0;
+		}
+
+		for (int i = 0; i < size; i++) {
+			if (outcomes[i] == outcome) {
+				return weights[i];
+			}
+		}
+		return 0.0;
+	}
+
+	/**
+	 *  Write each outcome's unnormalized weight into <code>dense</code>,
+	 *   which is indexed by outcome and must otherwise be zero.
+	 */
+	public void fillWeights (double[] dense) {
+		if (outcomes == null) {
+			System.arraycopy(weights, 0, dense, 0, size);
+			return;
+		}
+		for (int i = 0; i < size; i++) {
+			dense[ outcomes[i] ] = weights[i];
+		}
+	}
+
+	/** Zero the entries of <code>dense</code> written by {@link #fillWeights}. */
+	public void clearWeights (double[] dense) {
+		if (outcomes == null) {
+			Arrays.fill(dense, 0, size, 0.0);
+			return;
+		}
+		for (int i = 0; i < size; i++) {
+			dense[ outcomes[i] ] = 0.0;
+		}
+	}
+
+	/** Draw an outcome using a single uniform random number. */
+	public int sample (Randoms random) {
+		double u = random.nextUniform() * size;
+		int bucket = (int) u;
+		if (bucket == size) { bucket--; }
+
+		if (u - bucket >= probabilities[bucket]) {
+			bucket = aliases[bucket];
+		}
+
+		return outcomes == null ? bucket : outcomes[bucket];
+	}
+
+}
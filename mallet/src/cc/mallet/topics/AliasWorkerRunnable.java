@@ -0,0 +1,293 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.	For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+
+import cc.mallet.types.*;
+import cc.mallet.util.Randoms;
+
+/**
+ * A parallel topic model runnable task that samples with
+ *  Metropolis-Hastings, alternating between a document proposal
+ *  and a word proposal drawn from (possibly stale) alias tables,
+ *  in the style of LightLDA (Yuan et al., WWW 2015).
+ * <p>
+ * Each Metropolis-Hastings step is constant time, and a token
+ *  otherwise costs one pass over its word's topics, as the packed
+ *  count update already does. Cost does not grow with the number of
+ *  topics in the document, so this is useful for models with thousands
+ *  of topics. It uses the same type/topic count arrays and topic
+ *  assignments as {@link WorkerRunnable}, so the two can be compared
+ *  on the same data.
+ */
+
+public class AliasWorkerRunnable extends WorkerRunnable {
+
+	public static final int DEFAULT_MH_STEPS = 2;
+
+	protected int mhSteps = DEFAULT_MH_STEPS;
+
+	// Word proposal, split into a sparse part n_{w,t} / (n_t + V beta) per word
+	//  and a dense part beta / (n_t + V beta) shared by all words.
+	protected AliasTable[] wordTables;
+	protected int[] wordSamplesLeft; // draws until each word table is rebuilt
+	protected AliasTable smoothingTable;
+	protected int smoothingSamplesLeft;
+
+	// Document proposal smoothing, proportional to alpha_t.
+	protected AliasTable alphaTable;
+
+	protected int[] localTopicCounts;
+
+	// The current token's word, indexed by topic so that each MH step
+	//  is constant time: n_{w,t} with the token removed, and the word
+	//  table's proposal weights. Filled when the token is visited and
+	//  cleared before it is put back, at the cost of one pass over the
+	//  word's topics, as for the packed count update itself.
+	protected int[] wordTopicCounts;
+	protected double[] wordProposalWeights;
+
+	// Scratch space for building word tables
+	private int[] tableTopics;
+	private double[] tableWeights;
+
+	public AliasWorkerRunnable (int numTopics,
+								double[] alpha, double alphaSum,
+								double beta, Randoms random,
+								ArrayList<TopicAssignment> data,
+								int[][] typeTopicCounts,
+								int[] tokensPerTopic,
+								int startDoc, int numDocs) {
+		super(numTopics, alpha, alphaSum, beta, random, data,
+			  typeTopicCounts, tokensPerTopic, startDoc, numDocs);
+
+		wordTables = new AliasTable[numTypes];
+		wordSamplesLeft = new int[numTypes];
+		smoothingTable = new AliasTable(numTopics);
+		alphaTable = new AliasTable(numTopics);
+
+		localTopicCounts = new int[numTopics];
+		wordTopicCounts = new int[numTopics];
+		wordProposalWeights = new double[numTopics];
+		tableTopics = new int[numTopics];
+		tableWeights = new double[numTopics];
+	}
+
+	/** Set the number of Metropolis-Hastings steps per token. Each step
+	 *   consists of one document proposal and one word proposal. */
+	public void setMHSteps (int steps) {
+		this.mhSteps = steps;
+	}
+
+	public void resetBeta(double beta, double betaSum) {
+		super.resetBeta(beta, betaSum);
+		// The stale tables are still valid proposals, but refresh
+		//  them so that they stay close to the new posterior.
+		Arrays.fill(wordSamplesLeft, 0);
+	}
+
+	public void run () {
+		// Alpha may have been re-estimated since the last iteration
+		alphaTable.build(alpha, numTopics);
+		buildSmoothingTable();
+		super.run();
+	}
+
+	protected void buildSmoothingTable () {
+		for (int topic = 0; topic < numTopics; topic++) {
+			tableWeights[topic] = beta / (tokensPerTopic[topic] + betaSum);
+		}
+		smoothingTable.build(tableWeights, numTopics);
+		smoothingSamplesLeft = numTopics;
+	}
+
+	protected AliasTable getWordTable (int type) {
+		AliasTable table = wordTables[type];
+
+		if (table == null || wordSamplesLeft[type] <= 0) {
+			int[] currentTypeTopicCounts = typeTopicCounts[type];
+
+			int size = 0;
+			while (size < currentTypeTopicCounts.length &&
+				   currentTypeTopicCounts[size] > 0) {
+				int topic = currentTypeTopicCounts[size] & topicMask;
+				tableTopics[size] = topic;
+				tableWeights[size] = (currentTypeTopicCounts[size] >> topicBits) /
+					(tokensPerTopic[topic] + betaSum);
+				size++;
+			}
+
+			if (table == null) {
+				table = new AliasTable(currentTypeTopicCounts.length);
+				wordTables[type] = table;
+			}
+			table.build(tableTopics, tableWeights, size);
+
+			// Rebuilding costs O(size), so spread it over that many draws
+			wordSamplesLeft[type] = size + 1;
+		}
+
+		wordSamplesLeft[type]--;
+		return table;
+	}
+
+	/** Copy n_{w,t} from a packed type/topic count array into <code>wordTopicCounts</code> */
+	protected void loadTypeTopicCounts (int[] currentTypeTopicCounts) {
+		int index = 0;
+		while (index < currentTypeTopicCounts.length &&
+			   currentTypeTopicCounts[index] > 0) {
+			wordTopicCounts[ currentTypeTopicCounts[index] & topicMask ] =
+				currentTypeTopicCounts[index] >> topicBits;
+			index++;
+		}
+	}
+
+	/** Zero the entries written by {@link #loadTypeTopicCounts} */
+	protected void clearTypeTopicCounts (int[] currentTypeTopicCounts) {
+		int index = 0;
+		while (index < currentTypeTopicCounts.length &&
+			   currentTypeTopicCounts[index] > 0) {
+			wordTopicCounts[ currentTypeTopicCounts[index] & topicMask ] = 0;
+			index++;
+		}
+	}
+
+	/** The unnormalized collapsed Gibbs conditional, with the current token removed */
+	protected double getTopicWeight (int topic) {
+		return (localTopicCounts[topic] + alpha[topic]) *
+			(wordTopicCounts[topic] + beta) /
+			(tokensPerTopic[topic] + betaSum);
+	}
+
+	protected void sampleTopicsForOneDoc (FeatureSequence tokenSequence,
+										  FeatureSequence topicSequence,
+										  boolean readjustTopicsAndStats /* currently ignored */) {
+
+		int[] oneDocTopics = topicSequence.getFeatures();
+		int docLength = tokenSequence.getLength();
+
+		int[] currentTypeTopicCounts;
+		int type, oldTopic, newTopic, proposal;
+		double newWeight, proposalWeight, acceptance, sample;
+
+		for (int position = 0; position < docLength; position++) {
+			localTopicCounts[oneDocTopics[position]]++;
+		}
+
+		for (int position = 0; position < docLength; position++) {
+			type = tokenSequence.getIndexAtPosition(position);
+			oldTopic = oneDocTopics[position];
+
+			currentTypeTopicCounts = typeTopicCounts[type];
+
+			// Remove this token from all counts.
+			localTopicCounts[oldTopic]--;
+			tokensPerTopic[oldTopic]--;
+			assert(tokensPerTopic[oldTopic] >= 0) : "old Topic " + oldTopic + " below 0";
+			decrementTypeTopicCount(currentTypeTopicCounts, oldTopic, topicMask, topicBits);
+
+			AliasTable wordTable = getWordTable(type);
+			if (smoothingSamplesLeft <= 0) {
+				buildSmoothingTable();
+			}
+			smoothingSamplesLeft--;
+
+			loadTypeTopicCounts(currentTypeTopicCounts);
+			wordTable.fillWeights(wordProposalWeights);
+
+			newTopic = oldTopic;
+			newWeight = getTopicWeight(newTopic);
+
+			for (int step = 0; step < mhSteps; step++) {
+
+				// Document proposal: the topic of a random token in this
+				//  document (including this one, whose assignment has not
+				//  been changed yet), or a draw from alpha.
+				//  q(t) is proportional to n_{t|d} + [t == oldTopic] + alpha_t.
+
+				sample = random.nextUniform() * (docLength + alphaSum);
+				if (sample < docLength) {
+					proposal = oneDocTopics[(int) sample];
+				}
+				else {
+					proposal = alphaTable.sample(random);
+				}
+
+				if (proposal != newTopic) {
+					proposalWeight = getTopicWeight(proposal);
+					acceptance =
+						(proposalWeight * (localTopicCounts[newTopic] + (newTopic == oldTopic ? 1 : 0) + alpha[newTopic])) /
+						(newWeight * (localTopicCounts[proposal] + (proposal == oldTopic ? 1 : 0) + alpha[proposal]));
+
+					if (acceptance >= 1.0 || random.nextUniform() < acceptance) {
+						newTopic = proposal;
+						newWeight = proposalWeight;
+					}
+				}
+
+				// Word proposal: q(t) is the sum of the word's sparse
+				//  weight and the shared smoothing weight, as of when
+				//  the tables were last built.
+
+				sample = random.nextUniform() * (wordTable.getSum() + smoothingTable.getSum());
+				if (sample < wordTable.getSum()) {
+					proposal = wordTable.sample(random);
+				}
+				else {
+					proposal = smoothingTable.sample(random);
+				}
+
+				if (proposal != newTopic) {
+					proposalWeight = getTopicWeight(proposal);
+					acceptance =
+						(proposalWeight * (wordProposalWeights[newTopic] + smoothingTable.getWeight(newTopic))) /
+						(newWeight * (wordProposalWeights[proposal] + smoothingTable.getWeight(proposal)));
+
+					if (acceptance >= 1.0 || random.nextUniform() < acceptance) {
+						newTopic = proposal;
+						newWeight = proposalWeight;
+					}
+				}
+			}
+
+			clearTypeTopicCounts(currentTypeTopicCounts);
+			wordTable.clearWeights(wordProposalWeights);
+
+			// Put that new topic into the counts
+			oneDocTopics[position] = newTopic;
+			localTopicCounts[newTopic]++;
+			tokensPerTopic[newTopic]++;
+			incrementTypeTopicCount(currentTypeTopicCounts, newTopic, topicMask, topicBits);
+
+			if (shouldRecordDeltas && newTopic != oldTopic) {
+				recordDelta(type, oldTopic, newTopic);
+			}
+		}
+
+		if (shouldSaveState) {
+			// Update the document-topic count histogram,
+			//  for dirichlet estimation
+			docLengthCounts[ docLength ]++;
+		}
+
+		// Clean up: clear the local counts by walking the tokens rather
+		//  than all topics, recording the histogram along the way.
+		for (int position = 0; position < docLength; position++) {
+			int topic = oneDocTopics[position];
+			if (localTopicCounts[topic] > 0) {
+				if (shouldSaveState) {
+					topicDocCounts[topic][ localTopicCounts[topic] ]++;
+				}
+				localTopicCounts[topic] = 0;
+			}
+		}
+	}
+
+}
@@ -6,6 +6,7 @@ import java.io.*;
 
 import cc.mallet.types.*;
 import cc.mallet.util.Randoms;
+import cc.mallet.util.SplittableRandoms;
 
 import gnu.trove.*;
 
@@ -566,7 +567,7 @@ public class HierarchicalLDA {
 			InstanceList testing = InstanceList.load(new File(args[1]));
 
 			HierarchicalLDA sampler = new HierarchicalLDA();
-			sampler.initialize(instances, testing, 5, new Randoms());
+			sampler.initialize(instances, testing, 5, new SplittableRandoms());
 			sampler.estimate(250);
 		} catch (Exception e) {
 			e.printStackTrace();
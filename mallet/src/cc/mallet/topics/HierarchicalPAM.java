@@ -760,7 +760,7 @@ public class HierarchicalPAM {
 
         HierarchicalPAM pam = new HierarchicalPAM (numSuperTopicsOption.value, numSubTopicsOption.value,
 												   superTopicBalanceOption.value, subTopicBalanceOption.value);
-        pam.estimate (instances, testing, 1000, 100, 0, 250, null, new Randoms());
+        pam.estimate (instances, testing, 1000, 100, 0, 250, null, new SplittableRandoms());
 		if (stateFile.wasInvoked()) {
 			pam.printState(new File(stateFile.value));
 		}
@@ -13,6 +13,7 @@ import java.io.*;
 import cc.mallet.types.*;
 import cc.mallet.util.ArrayUtils;
 import cc.mallet.util.Randoms;
+import cc.mallet.util.SplittableRandoms;
 
 /**
  * Latent Dirichlet Allocation.
@@ -479,7 +480,7 @@ public class LDA implements Serializable {
 		int numTopWords = args.length > 2 ? Integer.parseInt(args[2]) : 20;
 		System.out.println ("Data loaded.");
 		LDA lda = new LDA (10);
-		lda.estimate (ilist, numIterations, 50, 0, null, new Randoms());  // should be 1100
+		lda.estimate (ilist, numIterations, 50, 0, null, new SplittableRandoms());  // should be 1100
 		lda.printTopWords (numTopWords, true);
 		lda.printDocumentTopics (new File(args[0]+".lda"));
 	}
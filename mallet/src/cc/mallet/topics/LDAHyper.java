@@ -22,6 +22,7 @@ import java.text.NumberFormat;
 
 import cc.mallet.types.*;
 import cc.mallet.util.Randoms;
+import cc.mallet.util.SplittableRandoms;
 
 /**
  * Latent Dirichlet Allocation with optimized hyperparameters
@@ -121,7 +122,7 @@ public class LDAHyper implements Serializable {
 	}
 	
 	public LDAHyper (int numberOfTopics, double alphaSum, double beta) {
-		this (numberOfTopics, alphaSum, beta, new Randoms());
+		this (numberOfTopics, alphaSum, beta, new SplittableRandoms());
 	}
 	
 	private static LabelAlphabet newLabelAlphabet (int numTopics) {
@@ -181,7 +182,7 @@ public class LDAHyper implements Serializable {
 	}
 
 	public void setRandomSeed(int seed) {
-		random = new Randoms(seed);
+		random = new SplittableRandoms(seed);
 	}
 
 	public void setOptimizeInterval(int interval) {
@@ -249,7 +250,7 @@ public class LDAHyper implements Serializable {
 				// This method not yet obeying its last "false" argument, and must be for this to work
 				sampleTopicsForOneDoc((FeatureSequence)instance.getData(), topicSequence, false, false);
 			else {
-				Randoms r = new Randoms();
+				Randoms r = new SplittableRandoms();
 				int[] topics = topicSequence.getFeatures();
 				for (int i = 0; i < topics.length; i++)
 					topics[i] = r.nextInt(numTopics);
@@ -23,6 +23,7 @@ import cc.mallet.types.InstanceList;
 import cc.mallet.types.LabelAlphabet;
 import cc.mallet.types.LabelSequence;
 import cc.mallet.util.Randoms;
+import cc.mallet.util.SplittableRandoms;
 import gnu.trove.TIntIntHashMap;
 
 /**
@@ -89,7 +90,7 @@ public class LDAStream extends LDAHyper {
 				// This method not yet obeying its last "false" argument, and must be for this to work
 				//sampleTopicsForOneDoc((FeatureSequence)instance.getData(), topicSequence, false, false);
 			} else {
-				Randoms r = new Randoms();
+				Randoms r = new SplittableRandoms();
 				FeatureSequence fs = (FeatureSequence) instance.getData();
 				int[] topics = topicSequence.getFeatures();
 				for (int i = 0; i < topics.length; i++) {
@@ -225,7 +226,7 @@ public class LDAStream extends LDAHyper {
 				// This method not yet obeying its last "false" argument, and must be for this to work
 				//sampleTopicsForOneDoc((FeatureSequence)instance.getData(), topicSequence, false, false);
 			} else {
-				Randoms r = new Randoms();
+				Randoms r = new SplittableRandoms();
 				FeatureSequence fs = (FeatureSequence) instance.getData();
 				int[] topics = topicSequence.getFeatures();
 				for (int i = 0; i < topics.length; i++) {
@@ -367,7 +368,7 @@ public class LDAStream extends LDAHyper {
 				// This method not yet obeying its last "false" argument, and must be for this to work
 				//sampleTopicsForOneDoc((FeatureSequence)instance.getData(), topicSequence, false, false);
 			} else {
-				Randoms r = new Randoms();
+				Randoms r = new SplittableRandoms();
 				FeatureSequence fs = (FeatureSequence) instance.getData();
 				int[] topics = topicSequence.getFeatures();
 				for (int i = 0; i < topics.length; i++) {
@@ -433,7 +434,7 @@ public class LDAStream extends LDAHyper {
 				// This method not yet obeying its last "false" argument, and must be for this to work
 				//sampleTopicsForOneDoc((FeatureSequence)instance.getData(), topicSequence, false, false);
 			} else {
-				Randoms r = new Randoms();
+				Randoms r = new SplittableRandoms();
 				FeatureSequence fs = (FeatureSequence) instance.getData();
 				int[] topics = topicSequence.getFeatures();
 				for (int i = 0; i < topics.length; i++) {
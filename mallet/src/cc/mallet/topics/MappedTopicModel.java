@@ -0,0 +1,286 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.	For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import cc.mallet.types.Alphabet;
+
+/**
+ * A read-only view of the counts and hyperparameters of a trained topic
+ *  model, stored in a binary file that is memory-mapped rather than
+ *  deserialized. Opening a model only reads the header, the type/topic
+ *  counts stay off the Java heap, and several JVMs that open the same file
+ *  share its pages through the operating system's file cache.
+ * <p>
+ * The file is big-endian and laid out as:
+ * <pre>
+ *  int magic, int version, int numTopics, int numTypes,
+ *  double beta, double betaSum, long alphabetOffset,
+ *  double[numTopics] alpha,
+ *  int[numTopics] tokensPerTopic,
+ *  int[numTypes + 1] start of each type's counts,
+ *  int[] packed (count &lt;&lt; topicBits) + topic counts, non-zero only,
+ *  int numEntries, then for each alphabet entry an int length and UTF-8 bytes
+ * </pre>
+ * Files are written by {@link ParallelTopicModel#writeMapped(File)} and
+ *  are read by {@link TopicInferencer#read(File)}.
+ */
+
+public class MappedTopicModel {
+
+	public static final int MAGIC = 0x4d544d31; // "MTM1"
+	public static final int CURRENT_VERSION = 0;
+
+	private static final int HEADER_BYTES = 40;
+
+	protected int numTopics;
+	protected int numTypes;
+	protected double beta;
+	protected double betaSum;
+	protected double[] alpha;
+	protected int[] tokensPerTopic;
+
+	protected MappedByteBuffer buffer;
+	protected IntBuffer typeOffsets;
+	protected IntBuffer counts;
+	protected long alphabetOffset;
+
+	private Alphabet alphabet = null;
+
+	protected MappedTopicModel (File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too large to map (" + channel.size() + " bytes)");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			// The mapping remains valid after the file is closed
+			raf.close();
+		}
+
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException(file + " is not a mapped topic model file");
+		}
+		int version = buffer.getInt(4);
+		if (version > CURRENT_VERSION) {
+			throw new IOException(file + " has unsupported version " + version);
+		}
+
+		numTopics = buffer.getInt(8);
+		numTypes = buffer.getInt(12);
+		beta = buffer.getDouble(16);
+		betaSum = buffer.getDouble(24);
+		alphabetOffset = buffer.getLong(32);
+
+		int position = HEADER_BYTES;
+
+		// Alpha and the topic totals are small, so copy them onto the heap.
+		alpha = new double[numTopics];
+		DoubleBuffer alphaBuffer = slice(position).asDoubleBuffer();
+		alphaBuffer.get(alpha);
+		position += 8 * numTopics;
+
+		tokensPerTopic = new int[numTopics];
+		IntBuffer totalsBuffer = slice(position).asIntBuffer();
+		totalsBuffer.get(tokensPerTopic);
+		position += 4 * numTopics;
+
+		typeOffsets = slice(position).asIntBuffer();
+		position += 4 * (numTypes + 1);
+
+		counts = slice(position).asIntBuffer();
+	}
+
+	private ByteBuffer slice (int position) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(position);
+		return duplicate.slice();
+	}
+
+	/** Map a model file written by {@link #write}. */
+	public static MappedTopicModel open (File file) throws IOException {
+		return new MappedTopicModel(file);
+	}
+
+	/** Return true if the file starts with the mapped model magic number. */
+	public static boolean isMappedModel (File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return in.readInt() == MAGIC;
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	public int getNumTopics () { return numTopics; }
+	public int getNumTypes () { return numTypes; }
+	public double getBeta () { return beta; }
+	public double getBetaSum () { return betaSum; }
+	public double[] getAlpha () { return alpha; }
+	public int[] getTokensPerTopic () { return tokensPerTopic; }
+
+	/** Return the number of non-zero topics recorded for a type */
+	public int getNumNonZeroTopics (int type) {
+		return typeOffsets.get(type + 1) - typeOffsets.get(type);
+	}
+
+	/**
+	 *  Copy the packed non-zero counts for a type into <code>destination</code>,
+	 *   in the same descending order as <code>typeTopicCounts[type]</code>.
+	 *   If there is room, the entry after the last count is set to zero,
+	 *   so loops that stop at the first zero work unchanged.
+	 *   This only uses absolute reads, so it is safe to call from several threads.
+	 *
+	 *  @return the number of non-zero counts
+	 */
+	public int getTypeTopicCounts (int type, int[] destination) {
+		int start = typeOffsets.get(type);
+		int size = typeOffsets.get(type + 1) - start;
+		for (int i = 0; i < size; i++) {
+			destination[i] = counts.get(start + i);
+		}
+		if (size < destination.length) {
+			destination[size] = 0;
+		}
+		return size;
+	}
+
+	/** Copy all counts onto the heap, with one exactly-sized array per type. */
+	public int[][] getTypeTopicCounts () {
+		int[][] result = new int[numTypes][];
+		for (int type = 0; type < numTypes; type++) {
+			result[type] = new int[ getNumNonZeroTopics(type) ];
+			getTypeTopicCounts(type, result[type]);
+		}
+		return result;
+	}
+
+	/** Read the alphabet from the end of the file. The alphabet is built
+	 *   on first use, since a server that receives feature indices
+	 *   rather than text never needs it. */
+	public synchronized Alphabet getAlphabet () {
+		if (alphabet == null) {
+			ByteBuffer in = buffer.duplicate();
+			in.position((int) alphabetOffset);
+
+			int size = in.getInt();
+			alphabet = new Alphabet(size, String.class);
+			byte[] bytes = new byte[64];
+			for (int i = 0; i < size; i++) {
+				int length = in.getInt();
+				if (length > bytes.length) {
+					bytes = new byte[Math.max(length, 2 * bytes.length)];
+				}
+				in.get(bytes, 0, length);
+				try {
+					alphabet.lookupIndex(new String(bytes, 0, length, "UTF-8"));
+				} catch (UnsupportedEncodingException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+		return alphabet;
+	}
+
+	/**
+	 *  Write a model in the mapped format. Only non-zero entries of each
+	 *   <code>typeTopicCounts</code> array are stored, and the alphabet
+	 *   entries must be strings. The whole file, alphabet included, must
+	 *   fit in the 2GB that {@link #open} can map.
+	 */
+	public static void write (File file, int[][] typeTopicCounts, int[] tokensPerTopic,
+							  double[] alpha, double beta, double betaSum,
+							  Alphabet alphabet) throws IOException {
+
+		int numTopics = tokensPerTopic.length;
+		int numTypes = typeTopicCounts.length;
+
+		// Find where each type's counts start
+		int[] typeOffsets = new int[numTypes + 1];
+		long totalCounts = 0;
+		for (int type = 0; type < numTypes; type++) {
+			typeOffsets[type] = (int) totalCounts;
+			int[] currentTypeTopicCounts = typeTopicCounts[type];
+			int size = 0;
+			while (size < currentTypeTopicCounts.length &&
+				   currentTypeTopicCounts[size] > 0) {
+				size++;
+			}
+			totalCounts += size;
+		}
+		typeOffsets[numTypes] = (int) totalCounts;
+
+		long alphabetOffset = HEADER_BYTES + 12L * numTopics +
+			4L * (numTypes + 1) + 4L * totalCounts;
+
+		// Encode the alphabet up front, so that a model too large for
+		//  the reader to map is rejected before anything is written.
+		byte[][] entries = new byte[alphabet.size()][];
+		long fileSize = alphabetOffset + 4;
+		for (int i = 0; i < entries.length; i++) {
+			Object entry = alphabet.lookupObject(i);
+			if (! (entry instanceof String)) {
+				throw new IllegalArgumentException("Only alphabets of strings can be mapped, found " +
+												   entry.getClass().getName());
+			}
+			entries[i] = ((String) entry).getBytes("UTF-8");
+			fileSize += 4 + entries[i].length;
+		}
+		if (fileSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Model is too large to map in one file (" +
+											   fileSize + " bytes)");
+		}
+
+		DataOutputStream out =
+			new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(CURRENT_VERSION);
+			out.writeInt(numTopics);
+			out.writeInt(numTypes);
+			out.writeDouble(beta);
+			out.writeDouble(betaSum);
+			out.writeLong(alphabetOffset);
+
+			for (int topic = 0; topic < numTopics; topic++) {
+				out.writeDouble(alpha[topic]);
+			}
+			for (int topic = 0; topic < numTopics; topic++) {
+				out.writeInt(tokensPerTopic[topic]);
+			}
+			for (int type = 0; type <= numTypes; type++) {
+				out.writeInt(typeOffsets[type]);
+			}
+			for (int type = 0; type < numTypes; type++) {
+				int[] currentTypeTopicCounts = typeTopicCounts[type];
+				for (int i = 0; i < typeOffsets[type + 1] - typeOffsets[type]; i++) {
+					out.writeInt(currentTypeTopicCounts[i]);
+				}
+			}
+
+			out.writeInt(entries.length);
+			for (int i = 0; i < entries.length; i++) {
+				out.writeInt(entries[i].length);
+				out.write(entries[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+}
@@ -17,6 +17,7 @@ import java.text.NumberFormat;
 
 import cc.mallet.types.*;
 import cc.mallet.util.Randoms;
+import cc.mallet.util.SplittableRandoms;
 
 /**
  * An implementation of topic model marginal probability estimators
@@ -73,7 +74,7 @@ public class MarginalProbEstimator implements Serializable {
 		this.alpha = alpha;
 		this.beta = beta;
 		this.betaSum = beta * typeTopicCounts.length;
-		this.random = new Randoms();
+		this.random = new SplittableRandoms();
 		
 		cachedCoefficients = new double[ numTopics ];
 
@@ -99,7 +100,7 @@ public class MarginalProbEstimator implements Serializable {
 
 	public double evaluateLeftToRight (InstanceList testing, int numParticles, boolean usingResampling,
 									   PrintStream docProbabilityStream) {
-		random = new Randoms();
+		random = new SplittableRandoms();
 
 		double logNumParticles = Math.log(numParticles);
 		double totalLogLikelihood = 0;
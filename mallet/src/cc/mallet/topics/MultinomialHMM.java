@@ -9,6 +9,7 @@ package cc.mallet.topics;
 
 import cc.mallet.types.*;
 import cc.mallet.util.Randoms;
+import cc.mallet.util.SplittableRandoms;
 
 import java.util.Arrays;
 import java.util.List;
@@ -173,7 +174,7 @@ public class MultinomialHMM {
     }
 
     public void setRandomSeed(int seed) {
-	random = new Randoms(seed);
+	random = new SplittableRandoms(seed);
     }
 
     public void setOptimizeInterval(int interval) {
@@ -183,7 +184,7 @@ public class MultinomialHMM {
     public void initialize () {
 
 	if (random == null) {
-	    random = new Randoms();
+	    random = new SplittableRandoms();
 	}
 
 	gammaSum = gamma * numStates;
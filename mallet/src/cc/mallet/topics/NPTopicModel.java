@@ -85,7 +85,7 @@ public class NPTopicModel implements Serializable {
 		this.alpha = alpha;
 		this.gamma = gamma;
 		this.beta = beta;
-		this.random = new Randoms();
+		this.random = new SplittableRandoms();
 		
 		tokensPerTopic = new TIntIntHashMap();
 		docsPerTopic = new TIntIntHashMap();
@@ -102,7 +102,7 @@ public class NPTopicModel implements Serializable {
 	}
 
 	public void setRandomSeed(int seed) {
-		random = new Randoms(seed);
+		random = new SplittableRandoms(seed);
 	}
 
 	public void addInstances (InstanceList training, int initialTopics) {
@@ -10,6 +10,7 @@ information, see the file `LICENSE' included with this distribution. */
 
 import cc.mallet.types.*;
 import cc.mallet.util.Randoms;
+import cc.mallet.util.SplittableRandoms;
 import java.util.Arrays;
 import java.io.*;
 import java.text.NumberFormat;
@@ -749,7 +750,7 @@ for (int ti = 0; ti < numTopics; ti++)
 		int numSubTopics = args.length > 4 ? Integer.parseInt(args[4]) : 10;
 		System.out.println ("Data loaded.");
 		PAM4L pam = new PAM4L (numSuperTopics, numSubTopics);
-		pam.estimate (ilist, numIterations, 50, 0, 50, null, new Randoms());  // should be 1100
+		pam.estimate (ilist, numIterations, 50, 0, 50, null, new SplittableRandoms());  // should be 1100
 		pam.printTopWords (numTopWords, true);
 //		pam.printDocumentTopics (new File(args[0]+".pam"));
 	}
@@ -23,6 +23,7 @@ import java.text.NumberFormat;
 import cc.mallet.types.*;
 import cc.mallet.topics.TopicAssignment;
 import cc.mallet.util.Randoms;
+import cc.mallet.util.SplittableRandoms;
 import cc.mallet.util.MalletLogger;
 
 /**
@@ -57,6 +58,9 @@ public class ParallelTopicModel implements Serializable {
 	protected double betaSum;
 
 	protected boolean usingSymmetricAlpha = false;
+	protected boolean usingDeltaSync = false;
+	protected boolean usingAliasSampler = false;
+	protected int mhSteps = AliasWorkerRunnable.DEFAULT_MH_STEPS;
 
 	public static final double DEFAULT_BETA = 0.01;
 	
@@ -81,6 +85,12 @@ public class ParallelTopicModel implements Serializable {
 
 	protected int saveModelInterval = 0;
 	protected String modelFilename = null;
+
+	protected int checkpointInterval = 0;
+	protected String checkpointFilename = null;
+
+	// Set by initializeFromCheckpoint(), used by the next call to estimate()
+	protected TopicModelCheckpoint resumeCheckpoint = null;
 	
 	protected int randomSeed = -1;
 	protected NumberFormat formatter;
@@ -92,6 +102,12 @@ public class ParallelTopicModel implements Serializable {
 	int maxTypeCount; 
 	
 	int numThreads = 1;
+
+	// Time spent in each phase of a threaded iteration, summed over
+	//  the iterations of the last call to estimate()
+	protected long totalSamplingNanos = 0;
+	protected long totalMergeNanos = 0;
+	protected long totalCopyNanos = 0;
 	
 	public ParallelTopicModel (int numberOfTopics) {
 		this (numberOfTopics, numberOfTopics, DEFAULT_BETA);
@@ -144,6 +160,8 @@ public class ParallelTopicModel implements Serializable {
 	public LabelAlphabet getTopicAlphabet() { return topicAlphabet; }
 	public int getNumTopics() { return numTopics; }
 	public ArrayList<TopicAssignment> getData() { return data; }
+	public int[][] getTypeTopicCounts() { return typeTopicCounts; }
+	public int[] getTokensPerTopic() { return tokensPerTopic; }
 	
 	public void setNumIterations (int numIterations) {
 		this.numIterations = numIterations;
@@ -185,6 +203,32 @@ public class ParallelTopicModel implements Serializable {
 		this.numThreads = threads;
 	}
 
+	/**
+	 *  Synchronize threads by exchanging the topic reassignments made 
+	 *   in each iteration rather than by merging and copying the full
+	 *   type-topic counts. This is faster when few tokens change topic
+	 *   relative to the size of the vocabulary.
+	 */
+	public void setDeltaSync(boolean b) {
+		usingDeltaSync = b;
+	}
+
+	/**
+	 *  Sample with Metropolis-Hastings proposals drawn from alias tables 
+	 *   (see {@link AliasWorkerRunnable}) rather than with the SparseLDA
+	 *   sampler. Per-token cost does not depend on the number of topics.
+	 *
+	 *  @param steps The number of document/word proposal pairs per token.
+	 */
+	public void setAliasSampler(boolean b, int steps) {
+		usingAliasSampler = b;
+		mhSteps = steps;
+	}
+
+	public void setAliasSampler(boolean b) {
+		setAliasSampler(b, AliasWorkerRunnable.DEFAULT_MH_STEPS);
+	}
+
 	/** Define how often and where to save a text representation of the current state.
 	 *  Files are GZipped.
 	 *
@@ -206,6 +250,19 @@ public class ParallelTopicModel implements Serializable {
 		this.modelFilename = filename;
     }
 
+	/** Define how often and where to save a binary checkpoint of the sampling
+	 *   state, which can be restored with {@link #initializeFromCheckpoint(File)}.
+	 *  Sampling only pauses to copy the state: the file is written on a
+	 *   background thread.
+	 *
+	 * @param interval Save a checkpoint every <code>interval</code> iterations.
+	 * @param filename Save to this file, with the iteration number as a suffix
+	 */
+	public void setSaveCheckpoint(int interval, String filename) {
+		this.checkpointInterval = interval;
+		this.checkpointFilename = filename;
+	}
+
 	public void addInstances (InstanceList training) {
 
 		alphabet = training.getDataAlphabet();
@@ -227,6 +284,7 @@ public class ParallelTopicModel implements Serializable {
 				int type = tokens.getIndexAtPosition(position);
 				typeTotals[ type ]++;
 			}
+
 		}
 
 		maxTypeCount = 0;
@@ -243,10 +301,10 @@ public class ParallelTopicModel implements Serializable {
 
 		Randoms random = null;
 		if (randomSeed == -1) {
-			random = new Randoms();
+			random = new SplittableRandoms();
 		}
 		else {
-			random = new Randoms(randomSeed);
+			random = new SplittableRandoms(randomSeed);
 		}
 
 		for (Instance instance : training) {
@@ -313,6 +371,141 @@ public class ParallelTopicModel implements Serializable {
 		initializeHistograms();
 	}
 
+	/**
+	 *  Restore topic assignments, counts and hyperparameters from a checkpoint
+	 *   written during a previous call to <code>estimate()</code> on the same
+	 *   instances, which must already have been added with <code>addInstances</code>.
+	 *   The next call to <code>estimate()</code> continues from the iteration
+	 *   after the checkpoint.
+	 *  <p>
+	 *  With the same number of threads, the standard sampler and without
+	 *   delta synchronization, training then repeats the uninterrupted run
+	 *   exactly. Otherwise it continues from the same state with different
+	 *   random draws.
+	 */
+	public void initializeFromCheckpoint(File checkpointFile) throws IOException {
+		TopicModelCheckpoint checkpoint = TopicModelCheckpoint.read(checkpointFile);
+
+		if (checkpoint.numTopics != numTopics || checkpoint.numTypes != numTypes ||
+			checkpoint.numDocs != data.size() || checkpoint.totalTokens != totalTokens) {
+			throw new IllegalStateException("instance list and checkpoint do not match: checkpoint has " +
+											checkpoint.numTopics + " topics, " + checkpoint.numTypes + " types, " +
+											checkpoint.numDocs + " documents and " + checkpoint.totalTokens + " tokens");
+		}
+
+		checkpoint.unpackTopics(data);
+
+		// Copy the counts directly, rather than rebuilding them from the
+		//  assignments, so that ties are in the same order as before.
+		System.arraycopy(checkpoint.tokensPerTopic, 0, tokensPerTopic, 0, numTopics);
+		for (int type = 0; type < numTypes; type++) {
+			int[] savedCounts = checkpoint.typeTopicCounts[type];
+			int[] currentTypeTopicCounts = typeTopicCounts[type];
+			if (savedCounts.length > currentTypeTopicCounts.length) {
+				throw new IllegalStateException("checkpoint has too many topics for type " + type);
+			}
+			Arrays.fill(currentTypeTopicCounts, 0);
+			System.arraycopy(savedCounts, 0, currentTypeTopicCounts, 0, savedCounts.length);
+		}
+
+		System.arraycopy(checkpoint.alpha, 0, alpha, 0, numTopics);
+		alphaSum = checkpoint.alphaSum;
+		beta = checkpoint.beta;
+		betaSum = checkpoint.betaSum;
+
+		resumeCheckpoint = checkpoint;
+		logger.info("Restored checkpoint from iteration " + checkpoint.getIteration());
+	}
+
+	/**
+	 *  Copy the current sampling state. This is only safe between
+	 *   iterations, when the counts of all threads have been merged.
+	 */
+	protected TopicModelCheckpoint createCheckpoint(int iteration, WorkerRunnable[] runnables,
+													SplittableRandoms[] randoms) {
+		TopicModelCheckpoint checkpoint = new TopicModelCheckpoint();
+
+		checkpoint.iteration = iteration;
+		checkpoint.numTopics = numTopics;
+		checkpoint.numTypes = numTypes;
+		checkpoint.numDocs = data.size();
+		checkpoint.totalTokens = totalTokens;
+
+		checkpoint.alpha = alpha.clone();
+		checkpoint.alphaSum = alphaSum;
+		checkpoint.beta = beta;
+		checkpoint.betaSum = betaSum;
+
+		checkpoint.bitsPerTopic = Math.max(topicBits, 1);
+		checkpoint.packedTopics = TopicModelCheckpoint.packTopics(data, totalTokens, checkpoint.bitsPerTopic);
+
+		checkpoint.tokensPerTopic = tokensPerTopic.clone();
+		checkpoint.typeTopicCounts = new int[numTypes][];
+		for (int type = 0; type < numTypes; type++) {
+			int[] currentTypeTopicCounts = typeTopicCounts[type];
+			int size = 0;
+			while (size < currentTypeTopicCounts.length &&
+				   currentTypeTopicCounts[size] > 0) {
+				size++;
+			}
+			checkpoint.typeTopicCounts[type] = new int[size];
+			System.arraycopy(currentTypeTopicCounts, 0, checkpoint.typeTopicCounts[type], 0, size);
+		}
+
+		// Statistics collected since the last hyperparameter optimization
+		checkpoint.docLengthCounts = new int[docLengthCounts.length];
+		checkpoint.topicDocCounts = new int[numTopics][docLengthCounts.length];
+		for (int thread = 0; thread < runnables.length; thread++) {
+			int[] sourceLengthCounts = runnables[thread].getDocLengthCounts();
+			int[][] sourceTopicCounts = runnables[thread].getTopicDocCounts();
+			for (int count = 0; count < sourceLengthCounts.length; count++) {
+				checkpoint.docLengthCounts[count] += sourceLengthCounts[count];
+			}
+			for (int topic = 0; topic < numTopics; topic++) {
+				for (int count = 0; count < sourceTopicCounts[topic].length; count++) {
+					checkpoint.topicDocCounts[topic][count] += sourceTopicCounts[topic][count];
+				}
+			}
+		}
+
+		checkpoint.randomStates = new long[randoms.length][];
+		for (int thread = 0; thread < randoms.length; thread++) {
+			checkpoint.randomStates[thread] = randoms[thread].getState();
+		}
+
+		return checkpoint;
+	}
+
+	/** Writes a checkpoint on the background checkpoint thread */
+	private class CheckpointTask implements Callable<Object> {
+		TopicModelCheckpoint checkpoint;
+		File file;
+
+		public CheckpointTask (TopicModelCheckpoint checkpoint, File file) {
+			this.checkpoint = checkpoint;
+			this.file = file;
+		}
+
+		public Object call () throws IOException {
+			long startTime = System.currentTimeMillis();
+			checkpoint.write(file);
+			logger.fine("wrote checkpoint " + file + " in " + (System.currentTimeMillis() - startTime) + "ms");
+			return null;
+		}
+	}
+
+	/** Wait for the previous checkpoint, if any, to finish writing */
+	private void waitForCheckpoint (Future<Object> pendingCheckpoint) {
+		if (pendingCheckpoint == null) { return; }
+		try {
+			pendingCheckpoint.get();
+		} catch (ExecutionException ee) {
+			logger.warning("Unable to write checkpoint: " + ee.getCause());
+		} catch (InterruptedException ie) {
+			ie.printStackTrace();
+		}
+	}
+
 	public void buildInitialTypeTopicCounts () {
 
 		// Clear the topic totals
@@ -404,14 +597,38 @@ public class ParallelTopicModel implements Serializable {
 	
 
 	public void sumTypeTopicCounts (WorkerRunnable[] runnables) {
+		sumTokensPerTopic(runnables);
+		sumTypeTopicCounts(runnables, 0, numTypes);
+	}
+
+	/**
+	 *  Set the global topic totals to the sum of the runnables' totals.
+	 */
+	public void sumTokensPerTopic (WorkerRunnable[] runnables) {
 
 		// Clear the topic totals
 		Arrays.fill(tokensPerTopic, 0);
-		
+
+		for (int thread = 0; thread < numThreads; thread++) {
+
+			int[] sourceTotals = runnables[thread].getTokensPerTopic();
+			for (int topic = 0; topic < numTopics; topic++) {
+				tokensPerTopic[topic] += sourceTotals[topic];
+			}
+		}
+	}
+
+	/**
+	 *  Merge the runnables' type-topic counts into the global counts
+	 *   for types in the range [startType, endType). Calls on
+	 *   disjoint ranges touch disjoint arrays, so they can run in parallel.
+	 */
+	public void sumTypeTopicCounts (WorkerRunnable[] runnables, int startType, int endType) {
+
 		// Clear the type/topic counts, only 
 		//  looking at the entries before the first 0 entry.
 
-		for (int type = 0; type < numTypes; type++) {
+		for (int type = startType; type < endType; type++) {
 			
 			int[] targetCounts = typeTopicCounts[type];
 			
@@ -426,19 +643,12 @@ public class ParallelTopicModel implements Serializable {
 
 		for (int thread = 0; thread < numThreads; thread++) {
 
-			// Handle the total-tokens-per-topic array
-
-			int[] sourceTotals = runnables[thread].getTokensPerTopic();
-			for (int topic = 0; topic < numTopics; topic++) {
-				tokensPerTopic[topic] += sourceTotals[topic];
-			}
-			
 			// Now handle the individual type topic counts
 			
 			int[][] sourceTypeTopicCounts = 
 				runnables[thread].getTypeTopicCounts();
 			
-			for (int type = 0; type < numTypes; type++) {
+			for (int type = startType; type < endType; type++) {
 
 				// Here the source is the individual thread counts,
 				//  and the target is the global counts.
@@ -510,6 +720,166 @@ public class ParallelTopicModel implements Serializable {
 	}
 	
 
+	/**
+	 *  Overwrite each runnable's local type-topic counts and topic totals
+	 *   with the current global counts.
+	 */
+	public void copyTypeTopicCounts (WorkerRunnable[] runnables) {
+		copyTokensPerTopic(runnables);
+		copyTypeTopicCounts(runnables, 0, numTypes);
+	}
+
+	public void copyTokensPerTopic (WorkerRunnable[] runnables) {
+		for (int thread = 0; thread < numThreads; thread++) {
+			int[] runnableTotals = runnables[thread].getTokensPerTopic();
+			System.arraycopy(tokensPerTopic, 0, runnableTotals, 0, numTopics);
+		}
+	}
+
+	/**
+	 *  Overwrite each runnable's local type-topic counts with the 
+	 *   global counts for types in the range [startType, endType).
+	 */
+	public void copyTypeTopicCounts (WorkerRunnable[] runnables, int startType, int endType) {
+
+		for (int thread = 0; thread < numThreads; thread++) {
+			int[][] runnableCounts = runnables[thread].getTypeTopicCounts();
+			for (int type = startType; type < endType; type++) {
+				int[] targetCounts = runnableCounts[type];
+				int[] sourceCounts = typeTopicCounts[type];
+				
+				int index = 0;
+				while (index < sourceCounts.length) {
+					
+					if (sourceCounts[index] != 0) {
+						targetCounts[index] = sourceCounts[index];
+					}
+					else if (targetCounts[index] != 0) {
+						targetCounts[index] = 0;
+					}
+					else {
+						break;
+					}
+					
+					index++;
+				}
+			}
+		}
+	}
+
+	/**
+	 *  Apply every runnable's recorded topic reassignments to the 
+	 *   global type-topic counts and topic totals.
+	 */
+	public void applyDeltas (WorkerRunnable[] runnables) {
+		for (int thread = 0; thread < numThreads; thread++) {
+			WorkerRunnable.applyDeltas(runnables[thread].getDeltas(), runnables[thread].getNumDeltas(),
+									   typeTopicCounts, tokensPerTopic, topicMask, topicBits);
+		}
+	}
+
+	/**
+	 *  Split the vocabulary into <code>numRanges</code> contiguous 
+	 *   ranges of types with roughly equal amounts of type-topic count
+	 *   storage, so that merging can be divided evenly among threads.
+	 *
+	 *  @return An array of numRanges + 1 boundaries: range i is
+	 *   [ranges[i], ranges[i+1]).
+	 */
+	protected int[] partitionTypes (int numRanges) {
+		long totalSize = 0;
+		for (int type = 0; type < numTypes; type++) {
+			// Count every type at least once, so that long runs of
+			//  empty types still get spread out.
+			totalSize += typeTopicCounts[type].length + 1;
+		}
+
+		int[] ranges = new int[numRanges + 1];
+		int range = 1;
+		long size = 0;
+		for (int type = 0; type < numTypes && range < numRanges; type++) {
+			size += typeTopicCounts[type].length + 1;
+			if (size * numRanges >= totalSize * range) {
+				ranges[range] = type + 1;
+				range++;
+			}
+		}
+		while (range <= numRanges) {
+			ranges[range] = numTypes;
+			range++;
+		}
+
+		return ranges;
+	}
+
+	/**
+	 *  Merges or copies back the type-topic counts for one 
+	 *   slice of the vocabulary.
+	 */
+	private class TypeRangeTask implements Callable<Object> {
+		WorkerRunnable[] runnables;
+		int startType, endType;
+		boolean merging;
+
+		public TypeRangeTask (WorkerRunnable[] runnables, int startType, int endType, boolean merging) {
+			this.runnables = runnables;
+			this.startType = startType;
+			this.endType = endType;
+			this.merging = merging;
+		}
+
+		public Object call () {
+			if (merging) {
+				sumTypeTopicCounts(runnables, startType, endType);
+			}
+			else {
+				copyTypeTopicCounts(runnables, startType, endType);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 *  Applies the topic reassignments of all other runnables
+	 *   to one runnable's local counts.
+	 */
+	private class DeltaTask implements Callable<Object> {
+		WorkerRunnable[] runnables;
+		int target;
+
+		public DeltaTask (WorkerRunnable[] runnables, int target) {
+			this.runnables = runnables;
+			this.target = target;
+		}
+
+		public Object call () {
+			for (int thread = 0; thread < numThreads; thread++) {
+				if (thread != target) {
+					runnables[target].applyDeltas(runnables[thread].getDeltas(), 
+												  runnables[thread].getNumDeltas());
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 *  Run all tasks on the executor and wait for them to finish.
+	 */
+	private void runAll (ExecutorService executor, List<Callable<Object>> tasks) {
+		try {
+			List<Future<Object>> results = executor.invokeAll(tasks);
+			for (Future<Object> f : results) {
+				f.get();
+			}
+		} catch (ExecutionException ee) {
+			throw new IllegalStateException(ee.getCause());
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(ie);
+		}
+	}
+
 	/** 
 	 *  Gather statistics on the size of documents 
 	 *  and create histograms for use in Dirichlet hyperparameter
@@ -686,6 +1056,31 @@ public class ParallelTopicModel implements Serializable {
 		
 	}
 
+	/**
+	 *  Create a sampling task for a range of documents, using
+	 *   the sampler selected for this model.
+	 */
+	protected WorkerRunnable createRunnable (Randoms random,
+											 int[][] runnableCounts, int[] runnableTotals,
+											 int startDoc, int numDocs) {
+		if (usingAliasSampler) {
+			AliasWorkerRunnable runnable = 
+				new AliasWorkerRunnable(numTopics,
+										alpha, alphaSum, beta,
+										random, data,
+										runnableCounts, runnableTotals,
+										startDoc, numDocs);
+			runnable.setMHSteps(mhSteps);
+			return runnable;
+		}
+
+		return new WorkerRunnable(numTopics,
+								  alpha, alphaSum, beta,
+								  random, data,
+								  runnableCounts, runnableTotals,
+								  startDoc, numDocs);
+	}
+
 	public void estimate () throws IOException {
 
 		long startTime = System.currentTimeMillis();
@@ -695,6 +1090,34 @@ public class ParallelTopicModel implements Serializable {
 		int docsPerThread = data.size() / numThreads;
 		int offset = 0;
 
+		// Each thread gets its own unsynchronized random stream,
+		//  all split deterministically from the one seed.
+		SplittableRandoms seedRandom = null;
+		if (randomSeed == -1) {
+			seedRandom = new SplittableRandoms();
+		}
+		else {
+			seedRandom = new SplittableRandoms(randomSeed);
+		}
+		SplittableRandoms[] threadRandoms = seedRandom.split(numThreads);
+
+		TopicModelCheckpoint checkpoint = resumeCheckpoint;
+		resumeCheckpoint = null;
+		int firstIteration = 1;
+		if (checkpoint != null) {
+			firstIteration = checkpoint.getIteration() + 1;
+
+			if (checkpoint.getNumThreads() == numThreads) {
+				for (int thread = 0; thread < numThreads; thread++) {
+					threadRandoms[thread].setState(checkpoint.randomStates[thread]);
+				}
+			}
+			else {
+				logger.warning("Checkpoint was written with " + checkpoint.getNumThreads() +
+							   " threads, so sampling will not repeat the original run");
+			}
+		}
+
 		if (numThreads > 1) {
 		
 			for (int thread = 0; thread < numThreads; thread++) {
@@ -713,21 +1136,15 @@ public class ParallelTopicModel implements Serializable {
 					docsPerThread = data.size() - offset;
 				}
 				
-				Randoms random = null;
-				if (randomSeed == -1) {
-					random = new Randoms();
-				}
-				else {
-					random = new Randoms(randomSeed);
-				}
-
-				runnables[thread] = new WorkerRunnable(numTopics,
-													   alpha, alphaSum, beta,
-													   random, data,
-													   runnableCounts, runnableTotals,
-													   offset, docsPerThread);
+				runnables[thread] = createRunnable(threadRandoms[thread],
+												   runnableCounts, runnableTotals,
+												   offset, docsPerThread);
 				
 				runnables[thread].initializeAlphaStatistics(docLengthCounts.length);
+
+				if (usingDeltaSync) {
+					runnables[thread].recordDeltas();
+				}
 				
 				offset += docsPerThread;
 			
@@ -738,19 +1155,9 @@ public class ParallelTopicModel implements Serializable {
 			// If there is only one thread, copy the typeTopicCounts
 			//  arrays directly, rather than allocating new memory.
 
-			Randoms random = null;
-			if (randomSeed == -1) {
-				random = new Randoms();
-			}
-			else {
-				random = new Randoms(randomSeed);
-			}
-
-			runnables[0] = new WorkerRunnable(numTopics,
-											  alpha, alphaSum, beta,
-											  random, data,
-											  typeTopicCounts, tokensPerTopic,
-											  offset, docsPerThread);
+			runnables[0] = createRunnable(threadRandoms[0],
+										  typeTopicCounts, tokensPerTopic,
+										  offset, docsPerThread);
 
 			runnables[0].initializeAlphaStatistics(docLengthCounts.length);
 
@@ -761,9 +1168,58 @@ public class ParallelTopicModel implements Serializable {
 			runnables[0].makeOnlyThread();
 		}
 
+		if (checkpoint != null) {
+			// Restore the Dirichlet statistics gathered since the last
+			//  optimization. They are summed over threads when optimizing,
+			//  so it doesn't matter which runnable holds them.
+			int[] lengthCounts = runnables[0].getDocLengthCounts();
+			int[][] topicCounts = runnables[0].getTopicDocCounts();
+			System.arraycopy(checkpoint.docLengthCounts, 0, lengthCounts, 0, lengthCounts.length);
+			for (int topic = 0; topic < numTopics; topic++) {
+				System.arraycopy(checkpoint.topicDocCounts[topic], 0, topicCounts[topic], 0, topicCounts[topic].length);
+			}
+		}
+
+		// Checkpoints are written on their own thread. Only one is in 
+		//  flight at a time, so at most one extra copy of the state is held.
+		ExecutorService checkpointExecutor = null;
+		Future<Object> pendingCheckpoint = null;
+		if (checkpointInterval != 0) {
+			checkpointExecutor = Executors.newSingleThreadExecutor();
+		}
+
 		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+		// The same tasks are submitted in every iteration
+		List<Callable<Object>> samplingTasks = new ArrayList<Callable<Object>>(numThreads);
+		for (int thread = 0; thread < numThreads; thread++) {
+			samplingTasks.add(Executors.callable(runnables[thread]));
+		}
+
+		// Each thread merges and copies back the counts for its own 
+		//  slice of the vocabulary.
+		// In delta mode, each thread instead applies the other 
+		//  threads' reassignments to its own counts.
+		List<Callable<Object>> mergeTasks = new ArrayList<Callable<Object>>(numThreads);
+		List<Callable<Object>> copyTasks = new ArrayList<Callable<Object>>(numThreads);
+		if (numThreads > 1 && usingDeltaSync) {
+			for (int thread = 0; thread < numThreads; thread++) {
+				copyTasks.add(new DeltaTask(runnables, thread));
+			}
+		}
+		else if (numThreads > 1) {
+			int[] typeRanges = partitionTypes(numThreads);
+			for (int thread = 0; thread < numThreads; thread++) {
+				mergeTasks.add(new TypeRangeTask(runnables, typeRanges[thread], typeRanges[thread + 1], true));
+				copyTasks.add(new TypeRangeTask(runnables, typeRanges[thread], typeRanges[thread + 1], false));
+			}
+		}
+
+		totalSamplingNanos = 0;
+		totalMergeNanos = 0;
+		totalCopyNanos = 0;
 	
-		for (int iteration = 1; iteration <= numIterations; iteration++) {
+		for (int iteration = firstIteration; iteration <= numIterations; iteration++) {
 
 			long iterationStart = System.currentTimeMillis();
 
@@ -781,81 +1237,56 @@ public class ParallelTopicModel implements Serializable {
 
 			if (numThreads > 1) {
 			
-				// Submit runnables to thread pool
-				
 				for (int thread = 0; thread < numThreads; thread++) {
 					if (iteration > burninPeriod && optimizeInterval != 0 &&
 						iteration % saveSampleInterval == 0) {
 						runnables[thread].collectAlphaStatistics();
 					}
-					
-					logger.fine("submitting thread " + thread);
-					executor.submit(runnables[thread]);
-					//runnables[thread].run();
 				}
+
+				// Sampling phase: run all the workers and wait for 
+				//  every one of them to finish before touching the counts.
+				long phaseStart = System.nanoTime();
 				
-				// I'm getting some problems that look like 
-				//  a thread hasn't started yet when it is first
-				//  polled, so it appears to be finished. 
-				// This only occurs in very short corpora.
-				try {
-					Thread.sleep(20);
-				} catch (InterruptedException e) {
-					
+				logger.fine("submitting " + numThreads + " threads");
+				runAll(executor, samplingTasks);
+
+				long samplingNanos = System.nanoTime() - phaseStart;
+				totalSamplingNanos += samplingNanos;
+
+				// Merge phase: combine the per-thread counts into the global counts
+				phaseStart = System.nanoTime();
+				if (usingDeltaSync) {
+					applyDeltas(runnables);
+				}
+				else {
+					sumTokensPerTopic(runnables);
+					runAll(executor, mergeTasks);
 				}
+				long mergeNanos = System.nanoTime() - phaseStart;
+				totalMergeNanos += mergeNanos;
 				
-				boolean finished = false;
-				while (! finished) {
-					
-					try {
-						Thread.sleep(10);
-					} catch (InterruptedException e) {
-						
-					}
-					
-					finished = true;
-					
-					// Are all the threads done?
+				// Copy phase: push the global counts back to the workers
+				phaseStart = System.nanoTime();
+				if (usingDeltaSync) {
+					runAll(executor, copyTasks);
+
+					int totalDeltas = 0;
 					for (int thread = 0; thread < numThreads; thread++) {
-						//logger.info("thread " + thread + " done? " + runnables[thread].isFinished);
-						finished = finished && runnables[thread].isFinished;
+						totalDeltas += runnables[thread].getNumDeltas();
+						runnables[thread].clearDeltas();
 					}
-					
+					logger.fine("[" + totalDeltas + " reassignments] ");
 				}
-				
-				//System.out.print("[" + (System.currentTimeMillis() - iterationStart) + "] ");
-				
-				sumTypeTopicCounts(runnables);
-				
-				//System.out.print("[" + (System.currentTimeMillis() - iterationStart) + "] ");
-				
-				for (int thread = 0; thread < numThreads; thread++) {
-					int[] runnableTotals = runnables[thread].getTokensPerTopic();
-					System.arraycopy(tokensPerTopic, 0, runnableTotals, 0, numTopics);
-					
-					int[][] runnableCounts = runnables[thread].getTypeTopicCounts();
-					for (int type = 0; type < numTypes; type++) {
-						int[] targetCounts = runnableCounts[type];
-						int[] sourceCounts = typeTopicCounts[type];
-						
-						int index = 0;
-						while (index < sourceCounts.length) {
-							
-							if (sourceCounts[index] != 0) {
-								targetCounts[index] = sourceCounts[index];
-							}
-							else if (targetCounts[index] != 0) {
-								targetCounts[index] = 0;
-							}
-							else {
-								break;
-							}
-							
-							index++;
-						}
-						//System.arraycopy(typeTopicCounts[type], 0, counts, 0, counts.length);
-					}
+				else {
+					copyTokensPerTopic(runnables);
+					runAll(executor, copyTasks);
 				}
+				long copyNanos = System.nanoTime() - phaseStart;
+				totalCopyNanos += copyNanos;
+
+				logger.fine("[sample " + (samplingNanos / 1000000) + "ms, merge " + 
+							(mergeNanos / 1000000) + "ms, copy " + (copyNanos / 1000000) + "ms] ");
 			}
 			else {
 				if (iteration > burninPeriod && optimizeInterval != 0 &&
@@ -890,9 +1321,21 @@ public class ParallelTopicModel implements Serializable {
 					logger.info ("<" + iteration + ">");
 				}
 			}
+
+			if (checkpointInterval != 0 && iteration % checkpointInterval == 0) {
+				waitForCheckpoint(pendingCheckpoint);
+				pendingCheckpoint =
+					checkpointExecutor.submit(new CheckpointTask(createCheckpoint(iteration, runnables, threadRandoms),
+																 new File(checkpointFilename + '.' + iteration)));
+			}
 		}
 
 		executor.shutdownNow();
+
+		if (checkpointExecutor != null) {
+			waitForCheckpoint(pendingCheckpoint);
+			checkpointExecutor.shutdown();
+		}
 	
 		long seconds = Math.round((System.currentTimeMillis() - startTime)/1000.0);
 		long minutes = seconds / 60;	seconds %= 60;
@@ -905,6 +1348,11 @@ public class ParallelTopicModel implements Serializable {
 		if (hours != 0) { timeReport.append(hours); timeReport.append(" hours "); }
 		if (minutes != 0) { timeReport.append(minutes); timeReport.append(" minutes "); }
 		timeReport.append(seconds); timeReport.append(" seconds");
+
+		if (numThreads > 1) {
+			timeReport.append("\nSampling: " + (totalSamplingNanos / 1000000) + "ms, merging: " + 
+							  (totalMergeNanos / 1000000) + "ms, copying: " + (totalCopyNanos / 1000000) + "ms");
+		}
 		
 		logger.info(timeReport.toString());
 	}
@@ -1586,6 +2034,16 @@ public class ParallelTopicModel implements Serializable {
 		}
 	}
         
+	/**
+	 *  Write the counts, hyperparameters and alphabet in the binary format
+	 *   of {@link MappedTopicModel}, which {@link TopicInferencer#read(File)}
+	 *   opens without deserializing the counts onto the heap.
+	 */
+	public void writeMapped (File mappedModelFile) throws IOException {
+		MappedTopicModel.write(mappedModelFile, typeTopicCounts, tokensPerTopic,
+							   alpha, beta, betaSum, alphabet);
+	}
+
 	public static ParallelTopicModel read (File f) throws Exception {
 
 		ParallelTopicModel topicModel = null;
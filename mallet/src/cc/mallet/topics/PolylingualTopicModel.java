@@ -15,6 +15,7 @@ import java.text.NumberFormat;
 
 import cc.mallet.types.*;
 import cc.mallet.util.Randoms;
+import cc.mallet.util.SplittableRandoms;
 
 /**
  * Latent Dirichlet Allocation for loosely parallel corpora in arbitrary languages
@@ -105,7 +106,7 @@ public class PolylingualTopicModel implements Serializable {
 	}
 	
 	public PolylingualTopicModel (int numberOfTopics, double alphaSum) {
-		this (numberOfTopics, alphaSum, new Randoms());
+		this (numberOfTopics, alphaSum, new SplittableRandoms());
 	}
 	
 	private static LabelAlphabet newLabelAlphabet (int numTopics) {
@@ -178,7 +179,7 @@ public class PolylingualTopicModel implements Serializable {
 	}
 
 	public void setRandomSeed(int seed) {
-		random = new Randoms(seed);
+		random = new SplittableRandoms(seed);
 	}
 
 	public void setOptimizeInterval(int interval) {
@@ -75,7 +75,7 @@ public class SimpleLDA implements Serializable {
 	}
 	
 	public SimpleLDA (int numberOfTopics, double alphaSum, double beta) {
-		this (numberOfTopics, alphaSum, beta, new Randoms());
+		this (numberOfTopics, alphaSum, beta, new SplittableRandoms());
 	}
 	
 	private static LabelAlphabet newLabelAlphabet (int numTopics) {
@@ -120,7 +120,7 @@ public class SimpleLDA implements Serializable {
 	}
 
 	public void setRandomSeed(int seed) {
-		random = new Randoms(seed);
+		random = new SplittableRandoms(seed);
 	}
 	
 	public int[][] getTypeTopicCounts() { return typeTopicCounts; }
@@ -4,10 +4,21 @@ import cc.mallet.types.*;
 import cc.mallet.util.*;
 
 import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.*;
 import java.io.*;
 
 public class TopicInferencer implements Serializable {
 
+	private static Logger logger = MalletLogger.getLogger(TopicInferencer.class.getName());
+
+	// When inferring with several threads, instances are read in blocks
+	//  of this many documents per thread, so memory use is bounded.
+	public static final int DOCS_PER_THREAD_PER_BLOCK = 500;
+
 	protected int numTopics;
 
     // These values are used to encode type/topic counts as
@@ -24,6 +35,10 @@ public class TopicInferencer implements Serializable {
     protected int[][] typeTopicCounts;
     protected int[] tokensPerTopic;
 
+	// If the model was opened from a mapped file, the counts are
+	//  read from it and typeTopicCounts is null.
+	protected MappedTopicModel mappedModel = null;
+
 	Alphabet alphabet;
 
 	protected Randoms random = null;
@@ -64,11 +79,46 @@ public class TopicInferencer implements Serializable {
 			cachedCoefficients[topic] =  alpha[topic] / (tokensPerTopic[topic] + betaSum);
 		}
 
-		random = new Randoms();
+		random = new SplittableRandoms();
+	}
+
+	/**
+	 *  Create an inferencer that reads type/topic counts directly from
+	 *   a memory-mapped model, rather than from arrays on the heap.
+	 */
+	public TopicInferencer (MappedTopicModel model) {
+		this(new int[0][], model.getTokensPerTopic(), null,
+			 model.getAlpha(), model.getBeta(), model.getBetaSum());
+
+		mappedModel = model;
+		typeTopicCounts = null;
+		numTypes = model.getNumTypes();
+	}
+
+	public Alphabet getAlphabet() {
+		if (alphabet == null && mappedModel != null) {
+			alphabet = mappedModel.getAlphabet();
+		}
+		return alphabet;
+	}
+
+	/**
+	 *  Return the packed counts for a type, or null if the type is out of
+	 *   vocabulary or has no counts. For mapped models the counts are copied
+	 *   into <code>buffer</code>, which must have room for <code>numTopics</code> values.
+	 */
+	protected int[] getTypeTopicCounts(int type, int[] buffer) {
+		if (type >= numTypes) { return null; }
+
+		if (mappedModel != null) {
+			return mappedModel.getTypeTopicCounts(type, buffer) == 0 ? null : buffer;
+		}
+
+		return typeTopicCounts[type].length == 0 ? null : typeTopicCounts[type];
 	}
 
 	public void setRandomSeed(int seed) {
-		random = new Randoms(seed);
+		random = new SplittableRandoms(seed);
 	}
 
 	/**
@@ -80,6 +130,21 @@ public class TopicInferencer implements Serializable {
 	 */
 	public double[] getSampledDistribution(Instance instance, int numIterations,
 										   int thinning, int burnIn) {
+		return getSampledDistribution(instance, numIterations, thinning, burnIn,
+									  random, cachedCoefficients);
+	}
+
+	/**
+	 *  Sample a topic distribution using the given random number generator
+	 *   and coefficient cache, which must hold the smoothing-only values
+	 *   <code>alpha[t] / (tokensPerTopic[t] + betaSum)</code> and are
+	 *   restored to those values before returning. 
+	 *   Since the model's counts are only read, calls with 
+	 *   different generators and caches can run in parallel.
+	 */
+	protected double[] getSampledDistribution(Instance instance, int numIterations,
+											  int thinning, int burnIn,
+											  Randoms random, double[] cachedCoefficients) {
 
 		FeatureSequence tokens = (FeatureSequence) instance.getData();
 		int docLength = tokens.size();
@@ -91,16 +156,20 @@ public class TopicInferencer implements Serializable {
 		int type;
 		int[] currentTypeTopicCounts;
 
+		int[] mappedCountsBuffer = null;
+		if (mappedModel != null) {
+			mappedCountsBuffer = new int[numTopics];
+		}
+
 		// Initialize all positions to the most common topic
 		//  for that type.
 
 		for (int position = 0; position < docLength; position++) {
 			type = tokens.getIndexAtPosition(position);
+			currentTypeTopicCounts = getTypeTopicCounts(type, mappedCountsBuffer);
 
 			// Ignore out of vocabulary terms
-			if (type < numTypes && typeTopicCounts[type].length != 0) {
-
-				currentTypeTopicCounts = typeTopicCounts[type];
+			if (currentTypeTopicCounts != null) {
 
 				// This value should be a topic such that
 				//  no other topic has more tokens of this type
@@ -163,11 +232,12 @@ public class TopicInferencer implements Serializable {
 			for (int position = 0; position < docLength; position++) {
 				type = tokens.getIndexAtPosition(position);
 
+				currentTypeTopicCounts = getTypeTopicCounts(type, mappedCountsBuffer);
+
 				// ignore out-of-vocabulary terms
-				if (type >= numTypes || typeTopicCounts[type].length == 0) { continue; }
+				if (currentTypeTopicCounts == null) { continue; }
 
 				oldTopic = topics[position];
-				currentTypeTopicCounts = typeTopicCounts[type];
 
 				// Prepare to sample by adjusting existing counts.
 				// Note that we do not need to change the smoothing-only
@@ -405,57 +475,256 @@ public class TopicInferencer implements Serializable {
 										   File distributionsFile,
 										   int numIterations, int thinning, int burnIn,
 										   double threshold, int max) throws IOException {
+		writeInferredDistributions(instances, distributionsFile,
+								   numIterations, thinning, burnIn,
+								   threshold, max, 1);
+	}
+
+	/**
+	 *  Infer topics for the provided instances using several threads and
+	 *   write distributions to the provided file, in the order of the instances.
+	 *
+	 *  @param numThreads    The number of sampling threads. Each thread has its own
+	 *                        random number generator, seeded from this inferencer's.
+	 */
+	public void writeInferredDistributions(InstanceList instances,
+										   File distributionsFile,
+										   int numIterations, int thinning, int burnIn,
+										   double threshold, int max,
+										   int numThreads) throws IOException {
 
 		PrintWriter out = new PrintWriter(distributionsFile);
+		writeInferredDistributions(instances.iterator(), out,
+								   numIterations, thinning, burnIn,
+								   threshold, max, numThreads);
+		out.close();
+	}
+
+	/**
+	 *  Infer topics for a stream of instances and write distributions
+	 *   as each block of instances is finished. Only a bounded number of
+	 *   instances is held in memory at once, so the iterator may, for example,
+	 *   come from <code>Pipe.newIteratorFrom()</code> over a large text file.
+	 *   The writer is flushed but not closed.
+	 */
+	public void writeInferredDistributions(Iterator<Instance> instances,
+										   final PrintWriter out,
+										   int numIterations, int thinning, int burnIn,
+										   double threshold, int max,
+										   int numThreads) {
 
 		out.print ("#doc source topic proportion ...\n");
 
-        IDSorter[] sortedTopics = new IDSorter[ numTopics ];
+		final IDSorter[] sortedTopics = new IDSorter[ numTopics ];
 		for (int topic = 0; topic < numTopics; topic++) {
-            // Initialize the sorters with dummy values
+			// Initialize the sorters with dummy values
 			sortedTopics[topic] = new IDSorter(topic, topic);
-        }
+		}
 
 		if (max < 0 || max > numTopics) {
-            max = numTopics;
+			max = numTopics;
 		}
 
+		final int maxTopics = max;
+		final double minProportion = threshold;
+
+		if (numThreads <= 1) {
+			long startTime = System.currentTimeMillis();
+			int doc = 0;
+
+			while (instances.hasNext()) {
+				Instance instance = instances.next();
+
+				double[] topicDistribution =
+					getSampledDistribution(instance, numIterations,
+										   thinning, burnIn);
+				printDistribution(out, doc, instance, topicDistribution,
+								  sortedTopics, threshold, max);
+				doc++;
+			}
+
+			logThroughput(doc, startTime, 1);
+		}
+		else {
+			inferInParallel(instances, numIterations, thinning, burnIn, numThreads,
+							new DistributionHandler() {
+								public void handle(int doc, Instance instance, double[] topicDistribution) {
+									printDistribution(out, doc, instance, topicDistribution,
+													  sortedTopics, minProportion, maxTopics);
+								}
+							});
+		}
+
+		out.flush();
+	}
+
+	/**
+	 *  Infer topic distributions for all instances using several threads.
+	 *
+	 *  @return One distribution per instance, in the order of the instance list.
+	 */
+	public double[][] getSampledDistributions(InstanceList instances,
+											  int numIterations, int thinning, int burnIn,
+											  int numThreads) {
+		final double[][] distributions = new double[ instances.size() ][];
+
+		inferInParallel(instances.iterator(), numIterations, thinning, burnIn, numThreads,
+						new DistributionHandler() {
+							public void handle(int doc, Instance instance, double[] topicDistribution) {
+								distributions[doc] = topicDistribution;
+							}
+						});
+
+		return distributions;
+	}
+
+	/** Receives inferred distributions, in input order. */
+	protected interface DistributionHandler {
+		public void handle(int doc, Instance instance, double[] topicDistribution);
+	}
+
+	/**
+	 *  Infer distributions for a stream of instances. Instances are read in 
+	 *   blocks; within a block, thread <i>i</i> samples every 
+	 *   <code>numThreads</code>-th document starting from <i>i</i>, using its own
+	 *   random number generator, so results are reproducible for a given seed
+	 *   and number of threads. Each block is passed to the handler in order
+	 *   before the next block is read.
+	 */
+	protected void inferInParallel(Iterator<Instance> instances,
+								   int numIterations, int thinning, int burnIn,
+								   int numThreads, DistributionHandler handler) {
+
+		long startTime = System.currentTimeMillis();
+
+		if (numThreads < 1) { numThreads = 1; }
+
+		int blockSize = numThreads * DOCS_PER_THREAD_PER_BLOCK;
+		Instance[] block = new Instance[blockSize];
+		double[][] results = new double[blockSize][];
+
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numThreads);
+		for (int thread = 0; thread < numThreads; thread++) {
+			tasks.add(new InferenceTask(thread, numThreads, block, results,
+										numIterations, thinning, burnIn,
+										new SplittableRandoms(random.nextLong())));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
 		int doc = 0;
+		try {
+			while (instances.hasNext()) {
+
+				// Read the next block
+				int blockLength = 0;
+				while (blockLength < blockSize && instances.hasNext()) {
+					block[blockLength] = instances.next();
+					blockLength++;
+				}
+				for (int i = blockLength; i < blockSize; i++) {
+					block[i] = null;
+				}
 
-		for (Instance instance: instances) {
+				List<Future<Object>> futures = executor.invokeAll(tasks);
+				for (Future<Object> f : futures) {
+					f.get();
+				}
 
-			double[] topicDistribution =
-				getSampledDistribution(instance, numIterations,
-									   thinning, burnIn);
-			out.print (doc); out.print (' ');
+				for (int i = 0; i < blockLength; i++) {
+					handler.handle(doc, block[i], results[i]);
+					doc++;
+				}
+			}
+		} catch (ExecutionException ee) {
+			throw new IllegalStateException(ee.getCause());
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(ie);
+		} finally {
+			executor.shutdownNow();
+		}
 
-			// Print the Source field of the instance
-            if (instance.getSource() != null) {
-				out.print (instance.getSource());
-            } else if (instance.getName() != null) {
-				out.print (instance.getName());
-            }
-            else {
-                out.print ("null-source");
-            }
-            out.print (' ');
+		logThroughput(doc, startTime, numThreads);
+	}
 
-			for (int topic = 0; topic < numTopics; topic++) {
-                sortedTopics[topic].set(topic, topicDistribution[topic]);
-            }
-			Arrays.sort(sortedTopics);
+	private void logThroughput(int numDocs, long startTime, int numThreads) {
+		double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+		logger.info("Inferred " + numDocs + " documents in " + seconds + " seconds (" + 
+					Math.round(numDocs / Math.max(seconds, 0.001)) + " docs/sec, " + numThreads + " threads)");
+	}
 
-			for (int i = 0; i < max; i++) {
-                if (sortedTopics[i].getWeight() < threshold) { break; }
+	/**
+	 *  Samples every <code>numThreads</code>-th document in a block
+	 *   with a thread-local random number generator and coefficient cache.
+	 */
+	private class InferenceTask implements Callable<Object> {
+		int thread, numThreads;
+		Instance[] block;
+		double[][] results;
+		int numIterations, thinning, burnIn;
+		Randoms random;
+		double[] cachedCoefficients;
+
+		public InferenceTask(int thread, int numThreads,
+							 Instance[] block, double[][] results,
+							 int numIterations, int thinning, int burnIn,
+							 Randoms random) {
+			this.thread = thread;
+			this.numThreads = numThreads;
+			this.block = block;
+			this.results = results;
+			this.numIterations = numIterations;
+			this.thinning = thinning;
+			this.burnIn = burnIn;
+			this.random = random;
+
+			cachedCoefficients = new double[numTopics];
+			for (int topic=0; topic < numTopics; topic++) {
+				cachedCoefficients[topic] = alpha[topic] / (tokensPerTopic[topic] + betaSum);
+			}
+		}
 
-                out.print (sortedTopics[i].getID() + " " +
-						   sortedTopics[i].getWeight() + " ");
-            }
-            out.print (" \n");
-			doc++;
+		public Object call() {
+			for (int doc = thread; doc < block.length && block[doc] != null; doc += numThreads) {
+				results[doc] = getSampledDistribution(block[doc], numIterations, thinning, burnIn,
+													  random, cachedCoefficients);
+			}
+			return null;
 		}
+	}
 
-		out.close();
+	/**
+	 *  Write one line of the doc-topics output format.
+	 */
+	protected void printDistribution(PrintWriter out, int doc, Instance instance,
+									 double[] topicDistribution, IDSorter[] sortedTopics,
+									 double threshold, int max) {
+		out.print (doc); out.print (' ');
+
+		// Print the Source field of the instance
+		if (instance.getSource() != null) {
+			out.print (instance.getSource());
+		} else if (instance.getName() != null) {
+			out.print (instance.getName());
+		}
+		else {
+			out.print ("null-source");
+		}
+		out.print (' ');
+
+		for (int topic = 0; topic < numTopics; topic++) {
+			sortedTopics[topic].set(topic, topicDistribution[topic]);
+		}
+		Arrays.sort(sortedTopics);
+
+		for (int i = 0; i < max; i++) {
+			if (sortedTopics[i].getWeight() < threshold) { break; }
+
+			out.print (sortedTopics[i].getID() + " " +
+					   sortedTopics[i].getWeight() + " ");
+		}
+		out.print (" \n");
 	}
 
 	// Serialization
@@ -467,7 +736,7 @@ public class TopicInferencer implements Serializable {
     private void writeObject (ObjectOutputStream out) throws IOException {
 		out.writeInt (CURRENT_SERIAL_VERSION);
 
-        out.writeObject(alphabet);
+        out.writeObject(getAlphabet());
 
 		out.writeInt(numTopics);
 
@@ -480,7 +749,13 @@ public class TopicInferencer implements Serializable {
 		out.writeDouble(beta);
         out.writeDouble(betaSum);
 
-		out.writeObject(typeTopicCounts);
+		if (mappedModel != null) {
+			// Serializing a mapped model copies its counts onto the heap
+			out.writeObject(mappedModel.getTypeTopicCounts());
+		}
+		else {
+			out.writeObject(typeTopicCounts);
+		}
         out.writeObject(tokensPerTopic);
 
 		out.writeObject(random);
@@ -515,8 +790,16 @@ public class TopicInferencer implements Serializable {
 		cachedCoefficients = (double[]) in.readObject();
 	}
 
+	/**
+	 *  Read an inferencer, either serialized or in the memory-mapped
+	 *   format written by {@link ParallelTopicModel#writeMapped(File)}.
+	 */
 	public static TopicInferencer read (File f) throws Exception {
 
+		if (MappedTopicModel.isMappedModel(f)) {
+			return new TopicInferencer(MappedTopicModel.open(f));
+		}
+
         TopicInferencer inferencer = null;
 
 		ObjectInputStream ois = new ObjectInputStream (new FileInputStream(f));
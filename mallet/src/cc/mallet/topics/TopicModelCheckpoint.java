@@ -0,0 +1,256 @@
+/* Copyright (C) 2005 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.	For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.topics;
+
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+ * A binary snapshot of the sampling state of a {@link ParallelTopicModel}
+ *  at the end of an iteration: the topic assignments, packed several to an
+ *  int, the type/topic counts, the hyperparameters, the Dirichlet
+ *  statistics gathered since the last optimization and the state of
+ *  each thread's random number generator.
+ * <p>
+ * Taking a snapshot only copies arrays, so the (slower) writing can
+ *  happen on a background thread while sampling continues.
+ */
+
+public class TopicModelCheckpoint {
+
+	public static final int MAGIC = 0x4d544331; // "MTC1"
+	public static final int CURRENT_VERSION = 0;
+
+	protected int iteration;
+
+	protected int numTopics;
+	protected int numTypes;
+	protected int numDocs;
+	protected int totalTokens;
+
+	protected double[] alpha;
+	protected double alphaSum;
+	protected double beta;
+	protected double betaSum;
+
+	protected int bitsPerTopic;
+	protected int[] packedTopics;
+
+	protected int[] tokensPerTopic;
+	protected int[][] typeTopicCounts; // non-zero entries only
+
+	protected int[] docLengthCounts;
+	protected int[][] topicDocCounts;
+
+	protected long[][] randomStates; // one per sampling thread
+
+	protected TopicModelCheckpoint () {
+	}
+
+	public int getIteration () { return iteration; }
+	public int getNumThreads () { return randomStates.length; }
+
+	/** Pack topic assignments, in document order, <code>32 / bitsPerTopic</code> to an int */
+	protected static int[] packTopics (ArrayList<TopicAssignment> data, int totalTokens, int bitsPerTopic) {
+		int topicsPerInt = 32 / bitsPerTopic;
+		int[] packed = new int[ (totalTokens + topicsPerInt - 1) / topicsPerInt ];
+
+		int token = 0;
+		for (TopicAssignment document : data) {
+			int[] topics = document.topicSequence.getFeatures();
+			for (int position = 0; position < topics.length; position++) {
+				packed[token / topicsPerInt] |= topics[position] << ((token % topicsPerInt) * bitsPerTopic);
+				token++;
+			}
+		}
+
+		return packed;
+	}
+
+	/** Copy the packed topic assignments back into the documents */
+	protected void unpackTopics (ArrayList<TopicAssignment> data) {
+		int topicsPerInt = 32 / bitsPerTopic;
+		int mask = bitsPerTopic == 32 ? -1 : (1 << bitsPerTopic) - 1;
+
+		int token = 0;
+		for (TopicAssignment document : data) {
+			int[] topics = document.topicSequence.getFeatures();
+			for (int position = 0; position < topics.length; position++) {
+				topics[position] =
+					(packedTopics[token / topicsPerInt] >>> ((token % topicsPerInt) * bitsPerTopic)) & mask;
+				token++;
+			}
+		}
+	}
+
+	/**
+	 *  Write to a temporary file and then rename it, so that a crash
+	 *   while writing never leaves a truncated checkpoint behind.
+	 */
+	public void write (File file) throws IOException {
+		File temporaryFile = new File(file.getPath() + ".tmp");
+
+		DataOutputStream out =
+			new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(CURRENT_VERSION);
+
+			out.writeInt(iteration);
+			out.writeInt(numTopics);
+			out.writeInt(numTypes);
+			out.writeInt(numDocs);
+			out.writeInt(totalTokens);
+
+			out.writeDouble(alphaSum);
+			out.writeDouble(beta);
+			out.writeDouble(betaSum);
+			writeDoubles(out, alpha);
+
+			out.writeInt(bitsPerTopic);
+			writeInts(out, packedTopics);
+
+			writeInts(out, tokensPerTopic);
+			for (int type = 0; type < numTypes; type++) {
+				writeInts(out, typeTopicCounts[type]);
+			}
+
+			writeSparse(out, docLengthCounts);
+			out.writeInt(topicDocCounts.length);
+			for (int topic = 0; topic < topicDocCounts.length; topic++) {
+				writeSparse(out, topicDocCounts[topic]);
+			}
+
+			out.writeInt(randomStates.length);
+			for (int thread = 0; thread < randomStates.length; thread++) {
+				out.writeLong(randomStates[thread][0]);
+				out.writeLong(randomStates[thread][1]);
+			}
+		} finally {
+			out.close();
+		}
+
+		// File.renameTo does not replace an existing file on all platforms
+		if (file.exists() && ! file.delete()) {
+			throw new IOException("Couldn't replace checkpoint " + file);
+		}
+		if (! temporaryFile.renameTo(file)) {
+			throw new IOException("Couldn't rename " + temporaryFile + " to " + file);
+		}
+	}
+
+	public static TopicModelCheckpoint read (File file) throws IOException {
+		DataInputStream in =
+			new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(file + " is not a topic model checkpoint");
+			}
+			int version = in.readInt();
+			if (version > CURRENT_VERSION) {
+				throw new IOException(file + " has unsupported version " + version);
+			}
+
+			TopicModelCheckpoint checkpoint = new TopicModelCheckpoint();
+
+			checkpoint.iteration = in.readInt();
+			checkpoint.numTopics = in.readInt();
+			checkpoint.numTypes = in.readInt();
+			checkpoint.numDocs = in.readInt();
+			checkpoint.totalTokens = in.readInt();
+
+			checkpoint.alphaSum = in.readDouble();
+			checkpoint.beta = in.readDouble();
+			checkpoint.betaSum = in.readDouble();
+			checkpoint.alpha = readDoubles(in);
+
+			checkpoint.bitsPerTopic = in.readInt();
+			checkpoint.packedTopics = readInts(in);
+
+			checkpoint.tokensPerTopic = readInts(in);
+			checkpoint.typeTopicCounts = new int[checkpoint.numTypes][];
+			for (int type = 0; type < checkpoint.numTypes; type++) {
+				checkpoint.typeTopicCounts[type] = readInts(in);
+			}
+
+			checkpoint.docLengthCounts = readSparse(in);
+			checkpoint.topicDocCounts = new int[in.readInt()][];
+			for (int topic = 0; topic < checkpoint.topicDocCounts.length; topic++) {
+				checkpoint.topicDocCounts[topic] = readSparse(in);
+			}
+
+			checkpoint.randomStates = new long[in.readInt()][2];
+			for (int thread = 0; thread < checkpoint.randomStates.length; thread++) {
+				checkpoint.randomStates[thread][0] = in.readLong();
+				checkpoint.randomStates[thread][1] = in.readLong();
+			}
+
+			return checkpoint;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeInts (DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for (int i = 0; i < values.length; i++) {
+			out.writeInt(values[i]);
+		}
+	}
+
+	private static int[] readInts (DataInputStream in) throws IOException {
+		int[] values = new int[in.readInt()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.readInt();
+		}
+		return values;
+	}
+
+	private static void writeDoubles (DataOutputStream out, double[] values) throws IOException {
+		out.writeInt(values.length);
+		for (int i = 0; i < values.length; i++) {
+			out.writeDouble(values[i]);
+		}
+	}
+
+	private static double[] readDoubles (DataInputStream in) throws IOException {
+		double[] values = new double[in.readInt()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.readDouble();
+		}
+		return values;
+	}
+
+	/** Histograms are mostly zeros, so store (index, value) pairs */
+	private static void writeSparse (DataOutputStream out, int[] values) throws IOException {
+		int nonZero = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != 0) { nonZero++; }
+		}
+
+		out.writeInt(values.length);
+		out.writeInt(nonZero);
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != 0) {
+				out.writeInt(i);
+				out.writeInt(values[i]);
+			}
+		}
+	}
+
+	private static int[] readSparse (DataInputStream in) throws IOException {
+		int[] values = new int[in.readInt()];
+		int nonZero = in.readInt();
+		for (int i = 0; i < nonZero; i++) {
+			int index = in.readInt();
+			values[index] = in.readInt();
+		}
+		return values;
+	}
+
+}
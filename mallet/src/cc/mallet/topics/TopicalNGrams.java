@@ -13,6 +13,7 @@ import java.io.*;
 
 import cc.mallet.types.*;
 import cc.mallet.util.Randoms;
+import cc.mallet.util.SplittableRandoms;
 
 /**
  * Like Latent Dirichlet Allocation, but with integrated phrase discovery.
@@ -581,7 +582,7 @@ public class TopicalNGrams {
 		int numTopWords = args.length > 2 ? Integer.parseInt(args[2]) : 20;
 		System.out.println ("Data loaded.");
 		TopicalNGrams tng = new TopicalNGrams (10);
-		tng.estimate (ilist, 200, 1, 0, null, new Randoms());
+		tng.estimate (ilist, 200, 1, 0, null, new SplittableRandoms());
 		tng.printTopWords (60, true);
 	}
 
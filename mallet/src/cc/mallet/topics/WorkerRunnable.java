@@ -58,6 +58,12 @@ public class WorkerRunnable implements Runnable {
 
 	boolean shouldSaveState = false;
 	boolean shouldBuildLocalCounts = true;
+
+	// When recording deltas, every token reassignment made during
+	//  an iteration is stored as a (type, old topic, new topic) triple.
+	boolean shouldRecordDeltas = false;
+	protected int[] deltas;
+	protected int numDeltas = 0;
 	
 	protected Randoms random;
 	
@@ -114,6 +120,26 @@ public class WorkerRunnable implements Runnable {
 		shouldBuildLocalCounts = false;
 	}
 
+	/**
+	 *  Instead of rebuilding local type-topic counts from this worker's
+	 *   documents after every iteration, keep the counts as they are and
+	 *   record each topic reassignment. The model is then responsible for
+	 *   applying the other workers' deltas to this worker's counts.
+	 */
+	public void recordDeltas() {
+		shouldBuildLocalCounts = false;
+		shouldRecordDeltas = true;
+		if (deltas == null) {
+			deltas = new int[3 * 1024];
+		}
+	}
+
+	/** Returns (type, old topic, new topic) triples, packed in order. */
+	public int[] getDeltas() { return deltas; }
+	/** Returns the number of triples in <code>getDeltas()</code>. */
+	public int getNumDeltas() { return numDeltas; }
+	public void clearDeltas() { numDeltas = 0; }
+
 	public int[] getTokensPerTopic() { return tokensPerTopic; }
 	public int[][] getTypeTopicCounts() { return typeTopicCounts; }
 
@@ -134,6 +160,111 @@ public class WorkerRunnable implements Runnable {
 		this.betaSum = betaSum;
 	}
 
+	/**
+	 *  Apply another worker's topic reassignments to this worker's
+	 *   type-topic counts and topic totals.
+	 */
+	public void applyDeltas(int[] sourceDeltas, int numSourceDeltas) {
+		applyDeltas(sourceDeltas, numSourceDeltas, 
+					typeTopicCounts, tokensPerTopic, topicMask, topicBits);
+	}
+
+	/**
+	 *  Apply (type, old topic, new topic) triples to a set of
+	 *   packed count/topic arrays, keeping each array sorted.
+	 */
+	public static void applyDeltas(int[] deltas, int numDeltas,
+								   int[][] typeTopicCounts, int[] tokensPerTopic,
+								   int topicMask, int topicBits) {
+
+		for (int delta = 0; delta < numDeltas; delta++) {
+			int type = deltas[3 * delta];
+			int oldTopic = deltas[3 * delta + 1];
+			int newTopic = deltas[3 * delta + 2];
+
+			tokensPerTopic[oldTopic]--;
+			tokensPerTopic[newTopic]++;
+
+			decrementTypeTopicCount(typeTopicCounts[type], oldTopic, topicMask, topicBits);
+			incrementTypeTopicCount(typeTopicCounts[type], newTopic, topicMask, topicBits);
+		}
+	}
+
+	/**
+	 *  Remove one token of <code>topic</code> from a packed count/topic 
+	 *   array, keeping the array sorted. The topic must be present.
+	 */
+	public static void decrementTypeTopicCount(int[] currentTypeTopicCounts, int topic,
+											   int topicMask, int topicBits) {
+
+		// We know it's in there somewhere, so we don't need bounds checking.
+		int index = 0;
+		while ((currentTypeTopicCounts[index] & topicMask) != topic) {
+			index++;
+		}
+
+		int currentValue = (currentTypeTopicCounts[index] >> topicBits) - 1;
+		if (currentValue == 0) {
+			currentTypeTopicCounts[index] = 0;
+		}
+		else {
+			currentTypeTopicCounts[index] = (currentValue << topicBits) + topic;
+		}
+
+		// Shift the reduced value to the right, if necessary.
+		while (index < currentTypeTopicCounts.length - 1 && 
+			   currentTypeTopicCounts[index] < currentTypeTopicCounts[index + 1]) {
+			int temp = currentTypeTopicCounts[index];
+			currentTypeTopicCounts[index] = currentTypeTopicCounts[index + 1];
+			currentTypeTopicCounts[index + 1] = temp;
+			index++;
+		}
+	}
+
+	/**
+	 *  Add one token of <code>topic</code> to a packed count/topic
+	 *   array, keeping the array sorted.
+	 */
+	public static void incrementTypeTopicCount(int[] currentTypeTopicCounts, int topic,
+											   int topicMask, int topicBits) {
+
+		// Move to the position for the topic, which may be the first 
+		//  empty position if this is a new topic for this word.
+		int index = 0;
+		while (currentTypeTopicCounts[index] > 0 &&
+			   (currentTypeTopicCounts[index] & topicMask) != topic) {
+			index++;
+		}
+
+		int currentValue = (currentTypeTopicCounts[index] >> topicBits) + 1;
+		currentTypeTopicCounts[index] = (currentValue << topicBits) + topic;
+
+		// Bubble the increased value left, if necessary
+		while (index > 0 &&
+			   currentTypeTopicCounts[index] > currentTypeTopicCounts[index - 1]) {
+			int temp = currentTypeTopicCounts[index];
+			currentTypeTopicCounts[index] = currentTypeTopicCounts[index - 1];
+			currentTypeTopicCounts[index - 1] = temp;
+			index--;
+		}
+	}
+
+	/**
+	 *  Record that a token of <code>type</code> moved from
+	 *   <code>oldTopic</code> to <code>newTopic</code>.
+	 */
+	protected void recordDelta(int type, int oldTopic, int newTopic) {
+		if (3 * numDeltas + 3 > deltas.length) {
+			int[] newDeltas = new int[2 * deltas.length];
+			System.arraycopy(deltas, 0, newDeltas, 0, 3 * numDeltas);
+			deltas = newDeltas;
+		}
+		deltas[3 * numDeltas] = type;
+		deltas[3 * numDeltas + 1] = oldTopic;
+		deltas[3 * numDeltas + 2] = newTopic;
+		numDeltas++;
+	}
+
 	/**
 	 *  Once we have sampled the local counts, trash the 
 	 *   "global" type topic counts and reuse the space to 
@@ -594,6 +725,10 @@ public class WorkerRunnable implements Runnable {
 			//			Put that new topic into the counts
 			oneDocTopics[position] = newTopic;
 
+			if (shouldRecordDeltas && newTopic != oldTopic) {
+				recordDelta(type, oldTopic, newTopic);
+			}
+
 			smoothingOnlyMass -= alpha[newTopic] * beta / 
 				(tokensPerTopic[newTopic] + betaSum);
 			topicBetaMass -= beta * localTopicCounts[newTopic] /
@@ -2,15 +2,21 @@ package cc.mallet.topics.tui;
 
 import cc.mallet.util.*;
 import cc.mallet.types.*;
+import cc.mallet.pipe.*;
+import cc.mallet.pipe.iterator.*;
 import cc.mallet.topics.*;
 
+import java.util.Iterator;
+import java.util.regex.*;
 import java.io.*;
+import java.nio.charset.Charset;
 
 public class InferTopics {
 
     static CommandOption.String inferencerFilename = new CommandOption.String
         (InferTopics.class, "inferencer", "FILENAME", true, null,
-		 "A serialized topic inferencer from a trained topic model.\n" + 
+		 "A serialized topic inferencer from a trained topic model, or a file written with\n" +
+		 "Vectors2Topics --mapped-inferencer-filename.\n" + 
          "By default this is null, indicating that no file will be read.", null);
 
 	static CommandOption.String inputFile = new CommandOption.String
@@ -19,6 +25,29 @@ public class InferTopics {
 		 "for which topics should be inferred.  Use - for stdin.  " +
 		 "The instances must be FeatureSequence or FeatureSequenceWithBigrams, not FeatureVector", null);
 	
+	static CommandOption.File usePipeFromVectorsFile = new CommandOption.File
+		(InferTopics.class, "use-pipe-from", "FILE", true, null,
+		 "Rather than loading an instance list, treat --input as a text file with one\n" +
+		 "document per line, and stream it through the pipe of this previously created\n" +
+		 "vectors file (or serialized pipe). Only a bounded number of documents is held in memory.", null);
+
+	static CommandOption.String lineRegex = new CommandOption.String
+		(InferTopics.class, "line-regex", "REGEX", true, "^(\\S*)[\\s,]*(.*)$",
+		 "With --use-pipe-from, a regular expression containing regex-groups for name and data.", null);
+
+	static CommandOption.Integer nameOption = new CommandOption.Integer
+		(InferTopics.class, "name", "INTEGER", true, 1,
+		 "With --use-pipe-from, the index of the group containing the instance name.\n" +
+		 "   Use 0 to indicate that the name field is not used.", null);
+
+	static CommandOption.Integer dataOption = new CommandOption.Integer
+		(InferTopics.class, "data", "INTEGER", true, 2,
+		 "With --use-pipe-from, the index of the group containing the data.", null);
+
+	static CommandOption.String encoding = new CommandOption.String
+		(InferTopics.class, "encoding", "STRING", true, Charset.defaultCharset().displayName(),
+		 "With --use-pipe-from, the character encoding for the input file", null);
+
     static CommandOption.String docTopicsFile = new CommandOption.String
         (InferTopics.class, "output-doc-topics", "FILENAME", true, null,
          "The filename in which to write the inferred topic\n" +
@@ -52,6 +81,10 @@ public class InferTopics {
         (InferTopics.class, "random-seed", "INTEGER", true, 0,
          "The random seed for the Gibbs sampler.  Default is 0, which will use the clock.", null);
 
+    static CommandOption.Integer numThreads = new CommandOption.Integer
+        (InferTopics.class, "num-threads", "INTEGER", true, 1,
+         "The number of threads for parallel inference.", null);
+
 	public static void main (String[] args) {
 
         // Process the command-line options                                                                           
@@ -74,13 +107,59 @@ public class InferTopics {
 			TopicInferencer inferencer = 
 				TopicInferencer.read(new File(inferencerFilename.value));
 
-			InstanceList instances = InstanceList.load (new File(inputFile.value));
-
-			inferencer.writeInferredDistributions(instances, new File(docTopicsFile.value),
-												  numIterations.value, sampleInterval.value,
-												  burnInIterations.value,
-												  docTopicsThreshold.value, docTopicsMax.value);
-			
+			if (randomSeed.value != 0) {
+				inferencer.setRandomSeed(randomSeed.value);
+			}
+
+			if (usePipeFromVectorsFile.value != null) {
+
+				// Stream text through the training pipe
+				Pipe pipe = null;
+				ObjectInputStream ois =
+					new ObjectInputStream (new BufferedInputStream(new FileInputStream (usePipeFromVectorsFile.value)));
+				Object object = ois.readObject();
+				ois.close();
+
+				if (object instanceof InstanceList) {
+					pipe = ((InstanceList) object).getPipe();
+				}
+				else {
+					pipe = (Pipe) object;
+				}
+
+				// Words that were not seen in training have no topic counts,
+				//  so don't let the alphabet grow.
+				pipe.getDataAlphabet().stopGrowth();
+
+				Reader fileReader;
+				if (inputFile.value.equals ("-")) {
+					fileReader = new InputStreamReader (System.in, encoding.value);
+				}
+				else {
+					fileReader = new InputStreamReader(new FileInputStream(inputFile.value), encoding.value);
+				}
+
+				Iterator<Instance> csvIterator = 
+					new CsvIterator (fileReader, Pattern.compile(lineRegex.value),
+									 dataOption.value, 0, nameOption.value);
+
+				PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(docTopicsFile.value)));
+				inferencer.writeInferredDistributions(pipe.newIteratorFrom(csvIterator), out,
+													  numIterations.value, sampleInterval.value,
+													  burnInIterations.value,
+													  docTopicsThreshold.value, docTopicsMax.value,
+													  numThreads.value);
+				out.close();
+			}
+			else {
+				InstanceList instances = InstanceList.load (new File(inputFile.value));
+
+				inferencer.writeInferredDistributions(instances, new File(docTopicsFile.value),
+													  numIterations.value, sampleInterval.value,
+													  burnInIterations.value,
+													  docTopicsThreshold.value, docTopicsMax.value,
+													  numThreads.value);
+			}
 
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -53,6 +53,13 @@ public class Vectors2Topics {
          "A topic inferencer applies a previously trained topic model to new documents.  " +
          "By default this is null, indicating that no file will be written.", null);
 
+    static CommandOption.String mappedInferencerFilename = new CommandOption.String
+        (Vectors2Topics.class, "mapped-inferencer-filename", "FILENAME", true, null,
+         "Write the inferencer in a binary format that is memory-mapped when read, " +
+         "so that large models open quickly and keep their counts off the heap.  " +
+         "It can be used anywhere an --inferencer-filename file can.  " +
+         "By default this is null, indicating that no file will be written.", null);
+
     static CommandOption.String evaluatorFilename = new CommandOption.String
         (Vectors2Topics.class, "evaluator-filename", "FILENAME", true, null,
          "A held-out likelihood evaluator for new documents.  " +
@@ -112,6 +119,20 @@ public class Vectors2Topics {
 		(Vectors2Topics.class, "num-threads", "INTEGER", true, 1,
 		 "The number of threads for parallel training.", null);
 
+	static CommandOption.Boolean useDeltaSync = new CommandOption.Boolean
+		(Vectors2Topics.class, "use-delta-sync", "true|false", false, false,
+		 "When training with multiple threads, synchronize threads by exchanging topic reassignments " +
+		 "rather than copying the full word-topic counts after every iteration.", null);
+
+	static CommandOption.Boolean useAliasSampler = new CommandOption.Boolean
+		(Vectors2Topics.class, "use-alias-sampler", "true|false", false, false,
+		 "Sample topics with Metropolis-Hastings proposals from alias tables (LightLDA) rather than SparseLDA. " +
+		 "Per-token cost does not grow with the number of topics, which helps for models with thousands of topics.", null);
+
+	static CommandOption.Integer mhSteps = new CommandOption.Integer
+		(Vectors2Topics.class, "mh-steps", "INTEGER", true, 2,
+		 "When using --use-alias-sampler, the number of Metropolis-Hastings steps per token.", null);
+
 	static CommandOption.Integer numIterations = new CommandOption.Integer
 		(Vectors2Topics.class, "num-iterations", "INTEGER", true, 1000,
 		 "The number of iterations of Gibbs sampling.", null);
@@ -138,6 +159,21 @@ public class Vectors2Topics {
          "The number of iterations between writing the sampling state to a text file.  " +
          "You must also set the --output-state to use this option, whose argument will be the prefix of the filenames.", null);
 
+    static CommandOption.String checkpointFile = new CommandOption.String
+        (Vectors2Topics.class, "output-checkpoint", "FILENAME", true, null,
+         "The prefix of binary checkpoint files, written in the background every --output-checkpoint-interval iterations.  " +
+         "By default this is null, indicating that no file will be written.", null);
+
+    static CommandOption.Integer checkpointInterval = new CommandOption.Integer
+        (Vectors2Topics.class, "output-checkpoint-interval", "INTEGER", true, 0,
+         "The number of iterations between writing binary checkpoints, which can be resumed with --input-checkpoint.  " +
+         "You must also set --output-checkpoint to use this option.", null);
+
+    static CommandOption.String inputCheckpointFile = new CommandOption.String
+        (Vectors2Topics.class, "input-checkpoint", "FILENAME", true, null,
+         "A checkpoint written by --output-checkpoint for the same --input, from which to resume training.  " +
+         "By default this is null, indicating that training starts from a random state.", null);
+
     static CommandOption.Integer optimizeInterval = new CommandOption.Integer
         (Vectors2Topics.class, "optimize-interval", "INTEGER", true, 0,
          "The number of iterations between reestimating dirichlet hyperparameters.", null);
@@ -393,6 +429,10 @@ public class Vectors2Topics {
 				}
 
 				topicModel.addInstances(training);
+
+				if (inputCheckpointFile.value != null) {
+					topicModel.initializeFromCheckpoint(new File(inputCheckpointFile.value));
+				}
 			}
 
 			topicModel.setTopicDisplay(showTopicsInterval.value, topWords.value);
@@ -416,7 +456,13 @@ public class Vectors2Topics {
 				topicModel.setSaveSerializedModel(outputModelInterval.value, outputModelFilename.value);
 			}
 
+			if (checkpointInterval.value != 0) {
+				topicModel.setSaveCheckpoint(checkpointInterval.value, checkpointFile.value);
+			}
+
 			topicModel.setNumThreads(numThreads.value);
+			topicModel.setDeltaSync(useDeltaSync.value);
+			topicModel.setAliasSampler(useAliasSampler.value, mhSteps.value);
 
 			topicModel.estimate();
 
@@ -483,6 +529,14 @@ public class Vectors2Topics {
 					
 			}
 
+			if (mappedInferencerFilename.value != null) {
+				try {
+					topicModel.writeMapped(new File(mappedInferencerFilename.value));
+				} catch (Exception e) {
+					System.err.println(e.getMessage());
+				}
+			}
+
 			if (evaluatorFilename.value != null) {
 				try {
 
@@ -23,6 +23,7 @@ import java.util.Collection;
 import cc.mallet.types.Multinomial;
 import cc.mallet.util.Maths;
 import cc.mallet.util.Randoms;
+import cc.mallet.util.SplittableRandoms;
 
 /** 
  *	Various useful functions related to Dirichlet distributions.
@@ -163,7 +164,7 @@ public class Dirichlet {
 
 	private void initRandom() {
 		if (random == null) {
-			random = new Randoms();
+			random = new SplittableRandoms();
 		}
 	}
 
@@ -15,6 +15,9 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Logger;
 
 import cc.mallet.util.MalletLogger;
@@ -49,6 +52,9 @@ public class GainRatio extends RankedFeatureVector
 	private static final long serialVersionUID = 1L;
 	
 	public static final double log2 = Math.log(2);
+
+	// Number of features whose split points are found together, sharing one histogram
+	static final int FEATURE_BLOCK_SIZE = 1024;
 	
 	double[] m_splitPoints;
 	double m_baseEntropy;
@@ -69,10 +75,22 @@ public class GainRatio extends RankedFeatureVector
 	 */
 	protected static Object[] calcGainRatios(InstanceList ilist, int[] instIndices, int minNumInsts)
 	{
-		int numInsts = instIndices.length;
+		return calcGainRatios(ilist, instIndices, minNumInsts, null, 1, null);
+	}
+
+	/**
+	 * As above, but divides the features among <code>numThreads</code> threads run on
+	 * <code>executor</code>, and if <code>bins</code> is non-null, only considers split
+	 * points between the bins of each feature, found from a histogram of the instances'
+	 * bins instead of by sorting them.
+	 */
+	protected static Object[] calcGainRatios(final InstanceList ilist, final int[] instIndices, 
+			final int minNumInsts, final FeatureBins bins, int numThreads, ExecutorService executor)
+	{
+		final int numInsts = instIndices.length;
 		Alphabet dataDict = ilist.getDataAlphabet();
 		LabelAlphabet targetDict = (LabelAlphabet) ilist.getTargetAlphabet();
-		double[] targetCounts = new double[targetDict.size()];
+		final double[] targetCounts = new double[targetDict.size()];
 
 		// Accumulate target label counts and make sure
 		// the sum of each instance's target label is 1
@@ -92,108 +110,66 @@ public class GainRatio extends RankedFeatureVector
 		// Calculate the base entropy Info(D) and the the 
 		// label distribution of the given instances
 		double[] targetDistribution = new double[targetDict.size()];
-		double baseEntropy = 0;
+		double entropy = 0;
 		for (int ci = 0; ci < targetDict.size(); ci++) {
 			double p = targetCounts[ci] / numInsts;
 			targetDistribution[ci] = p;
 			if (p > 0)
-				baseEntropy -= p * Math.log(p) / log2;
+				entropy -= p * Math.log(p) / log2;
 		}
 
+		final double baseEntropy = entropy;
+
 		LabelVector baseLabelDistribution = new LabelVector(targetDict, targetDistribution);
-		double infoGainSum = 0;
-		int totalNumSplitPoints = 0;
-		double[] passTestTargetCounts = new double[targetDict.size()];
 		// Maps feature index -> Hashtable, and each table 
 		// maps (split point) -> (info gain, split ratio)
-		Hashtable[] featureToInfo = new Hashtable[dataDict.size()]; 
-		
-		// Go through each feature's split points in ascending order
-		for (int fi = 0; fi < dataDict.size(); fi++) {
-			
-			if ((fi+1) % 1000 == 0)
-				logger.info("at feature " + (fi+1) + " / " + dataDict.size());
-			
-			featureToInfo[fi] = new Hashtable();
-			Arrays.fill(passTestTargetCounts, 0);
-			// Sort instances on this feature's values
-			instIndices = sortInstances(ilist, instIndices, fi);
-
-			// Iterate through the sorted instances
-			for (int ii = 0; ii < numInsts-1; ii++) {
-				Instance inst = ilist.get(instIndices[ii]);
-				Instance instPlusOne = ilist.get(instIndices[ii+1]);
-				FeatureVector fv1 = (FeatureVector) inst.getData();
-				FeatureVector fv2 = (FeatureVector) instPlusOne.getData();
-				double lower = fv1.value(fi);
-				double higher = fv2.value(fi);
-
-				// Accumulate the label weights for instances passing the test
-				Labeling labeling = inst.getLabeling();
-				for (int ll = 0; ll < labeling.numLocations(); ll++) {
-					int li = labeling.indexAtLocation(ll);
-					double labelWeight = labeling.valueAtLocation(ll);
-					passTestTargetCounts[li] += labelWeight;
-				}
-
-				if (Maths.almostEquals(lower, higher) 
-						|| 
-						inst.getLabeling().toString().equals(instPlusOne.getLabeling().toString()))
-					continue;
+		final Hashtable[] featureToInfo = new Hashtable[dataDict.size()]; 
+		final int[] featureNumSplitPoints = new int[dataDict.size()];
+		final int numFeatures = dataDict.size();
+		final int numBlocks = (numFeatures + FEATURE_BLOCK_SIZE - 1) / FEATURE_BLOCK_SIZE;
 
-				// For this (feature, spilt point) pair, calculate the 
-				// info gain of using this pair to split insts into those 
-				// with value of feature <= p versus > p
-				totalNumSplitPoints++;
-				double splitPoint = (lower + higher) / 2;
-				double numPassInsts = ii+1;
-				
-				// If this split point creates a partition 
-				// with too few instances, ignore it
-				double numFailInsts = numInsts - numPassInsts;
-				if (numPassInsts < minNumInsts || numFailInsts < minNumInsts)
-					continue;
-				
-				// If all instances pass or fail this test, it is useless
-				double passProportion = numPassInsts / numInsts;
-				if (Maths.almostEquals(passProportion, 0) || Maths.almostEquals(passProportion, 1))
-					continue;	  
-				
-				// Calculate the entropy of instances passing and failing the test
-				double passEntropy = 0;
-				double failEntropy = 0;
-				double p;
-				
-				for (int ci = 0; ci < targetDict.size(); ci++) {
-					if (numPassInsts > 0) {
-						p = passTestTargetCounts[ci] / numPassInsts;
-						if (p > 0)
-							passEntropy -= p * Math.log(p) / log2;
-					}
-					if (numFailInsts > 0) {
-						double failTestTargetCount = targetCounts[ci] - passTestTargetCounts[ci];
-						p = failTestTargetCount / numFailInsts;
-						if (p  > 0)
-							failEntropy -= p * Math.log(p) / log2;
+		// Go through blocks of features, giving each thread every numThreads'th block
+		if (numThreads <= 1 && bins == null) {
+			// One pass, so that each feature is sorted from the order of the one before, as always
+			addSplitPoints(ilist, instIndices, minNumInsts, bins, targetCounts, baseEntropy,
+					0, numFeatures, featureToInfo, featureNumSplitPoints);
+		}
+		else if (numThreads <= 1) {
+			for (int block = 0; block < numBlocks; block++)
+				addSplitPoints(ilist, instIndices, minNumInsts, bins, targetCounts, baseEntropy,
+						block * FEATURE_BLOCK_SIZE, Math.min(numFeatures, (block+1) * FEATURE_BLOCK_SIZE),
+						featureToInfo, featureNumSplitPoints);
+		}
+		else {
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			for (int t = 0; t < numThreads; t++) {
+				final int firstBlock = t;
+				final int blockStep = numThreads;
+				tasks.add(new Callable<Object>() {
+					public Object call()
+					{
+						for (int block = firstBlock; block < numBlocks; block += blockStep)
+							addSplitPoints(ilist, instIndices, minNumInsts, bins, targetCounts, baseEntropy,
+									block * FEATURE_BLOCK_SIZE, Math.min(numFeatures, (block+1) * FEATURE_BLOCK_SIZE),
+									featureToInfo, featureNumSplitPoints);
+						return null;
 					}
-				}
-				
-				// Calculate Gain(D, T), the information gained 
-				// by testing on this (feature, split-point) pair
-				double gainDT = baseEntropy 
-				- passProportion * passEntropy
-				- (1-passProportion) * failEntropy;	      
-				infoGainSum += gainDT;
-				// Calculate Split(D, T), the split information
-				double splitDT = 
-					- passProportion * Math.log(passProportion) / log2
-					- (1-passProportion) * Math.log(1-passProportion) / log2;
-				// Calculate the gain ratio
-				double gainRatio = gainDT / splitDT;
-				featureToInfo[fi].put(new Double(splitPoint),
-						new Point2D.Double(gainDT, gainRatio));
-			}  // End loop through sorted instances
-		}  // End loop through features
+				});
+			}
+			InfoGain.runTasks(tasks, executor);
+		}
+
+		// Sum the info gains in the order the split points were found, 
+		// so that the sum does not depend on the number of threads
+		double infoGainSum = 0;
+		int totalNumSplitPoints = 0;
+		for (int fi = 0; fi < numFeatures; fi++) {
+			totalNumSplitPoints += featureNumSplitPoints[fi];
+			Object[] keys = featureToInfo[fi].keySet().toArray();
+			Arrays.sort(keys);
+			for (int i = 0; i < keys.length; i++)
+				infoGainSum += ((Point2D.Double) featureToInfo[fi].get(keys[i])).getX();
+		}
 
 		// For each feature's split point with at least average gain, 
 		// get the maximum gain ratio and the associated split point
@@ -262,6 +238,223 @@ public class GainRatio extends RankedFeatureVector
 				baseLabelDistribution, new Integer(numSplitsForBestFeature)};
 	}
 	
+	/**
+	 * Finds the split points of features <code>from</code> (inclusive) to <code>to</code> 
+	 * (exclusive), putting their info gains and gain ratios in featureToInfo 
+	 * and their number (including those with too few instances) in featureNumSplitPoints.
+	 * Each feature's instances are sorted starting from the previous feature's order.
+	 */
+	private static void addSplitPoints(InstanceList ilist, int[] instIndices, int minNumInsts,
+			FeatureBins bins, double[] targetCounts, double baseEntropy, int from, int to,
+			Hashtable[] featureToInfo, int[] featureNumSplitPoints)
+	{
+		if (bins != null) {
+			addBinnedSplitPoints(ilist, instIndices, minNumInsts, bins, targetCounts, baseEntropy, 
+					from, to, featureToInfo, featureNumSplitPoints);
+			return;
+		}
+		int numInsts = instIndices.length;
+		double[] passTestTargetCounts = new double[targetCounts.length];
+		int[] sortedIndices = instIndices;
+		
+		// Go through each feature's split points in ascending order
+		for (int fi = from; fi < to; fi++) {
+			
+			if ((fi+1) % 1000 == 0)
+				logger.info("at feature " + (fi+1) + " / " + ilist.getDataAlphabet().size());
+			
+			featureToInfo[fi] = new Hashtable();
+			Arrays.fill(passTestTargetCounts, 0);
+			// Sort instances on this feature's values
+			sortedIndices = sortInstances(ilist, sortedIndices, fi);
+
+			// Iterate through the sorted instances
+			for (int ii = 0; ii < numInsts-1; ii++) {
+				Instance inst = ilist.get(sortedIndices[ii]);
+				Instance instPlusOne = ilist.get(sortedIndices[ii+1]);
+				FeatureVector fv1 = (FeatureVector) inst.getData();
+				FeatureVector fv2 = (FeatureVector) instPlusOne.getData();
+				double lower = fv1.value(fi);
+				double higher = fv2.value(fi);
+
+				// Accumulate the label weights for instances passing the test
+				Labeling labeling = inst.getLabeling();
+				for (int ll = 0; ll < labeling.numLocations(); ll++) {
+					int li = labeling.indexAtLocation(ll);
+					double labelWeight = labeling.valueAtLocation(ll);
+					passTestTargetCounts[li] += labelWeight;
+				}
+
+				if (Maths.almostEquals(lower, higher) 
+						|| 
+						inst.getLabeling().toString().equals(instPlusOne.getLabeling().toString()))
+					continue;
+
+				featureNumSplitPoints[fi]++;
+				double splitPoint = (lower + higher) / 2;
+				putSplitPoint(featureToInfo[fi], splitPoint, passTestTargetCounts, ii+1, 
+						targetCounts, numInsts, baseEntropy, minNumInsts);
+			}  // End loop through sorted instances
+		}  // End loop through features
+	}
+
+	/**
+	 * For this (feature, spilt point) pair, calculates the info gain of using 
+	 * this pair to split insts into those with value of feature <= p versus > p, 
+	 * and puts it and the gain ratio in info.
+	 */
+	private static void putSplitPoint(Hashtable info, double splitPoint, double[] passTestTargetCounts, 
+			double numPassInsts, double[] targetCounts, double numInsts, double baseEntropy, int minNumInsts)
+	{
+		// If this split point creates a partition 
+		// with too few instances, ignore it
+		double numFailInsts = numInsts - numPassInsts;
+		if (numPassInsts < minNumInsts || numFailInsts < minNumInsts)
+			return;
+		
+		// If all instances pass or fail this test, it is useless
+		double passProportion = numPassInsts / numInsts;
+		if (Maths.almostEquals(passProportion, 0) || Maths.almostEquals(passProportion, 1))
+			return;	  
+		
+		// Calculate the entropy of instances passing and failing the test
+		double passEntropy = 0;
+		double failEntropy = 0;
+		double p;
+		
+		for (int ci = 0; ci < targetCounts.length; ci++) {
+			if (numPassInsts > 0) {
+				p = passTestTargetCounts[ci] / numPassInsts;
+				if (p > 0)
+					passEntropy -= p * Math.log(p) / log2;
+			}
+			if (numFailInsts > 0) {
+				double failTestTargetCount = targetCounts[ci] - passTestTargetCounts[ci];
+				p = failTestTargetCount / numFailInsts;
+				if (p  > 0)
+					failEntropy -= p * Math.log(p) / log2;
+			}
+		}
+		
+		// Calculate Gain(D, T), the information gained 
+		// by testing on this (feature, split-point) pair
+		double gainDT = baseEntropy 
+		- passProportion * passEntropy
+		- (1-passProportion) * failEntropy;	      
+		// Calculate Split(D, T), the split information
+		double splitDT = 
+			- passProportion * Math.log(passProportion) / log2
+			- (1-passProportion) * Math.log(1-passProportion) / log2;
+		// Calculate the gain ratio
+		double gainRatio = gainDT / splitDT;
+		info.put(new Double(splitPoint), new Point2D.Double(gainDT, gainRatio));
+	}
+
+	/**
+	 * Like the exact search, but builds a histogram of the label counts in each 
+	 * bin of features <code>from</code> to <code>to</code>, and considers splitting
+	 * only between non-empty bins, at the cut above the lower one.  Instances lacking 
+	 * a feature are counted in the bin of zero.  As in the exact search, where 
+	 * instances of equal value are in order of index, the split between two bins is
+	 * skipped when the last instance of the lower bin and the first of the upper one
+	 * have the same labeling, so with a bin for each value the same split points are
+	 * found.
+	 */
+	private static void addBinnedSplitPoints(InstanceList ilist, int[] instIndices, int minNumInsts,
+			FeatureBins bins, double[] targetCounts, double baseEntropy, int from, int to,
+			Hashtable[] featureToInfo, int[] featureNumSplitPoints)
+	{
+		int numInsts = instIndices.length;
+		int numClasses = targetCounts.length;
+		int[] binStarts = new int[to - from + 1];
+		for (int fi = from; fi < to; fi++)
+			binStarts[fi-from+1] = binStarts[fi-from] + bins.getNumBins(fi);
+		// The label counts of each bin of each feature, and of each feature's values
+		double[] binTargetCounts = new double[binStarts[to-from] * numClasses];
+		double[] valueTargetCounts = new double[(to-from) * numClasses];
+		// The smallest and largest instance index in each bin
+		int[] binFirstInst = new int[binStarts[to-from]];
+		int[] binLastInst = new int[binStarts[to-from]];
+		Arrays.fill(binFirstInst, -1);
+		Arrays.fill(binLastInst, -1);
+		// To find the smallest and largest index of the instances lacking each feature:
+		// how many of the first instances have it, and how many of the last
+		int[] numLeadingPresent = new int[to - from];
+		int[] numTrailingPresent = new int[to - from];
+		int[] lastPresent = new int[to - from];
+		Arrays.fill(lastPresent, -1);
+
+		int[] ascendingIndices = instIndices.clone();
+		Arrays.sort(ascendingIndices);
+		for (int ii = 0; ii < numInsts; ii++) {
+			int instIndex = ascendingIndices[ii];
+			Instance inst = ilist.get(instIndex);
+			FeatureVector fv = (FeatureVector) inst.getData();
+			Labeling labeling = inst.getLabeling();
+			short[] locationBins = bins.locationBins[instIndex];
+			for (int fl = InfoGain.firstLocationAtOrAfter(fv, from); fl < fv.numLocations(); fl++) {
+				int fi = fv.indexAtLocation(fl);
+				if (fi >= to)
+					break;
+				int binIndex = binStarts[fi-from] + locationBins[fl];
+				if (binFirstInst[binIndex] < 0)
+					binFirstInst[binIndex] = instIndex;
+				binLastInst[binIndex] = instIndex;
+				if (numLeadingPresent[fi-from] == ii)
+					numLeadingPresent[fi-from]++;
+				numTrailingPresent[fi-from] = (lastPresent[fi-from] == ii-1) ? numTrailingPresent[fi-from] + 1 : 1;
+				lastPresent[fi-from] = ii;
+				for (int ll = 0; ll < labeling.numLocations(); ll++) {
+					int li = labeling.indexAtLocation(ll);
+					double labelWeight = labeling.valueAtLocation(ll);
+					binTargetCounts[binIndex * numClasses + li] += labelWeight;
+					valueTargetCounts[(fi-from) * numClasses + li] += labelWeight;
+				}
+			}
+		}
+
+		double[] passTestTargetCounts = new double[numClasses];
+		for (int fi = from; fi < to; fi++) {
+			int zeroIndex = binStarts[fi-from] + bins.zeroBin[fi];
+			for (int li = 0; li < numClasses; li++)
+				binTargetCounts[zeroIndex * numClasses + li] += targetCounts[li] - valueTargetCounts[(fi-from) * numClasses + li];
+			if (numLeadingPresent[fi-from] < numInsts) {
+				int trailing = (lastPresent[fi-from] == numInsts-1) ? numTrailingPresent[fi-from] : 0;
+				int firstAbsent = ascendingIndices[numLeadingPresent[fi-from]];
+				int lastAbsent = ascendingIndices[numInsts - 1 - trailing];
+				if (binFirstInst[zeroIndex] < 0 || firstAbsent < binFirstInst[zeroIndex])
+					binFirstInst[zeroIndex] = firstAbsent;
+				if (lastAbsent > binLastInst[zeroIndex])
+					binLastInst[zeroIndex] = lastAbsent;
+			}
+
+			featureToInfo[fi] = new Hashtable();
+			Arrays.fill(passTestTargetCounts, 0);
+			double numPassInsts = 0;
+			int lowerBin = -1;
+			for (int bin = 0; bin < bins.getNumBins(fi); bin++) {
+				int binIndex = binStarts[fi-from] + bin;
+				if (binFirstInst[binIndex] < 0)
+					continue;
+				if (lowerBin >= 0 
+						&& 
+						!ilist.get(binLastInst[binStarts[fi-from] + lowerBin]).getLabeling().toString()
+						.equals(ilist.get(binFirstInst[binIndex]).getLabeling().toString())) {
+					featureNumSplitPoints[fi]++;
+					putSplitPoint(featureToInfo[fi], bins.getCut(fi, lowerBin), passTestTargetCounts, 
+							numPassInsts, targetCounts, numInsts, baseEntropy, minNumInsts);
+				}
+				double binCount = 0;
+				for (int li = 0; li < numClasses; li++) {
+					passTestTargetCounts[li] += binTargetCounts[binIndex * numClasses + li];
+					binCount += binTargetCounts[binIndex * numClasses + li];
+				}
+				numPassInsts += binCount;
+				lowerBin = bin;
+			}
+		}
+	}
+	
 	public static int[] sortInstances(InstanceList ilist, int[] instIndices, int featureIndex)
 	{
 		ArrayList list = new ArrayList();
@@ -307,7 +500,18 @@ public class GainRatio extends RankedFeatureVector
 	public static GainRatio createGainRatio(InstanceList ilist, int[] instIndices, 
 			int minNumInsts)
 	{
-		Object[] objs = calcGainRatios(ilist, instIndices, minNumInsts);
+		return createGainRatio(ilist, instIndices, minNumInsts, null, 1, null);
+	}
+	
+	/**
+	 * Constructs a GainRatio object, finding the split points of the features on
+	 * <code>numThreads</code> threads run on <code>executor</code>.  If <code>bins</code>
+	 * is non-null, only splits between its bins are considered.
+	 */
+	public static GainRatio createGainRatio(InstanceList ilist, int[] instIndices, 
+			int minNumInsts, FeatureBins bins, int numThreads, ExecutorService executor)
+	{
+		Object[] objs = calcGainRatios(ilist, instIndices, minNumInsts, bins, numThreads, executor);
 		double[] gainRatios = (double[]) objs[0];
 		double[] splitPoints = (double[]) objs[1];
 		double baseEntropy = ((Double) objs[2]).doubleValue();
@@ -364,4 +568,139 @@ public class GainRatio extends RankedFeatureVector
 		return m_numSplitPointsForBestFeature;
 	}
 	
+	/**
+	 * The values of each feature divided into at most <code>maxBins</code> bins, of 
+	 * roughly equal numbers of instances, together with the bin of every value in an
+	 * InstanceList.  Split points are then only looked for between bins, using a 
+	 * histogram of each node's instances instead of sorting them on every feature.
+	 * A feature with no more than <code>maxBins</code> distinct values gets a bin for 
+	 * each value, so none of its split points are lost.
+	 */
+	public static class FeatureBins
+	{
+		// cuts[fi] are ascending thresholds; a value's bin is the number of cuts below it
+		double[][] cuts;
+		int[] zeroBin;
+		// the bin of each location of each instance's FeatureVector
+		short[][] locationBins;
+
+		public FeatureBins(InstanceList ilist, int maxBins)
+		{
+			if (maxBins < 2 || maxBins > Short.MAX_VALUE)
+				throw new IllegalArgumentException("maxBins must be between 2 and " + Short.MAX_VALUE);
+			int numFeatures = ilist.getDataAlphabet().size();
+			int numInsts = ilist.size();
+
+			// Gather the values of each feature
+			int[] numValues = new int[numFeatures];
+			for (int ii = 0; ii < numInsts; ii++) {
+				FeatureVector fv = (FeatureVector) ilist.get(ii).getData();
+				for (int fl = 0; fl < fv.numLocations(); fl++)
+					numValues[fv.indexAtLocation(fl)]++;
+			}
+			double[][] values = new double[numFeatures][];
+			for (int fi = 0; fi < numFeatures; fi++) {
+				values[fi] = new double[numValues[fi]];
+				numValues[fi] = 0;
+			}
+			for (int ii = 0; ii < numInsts; ii++) {
+				FeatureVector fv = (FeatureVector) ilist.get(ii).getData();
+				for (int fl = 0; fl < fv.numLocations(); fl++) {
+					int fi = fv.indexAtLocation(fl);
+					values[fi][numValues[fi]++] = fv.valueAtLocation(fl);
+				}
+			}
+
+			cuts = new double[numFeatures][];
+			zeroBin = new int[numFeatures];
+			for (int fi = 0; fi < numFeatures; fi++) {
+				cuts[fi] = findCuts(values[fi], numInsts - values[fi].length, maxBins);
+				values[fi] = null;
+				zeroBin[fi] = getBin(fi, 0);
+			}
+
+			locationBins = new short[numInsts][];
+			for (int ii = 0; ii < numInsts; ii++) {
+				FeatureVector fv = (FeatureVector) ilist.get(ii).getData();
+				locationBins[ii] = new short[fv.numLocations()];
+				for (int fl = 0; fl < fv.numLocations(); fl++)
+					locationBins[ii][fl] = (short) getBin(fv.indexAtLocation(fl), fv.valueAtLocation(fl));
+			}
+		}
+
+		/** Returns cuts halfway between distinct values, at about every 1/maxBins'th
+		 * of the values, including <code>numZeros</code> values of zero not in <code>values</code>. */
+		private static double[] findCuts(double[] values, int numZeros, int maxBins)
+		{
+			Arrays.sort(values);
+			double[] distinct = new double[values.length + 1];
+			int[] counts = new int[values.length + 1];
+			int numDistinct = 0;
+			boolean zerosAdded = (numZeros == 0);
+			for (int i = 0; i <= values.length; i++) {
+				// The zeros go before the first value that is not negative
+				if (!zerosAdded && (i == values.length || values[i] >= 0)) {
+					numDistinct = addValue(distinct, counts, numDistinct, 0, numZeros);
+					zerosAdded = true;
+				}
+				if (i < values.length)
+					numDistinct = addValue(distinct, counts, numDistinct, values[i], 1);
+			}
+
+			int numValues = values.length + numZeros;
+			double[] cuts = new double[Math.max(0, Math.min(numDistinct, maxBins) - 1)];
+			int numCuts = 0;
+			long numSeen = 0;
+			for (int d = 0; d < numDistinct-1 && numCuts < cuts.length; d++) {
+				numSeen += counts[d];
+				if (numDistinct <= maxBins || numSeen * maxBins >= (long) (numCuts+1) * numValues)
+					cuts[numCuts++] = (distinct[d] + distinct[d+1]) / 2;
+			}
+			if (numCuts < cuts.length) {
+				double[] trimmed = new double[numCuts];
+				System.arraycopy(cuts, 0, trimmed, 0, numCuts);
+				cuts = trimmed;
+			}
+			return cuts;
+		}
+
+		private static int addValue(double[] distinct, int[] counts, int numDistinct, double value, int count)
+		{
+			if (numDistinct > 0 && distinct[numDistinct-1] == value)
+				counts[numDistinct-1] += count;
+			else {
+				distinct[numDistinct] = value;
+				counts[numDistinct++] = count;
+			}
+			return numDistinct;
+		}
+
+		public int getNumBins(int featureIndex)
+		{
+			return cuts[featureIndex].length + 1;
+		}
+
+		/** Returns the bin of the given value of a feature. */
+		public int getBin(int featureIndex, double value)
+		{
+			double[] featureCuts = cuts[featureIndex];
+			int lo = 0, hi = featureCuts.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (featureCuts[mid] < value)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
+
+		/** Returns the threshold between the given bin and the next: values in
+		 * that bin or below are less than or equal to it. */
+		public double getCut(int featureIndex, int bin)
+		{
+			return cuts[featureIndex][bin];
+		}
+	}
+	
 }
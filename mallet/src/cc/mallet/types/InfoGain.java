@@ -19,6 +19,13 @@
 
 package cc.mallet.types;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
 public class InfoGain extends RankedFeatureVector
 {
 	// xxx This is DISGUSTINGLY non-thread-safe.
@@ -33,24 +40,62 @@ public class InfoGain extends RankedFeatureVector
 	
 	private static double[] calcInfoGains (InstanceList ilist)
 	{
-		final double log2 = Math.log(2);
-		int numInstances = ilist.size();
 		int numClasses = ilist.getTargetAlphabet().size();
 		int numFeatures = ilist.getDataAlphabet().size();
-		double[] infogains = new double[numFeatures];
 		double[][] targetFeatureCount = new double[numClasses][numFeatures];
 		double[] featureCountSum = new double[numFeatures];
 		double[] targetCount = new double[numClasses];
+		double targetCountSum = addCounts (ilist, targetFeatureCount, featureCountSum, targetCount, 1, null);
+		double[] classDistribution = new double[numClasses];
+		staticBaseEntropy = calcBaseEntropy (targetCount, targetCountSum, classDistribution);
+		staticBaseLabelDistribution = new LabelVector ((LabelAlphabet)ilist.getTargetAlphabet(),
+		                                               targetCountSum == 0 ? targetCount : classDistribution);
+		return calcInfoGains (targetFeatureCount, featureCountSum, targetCount, targetCountSum, 1, null);
+	}
+
+	/**
+	 * Adds the label-weighted presence counts of each feature in <code>ilist</code> to
+	 * <code>targetFeatureCount</code> and <code>featureCountSum</code>, and the label
+	 * counts to <code>targetCount</code>; returns the total count added.  With several
+	 * threads, run on <code>executor</code>, each thread counts its own range of features
+	 * over all the instances, in order, so the counts do not depend on the number of threads.
+	 */
+	public static double addCounts (final InstanceList ilist, final double[][] targetFeatureCount,
+	                                final double[] featureCountSum, double[] targetCount,
+	                                int numThreads, ExecutorService executor)
+	{
+		final int numFeatures = featureCountSum.length;
+		if (numThreads <= 1)
+			return addCounts (ilist, targetFeatureCount, featureCountSum, targetCount, 0, numFeatures);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int t = 0; t < numThreads; t++) {
+			final int from = (int) ((long) numFeatures * t / numThreads);
+			final int to = (int) ((long) numFeatures * (t+1) / numThreads);
+			tasks.add (new Callable<Object>() {
+					public Object call () {
+						addCounts (ilist, targetFeatureCount, featureCountSum, null, from, to);
+						return null;
+					}
+				});
+		}
+		runTasks (tasks, executor);
+		return addCounts (ilist, null, null, targetCount, 0, 0);
+	}
+
+	// Counts features from (inclusive) to to (exclusive), and labels if targetCount is non-null
+	private static double addCounts (InstanceList ilist, double[][] targetFeatureCount,
+	                                 double[] featureCountSum, double[] targetCount, int from, int to)
+	{
 		double targetCountSum = 0;
-		double flv;	// feature location value
-		int fli; // feature location index
 		double count;
+		int fli; // feature location index
 		// Populate targetFeatureCount, et al
 		for (int i = 0; i < ilist.size(); i++) {
 			Instance inst = ilist.get(i);
 			Labeling labeling = inst.getLabeling ();
 			FeatureVector fv = (FeatureVector) inst.getData ();
 			double instanceWeight = ilist.getInstanceWeight(i);
+			int firstLocation = from == 0 ? 0 : firstLocationAtOrAfter (fv, from);
 			// The code below relies on labelWeights summing to 1 over all labels!
 			double labelWeightSum = 0;
 			for (int ll = 0; ll < labeling.numLocations(); ll++) {
@@ -59,8 +104,10 @@ public class InfoGain extends RankedFeatureVector
 				labelWeightSum += labelWeight;
 				if (labelWeight == 0) continue;
 				count = labelWeight * instanceWeight;
-				for (int fl = 0; fl < fv.numLocations(); fl++) {
+				for (int fl = firstLocation; fl < fv.numLocations(); fl++) {
 					fli = fv.indexAtLocation(fl);
+					if (fli >= to)
+						break;
 					// xxx Is this right?  What should we do about negative values?
 					// Whatever is decided here should also go in DecisionTree.split()
 					if (fv.valueAtLocation(fl) > 0) {
@@ -68,34 +115,93 @@ public class InfoGain extends RankedFeatureVector
 						featureCountSum[fli] += count;
 					}
 				}
-				targetCount[li] += count;
-				targetCountSum += count;
+				if (targetCount != null) {
+					targetCount[li] += count;
+					targetCountSum += count;
+				}
 			}
 			assert (Math.abs (labelWeightSum - 1.0) < 0.0001);
 		}
-		if (targetCountSum == 0) {
-			staticBaseEntropy = 0.0;					// xxx Should this instead by infinite?
-			staticBaseLabelDistribution = new LabelVector ((LabelAlphabet)ilist.getTargetAlphabet(), targetCount);
-			return infogains;
+		return targetCountSum;
+	}
+
+	static int firstLocationAtOrAfter (FeatureVector fv, int index)
+	{
+		int lo = 0, hi = fv.numLocations();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (fv.indexAtLocation(mid) < index)
+				lo = mid + 1;
+			else
+				hi = mid;
 		}
-		assert (targetCountSum > 0) : targetCountSum;
+		return lo;
+	}
+
+	/** Returns the entropy of the labels, ignoring the features, and fills in their distribution. */
+	private static double calcBaseEntropy (double[] targetCount, double targetCountSum, double[] classDistribution)
+	{
+		final double log2 = Math.log(2);
+		if (targetCountSum == 0)
+			return 0.0;					// xxx Should this instead by infinite?
 		double p;
-		double[] classDistribution = new double[numClasses];
-		// Calculate the overall entropy of the labels, ignoring the features
-		staticBaseEntropy = 0;
+		double baseEntropy = 0;
 		//System.out.print ("targetCount "); Vector.print (targetCount);
 		//System.out.println ("targetCountSum = "+targetCountSum);
-		for (int li = 0; li < numClasses; li++) {
+		for (int li = 0; li < targetCount.length; li++) {
 			p = targetCount[li]/targetCountSum;
 			classDistribution[li] = p;
 			assert (p <= 1.0) : p;
 			if (p != 0)
-				staticBaseEntropy -= p * Math.log(p) / log2;
+				baseEntropy -= p * Math.log(p) / log2;
+		}
+		//System.out.println ("Total class entropy = "+baseEntropy);
+		return baseEntropy;
+	}
+
+	/** Calculates the info gain of each feature from counts gathered by
+	 * <code>addCounts</code>, dividing the features among <code>numThreads</code> threads
+	 * run on <code>executor</code>. */
+	public static double[] calcInfoGains (final double[][] targetFeatureCount, final double[] featureCountSum,
+	                                      final double[] targetCount, final double targetCountSum,
+	                                      int numThreads, ExecutorService executor)
+	{
+		final int numFeatures = featureCountSum.length;
+		final double[] infogains = new double[numFeatures];
+		if (targetCountSum == 0)
+			return infogains;
+		assert (targetCountSum > 0) : targetCountSum;
+		final double baseEntropy = calcBaseEntropy (targetCount, targetCountSum, new double[targetCount.length]);
+		if (numThreads <= 1) {
+			calcInfoGains (targetFeatureCount, featureCountSum, targetCount, targetCountSum, baseEntropy,
+			               0, numFeatures, infogains);
+			return infogains;
 		}
-		staticBaseLabelDistribution = new LabelVector ((LabelAlphabet)ilist.getTargetAlphabet(), classDistribution);
-		//System.out.println ("Total class entropy = "+staticBaseEntropy);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (int t = 0; t < numThreads; t++) {
+			final int from = (int) ((long) numFeatures * t / numThreads);
+			final int to = (int) ((long) numFeatures * (t+1) / numThreads);
+			tasks.add (new Callable<Object>() {
+					public Object call () {
+						calcInfoGains (targetFeatureCount, featureCountSum, targetCount, targetCountSum, baseEntropy,
+						               from, to, infogains);
+						return null;
+					}
+				});
+		}
+		runTasks (tasks, executor);
+		return infogains;
+	}
+
+	private static void calcInfoGains (double[][] targetFeatureCount, double[] featureCountSum,
+	                                   double[] targetCount, double targetCountSum, double baseEntropy,
+	                                   int from, int to, double[] infogains)
+	{
+		final double log2 = Math.log(2);
+		int numClasses = targetCount.length;
+		double p;
 		// Calculate the InfoGain of each feature
-		for (int fi = 0; fi < numFeatures; fi++) {
+		for (int fi = from; fi < to; fi++) {
 			double featurePresentEntropy = 0;
 			double norm = featureCountSum[fi];
 			if (norm > 0) {
@@ -124,12 +230,11 @@ public class InfoGain extends RankedFeatureVector
 			//+((targetCountSum-featureCountSum[fi])/targetCountSum)+" presentEntropy="
 			//+featurePresentEntropy+" absentEntropy="
 			//+featureAbsentEntropy);
-			infogains[fi] = (staticBaseEntropy
+			infogains[fi] = (baseEntropy
 											 - (featureCountSum[fi]/targetCountSum) * featurePresentEntropy
 											 - ((targetCountSum-featureCountSum[fi])/targetCountSum) * featureAbsentEntropy);
 			assert (!Double.isNaN(infogains[fi])) : fi;
 		}
-		return infogains;
 	}
 
 	public InfoGain (InstanceList ilist)
@@ -144,6 +249,40 @@ public class InfoGain extends RankedFeatureVector
 		super (vocab, infogains);
 	}
 
+	/**
+	 * Constructs the info gains from counts gathered by <code>addCounts</code>, for example
+	 * by a decision tree that keeps the counts of each node.  Unlike
+	 * <code>InfoGain(InstanceList)</code>, this may be called from several threads at once.
+	 */
+	public InfoGain (InstanceList ilist, double[][] targetFeatureCount, double[] featureCountSum,
+	                 double[] targetCount, double targetCountSum, int numThreads, ExecutorService executor)
+	{
+		super (ilist.getDataAlphabet(),
+		       calcInfoGains (targetFeatureCount, featureCountSum, targetCount, targetCountSum, numThreads, executor));
+		double[] classDistribution = new double[targetCount.length];
+		baseEntropy = calcBaseEntropy (targetCount, targetCountSum, classDistribution);
+		baseLabelDistribution = new LabelVector ((LabelAlphabet)ilist.getTargetAlphabet(),
+		                                         targetCountSum == 0 ? targetCount : classDistribution);
+	}
+
+	// Runs the tasks on the caller's executor and waits for all of them
+	static void runTasks (List<Callable<Object>> tasks, ExecutorService executor)
+	{
+		try {
+			List<Future<Object>> futures = executor.invokeAll (tasks);
+			for (Future<Object> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException ee) {
+					throw new IllegalStateException (ee.getCause());
+				}
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException (ie);
+		}
+	}
+
 	public double getBaseEntropy ()
 	{
 		return baseEntropy;
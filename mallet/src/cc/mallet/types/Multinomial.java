@@ -310,6 +310,11 @@ public class Multinomial extends FeatureVector
 			this.dictionary = d;
 		}
 
+		public Alphabet getAlphabet ()
+		{
+			return dictionary;
+		}
+
 		public int size ()
 		{
 			return (dictionary == null ? size : dictionary.size());
@@ -392,6 +397,16 @@ public class Multinomial extends FeatureVector
 			increment (fv, 1.0);
 		}
 
+		/** Add the counts of another Estimator, such as one that gathered counts on another thread. */
+		public void increment (Estimator other)
+		{
+			if (other.dictionary != dictionary)
+				throw new IllegalArgumentException ("Vocabularies don't match.");
+			for (int i = other.counts.length - 1; i >= 0; i--)
+				if (other.counts[i] != 0)
+					increment (i, other.counts[i]);
+		}
+
 		public double getCount (int index)
 		{
 			return counts[index];
@@ -0,0 +1,106 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed number of daemon threads for a classifier or trainer to run its
+ * tasks on.  The threads are started when first needed and kept until
+ * {@link #shutdown()}, after which they are started again if needed.  Being
+ * daemon threads, they do not keep the JVM alive if the owner is never shut
+ * down.  Only the name and the number of threads are serialized.
+ */
+public class DaemonThreadPool implements Serializable
+{
+	private static final long serialVersionUID = 1;
+
+	private final String name;
+	private int numThreads;
+	private transient ExecutorService executor;
+
+	/**
+	 * @param name Name given to each thread
+	 * @param numThreads Number of threads, at least one
+	 */
+	public DaemonThreadPool (String name, int numThreads)
+	{
+		this.name = name;
+		this.numThreads = Math.max (numThreads, 1);
+	}
+
+	public synchronized int getNumThreads () { return numThreads; }
+
+	/** Sets the number of threads, stopping any running threads if it changes. */
+	public synchronized void setNumThreads (int numThreads)
+	{
+		numThreads = Math.max (numThreads, 1);
+		if (numThreads != this.numThreads)
+			shutdown();
+		this.numThreads = numThreads;
+	}
+
+	/** Returns the executor, starting its threads if they are not running. */
+	public synchronized ExecutorService getExecutor ()
+	{
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool (numThreads, new ThreadFactory() {
+				public Thread newThread (Runnable r) {
+					Thread thread = new Thread (r, name);
+					thread.setDaemon (true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Runs the tasks, waits for all of them to finish and returns their
+	 * results in order.  If a task fails, its exception is rethrown as the
+	 * cause of an IllegalStateException.
+	 */
+	public <T> List<T> invokeAll (Collection<? extends Callable<T>> tasks)
+	{
+		List<T> results = new ArrayList<T> (tasks.size());
+		try {
+			for (Future<T> f : getExecutor().invokeAll (tasks))
+				results.add (f.get());
+		} catch (ExecutionException ee) {
+			throw new IllegalStateException (ee.getCause());
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException (ie);
+		}
+		return results;
+	}
+
+	/** Stops the threads, waiting for running tasks to finish. */
+	public synchronized void shutdown ()
+	{
+		if (executor == null)
+			return;
+		executor.shutdown();
+		try {
+			executor.awaitTermination (30, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		executor = null;
+	}
+}
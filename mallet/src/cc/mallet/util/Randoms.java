@@ -197,6 +197,12 @@ public class Randoms extends java.util.Random {
 	 *  parameterization would use 1/beta, the "rate" parameter.
 	 */
 	public synchronized double nextGamma(double alpha, double beta, double lambda) {
+		return sampleGamma(alpha, beta, lambda);
+	}
+
+	/** The body of {@link #nextGamma(double,double,double)}, without the lock,
+	 *  so that unsynchronized subclasses can share it. */
+	protected double sampleGamma(double alpha, double beta, double lambda) {
 		double gamma=0;
 		if (alpha <= 0 || beta <= 0) {
 			throw new IllegalArgumentException ("alpha and beta must be strictly positive.");
@@ -308,6 +314,11 @@ public class Randoms extends java.util.Random {
 
   /** Return a random double drawn from a Beta distribution with mean a/(a+b) and variance ab/((a+b+1)(a+b)^2).  */
   public synchronized double nextBeta(double alpha,double beta) {
+    return sampleBeta(alpha, beta);
+  }
+
+  /** The body of {@link #nextBeta(double,double)}, without the lock. */
+  protected double sampleBeta(double alpha,double beta) {
     if (alpha <= 0 || beta <= 0) {
       throw new IllegalArgumentException ("alpha and beta must be strictly positive.");
     }
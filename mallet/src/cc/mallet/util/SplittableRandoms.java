@@ -0,0 +1,259 @@
+/* Copyright (C) 2002 Univ. of Massachusetts Amherst, Computer Science Dept.
+   This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+   http://www.cs.umass.edu/~mccallum/mallet
+   This software is provided under the terms of the Common Public License,
+   version 1.0, as published by http://www.opensource.org.  For further
+   information, see the file `LICENSE' included with this distribution. */
+
+package cc.mallet.util;
+
+/**
+ * An unsynchronized drop-in replacement for {@link Randoms}, backed by
+ *  the xoroshiro128+ generator (Blackman and Vigna) and seeded through
+ *  SplitMix64.
+ * <p>
+ * Unlike <code>Randoms</code>, none of the sampling methods acquire a
+ *  lock, so an instance must not be shared between threads. Instead,
+ *  give each thread its own stream with {@link #split()}: splitting is
+ *  deterministic, so a single seed reproduces the streams of all threads,
+ *  and the streams are 2^64 draws apart, so they never overlap.
+ * <p>
+ * {@link cc.mallet.benchmarks.RandomsBenchmark} compares the per-call
+ *  cost with <code>Randoms</code>.
+ */
+
+public class SplittableRandoms extends Randoms {
+
+	private static final long serialVersionUID = 1;
+
+	private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	private static final long[] JUMP = { 0xdf900294d8f554a5L, 0x170865df4b3201fcL };
+
+	private long s0, s1;
+
+	private double nextGaussian;
+	private boolean haveNextGaussian = false;
+
+	public SplittableRandoms (long seed) {
+		super();
+		setSeed(seed);
+	}
+
+	/** Seed from the clock, as <code>java.util.Random</code> does */
+	public SplittableRandoms () {
+		super();
+	}
+
+	private SplittableRandoms (long s0, long s1) {
+		super();
+		this.s0 = s0;
+		this.s1 = s1;
+	}
+
+	/** Expand a seed into the 128 bits of state using SplitMix64. Note that
+	 *   this is called from the <code>java.util.Random</code> constructor. */
+	public void setSeed (long seed) {
+		s0 = mix(seed + GOLDEN_GAMMA);
+		s1 = mix(seed + 2 * GOLDEN_GAMMA);
+		haveNextGaussian = false;
+	}
+
+	/** Return the 128 bits of generator state, for checkpointing.
+	 *   A pending second Gaussian from nextGaussian() is not included. */
+	public long[] getState () {
+		return new long[] { s0, s1 };
+	}
+
+	/** Restore a state returned by {@link #getState()} */
+	public void setState (long[] state) {
+		s0 = state[0];
+		s1 = state[1];
+		haveNextGaussian = false;
+	}
+
+	private static long mix (long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 *  Return a new generator that continues this generator's current
+	 *   stream, and advance this generator by 2^64 draws. Calling this
+	 *   once per thread gives each thread a non-overlapping stream.
+	 */
+	public SplittableRandoms split () {
+		SplittableRandoms child = new SplittableRandoms(s0, s1);
+		jump();
+		return child;
+	}
+
+	/** Return <code>n</code> non-overlapping generators, as from <code>n</code> calls to {@link #split()}. */
+	public SplittableRandoms[] split (int n) {
+		SplittableRandoms[] children = new SplittableRandoms[n];
+		for (int i = 0; i < n; i++) {
+			children[i] = split();
+		}
+		return children;
+	}
+
+	/** Advance the state by 2^64 draws */
+	private void jump () {
+		long t0 = 0;
+		long t1 = 0;
+		for (int i = 0; i < JUMP.length; i++) {
+			for (int bit = 0; bit < 64; bit++) {
+				if ((JUMP[i] & (1L << bit)) != 0) {
+					t0 ^= s0;
+					t1 ^= s1;
+				}
+				nextLong();
+			}
+		}
+		s0 = t0;
+		s1 = t1;
+	}
+
+	public long nextLong () {
+		long a = s0;
+		long b = s1;
+		long result = a + b;
+
+		b ^= a;
+		s0 = Long.rotateLeft(a, 24) ^ b ^ (b << 16);
+		s1 = Long.rotateLeft(b, 37);
+
+		return result;
+	}
+
+	/** The low bits of xoroshiro128+ are its weakest, so use the high bits. */
+	protected int next (int bits) {
+		return (int) (nextLong() >>> (64 - bits));
+	}
+
+	public int nextInt () {
+		return (int) (nextLong() >>> 32);
+	}
+
+	public double nextDouble () {
+		return (nextLong() >>> 11) * DOUBLE_UNIT;
+	}
+
+	// The remaining methods are the same as in Randoms, without the lock.
+
+	public int nextPoisson (double lambda) {
+		int v = -1;
+		double l = Math.exp(-lambda), p = 1.0;
+		while (p >= l) {
+			p *= nextUniform();
+			v++;
+		}
+		return v;
+	}
+
+	public int nextPoisson () {
+		return nextPoisson(1);
+	}
+
+	public boolean nextBoolean () {
+		return nextLong() < 0;
+	}
+
+	public boolean nextBoolean (double p) {
+		return nextUniform() < p;
+	}
+
+	public double nextUniform () {
+		return (nextLong() >>> 11) * DOUBLE_UNIT;
+	}
+
+	public double nextUniform (double a, double b) {
+		return a + (b-a) * nextUniform();
+	}
+
+	public int nextDiscrete (double[] a) {
+		double b = 0, r = nextUniform();
+		for (int i = 0; i < a.length; i++) {
+			b += a[i];
+			if (b > r) {
+				return i;
+			}
+		}
+		return a.length-1;
+	}
+
+	public int nextDiscrete (double[] a, double sum) {
+		double b = 0, r = nextUniform() * sum;
+		for (int i = 0; i < a.length; i++) {
+			b += a[i];
+			if (b > r) {
+				return i;
+			}
+		}
+		return a.length-1;
+	}
+
+	public double nextGaussian () {
+		if (!haveNextGaussian) {
+			double v1 = nextUniform(), v2 = nextUniform();
+			double radius = Math.sqrt(-2 * Math.log(v1));
+			nextGaussian = radius * Math.sin(2 * Math.PI * v2);
+			haveNextGaussian = true;
+			return radius * Math.cos(2 * Math.PI * v2);
+		}
+		else {
+			haveNextGaussian = false;
+			return nextGaussian;
+		}
+	}
+
+	public double nextGaussian (double m, double s2) {
+		return nextGaussian() * Math.sqrt(s2) + m;
+	}
+
+	public double nextGamma () {
+		return sampleGamma(1, 1, 0);
+	}
+
+	public double nextGamma (double alpha) {
+		return sampleGamma(alpha, 1, 0);
+	}
+
+	public double nextGamma (double alpha, double beta) {
+		return sampleGamma(alpha, beta, 0);
+	}
+
+	public double nextGamma (double alpha, double beta, double lambda) {
+		return sampleGamma(alpha, beta, lambda);
+	}
+
+	public double nextExp () {
+		return sampleGamma(1, 1, 0);
+	}
+
+	public double nextExp (double beta) {
+		return sampleGamma(1, beta, 0);
+	}
+
+	public double nextExp (double beta, double lambda) {
+		return sampleGamma(1, beta, lambda);
+	}
+
+	public double nextChiSq () {
+		return sampleGamma(0.5, 2, 0);
+	}
+
+	public double nextChiSq (int df) {
+		return sampleGamma(0.5 * (double) df, 2, 0);
+	}
+
+	public double nextChiSq (int df, double lambda) {
+		return sampleGamma(0.5 * (double) df, 2, lambda);
+	}
+
+	public double nextBeta (double alpha, double beta) {
+		return sampleBeta(alpha, beta);
+	}
+
+}
@@ -8,6 +8,7 @@ package cc.mallet.util.tests;
 
 import cc.mallet.types.MatrixOps;
 import cc.mallet.util.Randoms;
+import cc.mallet.util.SplittableRandoms;
 import cc.mallet.util.Strings;
 import junit.framework.TestCase;
 import junit.framework.Test;
@@ -46,6 +47,46 @@ public class TestRandom extends TestCase {
     assertEquals (1.0, MatrixOps.stddev (vals), 0.01);
   }
 
+  public static void testSplittableMoments ()
+  {
+    Randoms r = new SplittableRandoms (42);
+
+    int size = 100000;
+    double[] uniforms = new double [size];
+    double[] gaussians = new double [size];
+    double[] gammas = new double [size];
+    for (int i = 0; i < size; i++) {
+      uniforms[i] = r.nextUniform ();
+      gaussians[i] = r.nextGaussian ();
+      gammas[i] = r.nextGamma (2.5);
+    }
+
+    assertEquals (0.5, MatrixOps.mean (uniforms), 0.01);
+    assertEquals (0.0, MatrixOps.mean (gaussians), 0.01);
+    assertEquals (1.0, MatrixOps.stddev (gaussians), 0.01);
+    assertEquals (2.5, MatrixOps.mean (gammas), 0.02);
+  }
+
+  public static void testSplittableStreams ()
+  {
+    SplittableRandoms[] first = new SplittableRandoms (7).split (4);
+    SplittableRandoms[] second = new SplittableRandoms (7).split (4);
+
+    long[][] values = new long [first.length][1000];
+    for (int thread = 0; thread < first.length; thread++) {
+      for (int i = 0; i < values[thread].length; i++) {
+        values[thread][i] = first[thread].nextLong ();
+        // The same seed gives the same streams
+        assertEquals (values[thread][i], second[thread].nextLong ());
+      }
+    }
+
+    // Different threads get different streams
+    for (int thread = 1; thread < first.length; thread++) {
+      assertFalse (java.util.Arrays.equals (values[0], values[thread]));
+    }
+  }
+
   public static void main (String[] args) throws Throwable
   {
     TestSuite theSuite;